@@ -0,0 +1,81 @@
+package com.webank.weevent.benchmark;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compare two JMH results in JSON, like the results of two commits.
+ * ##### more details #####
+ * Usage: BenchmarkCompare base.json current.json [threshold percent, default 10]
+ * Every benchmark with the same params is compared in score, "thrpt" is better if higher, the other modes if lower.
+ * Exit with 1 if any benchmark is slower than threshold, so it can be used in CI.
+ *
+ * @author matthewliu
+ * @since 2019/11/16
+ */
+public class BenchmarkCompare {
+    private final static double DEFAULT_THRESHOLD = 10.0;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args[0].isEmpty() || args[1].isEmpty()) {
+            System.out.println("Usage: BenchmarkCompare base.json current.json [threshold percent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+
+        Map<String, JsonNode> base = load(args[0]);
+        Map<String, JsonNode> current = load(args[1]);
+
+        int regression = 0;
+        System.out.println(String.format("%-64s %14s %14s %9s", "benchmark", "base", "current", "change"));
+        for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            JsonNode before = base.get(entry.getKey());
+            JsonNode after = entry.getValue();
+            double score = after.path("primaryMetric").path("score").asDouble();
+            String unit = after.path("primaryMetric").path("scoreUnit").asText();
+            if (before == null) {
+                System.out.println(String.format("%-64s %14s %14.3f %9s %s", entry.getKey(), "-", score, "new", unit));
+                continue;
+            }
+
+            double baseScore = before.path("primaryMetric").path("score").asDouble();
+            double change = baseScore == 0 ? 0 : (score - baseScore) * 100 / baseScore;
+            // positive is better
+            double better = "thrpt".equals(after.path("mode").asText()) ? change : -change;
+            String flag = "";
+            if (better < -threshold) {
+                flag = "  <-- slower";
+                regression++;
+            }
+            System.out.println(String.format("%-64s %14.3f %14.3f %+8.1f%% %s%s", entry.getKey(), baseScore, score, change, unit, flag));
+        }
+
+        System.out.println(String.format("%d benchmarks, %d slower than %.1f%%", current.size(), regression, threshold));
+        System.exit(regression > 0 ? 1 : 0);
+    }
+
+    // benchmark name with params <-> result
+    private static Map<String, JsonNode> load(String path) throws IOException {
+        JsonNode results = new ObjectMapper().readTree(new File(path));
+        Map<String, JsonNode> benchmarks = new LinkedHashMap<>();
+        for (JsonNode result : results) {
+            // short name like "SubscriptionBenchmark.route"
+            String benchmark = result.path("benchmark").asText();
+            StringBuilder name = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1));
+            Map<String, String> params = new TreeMap<>();
+            result.path("params").fields().forEachRemaining(param -> params.put(param.getKey(), param.getValue().asText()));
+            if (!params.isEmpty()) {
+                name.append(params);
+            }
+            benchmarks.put(name.toString(), result);
+        }
+        return benchmarks;
+    }
+}
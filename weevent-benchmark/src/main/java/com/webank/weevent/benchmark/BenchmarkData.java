@@ -0,0 +1,167 @@
+package com.webank.weevent.benchmark;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.webank.weevent.broker.plugin.IConsumer;
+import com.webank.weevent.broker.task.IBlockChain;
+import com.webank.weevent.broker.task.Subscription;
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.EventId;
+import com.webank.weevent.sdk.WeEvent;
+
+/**
+ * Generated topics, events and subscriptions like in production, with a fixed seed so every run get the same data.
+ * ##### more details #####
+ * Topic is in layers like "org_3/service_12/event_5", some topics are much hotter than the others.
+ * Subscription is a mix of:
+ * 60% one topic
+ * 15% several topics
+ * 15% pattern with '+', like "org_3/+/event_5"
+ * 10% pattern with '#', like "org_3/service_12/#"
+ * and 20% of them are with tag.
+ *
+ * @author matthewliu
+ * @since 2019/11/16
+ */
+public class BenchmarkData {
+    private final static int ORG_COUNT = 10;
+    private final static int SERVICE_COUNT = 20;
+    private final static int EVENT_COUNT = 10;
+
+    private final static String[] TAGS = {"create", "update", "delete"};
+
+    private final Random random = new Random(20191116L);
+
+    private final List<String> topics = new ArrayList<>();
+
+    // no block chain in benchmark
+    public final static IBlockChain NO_BLOCK_CHAIN = new IBlockChain() {
+        @Override
+        public int getIdleTime() {
+            return 1000;
+        }
+
+        @Override
+        public Long getBlockHeight(String groupId) {
+            return 0L;
+        }
+
+        @Override
+        public boolean hasBlockEventNotify() {
+            return false;
+        }
+
+        @Override
+        public List<WeEvent> loop(Long blockNum, String groupId) {
+            return new ArrayList<>();
+        }
+    };
+
+    public final static IConsumer.ConsumerListener NOOP_LISTENER = new IConsumer.ConsumerListener() {
+        @Override
+        public void onEvent(String subscriptionId, WeEvent event) {
+        }
+
+        @Override
+        public void onException(Throwable e) {
+        }
+    };
+
+    public BenchmarkData() {
+        for (int org = 0; org < ORG_COUNT; org++) {
+            for (int service = 0; service < SERVICE_COUNT; service++) {
+                for (int event = 0; event < EVENT_COUNT; event++) {
+                    this.topics.add(String.format("org_%d/service_%d/event_%d", org, service, event));
+                }
+            }
+        }
+    }
+
+    public List<String> getTopics() {
+        return this.topics;
+    }
+
+    /**
+     * topic in a skewed distribution, the first topics are hot.
+     *
+     * @return topic name
+     */
+    public String nextTopic() {
+        double skew = Math.pow(this.random.nextDouble(), 3);
+        return this.topics.get((int) (skew * this.topics.size()));
+    }
+
+    /**
+     * events in a block.
+     *
+     * @param count event count
+     * @param contentSize bytes of content
+     * @param blockNumber block number
+     * @return events
+     */
+    public List<WeEvent> newBlock(int count, int contentSize, long blockNumber) {
+        List<WeEvent> events = new ArrayList<>(count);
+        for (int seq = 1; seq <= count; seq++) {
+            events.add(this.newEvent(this.nextTopic(), contentSize, blockNumber, seq));
+        }
+        return events;
+    }
+
+    public WeEvent newEvent(String topic, int contentSize, long blockNumber, long seq) {
+        byte[] content = new byte[contentSize];
+        Arrays.fill(content, (byte) 'a');
+
+        Map<String, String> extensions = new HashMap<>();
+        extensions.put(WeEvent.WeEvent_TAG, TAGS[this.random.nextInt(TAGS.length)]);
+        extensions.put(WeEvent.WeEvent_FORMAT, "json");
+
+        WeEvent event = new WeEvent(topic, content, extensions);
+        event.setEventId(EventId.of(topic, blockNumber, seq).toString());
+        return event;
+    }
+
+    public String[] nextSubscriptionTopics() {
+        int kind = this.random.nextInt(100);
+        String[] layers = this.nextTopic().split(WeEvent.LAYER_SEPARATE);
+        if (kind < 60) {
+            return new String[]{this.nextTopic()};
+        } else if (kind < 75) {
+            return new String[]{this.nextTopic(), this.nextTopic(), this.nextTopic()};
+        } else if (kind < 90) {
+            return new String[]{String.join(WeEvent.LAYER_SEPARATE, layers[0], WeEvent.WILD_CARD_ONE_LAYER, layers[2])};
+        } else {
+            return new String[]{String.join(WeEvent.LAYER_SEPARATE, layers[0], layers[1], WeEvent.WILD_CARD_ALL_LAYER)};
+        }
+    }
+
+    public String nextSubscriptionTag() {
+        return this.random.nextInt(100) < 20 ? TAGS[this.random.nextInt(TAGS.length)] : "";
+    }
+
+    /**
+     * subscriptions from OFFSET_LAST, not started.
+     *
+     * @param count subscription count
+     * @return subscriptions
+     * @throws BrokerException BrokerException
+     */
+    public List<Subscription> newSubscriptions(int count) throws BrokerException {
+        List<Subscription> subscriptions = new ArrayList<>(count);
+        for (int idx = 0; idx < count; idx++) {
+            subscriptions.add(new Subscription(NO_BLOCK_CHAIN,
+                    "subscription-" + idx,
+                    this.nextSubscriptionTopics(),
+                    WeEvent.DEFAULT_GROUP_ID,
+                    WeEvent.OFFSET_LAST,
+                    this.nextSubscriptionTag(),
+                    NOOP_LISTENER));
+        }
+        return subscriptions;
+    }
+}
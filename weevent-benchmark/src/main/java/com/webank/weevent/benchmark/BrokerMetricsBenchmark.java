@@ -0,0 +1,169 @@
+package com.webank.weevent.benchmark;
+
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import com.webank.weevent.broker.metrics.BrokerMetrics;
+import com.webank.weevent.sdk.WeEvent;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overhead of the meters in publish and block fetch, with prometheus registry like in broker.
+ * "before" look up the timer from registry in every call, and publish timer is tagged with topic.
+ * "after" is BrokerMetrics now, timer is cached and publish timer is tagged with group and status only.
+ * "record" is the floor, a timer held by caller.
+ *
+ * @author matthewliu
+ * @since 2019/11/19
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BrokerMetricsBenchmark {
+    private final static String groupId = WeEvent.DEFAULT_GROUP_ID;
+    private final static String status = "SUCCESS";
+    // the tag dropped from publish timer
+    private final static String TAG_TOPIC = "topic";
+
+    @Param({"1", "1000"})
+    public int topicCount;
+
+    private String[] topics;
+    private PrometheusMeterRegistry registry;
+    private Timer held;
+
+    // publish timers of all topics before and the only one after in a standalone registry, to scrape
+    private PrometheusMeterRegistry scrapeBefore;
+    private PrometheusMeterRegistry scrapeAfter;
+
+    @Setup
+    public void setup() {
+        this.topics = new String[this.topicCount];
+        for (int i = 0; i < this.topicCount; i++) {
+            this.topics[i] = "com.weevent.benchmark." + i;
+        }
+
+        this.registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        Metrics.addRegistry(this.registry);
+        this.held = BrokerMetrics.dispatchTimer(groupId);
+
+        this.scrapeBefore = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        this.scrapeAfter = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        for (String topic : this.topics) {
+            publishTimerBuilder(BrokerMetrics.TAG_GROUP, groupId, TAG_TOPIC, topic, BrokerMetrics.TAG_STATUS, status)
+                    .register(this.scrapeBefore)
+                    .record(1, TimeUnit.MILLISECONDS);
+            publishTimerBuilder(BrokerMetrics.TAG_GROUP, groupId, BrokerMetrics.TAG_STATUS, status)
+                    .register(this.scrapeAfter)
+                    .record(1, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Metrics.removeRegistry(this.registry);
+        this.registry.close();
+        this.scrapeBefore.close();
+        this.scrapeAfter.close();
+    }
+
+    private String topic(long i) {
+        return this.topics[(int) (i % this.topicCount)];
+    }
+
+    @State(Scope.Thread)
+    public static class Sequence {
+        long next;
+    }
+
+    private static Timer.Builder publishTimerBuilder(String... tags) {
+        return Timer.builder("weevent.publish")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(30));
+    }
+
+    // the way before, a new builder and registry lookup in every call
+    private static Timer lookupTimer(String name, String... tags) {
+        return Timer.builder(name)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(Metrics.globalRegistry);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void publishBefore(Sequence sequence) {
+        lookupTimer("weevent.benchmark.publish",
+                BrokerMetrics.TAG_GROUP, groupId,
+                TAG_TOPIC, this.topic(sequence.next++),
+                BrokerMetrics.TAG_STATUS, status)
+                .record(1, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void publishAfter() {
+        BrokerMetrics.publishTimer(groupId, status)
+                .record(1, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void blockFetchBefore() {
+        lookupTimer("weevent.benchmark.block.fetch",
+                BrokerMetrics.TAG_GROUP, groupId,
+                BrokerMetrics.TAG_SOURCE, BrokerMetrics.SOURCE_CACHE)
+                .record(1, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void blockFetchAfter() {
+        BrokerMetrics.blockFetchTimer(groupId, BrokerMetrics.SOURCE_CACHE)
+                .record(1, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void record() {
+        this.held.record(1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * scrape publish timers, a series of histogram buckets for every topic before
+     */
+    @Benchmark
+    public String scrapeBefore() {
+        return this.scrapeBefore.scrape();
+    }
+
+    @Benchmark
+    public String scrapeAfter() {
+        return this.scrapeAfter.scrape();
+    }
+}
@@ -0,0 +1,103 @@
+package com.webank.weevent.benchmark;
+
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import com.webank.weevent.broker.fisco.util.DataTypeUtils;
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.EventId;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encode and decode eventId, see DataTypeUtils and EventId.
+ * "legacy" is split and MessageDigest in every call, as the baseline.
+ *
+ * @author matthewliu
+ * @since 2019/11/16
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventIdBenchmark {
+    private String topic;
+    private String eventId;
+    private int blockNumber = 123456;
+    private int seq = 789;
+
+    @Setup
+    public void setup() {
+        this.topic = new BenchmarkData().nextTopic();
+        this.eventId = DataTypeUtils.encodeEventId(this.topic, this.blockNumber, this.seq);
+    }
+
+    @Benchmark
+    public String encodeEventId() {
+        return DataTypeUtils.encodeEventId(this.topic, this.blockNumber, this.seq);
+    }
+
+    @Benchmark
+    public void decodeEventId(Blackhole blackhole) throws BrokerException {
+        blackhole.consume(DataTypeUtils.decodeTopicNameHash(this.eventId));
+        blackhole.consume(DataTypeUtils.decodeBlockNumber(this.eventId));
+        blackhole.consume(DataTypeUtils.decodeSeq(this.eventId));
+    }
+
+    @Benchmark
+    public String genTopicNameHash() {
+        return DataTypeUtils.genTopicNameHash(this.topic);
+    }
+
+    @Benchmark
+    public String encodeEventIdValue() {
+        return EventId.of(this.topic, this.blockNumber, this.seq).toString();
+    }
+
+    @Benchmark
+    public void decodeEventIdValue(Blackhole blackhole) throws BrokerException {
+        EventId parsed = EventId.parse(this.eventId);
+        blackhole.consume(parsed.getTopicHash());
+        blackhole.consume(parsed.getBlockNumber());
+        blackhole.consume(parsed.getSeq());
+    }
+
+    @Benchmark
+    public String legacyTopicHash() throws NoSuchAlgorithmException {
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+        byte[] hash = messageDigest.digest(this.topic.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder();
+        for (byte b : hash) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.substring(0, EventId.TOPIC_HASH_LENGTH);
+    }
+
+    @Benchmark
+    public long legacyBlockNumber() {
+        return Long.parseLong(this.eventId.split("-")[2]);
+    }
+
+    /**
+     * compare eventId with topic, cached topic hash
+     */
+    @Benchmark
+    public boolean isTopic() throws BrokerException {
+        return EventId.parse(this.eventId).isTopic(this.topic);
+    }
+}
@@ -0,0 +1,96 @@
+package com.webank.weevent.benchmark;
+
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.webank.weevent.broker.fisco.util.DataTypeUtils;
+import com.webank.weevent.broker.task.EventIdSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Dedup window of notified eventIds in every subscription, see EventIdSet.
+ * Fill a full window with 4 times of events, per event cost.
+ * "legacy" is the FIFO LinkedHashMap of eventId used before in NotifyTask, as the baseline.
+ * Memory of a full window is reported by the GC profiler, like "-prof gc".
+ *
+ * @author matthewliu
+ * @since 2019/11/19
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventIdSetBenchmark {
+    private final static int EVENTS = 4096;
+
+    @Param({"1024"})
+    public int window;
+
+    private List<String> eventIds;
+
+    /**
+     * FIFO cache in LinkedHashMap, the old implement in NotifyTask
+     */
+    private static class FixedFIFOCache<K, V> extends LinkedHashMap<K, V> {
+        private int capacity;
+
+        FixedFIFOCache(int capacity) {
+            super(capacity, 0.8f, false);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return this.size() > capacity;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        String topic = new BenchmarkData().nextTopic();
+        this.eventIds = new ArrayList<>(EVENTS);
+        for (int i = 0; i < EVENTS; i++) {
+            this.eventIds.add(DataTypeUtils.encodeEventId(topic, 1000000 + i / 100, i % 100));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public EventIdSet add() {
+        EventIdSet set = new EventIdSet(this.window);
+        for (String eventId : this.eventIds) {
+            set.add(eventId);
+        }
+        return set;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public Map<String, Long> legacyAdd() {
+        Map<String, Long> legacy = new FixedFIFOCache<>(this.window);
+        for (String eventId : this.eventIds) {
+            if (!legacy.containsKey(eventId)) {
+                legacy.put(eventId, System.currentTimeMillis());
+            }
+        }
+        return legacy;
+    }
+}
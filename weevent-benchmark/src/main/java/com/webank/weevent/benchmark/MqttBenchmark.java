@@ -0,0 +1,82 @@
+package com.webank.weevent.benchmark;
+
+
+import java.util.concurrent.TimeUnit;
+
+import com.webank.weevent.protocol.mqtt.command.Subscribe;
+import com.webank.weevent.sdk.WeEvent;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.mqtt.MqttEncoder;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MQTT PUBLISH to subscriber, build the message like Subscribe and encode it with netty's MqttEncoder.
+ *
+ * @author matthewliu
+ * @since 2019/11/16
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MqttBenchmark {
+    @Param({"256", "4096"})
+    public int contentSize;
+
+    @Param({"AT_MOST_ONCE", "AT_LEAST_ONCE"})
+    public MqttQoS mqttQoS;
+
+    private WeEvent event;
+    private byte[] messageBytes;
+
+    // encoder in pipeline without network
+    private EmbeddedChannel channel;
+
+    @Setup
+    public void setup() {
+        this.event = new BenchmarkData().newEvent("org_3/service_12/event_5", this.contentSize, 100L, 1L);
+        this.messageBytes = Subscribe.encodeEvent(this.event);
+        this.channel = new EmbeddedChannel(MqttEncoder.INSTANCE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.channel.finishAndReleaseAll();
+    }
+
+    /**
+     * event to json payload, it's the message in PUBLISH
+     */
+    @Benchmark
+    public byte[] encodePayload() {
+        return Subscribe.encodeEvent(this.event);
+    }
+
+    @Benchmark
+    public int encodePublish() {
+        MqttPublishMessage publishMessage = Subscribe.newPublishMessage(this.event.getTopic(), this.mqttQoS, 1, this.messageBytes, false, false);
+        this.channel.writeOutbound(publishMessage);
+
+        ByteBuf encoded = this.channel.readOutbound();
+        int size = encoded.readableBytes();
+        encoded.release();
+        return size;
+    }
+}
@@ -0,0 +1,101 @@
+package com.webank.weevent.benchmark;
+
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.webank.weevent.broker.fisco.web3sdk.v2.Web3SDK2Wrapper;
+import com.webank.weevent.broker.task.StoppableTask;
+
+import org.fisco.bcos.web3j.protocol.Web3j;
+import org.fisco.bcos.web3j.protocol.core.Request;
+import org.fisco.bcos.web3j.protocol.core.methods.response.BcosTransactionReceipt;
+import org.fisco.bcos.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fetch the receipts of a block with a window of requests in flight, see Web3SDK2Wrapper.batchTransactionReceipt.
+ * The node is simulated with a fixed rpc latency, window 1 is the serial way before.
+ *
+ * @author matthewliu
+ * @since 2019/11/18
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReceiptBenchmark {
+    // rpc latency in ms
+    private final static long LATENCY = 2;
+
+    @Param({"1", "8", "32"})
+    public int maxInFlight;
+
+    @Param({"100"})
+    public int txCount;
+
+    private ExecutorService node;
+    private Web3j web3j;
+    private List<String> transactionHashList;
+
+    @Setup
+    public void setup() {
+        this.node = Executors.newFixedThreadPool(64);
+        this.transactionHashList = new ArrayList<>(this.txCount);
+        for (int i = 0; i < this.txCount; i++) {
+            this.transactionHashList.add("0x" + i);
+        }
+
+        // only getTransactionReceipt is used
+        ExecutorService nodeService = this.node;
+        this.web3j = (Web3j) Proxy.newProxyInstance(Web3j.class.getClassLoader(), new Class<?>[]{Web3j.class}, (proxy, method, args) -> {
+            if (!"getTransactionReceipt".equals(method.getName())) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+
+            String transactionHash = (String) args[0];
+            return new Request<Object, BcosTransactionReceipt>() {
+                @Override
+                public CompletableFuture<BcosTransactionReceipt> sendAsync() {
+                    return CompletableFuture.supplyAsync(() -> {
+                        StoppableTask.idle(LATENCY);
+
+                        TransactionReceipt receipt = new TransactionReceipt();
+                        receipt.setTransactionHash(transactionHash);
+                        BcosTransactionReceipt transactionReceipt = new BcosTransactionReceipt();
+                        transactionReceipt.setResult(receipt);
+                        return transactionReceipt;
+                    }, nodeService);
+                }
+            };
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.node.shutdownNow();
+    }
+
+    @Benchmark
+    public List<TransactionReceipt> batchTransactionReceipt() throws Exception {
+        return Web3SDK2Wrapper.batchTransactionReceipt(this.web3j, this.transactionHashList, this.maxInFlight);
+    }
+}
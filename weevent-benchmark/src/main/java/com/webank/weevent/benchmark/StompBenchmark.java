@@ -0,0 +1,85 @@
+package com.webank.weevent.benchmark;
+
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.webank.weevent.protocol.stomp.BrokerStomp;
+import com.webank.weevent.sdk.WeEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * STOMP frames in BrokerStomp, decode SEND frames from client and encode MESSAGE frames to subscriber.
+ *
+ * @author matthewliu
+ * @since 2019/11/16
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StompBenchmark {
+    @Param({"1", "32"})
+    public int batchSize;
+
+    @Param({"256", "4096"})
+    public int contentSize;
+
+    private List<WeEvent> events;
+    private WeEvent event;
+    private String sendFrame;
+
+    @Setup
+    public void setup() {
+        BenchmarkData data = new BenchmarkData();
+        this.events = data.newBlock(this.batchSize, this.contentSize, 100L);
+        this.event = this.events.get(0);
+
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SEND);
+        accessor.setDestination(this.event.getTopic());
+        accessor.setNativeHeader("eventId", this.event.getEventId());
+        accessor.setNativeHeader(WeEvent.WeEvent_TAG, "create");
+        accessor.setReceipt("receipt-1");
+        Message<byte[]> message = MessageBuilder.createMessage(this.event.getContent(), accessor.getMessageHeaders());
+        this.sendFrame = new String(new StompEncoder().encode(message), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<Message<byte[]>> decodeSend() {
+        return BrokerStomp.decodeFrames(this.sendFrame);
+    }
+
+    @Benchmark
+    public byte[] encodeMessage() throws IOException {
+        return BrokerStomp.encodeEvents("1", "subscription-1", Collections.singletonList(this.event));
+    }
+
+    /**
+     * a batch of MESSAGE frames in one websocket message, see ConsumerListener.onEvents
+     */
+    @Benchmark
+    public byte[] encodeMessageBatch() throws IOException {
+        return BrokerStomp.encodeEvents("1", "subscription-1", this.events);
+    }
+}
@@ -0,0 +1,117 @@
+package com.webank.weevent.benchmark;
+
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.webank.weevent.broker.task.Subscription;
+import com.webank.weevent.broker.task.SubscriptionIndex;
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.WeEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Match a block of events to subscriptions, see Subscription.filter and SubscriptionIndex.route.
+ *
+ * @author matthewliu
+ * @since 2019/11/16
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubscriptionBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int subscriptionCount;
+
+    @Param({"64"})
+    public int blockSize;
+
+    private List<Subscription> subscriptions;
+    private SubscriptionIndex subscriptionIndex;
+    private List<WeEvent> block;
+
+    // one event and a pattern matched, one not matched
+    private List<WeEvent> single;
+    private String[] matchedPattern;
+    private String[] unmatchedPattern;
+
+    @Setup
+    public void setup() throws BrokerException {
+        BenchmarkData data = new BenchmarkData();
+        this.subscriptions = data.newSubscriptions(this.subscriptionCount);
+        this.subscriptionIndex = new SubscriptionIndex();
+        for (Subscription subscription : this.subscriptions) {
+            this.subscriptionIndex.add(subscription);
+        }
+        this.block = data.newBlock(this.blockSize, 256, 100L);
+
+        this.single = Collections.singletonList(data.newEvent("org_3/service_12/event_5", 256, 100L, 1L));
+        this.matchedPattern = new String[]{"org_3/+/event_5"};
+        this.unmatchedPattern = new String[]{"org_3/service_11/#"};
+    }
+
+    /**
+     * filter the block by every subscription, the way before SubscriptionIndex.
+     */
+    @Benchmark
+    public void filter(Blackhole blackhole) {
+        for (Subscription subscription : this.subscriptions) {
+            blackhole.consume(Subscription.filter(this.block, subscription.getTopics(), subscription.getTag()));
+        }
+    }
+
+    /**
+     * route the block with index, the way in MainEventLoop.
+     */
+    @Benchmark
+    public Map<Subscription, List<WeEvent>> route() {
+        return this.subscriptionIndex.route(this.block);
+    }
+
+    /**
+     * topic pattern match, see Subscription.patternMatch.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void patternMatch(Blackhole blackhole) {
+        blackhole.consume(Subscription.filter(this.single, this.matchedPattern, null));
+        blackhole.consume(Subscription.filter(this.single, this.unmatchedPattern, null));
+    }
+
+    /**
+     * validate pattern while subscribing.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean isTopicPattern() {
+        return Subscription.isTopicPattern(this.matchedPattern[0]);
+    }
+
+    /**
+     * add and remove subscription in index, like subscribe and unsubscribe.
+     */
+    @Benchmark
+    public int indexUpdate() {
+        Subscription subscription = this.subscriptions.get(0);
+        this.subscriptionIndex.remove(subscription);
+        this.subscriptionIndex.add(subscription);
+        return this.subscriptionIndex.size();
+    }
+}
@@ -0,0 +1,73 @@
+package com.webank.weevent.benchmark;
+
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.webank.weevent.broker.fisco.util.SerializeUtils;
+import com.webank.weevent.broker.fisco.util.WeEventCodec;
+import com.webank.weevent.sdk.WeEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encode and decode a block of events for redis and local block store, see WeEventCodec.
+ * "java" is the java serialization in SerializeUtils used before, as the baseline.
+ *
+ * @author matthewliu
+ * @since 2019/11/19
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WeEventCodecBenchmark {
+    @Param({"1", "64"})
+    public int blockSize;
+
+    @Param({"256", "4096"})
+    public int contentSize;
+
+    private List<WeEvent> block;
+    private byte[] encoded;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() {
+        this.block = new BenchmarkData().newBlock(this.blockSize, this.contentSize, 100L);
+        this.encoded = WeEventCodec.encode(this.block);
+        this.serialized = SerializeUtils.serializeList(this.block);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return WeEventCodec.encode(this.block);
+    }
+
+    @Benchmark
+    public List<WeEvent> decode() {
+        return WeEventCodec.decode(this.encoded);
+    }
+
+    @Benchmark
+    public byte[] javaSerialize() {
+        return SerializeUtils.serializeList(this.block);
+    }
+
+    @Benchmark
+    public List<WeEvent> javaDeserialize() {
+        return SerializeUtils.deserializeList(this.serialized);
+    }
+}
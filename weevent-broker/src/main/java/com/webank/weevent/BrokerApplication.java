@@ -11,6 +11,9 @@ import com.webank.weevent.broker.plugin.IProducer;
 import com.webank.weevent.sdk.BrokerException;
 
 import com.googlecode.jsonrpc4j.spring.AutoJsonRpcServiceImplExporter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -174,6 +177,14 @@ public class BrokerApplication {
         return new AutoJsonRpcServiceImplExporter();
     }
 
+    // metrics in prometheus format, see BrokerMetrics
+    @Bean
+    public static PrometheusMeterRegistry prometheusMeterRegistry() {
+        PrometheusMeterRegistry prometheusMeterRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        Metrics.addRegistry(prometheusMeterRegistry);
+        return prometheusMeterRegistry;
+    }
+
     //IProducer
     @Bean
     public static IProducer iProducer() {
@@ -229,6 +240,7 @@ public class BrokerApplication {
         }
         RedisService redisService = new RedisService();
         redisService.setJedisPool(jedisPool);
+        redisService.setExpireSeconds(weEventConfig.getRedisExpireSeconds());
         return redisService;
     }
 
@@ -251,4 +263,20 @@ public class BrokerApplication {
         log.info("init weevent daemon thread pool");
         return pool;
     }
+
+    // fixed size thread pool to notify all the subscriptions
+    @Bean(name = "weevent_delivery_executor")
+    public static ThreadPoolTaskExecutor getDeliveryExecutor(WeEventConfig config) {
+        ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+        pool.setThreadNamePrefix("weevent_delivery_");
+        pool.setCorePoolSize(config.getDeliveryThreads());
+        pool.setMaxPoolSize(config.getDeliveryThreads());
+        // every subscription with pending events take one slot, FIFO for fairness
+        pool.setQueueCapacity(Integer.MAX_VALUE);
+        pool.setDaemon(true);
+        pool.initialize();
+
+        log.info("init weevent delivery thread pool, threads: {}", config.getDeliveryThreads());
+        return pool;
+    }
 }
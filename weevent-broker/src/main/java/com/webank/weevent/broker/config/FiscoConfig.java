@@ -49,6 +49,9 @@ public class FiscoConfig {
     @Value("${web3sdk.keep-alive-seconds:60}")
     private Integer web3sdkKeepAliveSeconds;
 
+    @Value("${web3sdk.receipt-concurrency:32}")
+    private Integer web3sdkReceiptConcurrency;
+
     @Value("${v1.ca-crt-path:ca.crt}")
     private String v1CaCrtPath;
 
@@ -76,6 +79,30 @@ public class FiscoConfig {
     @Value("${consumer.history_merge_block:8}")
     private Integer consumerHistoryMergeBlock;
 
+    @Value("${consumer.prefetch-depth:0}")
+    private Integer consumerPrefetchDepth;
+
+    @Value("${consumer.prefetch-workers:2}")
+    private Integer consumerPrefetchWorkers;
+
+    @Value("${consumer.backfill-workers:4}")
+    private Integer consumerBackfillWorkers;
+
+    @Value("${consumer.backfill-chunk-size:32}")
+    private Integer consumerBackfillChunkSize;
+
+    @Value("${consumer.backfill-max-pending-chunks:8}")
+    private Integer consumerBackfillMaxPendingChunks;
+
+    @Value("${consumer.backfill-max-pending-bytes:67108864}")
+    private Long consumerBackfillMaxPendingBytes;
+
+    @Value("${consumer.topic-index:false}")
+    private Boolean consumerTopicIndex;
+
+    @Value("${consumer.catch-up-batch:8}")
+    private Integer consumerCatchUpBatch;
+
     /**
      * load configuration without spring
      *
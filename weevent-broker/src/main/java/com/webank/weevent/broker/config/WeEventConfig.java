@@ -1,5 +1,7 @@
 package com.webank.weevent.broker.config;
 
+import javax.annotation.PostConstruct;
+
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -19,6 +21,11 @@ import org.springframework.stereotype.Component;
 @Component
 @PropertySource(value = "classpath:weevent.properties", encoding = "UTF-8")
 public class WeEventConfig {
+    // the old lru cache counted blocks, estimate 4K per block while converting
+    public final static long BLOCK_BYTES_ESTIMATE = 4096L;
+
+    public final static long DEFAULT_BLOCK_CACHE_MAX_BYTES = 256 * 1024 * 1024L;
+
     @Value("${ip.check.white-table:}")
     private String ipWhiteTable;
 
@@ -31,8 +38,31 @@ public class WeEventConfig {
     @Value("${redis.server.port:6379}")
     private Integer redisServerPort;
 
-    @Value("${lru.cache.capacity:65536}")
-    private Integer maxCapacity;
+    @Value("${redis.expire-seconds:604800}")
+    private Integer redisExpireSeconds;
+
+    @Value("${redis.prefetch-window:32}")
+    private Integer redisPrefetchWindow;
+
+    // negative meanings not configured, see resolveBlockCacheMaxBytes
+    @Value("${block.cache.max-bytes:-1}")
+    private Long blockCacheMaxBytes;
+
+    // deprecated, replaced by block.cache.max-bytes
+    @Value("${lru.cache.capacity:-1}")
+    private Integer lruCacheCapacity;
+
+    @Value("${block.store.path:}")
+    private String blockStorePath;
+
+    @Value("${block.store.segment-size:67108864}")
+    private Integer blockStoreSegmentSize;
+
+    @Value("${block.store.max-size:10737418240}")
+    private Long blockStoreMaxSize;
+
+    @Value("${block.store.max-age-hours:168}")
+    private Integer blockStoreMaxAgeHours;
 
     @Value("${cgi.subscribe.notify.timeout:5000}")
     private Integer cgi_notify_timeout;
@@ -40,6 +70,54 @@ public class WeEventConfig {
     @Value("${broker.blockchain.type}")
     private String blockChainType;
 
+    @Value("${broker.memory.groups:1}")
+    private String memoryGroups;
+
+    @Value("${broker.memory.block-interval-ms:100}")
+    private Integer memoryBlockIntervalMs;
+
+    @Value("${broker.memory.tx-per-block:1000}")
+    private Integer memoryTxPerBlock;
+
+    @Value("${broker.memory.commit-latency-ms:0}")
+    private Integer memoryCommitLatencyMs;
+
+    @Value("${broker.memory.block-notify:true}")
+    private Boolean memoryBlockNotify;
+
+    @Value("${broker.memory.max-blocks:10000}")
+    private Integer memoryMaxBlocks;
+
+    @Value("${broker.delivery.threads:8}")
+    private Integer deliveryThreads;
+
+    @Value("${broker.delivery.batch-size:32}")
+    private Integer deliveryBatchSize;
+
+    @Value("${broker.delivery.linger-ms:0}")
+    private Integer deliveryLingerMs;
+
+    @Value("${broker.delivery.queue-max-events:10000}")
+    private Integer deliveryQueueMaxEvents;
+
+    @Value("${broker.delivery.queue-max-bytes:67108864}")
+    private Long deliveryQueueMaxBytes;
+
+    @Value("${broker.checkpoint.path:}")
+    private String checkpointPath;
+
+    @Value("${broker.checkpoint.flush-events:100}")
+    private Integer checkpointFlushEvents;
+
+    @Value("${broker.checkpoint.flush-ms:1000}")
+    private Integer checkpointFlushMs;
+
+    @Value("${broker.checkpoint.expire-seconds:604800}")
+    private Integer checkpointExpireSeconds;
+
+    @Value("${broker.latency.tracking:false}")
+    private Boolean latencyTracking;
+
     @Value("${broker.zookeeper.ip:}")
     private String zookeeperIp;
 
@@ -49,6 +127,12 @@ public class WeEventConfig {
     @Value("${broker.zookeeper.timeout:3000}")
     private Integer zookeeperTimeout;
 
+    @Value("${broker.ha.group-sharding:false}")
+    private Boolean haGroupSharding;
+
+    @Value("${broker.ha.replication-window:32}")
+    private Integer haReplicationWindow;
+
     @Value("${stomp.heartbeats:30}")
     private Integer stompHeartbeats;
 
@@ -70,4 +154,23 @@ public class WeEventConfig {
     @Value("${mqtt.websocket.path:/weevent/mqtt}")
     private String webSocketServerPath;
 
+    /**
+     * block.cache.max-bytes takes precedence, or else convert from the deprecated lru.cache.capacity.
+     */
+    @PostConstruct
+    public void resolveBlockCacheMaxBytes() {
+        if (this.lruCacheCapacity >= 0) {
+            log.warn("lru.cache.capacity is deprecated, use block.cache.max-bytes instead");
+        }
+
+        if (this.blockCacheMaxBytes >= 0) {
+            return;
+        }
+        if (this.lruCacheCapacity >= 0) {
+            this.blockCacheMaxBytes = this.lruCacheCapacity * BLOCK_BYTES_ESTIMATE;
+            log.warn("convert lru.cache.capacity: {} to block.cache.max-bytes: {}", this.lruCacheCapacity, this.blockCacheMaxBytes);
+        } else {
+            this.blockCacheMaxBytes = DEFAULT_BLOCK_CACHE_MAX_BYTES;
+        }
+    }
 }
@@ -1,8 +1,12 @@
 package com.webank.weevent.broker.fabric;
 
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 
+import com.webank.weevent.BrokerApplication;
 import com.webank.weevent.broker.fisco.util.ParamCheckUtils;
+import com.webank.weevent.broker.metrics.BrokerMetrics;
+import com.webank.weevent.broker.metrics.LatencyTracker;
 import com.webank.weevent.broker.plugin.IProducer;
 import com.webank.weevent.sdk.BrokerException;
 import com.webank.weevent.sdk.SendResult;
@@ -30,12 +34,27 @@ public class FabricBroker4Producer extends FabricTopicAdmin implements IProducer
     @Override
     public SendResult publish(WeEvent event, String channelName) throws BrokerException {
         log.debug("publish input param WeEvent: {}", event);
+        // stamp publish time for end to end latency before checked, so the stamp is checked too, see LatencyTracker
+        if (BrokerApplication.weEventConfig.getLatencyTracking()) {
+            event.setExtensions(LatencyTracker.withStamp(event.getExtensions(), WeEvent.WeEvent_PublishTime, System.currentTimeMillis()));
+        }
         ParamCheckUtils.validateEvent(event);
         this.validateChannelName(channelName);
-        SendResult sendResult = fabricDelegate.publishEvent(event.getTopic(),
-                channelName,
-                new String(event.getContent(), StandardCharsets.UTF_8),
-                JSON.toJSONString(event.getExtensions()));
+
+        long start = System.nanoTime();
+        SendResult sendResult;
+        try {
+            sendResult = fabricDelegate.publishEvent(event.getTopic(),
+                    channelName,
+                    new String(event.getContent(), StandardCharsets.UTF_8),
+                    JSON.toJSONString(event.getExtensions()));
+        } catch (BrokerException e) {
+            BrokerMetrics.publishTimer(channelName, SendResult.SendResultStatus.ERROR.name())
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+        BrokerMetrics.publishTimer(channelName, sendResult.getStatus().name())
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         return sendResult;
     }
 }
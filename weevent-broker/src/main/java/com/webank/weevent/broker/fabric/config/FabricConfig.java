@@ -81,6 +81,9 @@ public class FabricConfig {
     @Value("${consumer.history_merge_block:8}")
     private Integer consumerHistoryMergeBlock;
 
+    @Value("${consumer.catch-up-batch:8}")
+    private Integer consumerCatchUpBatch;
+
     /**
      * load configuration without spring
      *
@@ -165,9 +165,7 @@ public class Fabric {
     }
 
     public WeEvent getEvent(String eventId) throws BrokerException {
-        ParamCheckUtils.validateEventId("", eventId, getBlockHeight());
-
-        Long blockNum = DataTypeUtils.decodeBlockNumber(eventId);
+        Long blockNum = ParamCheckUtils.validateEventId("", eventId, getBlockHeight()).getBlockNumber();
         List<WeEvent> events = this.loop(blockNum);
         for (WeEvent event : events) {
             if (eventId.equals(event.getEventId())) {
@@ -1,14 +1,19 @@
 package com.webank.weevent.broker.fabric.sdk;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import com.webank.weevent.BrokerApplication;
+import com.webank.weevent.broker.config.WeEventConfig;
 import com.webank.weevent.broker.fabric.config.FabricConfig;
+import com.webank.weevent.broker.fisco.BlockSegmentStore;
 import com.webank.weevent.broker.fisco.RedisService;
-import com.webank.weevent.broker.fisco.util.LRUCache;
+import com.webank.weevent.broker.fisco.util.BlockCache;
+import com.webank.weevent.broker.metrics.BrokerMetrics;
 import com.webank.weevent.sdk.BrokerException;
 import com.webank.weevent.sdk.SendResult;
 import com.webank.weevent.sdk.WeEvent;
@@ -31,7 +36,10 @@ public class FabricDelegate {
     private static RedisService redisService;
 
     // block data cached in local memory
-    private static LRUCache<String, List<WeEvent>> blockCache;
+    private static BlockCache blockCache;
+
+    // block data stored in local disk
+    private static BlockSegmentStore blockStore;
 
     private static List<String> channels = new ArrayList<>();
 
@@ -50,10 +58,25 @@ public class FabricDelegate {
         }
 
         if (blockCache == null) {
-            // skip local cache if lru.cache.capacity = 0
-            Integer capacity = BrokerApplication.weEventConfig.getMaxCapacity();
-            if (capacity > 0) {
-                blockCache = new LRUCache<>(capacity);
+            // skip local cache if block.cache.max-bytes = 0
+            Long maxBytes = BrokerApplication.weEventConfig.getBlockCacheMaxBytes();
+            if (maxBytes > 0) {
+                blockCache = new BlockCache(maxBytes);
+            }
+        }
+
+        if (blockStore == null) {
+            // skip local block store if block.store.path is empty
+            WeEventConfig weEventConfig = BrokerApplication.weEventConfig;
+            if (StringUtils.isNotBlank(weEventConfig.getBlockStorePath())) {
+                try {
+                    blockStore = new BlockSegmentStore(weEventConfig.getBlockStorePath(),
+                            weEventConfig.getBlockStoreSegmentSize(),
+                            weEventConfig.getBlockStoreMaxSize(),
+                            weEventConfig.getBlockStoreMaxAgeHours());
+                } catch (IOException e) {
+                    log.error("init local block store failed", e);
+                }
             }
         }
     }
@@ -80,7 +103,55 @@ public class FabricDelegate {
     }
 
     public List<WeEvent> loop(Long blockNum, String channelName) throws BrokerException {
-        return fabricMap.get(channelName).loop(blockNum);
+        long start = System.nanoTime();
+        if (blockCache != null) {
+            List<WeEvent> events = blockCache.get(channelName, blockNum);
+            if (events != null) {
+                BrokerMetrics.blockFetchTimer(channelName, BrokerMetrics.SOURCE_CACHE).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                return events;
+            }
+        }
+        if (blockStore != null) {
+            List<WeEvent> events = blockStore.get(channelName, blockNum);
+            if (events != null) {
+                if (blockCache != null) {
+                    blockCache.put(channelName, blockNum, events);
+                }
+                BrokerMetrics.blockFetchTimer(channelName, BrokerMetrics.SOURCE_CACHE).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                return events;
+            }
+        }
+
+        List<WeEvent> events = fabricMap.get(channelName).loop(blockNum);
+        BrokerMetrics.blockFetchTimer(channelName, BrokerMetrics.SOURCE_CHAIN).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (events != null) {
+            if (blockCache != null) {
+                blockCache.put(channelName, blockNum, events);
+            }
+            if (blockStore != null) {
+                blockStore.put(channelName, blockNum, events);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * statistics of local memory cache.
+     *
+     * @return null if no cache
+     */
+    public static BlockCache.Stats getBlockCacheStats() {
+        return blockCache == null ? null : blockCache.getStats();
+    }
+
+    /**
+     * close local block store if any, called while consumer shutdown.
+     */
+    public static synchronized void closeBlockStore() {
+        if (blockStore != null) {
+            blockStore.close();
+            blockStore = null;
+        }
     }
 
     public static String getChannelName() {
@@ -20,6 +20,7 @@ import com.webank.weevent.broker.fabric.config.FabricConfig;
 import com.webank.weevent.broker.fabric.dto.TransactionInfo;
 import com.webank.weevent.broker.fabric.util.FabricUser;
 import com.webank.weevent.broker.fisco.util.DataTypeUtils;
+import com.webank.weevent.broker.metrics.LatencyTracker;
 import com.webank.weevent.protocol.rest.entity.GroupGeneral;
 import com.webank.weevent.protocol.rest.entity.TbBlock;
 import com.webank.weevent.protocol.rest.entity.TbNode;
@@ -223,6 +224,7 @@ public class FabricSDKWrapper {
                         weEvent.setEventId(DataTypeUtils.encodeEventId(weEvent.getTopic(),
                                 blockNumber.intValue(),
                                 Integer.parseInt(new String(transactionActionInfo.getProposalResponsePayload()))));
+                        LatencyTracker.stampCommit(weEvent, transactionEnvelopeInfo.getTimestamp().getTime());
                         weEventList.add(weEvent);
                         log.debug("weevent:{}", weEvent);
                     }
@@ -0,0 +1,427 @@
+package com.webank.weevent.broker.fisco;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import com.webank.weevent.broker.fisco.util.WeEventCodec;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Local block data store, a tier between local memory cache and block chain.
+ * ##### more details #####
+ * Every group has it's own directory, the events of a block is appended into memory mapped segment files.
+ * Record in segment: magic(4) + block number(8) + payload length(4) + crc32 of payload(4) + payload(see WeEventCodec).
+ * The magic is written at last, and a zero end marker is always kept after the last record,
+ * so a record half written while crash is dropped in recovery by magic/crc checking.
+ * The mapped segment is forced to disk only when it's rolled or closed, not in every put.
+ * So the records survive a crash of the process, but the latest ones may be lost in a power failure or OS crash,
+ * they are just read from block chain again.
+ * New segment is rolled if the active one is full, and the oldest segments are deleted by size and age.
+ * Segment is unmapped when closed or deleted, the mapping is not released until GC otherwise.
+ * After closed, get always miss and put is ignored, no group is opened again.
+ * This class is thread safe.
+ *
+ * @author matthewliu
+ * @since 2019/10/26
+ */
+@Slf4j
+public class BlockSegmentStore {
+    private final static int MAGIC = 0x57455631;
+    private final static int HEADER_SIZE = 4 + 8 + 4 + 4;
+    private final static int END_MARKER_SIZE = 4;
+    private final static String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * one segment file
+     */
+    static class Segment {
+        private long id;
+        private File file;
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+        // next write position, also the valid data size
+        private int position;
+        // block number <-> record offset
+        private Map<Long, Integer> offsets = new HashMap<>();
+
+        void close() {
+            try {
+                if (!this.buffer.isReadOnly()) {
+                    this.buffer.force();
+                }
+                this.channel.close();
+            } catch (IOException e) {
+                log.error("close segment failed, " + this.file, e);
+            }
+            unmap(this.buffer);
+        }
+    }
+
+    /**
+     * segments of one group
+     */
+    static class GroupStore {
+        private File directory;
+        // segment id <-> segment, in write order
+        private TreeMap<Long, Segment> segments = new TreeMap<>();
+        // block number <-> segment
+        private Map<Long, Segment> index = new HashMap<>();
+        private Segment active;
+    }
+
+    // root directory
+    private File baseDirectory;
+
+    // max size of one segment file
+    private int segmentSize;
+
+    // max data size in one group
+    private long maxSize;
+
+    // max age of sealed segment, ms
+    private long maxAge;
+
+    // group id <-> it's segments
+    private Map<String, GroupStore> groups = new HashMap<>();
+
+    // store can not be used after closed
+    private boolean closed = false;
+
+    /**
+     * @param path root directory
+     * @param segmentSize max size of one segment file
+     * @param maxSize max data size in one group, the oldest segments are deleted if exceed
+     * @param maxAgeHours max age of sealed segment
+     * @throws IOException IOException
+     */
+    public BlockSegmentStore(String path, int segmentSize, long maxSize, int maxAgeHours) throws IOException {
+        this.baseDirectory = new File(path);
+        if (!this.baseDirectory.exists() && !this.baseDirectory.mkdirs()) {
+            throw new IOException("create block store directory failed, " + path);
+        }
+
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        this.maxAge = maxAgeHours * 3600 * 1000L;
+
+        log.info("block store initialized, path: {} segment size: {} max size: {} max age: {}h",
+                this.baseDirectory.getAbsolutePath(), segmentSize, maxSize, maxAgeHours);
+    }
+
+    /**
+     * read events in block.
+     *
+     * @param groupId group id
+     * @param blockNum block number
+     * @return null if not exist
+     */
+    public synchronized List<WeEvent> get(String groupId, Long blockNum) {
+        if (this.closed) {
+            return null;
+        }
+
+        try {
+            GroupStore group = this.openGroup(groupId);
+            Segment segment = group.index.get(blockNum);
+            if (segment == null) {
+                return null;
+            }
+
+            byte[] payload = readPayload(segment.buffer, segment.offsets.get(blockNum));
+            if (payload == null) {
+                log.error("invalid record in block store, group: {} block: {}", groupId, blockNum);
+                return null;
+            }
+            return WeEventCodec.decode(payload);
+        } catch (IOException e) {
+            log.error("read block store failed", e);
+            return null;
+        }
+    }
+
+    /**
+     * append events in block, skip if exist already.
+     *
+     * @param groupId group id
+     * @param blockNum block number
+     * @param events events in block
+     */
+    public synchronized void put(String groupId, Long blockNum, List<WeEvent> events) {
+        if (this.closed) {
+            log.debug("block store is closed, skip block: {}", blockNum);
+            return;
+        }
+
+        try {
+            GroupStore group = this.openGroup(groupId);
+            if (group.index.containsKey(blockNum)) {
+                return;
+            }
+
+            byte[] payload = WeEventCodec.encode(events);
+            int recordSize = HEADER_SIZE + payload.length;
+            if (recordSize + END_MARKER_SIZE > this.segmentSize) {
+                log.warn("block is too large for block store, group: {} block: {} size: {}", groupId, blockNum, recordSize);
+                return;
+            }
+
+            if (group.active == null || group.active.position + recordSize + END_MARKER_SIZE > group.active.buffer.capacity()) {
+                this.roll(group);
+            }
+
+            Segment segment = group.active;
+            int offset = segment.position;
+            ByteBuffer buffer = segment.buffer;
+            CRC32 crc32 = new CRC32();
+            crc32.update(payload);
+
+            // end marker, body, then magic
+            buffer.putInt(offset + recordSize, 0);
+            buffer.putLong(offset + 4, blockNum);
+            buffer.putInt(offset + 12, payload.length);
+            buffer.putInt(offset + 16, (int) crc32.getValue());
+            ByteBuffer body = buffer.duplicate();
+            body.position(offset + HEADER_SIZE);
+            body.put(payload);
+            buffer.putInt(offset, MAGIC);
+
+            segment.position += recordSize;
+            segment.offsets.put(blockNum, offset);
+            group.index.put(blockNum, segment);
+        } catch (IOException e) {
+            log.error("write block store failed", e);
+        }
+    }
+
+    /**
+     * data size of the group in store.
+     *
+     * @param groupId group id
+     * @return bytes
+     */
+    public synchronized long size(String groupId) throws IOException {
+        if (this.closed) {
+            return 0;
+        }
+
+        long size = 0;
+        for (Segment segment : this.openGroup(groupId).segments.values()) {
+            size += segment.position;
+        }
+        return size;
+    }
+
+    public synchronized int segmentCount(String groupId) throws IOException {
+        if (this.closed) {
+            return 0;
+        }
+
+        return this.openGroup(groupId).segments.size();
+    }
+
+    /**
+     * flush and unmap all segments, store can not be used after closed.
+     */
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        for (GroupStore group : this.groups.values()) {
+            for (Segment segment : group.segments.values()) {
+                segment.close();
+            }
+        }
+        this.groups.clear();
+        log.info("block store closed, path: {}", this.baseDirectory.getAbsolutePath());
+    }
+
+    // release the mapping right now, buffer must not be accessed any more
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            // jdk9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (NoSuchMethodException e) {
+            // jdk8, fall through
+        } catch (Exception e) {
+            log.warn("unmap segment failed, {}", e.getMessage());
+            return;
+        }
+
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            log.warn("unmap segment failed, {}", e.getMessage());
+        }
+    }
+
+    private GroupStore openGroup(String groupId) throws IOException {
+        GroupStore group = this.groups.get(groupId);
+        if (group != null) {
+            return group;
+        }
+
+        group = new GroupStore();
+        group.directory = new File(this.baseDirectory, groupId);
+        if (!group.directory.exists() && !group.directory.mkdirs()) {
+            throw new IOException("create block store directory failed, " + group.directory);
+        }
+
+        File[] files = group.directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                long id = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+                group.segments.put(id, null);
+            }
+        }
+
+        // recover all segments, the last one is still writable
+        List<Long> ids = new ArrayList<>(group.segments.keySet());
+        for (int idx = 0; idx < ids.size(); idx++) {
+            boolean last = idx == ids.size() - 1;
+            Segment segment = this.openSegment(group, ids.get(idx), last);
+            recover(segment);
+            group.segments.put(segment.id, segment);
+            for (Long blockNum : segment.offsets.keySet()) {
+                group.index.put(blockNum, segment);
+            }
+            if (last) {
+                group.active = segment;
+            }
+        }
+        log.info("recover block store done, group: {} segments: {} blocks: {}", groupId, group.segments.size(), group.index.size());
+
+        this.groups.put(groupId, group);
+        this.retain(group);
+        return group;
+    }
+
+    private Segment openSegment(GroupStore group, long id, boolean writable) throws IOException {
+        Segment segment = new Segment();
+        segment.id = id;
+        segment.file = new File(group.directory, String.format("%020d%s", id, SEGMENT_SUFFIX));
+        RandomAccessFile file = new RandomAccessFile(segment.file, writable ? "rw" : "r");
+        segment.channel = file.getChannel();
+        if (writable) {
+            long size = Math.max(this.segmentSize, segment.channel.size());
+            segment.buffer = segment.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } else {
+            segment.buffer = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.channel.size());
+        }
+        return segment;
+    }
+
+    // rebuild index of segment, stop at the first invalid record
+    private static void recover(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + HEADER_SIZE <= buffer.capacity() && buffer.getInt(offset) == MAGIC) {
+            byte[] payload = readPayload(buffer, offset);
+            if (payload == null) {
+                log.warn("drop invalid record in segment: {} offset: {}", segment.file, offset);
+                break;
+            }
+
+            segment.offsets.put(buffer.getLong(offset + 4), offset);
+            offset += HEADER_SIZE + payload.length;
+        }
+        segment.position = offset;
+
+        // overwrite the invalid record if any
+        if (!buffer.isReadOnly() && offset + END_MARKER_SIZE <= buffer.capacity()) {
+            buffer.putInt(offset, 0);
+        }
+    }
+
+    // read and check payload, null if invalid
+    private static byte[] readPayload(ByteBuffer buffer, int offset) {
+        int length = buffer.getInt(offset + 12);
+        // in this order, or a corrupt length near Integer.MAX_VALUE overflow the sum
+        if (length < 0 || length > buffer.capacity() - offset - HEADER_SIZE) {
+            return null;
+        }
+
+        byte[] payload = new byte[length];
+        ByteBuffer body = buffer.duplicate();
+        body.position(offset + HEADER_SIZE);
+        body.get(payload);
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload);
+        if ((int) crc32.getValue() != buffer.getInt(offset + 16)) {
+            return null;
+        }
+        return payload;
+    }
+
+    // seal the active segment and create a new one
+    private void roll(GroupStore group) throws IOException {
+        long id = 0;
+        if (group.active != null) {
+            group.active.buffer.force();
+            if (!group.active.file.setLastModified(System.currentTimeMillis())) {
+                log.warn("update segment time failed, {}", group.active.file);
+            }
+            id = group.active.id + 1;
+        }
+
+        Segment segment = this.openSegment(group, id, true);
+        group.segments.put(id, segment);
+        group.active = segment;
+        log.info("roll new segment: {}", segment.file);
+
+        this.retain(group);
+    }
+
+    // delete the oldest sealed segments by size and age
+    private void retain(GroupStore group) {
+        long size = 0;
+        for (Segment segment : group.segments.values()) {
+            size += segment.position;
+        }
+
+        long now = System.currentTimeMillis();
+        while (group.segments.size() > 1) {
+            Segment oldest = group.segments.firstEntry().getValue();
+            if (size <= this.maxSize && now - oldest.file.lastModified() <= this.maxAge) {
+                break;
+            }
+
+            log.info("delete segment by retention, {}", oldest.file);
+            size -= oldest.position;
+            group.segments.remove(oldest.id);
+            for (Long blockNum : oldest.offsets.keySet()) {
+                group.index.remove(blockNum, oldest);
+            }
+            oldest.close();
+            if (!oldest.file.delete()) {
+                log.error("delete segment failed, {}", oldest.file);
+            }
+        }
+    }
+}
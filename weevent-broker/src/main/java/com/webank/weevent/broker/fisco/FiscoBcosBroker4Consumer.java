@@ -1,57 +1,45 @@
 package com.webank.weevent.broker.fisco;
 
-import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import com.webank.weevent.BrokerApplication;
-import com.webank.weevent.broker.fisco.dto.SubscriptionInfo;
-import com.webank.weevent.broker.fisco.util.ParamCheckUtils;
+import com.webank.weevent.broker.fisco.constant.WeEventConstants;
 import com.webank.weevent.broker.fisco.web3sdk.FiscoBcosDelegate;
+import com.webank.weevent.broker.ha.ShardedBlockChain;
 import com.webank.weevent.broker.plugin.IConsumer;
 import com.webank.weevent.broker.task.IBlockChain;
+import com.webank.weevent.broker.task.IEventLoopStats;
 import com.webank.weevent.broker.task.MainEventLoop;
 import com.webank.weevent.broker.task.Subscription;
+import com.webank.weevent.broker.task.SubscriptionCheckpoint;
+import com.webank.weevent.broker.task.SubscriptionManager;
 import com.webank.weevent.sdk.BrokerException;
-import com.webank.weevent.sdk.ErrorCode;
 import com.webank.weevent.sdk.WeEvent;
 
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 /**
  * Event broker's consumer implement in FISCO-BCOS.
+ * Subscriptions are managed in SubscriptionManager.
  * This class is thread safe.
  *
  * @author matthewliu
  * @since 2018/11/02
  */
 @Slf4j
-public class FiscoBcosBroker4Consumer extends FiscoBcosTopicAdmin implements IConsumer, IBlockChain, FiscoBcosDelegate.IBlockEventListener {
-    /**
-     * Subscription ID <-> Subscription
-     */
-    private Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
-
-    /**
-     * Group ID <-> MainEventLoop
-     */
-    private Map<Long, MainEventLoop> mainEventLoops = new ConcurrentHashMap<>();
-
+public class FiscoBcosBroker4Consumer extends FiscoBcosTopicAdmin implements IConsumer, IBlockChain, IEventLoopStats, FiscoBcosDelegate.IBlockEventListener {
     /**
      * daemon thread pool
      */
     private ThreadPoolTaskExecutor threadPoolTaskExecutor;
 
     /**
-     * Whether the Consumer has started
+     * subscriptions and main event loops
      */
-    private boolean consumerStarted = false;
+    private SubscriptionManager subscriptionManager;
 
     /**
      * idle time if no new block
@@ -63,229 +51,126 @@ public class FiscoBcosBroker4Consumer extends FiscoBcosTopicAdmin implements ICo
 
         this.threadPoolTaskExecutor = (ThreadPoolTaskExecutor) BrokerApplication.applicationContext.getBean("weevent_daemon_task_executor");
         this.idleTime = fiscoConfig.getConsumerIdleTime();
+        this.subscriptionManager = new SubscriptionManager(this, this,
+                new SubscriptionCheckpoint(BrokerApplication.weEventConfig.getCheckpointPath(),
+                        BrokerApplication.weEventConfig.getCheckpointFlushEvents(),
+                        BrokerApplication.weEventConfig.getCheckpointFlushMs(),
+                        BrokerApplication.weEventConfig.getCheckpointExpireSeconds() * 1000L));
+        this.subscriptionManager.setCreatedBlockLookup(this::getCreatedBlock);
+        this.subscriptionManager.setMergeBlock(fiscoConfig.getConsumerHistoryMergeBlock());
+        this.subscriptionManager.setNotifyBatch(BrokerApplication.weEventConfig.getDeliveryBatchSize(),
+                BrokerApplication.weEventConfig.getDeliveryLingerMs());
+        this.subscriptionManager.setNotifyQueueBound(BrokerApplication.weEventConfig.getDeliveryQueueMaxEvents(),
+                BrokerApplication.weEventConfig.getDeliveryQueueMaxBytes());
+        this.subscriptionManager.setDeliveryExecutor((ThreadPoolTaskExecutor) BrokerApplication.applicationContext.getBean("weevent_delivery_executor"));
+        this.subscriptionManager.setLatencyTracking(BrokerApplication.weEventConfig.getLatencyTracking());
         fiscoBcosDelegate.setListener(this);
     }
 
-    private static boolean isEventId(String offset) {
-        return !WeEvent.OFFSET_FIRST.equals(offset) && !WeEvent.OFFSET_LAST.equals(offset);
-    }
-
     // topic may be a topic pattern
     @Override
     public String subscribe(String topic, String groupId, String offset,
                             @NonNull Map<SubscribeExt, String> ext,
                             @NonNull ConsumerListener listener) throws BrokerException {
-        this.validateGroupId(groupId);
-        ParamCheckUtils.validateOffset(offset);
-
-        // topic pattern
-        if (Subscription.isTopicPattern(topic)) {
-            Subscription.validateTopicPattern(topic);
-            if (isEventId(offset)) {
-                // not a topic name
-                ParamCheckUtils.validateEventId("", offset, fiscoBcosDelegate.getBlockHeight(Long.parseLong(groupId)));
-            }
-        } else {    // topic name
-            ParamCheckUtils.validateTopicName(topic);
-
-            // check topic exist
-            if (!this.exist(topic, groupId)) {
-                throw new BrokerException(ErrorCode.TOPIC_NOT_EXIST);
-            }
-
-            if (isEventId(offset)) {
-                ParamCheckUtils.validateEventId(topic, offset, fiscoBcosDelegate.getBlockHeight(Long.parseLong(groupId)));
-            }
-        }
-
-        log.info("subscribe groupId: {} topic: {} offset: {} ext: {}", groupId, topic, offset, ext);
-        return subscribeTopic(topic, Long.valueOf(groupId), offset, ext, listener);
+        String[] topics = {topic};
+        return this.subscribe(topics, groupId, offset, ext, listener);
     }
 
     @Override
     public String subscribe(String[] topics, String groupId, String offset,
                             @NonNull Map<SubscribeExt, String> ext,
                             @NonNull ConsumerListener listener) throws BrokerException {
-        // check params
-        if (topics == null || topics.length == 0) {
-            throw new BrokerException(ErrorCode.TOPIC_LIST_IS_NULL);
-        }
-
         this.validateGroupId(groupId);
-        ParamCheckUtils.validateOffset(offset);
+        return this.subscriptionManager.subscribe(topics, groupId, offset, ext, listener);
+    }
 
-        if (isEventId(offset)) {
-            // do not validate topic name and eventId if more then one topic
-            ParamCheckUtils.validateEventId(topics.length > 1 ? "" : topics[0],
-                    offset,
-                    fiscoBcosDelegate.getBlockHeight(Long.parseLong(groupId)));
+    /**
+     * the first block where the topics created.
+     *
+     * @param topics topic name or pattern list
+     * @param groupId group id
+     * @return null if unknown, like topic pattern
+     */
+    private Long getCreatedBlock(String[] topics, String groupId) {
+        // 1.x only record the last block of topic
+        if (fiscoConfig.getVersion().startsWith(WeEventConstants.FISCO_BCOS_1_X_VERSION_PREFIX)) {
+            return null;
         }
 
+        Long createdBlock = null;
         for (String topic : topics) {
             if (Subscription.isTopicPattern(topic)) {
-                Subscription.validateTopicPattern(topic);
-            } else {
-                ParamCheckUtils.validateTopicName(topic);
-
-                // check topic exist
-                if (!this.exist(topic, groupId)) {
-                    throw new BrokerException(ErrorCode.TOPIC_NOT_EXIST);
-                }
+                return null;
             }
-        }
-
-        log.info("subscribe groupId:{} topics: {} offset: {} ext:{}", groupId, Arrays.toString(topics), offset, ext);
-        return subscribeTopic(topics, Long.valueOf(groupId), offset, ext, listener);
-    }
-
-    private String subscribeTopic(String topic, Long groupId, String offset, Map<SubscribeExt, String> ext, ConsumerListener listener) throws BrokerException {
-        String[] topics = {topic};
-        return subscribeTopic(topics, groupId, offset, ext, listener);
-    }
 
-    private String subscribeTopic(String[] topics, Long groupId, String offset, Map<SubscribeExt, String> ext, ConsumerListener listener) throws BrokerException {
-        // external params
-        String interfaceType = "";
-        if (ext.containsKey(SubscribeExt.InterfaceType)) {
-            interfaceType = ext.get(SubscribeExt.InterfaceType);
-        }
-        String remoteIp = "";
-        if (ext.containsKey(SubscribeExt.RemoteIP)) {
-            remoteIp = ext.get(SubscribeExt.RemoteIP);
-        }
-        String tag = "";
-        if (ext.containsKey(SubscribeExt.TopicTag)) {
-            tag = ext.get(SubscribeExt.TopicTag);
-            if (StringUtils.isBlank(tag)) {
-                throw new BrokerException(ErrorCode.TOPIC_TAG_IS_BLANK);
+            try {
+                Long blockNumber = fiscoBcosDelegate.getTopicInfo(topic, Long.valueOf(groupId)).getCreatedBlock();
+                if (blockNumber == null) {
+                    return null;
+                }
+                if (createdBlock == null || blockNumber < createdBlock) {
+                    createdBlock = blockNumber;
+                }
+            } catch (BrokerException e) {
+                log.error("get topic info failed, start history from the first block", e);
+                return null;
             }
         }
-
-        // custom input subscriptionId, support in STOMP
-        String subscriptionId = "";
-        if (ext.containsKey(SubscribeExt.SubscriptionId)) {
-            subscriptionId = ext.get(SubscribeExt.SubscriptionId);
-            ParamCheckUtils.validateSubscriptionId(subscriptionId);
-        }
-
-        if (this.subscriptions.containsKey(subscriptionId)) {
-            log.info("already exist subscription: {}", subscriptionId);
-
-            // subscription in MQTT and STOMP is connection orientated, will auto unsubscribe when connection lost.
-            // so it's something wrong when already exist
-            throw new BrokerException(ErrorCode.SUBSCRIPTIONID_ALREADY_EXIST);
-        }
-
-        // new subscribe
-        Subscription subscription = new Subscription(this,
-                subscriptionId,
-                topics,
-                String.valueOf(groupId),
-                offset,
-                tag,
-                listener);
-        subscription.setMergeBlock(fiscoConfig.getConsumerHistoryMergeBlock());
-        subscription.setInterfaceType(interfaceType);
-        subscription.setRemoteIp(remoteIp);
-
-        this.subscriptions.put(subscription.getUuid(), subscription);
-        this.mainEventLoops.get(groupId).addSubscription(subscription);
-
-        return subscription.getUuid();
+        return createdBlock;
     }
 
     @Override
     public boolean unSubscribe(String subscriptionId) throws BrokerException {
-        if (StringUtils.isBlank(subscriptionId)) {
-            throw new BrokerException(ErrorCode.SUBSCRIPTIONID_IS_BLANK);
-        }
-
-        if (!this.subscriptions.containsKey(subscriptionId)) {
-            log.warn("not exist subscriptionId {}", subscriptionId);
-            throw new BrokerException(ErrorCode.SUBSCRIPTIONID_NOT_EXIST);
-        }
-
-        Subscription subscription = this.subscriptions.get(subscriptionId);
-        this.mainEventLoops.get(Long.valueOf(subscription.getGroupId())).removeSubscription(subscription);
-        this.subscriptions.remove(subscriptionId);
-
-        log.info("unSubscribe success, subscriptionId {}", subscriptionId);
-        return true;
+        return this.subscriptionManager.unSubscribe(subscriptionId);
     }
 
     @Override
     public boolean isStarted() {
-        return this.consumerStarted;
+        return this.subscriptionManager.isStarted();
     }
 
     @Override
     public synchronized boolean startConsumer() throws BrokerException {
-        if (this.consumerStarted) {
-            throw new BrokerException(ErrorCode.CONSUMER_ALREADY_STARTED);
-        }
+        // only the owner of group ingest from block chain in HA cluster
+        IBlockChain blockChain = ShardedBlockChain.build(this);
 
         // load MainEventLoop with configuration
-        for (String groupId : fiscoBcosDelegate.listGroupId()) {
-            MainEventLoop mainEventLoop = new MainEventLoop(this.threadPoolTaskExecutor, this, groupId);
-            mainEventLoop.doStart();
-            Long gid = Long.valueOf(groupId);
-            this.mainEventLoops.put(gid, mainEventLoop);
-        }
-
-        this.consumerStarted = true;
-        log.info("start consumer finish");
+        this.subscriptionManager.start(fiscoBcosDelegate.listGroupId(), groupId -> {
+            MainEventLoop mainEventLoop = new MainEventLoop(this.threadPoolTaskExecutor,
+                    blockChain,
+                    groupId,
+                    fiscoConfig.getConsumerPrefetchDepth(),
+                    fiscoConfig.getConsumerPrefetchWorkers());
+            mainEventLoop.enableHistoryBackfill(fiscoConfig.getConsumerBackfillWorkers(),
+                    fiscoConfig.getConsumerBackfillChunkSize(),
+                    fiscoConfig.getConsumerBackfillMaxPendingChunks(),
+                    fiscoConfig.getConsumerBackfillMaxPendingBytes());
+            if (fiscoConfig.getConsumerTopicIndex()) {
+                mainEventLoop.enableTopicIndex(BrokerApplication.weEventConfig.getBlockStorePath());
+            }
+            mainEventLoop.setCatchUpBatch(fiscoConfig.getConsumerCatchUpBatch());
+            return mainEventLoop;
+        });
         return true;
     }
 
     @Override
     public synchronized boolean shutdownConsumer() {
-        // stop main event loop and referred subscription
-        for (Map.Entry<Long, MainEventLoop> mainEventLoop : this.mainEventLoops.entrySet()) {
-            mainEventLoop.getValue().doStop();
-        }
-        this.mainEventLoops.clear();
-        this.subscriptions.clear();
-
-        this.consumerStarted = false;
-
-        log.info("shutdown consumer finish");
+        this.subscriptionManager.shutdown();
+        FiscoBcosDelegate.closeBlockStore();
         return true;
     }
 
     @Override
-    public synchronized Map<String, Object> listSubscription(String groupId) throws BrokerException {
+    public Map<String, Object> listSubscription(String groupId) throws BrokerException {
         this.validateGroupId(groupId);
-        Map<String, Object> subscribeIdList = new HashMap<>();
-        for (Map.Entry<String, Subscription> entry : this.subscriptions.entrySet()) {
-            Subscription subscription = entry.getValue();
-            if (!groupId.equals(subscription.getGroupId())){
-                continue;
-            }
-
-            SubscriptionInfo subscriptionInfo = new SubscriptionInfo();
-            subscriptionInfo.setInterfaceType(subscription.getInterfaceType());
-            subscriptionInfo.setNotifiedEventCount(subscription.getNotifiedEventCount().toString());
-            subscriptionInfo.setNotifyingEventCount(subscription.getNotifyingEventCount().toString());
-            subscriptionInfo.setNotifyTimeStamp(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss")
-                    .format(subscription.getNotifyTimeStamp()));
-            subscriptionInfo.setRemoteIp(subscription.getRemoteIp());
-            subscriptionInfo.setCreateTimeStamp(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss")
-                    .format(subscription.getCreateTimeStamp()));
-            subscriptionInfo.setGroupId(subscription.getGroupId());
-
-            // Arrays.toString will append plus "[]"
-            if (subscription.getTopics().length == 1) {
-                subscriptionInfo.setTopicName(subscription.getTopics()[0]);
-            } else {
-                subscriptionInfo.setTopicName(Arrays.toString(subscription.getTopics()));
-            }
-
-            subscriptionInfo.setSubscribeId(subscription.getUuid());
-            subscribeIdList.put(subscription.getUuid(), subscriptionInfo);
-        }
+        return this.subscriptionManager.listSubscription(groupId);
+    }
 
-        log.debug("subscriptions: {}", this.subscriptions.toString());
-        return subscribeIdList;
+    // methods from IEventLoopStats
+    @Override
+    public Map<String, MainEventLoop.Stats> listEventLoopStats() {
+        return this.subscriptionManager.listEventLoopStats();
     }
 
     // methods from IBlockChain
@@ -312,8 +197,6 @@ public class FiscoBcosBroker4Consumer extends FiscoBcosTopicAdmin implements ICo
     // method from FiscoBcosDelegate.IBlockEventListener
     @Override
     public void onEvent(Long groupId, Long blockHeight) {
-        if (this.mainEventLoops.containsKey(groupId)) {
-            this.mainEventLoops.get(groupId).onNewBlock(blockHeight);
-        }
+        this.subscriptionManager.onNewBlock(String.valueOf(groupId), blockHeight);
     }
 }
@@ -1,8 +1,12 @@
 package com.webank.weevent.broker.fisco;
 
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 
+import com.webank.weevent.BrokerApplication;
 import com.webank.weevent.broker.fisco.util.ParamCheckUtils;
+import com.webank.weevent.broker.metrics.BrokerMetrics;
+import com.webank.weevent.broker.metrics.LatencyTracker;
 import com.webank.weevent.broker.plugin.IProducer;
 import com.webank.weevent.sdk.BrokerException;
 import com.webank.weevent.sdk.SendResult;
@@ -28,14 +32,29 @@ public class FiscoBcosBroker4Producer extends FiscoBcosTopicAdmin implements IPr
     public SendResult publish(WeEvent event, String groupId) throws BrokerException {
         log.debug("publish {} groupId: {}", event, groupId);
 
+        // stamp publish time for end to end latency before checked, so the stamp is checked too, see LatencyTracker
+        if (BrokerApplication.weEventConfig.getLatencyTracking()) {
+            event.setExtensions(LatencyTracker.withStamp(event.getExtensions(), WeEvent.WeEvent_PublishTime, System.currentTimeMillis()));
+        }
         ParamCheckUtils.validateEvent(event);
         this.validateGroupId(groupId);
 
         // publishEvent support async operator in callback
-        SendResult sendResult = fiscoBcosDelegate.publishEvent(event.getTopic(),
-                Long.parseLong(groupId),
-                new String(event.getContent(), StandardCharsets.UTF_8),
-                JSON.toJSONString(event.getExtensions()));
+
+        long start = System.nanoTime();
+        SendResult sendResult;
+        try {
+            sendResult = fiscoBcosDelegate.publishEvent(event.getTopic(),
+                    Long.parseLong(groupId),
+                    new String(event.getContent(), StandardCharsets.UTF_8),
+                    JSON.toJSONString(event.getExtensions()));
+        } catch (BrokerException e) {
+            BrokerMetrics.publishTimer(groupId, SendResult.SendResultStatus.ERROR.name())
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+        BrokerMetrics.publishTimer(groupId, sendResult.getStatus().name())
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 
         log.info("publish result: {}", sendResult);
         return sendResult;
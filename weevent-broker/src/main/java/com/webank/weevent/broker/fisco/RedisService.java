@@ -1,30 +1,166 @@
 package com.webank.weevent.broker.fisco;
 
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
 
-import com.webank.weevent.broker.fisco.util.SerializeUtils;
+import com.webank.weevent.broker.fisco.util.WeEventCodec;
 import com.webank.weevent.sdk.WeEvent;
 
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.params.SetParams;
 
-@Data
+/**
+ * Block data cached in redis.
+ * ##### more details #####
+ * Blocks is read in batch with one MGET, and written in batch with one pipeline, set if not exist with expiry.
+ * writeEventsToRedisAsync queue the block to a writer thread, which write all the queued blocks in one pipeline.
+ * The round trips is counted, the old version took 2 round trips(exists + get) for every cached block.
+ *
+ * @author matthewliu
+ * @since 2019/10/31
+ */
+@Slf4j
 public class RedisService {
+    // blocks waiting for writer thread
+    private final static int WRITE_QUEUE_SIZE = 1024;
 
+    // max blocks in one pipeline
+    private final static int WRITE_BATCH_SIZE = 64;
+
+    /**
+     * statistics of redis access
+     */
+    @Data
+    public static class Stats {
+        private long readRoundTrips;
+        private long writeRoundTrips;
+        private long keysRead;
+        private long keysHit;
+        private long keysWritten;
+
+        /**
+         * round trips saved for every block read from redis, compared with exists + get.
+         *
+         * @return saved round trips
+         */
+        public double getSavedRoundTripsPerBlock() {
+            return this.keysHit == 0 ? 0 : (2.0 * this.keysHit - this.readRoundTrips) / this.keysHit;
+        }
+    }
+
+    @Getter
+    @Setter
     private JedisPool jedisPool;
 
-    public void writeEventsToRedis(String blockNum, List<WeEvent> list) {
+    // expiry of block data in seconds, 0 meanings never
+    @Getter
+    @Setter
+    private int expireSeconds = 0;
+
+    private final BlockingQueue<Map.Entry<String, List<WeEvent>>> pending = new LinkedBlockingQueue<>(WRITE_QUEUE_SIZE);
+    private volatile Thread writer;
+
+    private final LongAdder readRoundTrips = new LongAdder();
+    private final LongAdder writeRoundTrips = new LongAdder();
+    private final LongAdder keysRead = new LongAdder();
+    private final LongAdder keysHit = new LongAdder();
+    private final LongAdder keysWritten = new LongAdder();
+
+    public void writeEventsToRedis(String key, List<WeEvent> list) {
+        Map<String, List<WeEvent>> blocks = new HashMap<>();
+        blocks.put(key, list);
+        this.writeEventsToRedis(blocks);
+    }
+
+    /**
+     * write block in writer thread, it's skipped if too many blocks is waiting.
+     *
+     * @param key block key
+     * @param list events in block
+     */
+    public void writeEventsToRedisAsync(String key, List<WeEvent> list) {
+        if (this.writer == null) {
+            this.startWriter();
+        }
+        if (!this.pending.offer(new AbstractMap.SimpleEntry<>(key, list))) {
+            log.warn("too many blocks waiting to write into redis, skip block: {}", key);
+        }
+    }
+
+    /**
+     * write blocks in one pipeline.
+     *
+     * @param blocks key <-> events in block
+     */
+    public void writeEventsToRedis(Map<String, List<WeEvent>> blocks) {
+        if (blocks.isEmpty()) {
+            return;
+        }
+
+        SetParams params = SetParams.setParams().nx();
+        if (this.expireSeconds > 0) {
+            params.ex(this.expireSeconds);
+        }
         try (Jedis jedis = getJedis()) {
-            jedis.setnx(blockNum.getBytes(), SerializeUtils.serializeList(list));
+            Pipeline pipeline = jedis.pipelined();
+            for (Map.Entry<String, List<WeEvent>> block : blocks.entrySet()) {
+                pipeline.set(block.getKey().getBytes(StandardCharsets.UTF_8), WeEventCodec.encode(block.getValue()), params);
+            }
+            pipeline.sync();
         }
+        this.writeRoundTrips.increment();
+        this.keysWritten.add(blocks.size());
+    }
+
+    /**
+     * @param key block key
+     * @return null if not exist
+     */
+    public List<WeEvent> readEventsFromRedis(String key) {
+        return this.readEventsFromRedis(new String[]{key}).get(key);
     }
 
-    public List<WeEvent> readEventsFromRedis(String blockNum) {
+    /**
+     * read blocks in one MGET.
+     *
+     * @param keys block keys
+     * @return key <-> events in block, only the exist ones
+     */
+    public Map<String, List<WeEvent>> readEventsFromRedis(String[] keys) {
+        byte[][] rawKeys = new byte[keys.length][];
+        for (int idx = 0; idx < keys.length; idx++) {
+            rawKeys[idx] = keys[idx].getBytes(StandardCharsets.UTF_8);
+        }
+
+        List<byte[]> values;
         try (Jedis jedis = getJedis()) {
-            byte[] in = jedis.get(blockNum.getBytes());
-            return SerializeUtils.deserializeList(in);
+            values = jedis.mget(rawKeys);
+        }
+        this.readRoundTrips.increment();
+        this.keysRead.add(keys.length);
+
+        Map<String, List<WeEvent>> blocks = new HashMap<>();
+        for (int idx = 0; idx < keys.length && idx < values.size(); idx++) {
+            List<WeEvent> events = WeEventCodec.decode(values.get(idx));
+            if (events != null) {
+                blocks.put(keys[idx], events);
+            }
         }
+        this.keysHit.add(blocks.size());
+        return blocks;
     }
 
     public boolean isEventsExistInRedis(String blocknum) {
@@ -33,6 +169,45 @@ public class RedisService {
         }
     }
 
+    public Stats getStats() {
+        Stats stats = new Stats();
+        stats.setReadRoundTrips(this.readRoundTrips.sum());
+        stats.setWriteRoundTrips(this.writeRoundTrips.sum());
+        stats.setKeysRead(this.keysRead.sum());
+        stats.setKeysHit(this.keysHit.sum());
+        stats.setKeysWritten(this.keysWritten.sum());
+        return stats;
+    }
+
+    private synchronized void startWriter() {
+        if (this.writer != null) {
+            return;
+        }
+
+        this.writer = new Thread(() -> {
+            List<Map.Entry<String, List<WeEvent>>> batch = new ArrayList<>();
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    batch.add(this.pending.take());
+                    this.pending.drainTo(batch, WRITE_BATCH_SIZE - 1);
+
+                    Map<String, List<WeEvent>> blocks = new HashMap<>();
+                    for (Map.Entry<String, List<WeEvent>> block : batch) {
+                        blocks.put(block.getKey(), block.getValue());
+                    }
+                    this.writeEventsToRedis(blocks);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    log.error("write blocks into redis failed, skip {} blocks", batch.size(), e);
+                }
+                batch.clear();
+            }
+        }, "redis_writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
     private Jedis getJedis() {
         return this.jedisPool.getResource();
     }
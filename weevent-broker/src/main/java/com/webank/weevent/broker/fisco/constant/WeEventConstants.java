@@ -121,6 +121,9 @@ public class WeEventConstants {
 
     public static final String FABRIC = "fabric";
 
+    // simulated block chain in memory, for load test
+    public static final String MEMORY = "memory";
+
     public static final String TOPIC_ALREADY_EXIST = "100100";
 
 }
@@ -24,6 +24,21 @@ public class SubscriptionInfo {
      */
     private String notifyingEventCount;
 
+    /**
+     * estimated bytes of notifying events.
+     */
+    private String notifyingEventBytes;
+
+    /**
+     * times of notify queue overflow.
+     */
+    private String overflowCount;
+
+    /**
+     * times of demoted into history replay.
+     */
+    private String demotionCount;
+
     /**
      * event notify TimeStamp.
      */
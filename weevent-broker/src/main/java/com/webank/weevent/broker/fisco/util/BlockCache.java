@@ -0,0 +1,723 @@
+package com.webank.weevent.broker.fisco.util;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Block data cached in local memory, bounded by bytes.
+ * ##### more details #####
+ * The key is (group, block number) packed in a long, every group is mapped to a small index.
+ * Cache is split into stripes by key hash, every stripe has it's own lock, hash table and lists,
+ * so the access in different stripes never block each other.
+ * Admission and eviction is frequency aware like W-TinyLFU:
+ * new block is put into a small window LRU list first, while it's evicted from window,
+ * it can go into the main LRU list only if it's accessed more frequently than the main list's victim.
+ * The access frequency is recorded in a count-min sketch, and halved periodically so old hot block will cool down.
+ * Blocks are not kept as WeEvent objects, but encoded into chunks of an off-heap arena in every stripe,
+ * with topic name replaced by an id in a shared dictionary. Eviction just return the chunks into free list.
+ * A hit copy the encoded block out, and every event is decoded only when it's accessed in the returned list.
+ * The layout is not WeEventCodec used by redis and block store, for two reasons:
+ * every event is located by an offset table and decoded alone, while WeEventCodec's varints must be scanned from the head;
+ * topic id is from the dictionary shared by whole cache, not one in every block, so the decoded topic is the same String.
+ * This class is thread safe.
+ *
+ * @author matthewliu
+ * @since 2019/10/29
+ */
+@Slf4j
+public class BlockCache {
+    // stripe number, power of 2
+    private final static int STRIPES = 16;
+
+    // low bits for block number in key
+    private final static int BLOCK_BITS = 48;
+
+    // window list take 1/WINDOW_RATIO of stripe
+    private final static int WINDOW_RATIO = 100;
+
+    // counters in sketch of one stripe, power of 2
+    private final static int SKETCH_WIDTH = 4096;
+
+    // arena is allocated in chunk, and the direct buffer is allocated in page
+    private final static int CHUNK_SIZE = 512;
+    private final static int PAGE_SIZE = 1024 * 1024;
+    private final static int CHUNKS_PER_PAGE = PAGE_SIZE / CHUNK_SIZE;
+
+    // null in encoded length
+    private final static int NULL_LENGTH = -1;
+
+    /**
+     * statistics of cache
+     */
+    @Data
+    public static class Stats {
+        private long hitCount;
+        private long missCount;
+        private long evictionCount;
+        private long entryCount;
+        private long weight;
+        private long maxWeight;
+        // direct memory allocated by arena
+        private long offHeapBytes;
+        private long topicCount;
+
+        public double getHitRate() {
+            long total = this.hitCount + this.missCount;
+            return total == 0 ? 0 : (double) this.hitCount / total;
+        }
+    }
+
+    /**
+     * entry in hash table and list, the block is in arena
+     */
+    static final class Node {
+        private long key;
+        // first chunk in arena, -1 if not allocated yet
+        private int chunk = -1;
+        private int length;
+        private int weight;
+        private boolean window;
+        private boolean live;
+        private Node prev;
+        private Node next;
+    }
+
+    /**
+     * double linked list in access order, head is the newest
+     */
+    static final class AccessList {
+        private Node head;
+        private Node tail;
+        private long weight;
+
+        void addFirst(Node node) {
+            node.prev = null;
+            node.next = this.head;
+            if (this.head != null) {
+                this.head.prev = node;
+            } else {
+                this.tail = node;
+            }
+            this.head = node;
+            this.weight += node.weight;
+        }
+
+        void remove(Node node) {
+            if (node.prev != null) {
+                node.prev.next = node.next;
+            } else {
+                this.head = node.next;
+            }
+            if (node.next != null) {
+                node.next.prev = node.prev;
+            } else {
+                this.tail = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            this.weight -= node.weight;
+        }
+
+        void moveToFirst(Node node) {
+            if (this.head != node) {
+                this.remove(node);
+                this.addFirst(node);
+            }
+        }
+    }
+
+    /**
+     * count-min sketch with 4 rows in byte counters
+     */
+    static final class FrequencySketch {
+        private byte[] counters = new byte[SKETCH_WIDTH * 4];
+        private int additions = 0;
+
+        void increment(long key) {
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                int idx = index(key, row);
+                if (this.counters[idx] < 15) {
+                    this.counters[idx]++;
+                    added = true;
+                }
+            }
+
+            // aging
+            if (added && ++this.additions >= SKETCH_WIDTH * 10) {
+                for (int idx = 0; idx < this.counters.length; idx++) {
+                    this.counters[idx] >>= 1;
+                }
+                this.additions = 0;
+            }
+        }
+
+        int frequency(long key) {
+            int frequency = Integer.MAX_VALUE;
+            for (int row = 0; row < 4; row++) {
+                frequency = Math.min(frequency, this.counters[index(key, row)]);
+            }
+            return frequency;
+        }
+
+        private static int index(long key, int row) {
+            long hash = (key + row * 0x9E3779B97F4A7C15L) * 0xC2B2AE3D27D4EB4FL;
+            hash ^= hash >>> 29;
+            return row * SKETCH_WIDTH + (int) (hash & (SKETCH_WIDTH - 1));
+        }
+    }
+
+    /**
+     * off-heap memory of one stripe, in fixed size chunks.
+     * The chunks of a block is linked by next, and the free chunks is linked in the same way.
+     * Pages is allocated on demand and never released, so there is no GC or free of direct memory after warm up.
+     */
+    static final class Arena {
+        private final int maxChunks;
+        private final ByteBuffer[] pages;
+        private final int[] next;
+        // free list head, -1 if empty
+        private int free = -1;
+        // chunks after this is never used
+        private int unused = 0;
+        private final AtomicLong allocated;
+
+        Arena(int maxChunks, AtomicLong allocated) {
+            this.maxChunks = maxChunks;
+            this.pages = new ByteBuffer[(maxChunks + CHUNKS_PER_PAGE - 1) / CHUNKS_PER_PAGE];
+            this.next = new int[maxChunks];
+            this.allocated = allocated;
+        }
+
+        /**
+         * @return first chunk, -1 if not enough
+         */
+        int allocate(int count) {
+            int first = -1;
+            for (int idx = 0; idx < count; idx++) {
+                int chunk;
+                if (this.free != -1) {
+                    chunk = this.free;
+                    this.free = this.next[chunk];
+                } else if (this.unused < this.maxChunks) {
+                    chunk = this.unused++;
+                    this.ensurePage(chunk / CHUNKS_PER_PAGE);
+                } else {
+                    this.release(first);
+                    return -1;
+                }
+
+                // push front, the order of chunks is reversed later in write
+                this.next[chunk] = first;
+                first = chunk;
+            }
+            return first;
+        }
+
+        void release(int chunk) {
+            while (chunk != -1) {
+                int following = this.next[chunk];
+                this.next[chunk] = this.free;
+                this.free = chunk;
+                chunk = following;
+            }
+        }
+
+        /**
+         * write data into the chunks from allocate.
+         *
+         * @return first chunk in data order
+         */
+        int write(int chunk, byte[] data) {
+            // reverse the chunk list, it's pushed front in allocate
+            int first = -1;
+            while (chunk != -1) {
+                int following = this.next[chunk];
+                this.next[chunk] = first;
+                first = chunk;
+                chunk = following;
+            }
+
+            int offset = 0;
+            for (chunk = first; chunk != -1 && offset < data.length; chunk = this.next[chunk]) {
+                int length = Math.min(CHUNK_SIZE, data.length - offset);
+                ByteBuffer page = this.position(chunk);
+                page.put(data, offset, length);
+                offset += length;
+            }
+            return first;
+        }
+
+        byte[] read(int chunk, int length) {
+            byte[] data = new byte[length];
+            int offset = 0;
+            for (; chunk != -1 && offset < length; chunk = this.next[chunk]) {
+                int size = Math.min(CHUNK_SIZE, length - offset);
+                ByteBuffer page = this.position(chunk);
+                page.get(data, offset, size);
+                offset += size;
+            }
+            return data;
+        }
+
+        private ByteBuffer position(int chunk) {
+            ByteBuffer page = this.pages[chunk / CHUNKS_PER_PAGE];
+            page.clear();
+            page.position((chunk % CHUNKS_PER_PAGE) * CHUNK_SIZE);
+            return page;
+        }
+
+        private void ensurePage(int page) {
+            if (this.pages[page] == null) {
+                int chunks = Math.min(CHUNKS_PER_PAGE, this.maxChunks - page * CHUNKS_PER_PAGE);
+                this.pages[page] = ByteBuffer.allocateDirect(chunks * CHUNK_SIZE);
+                this.allocated.addAndGet((long) chunks * CHUNK_SIZE);
+            }
+        }
+    }
+
+    /**
+     * one stripe, all the method is called within it's lock
+     */
+    static final class Stripe {
+        // open addressing hash table, linear probing
+        private Node[] table = new Node[16];
+        private int size = 0;
+
+        private AccessList window = new AccessList();
+        private AccessList main = new AccessList();
+        private FrequencySketch sketch = new FrequencySketch();
+        private Arena arena;
+
+        private long windowMaxWeight;
+        private long mainMaxWeight;
+
+        Stripe(long maxWeight, AtomicLong allocated) {
+            int maxChunks = (int) Math.min(maxWeight / CHUNK_SIZE, Integer.MAX_VALUE);
+            long capacity = (long) maxChunks * CHUNK_SIZE;
+            this.arena = new Arena(maxChunks, allocated);
+            this.windowMaxWeight = Math.min(Math.max(capacity / WINDOW_RATIO, CHUNK_SIZE), capacity);
+            this.mainMaxWeight = capacity - this.windowMaxWeight;
+        }
+
+        Node find(long key) {
+            int mask = this.table.length - 1;
+            for (int idx = spread(key) & mask; this.table[idx] != null; idx = (idx + 1) & mask) {
+                if (this.table[idx].key == key) {
+                    return this.table[idx];
+                }
+            }
+            return null;
+        }
+
+        void insert(Node node) {
+            if ((this.size + 1) * 2 > this.table.length) {
+                Node[] old = this.table;
+                this.table = new Node[old.length * 2];
+                this.size = 0;
+                for (Node exist : old) {
+                    if (exist != null) {
+                        this.insert(exist);
+                    }
+                }
+            }
+
+            int mask = this.table.length - 1;
+            int idx = spread(node.key) & mask;
+            while (this.table[idx] != null) {
+                idx = (idx + 1) & mask;
+            }
+            this.table[idx] = node;
+            this.size++;
+            node.live = true;
+        }
+
+        // remove with backward shift, no tombstone, and release it's chunks
+        void delete(Node node) {
+            int mask = this.table.length - 1;
+            int idx = spread(node.key) & mask;
+            while (this.table[idx] != node) {
+                idx = (idx + 1) & mask;
+            }
+
+            int hole = idx;
+            this.table[hole] = null;
+            this.size--;
+            for (idx = (hole + 1) & mask; this.table[idx] != null; idx = (idx + 1) & mask) {
+                int home = spread(this.table[idx].key) & mask;
+                // move back if it's home is not in (hole, idx]
+                if (((idx - home) & mask) >= ((idx - hole) & mask)) {
+                    this.table[hole] = this.table[idx];
+                    this.table[idx] = null;
+                    hole = idx;
+                }
+            }
+
+            node.live = false;
+            this.arena.release(node.chunk);
+            node.chunk = -1;
+        }
+
+        /**
+         * @return evicted entry number
+         */
+        int add(Node node, byte[] data) {
+            int evicted = 0;
+            this.insert(node);
+            node.window = true;
+            this.window.addFirst(node);
+
+            // move window's victim into main, if it's more frequent than main's victim
+            while (this.window.weight > this.windowMaxWeight) {
+                Node candidate = this.window.tail;
+                this.window.remove(candidate);
+                candidate.window = false;
+
+                int frequency = this.sketch.frequency(candidate.key);
+                while (this.main.weight + candidate.weight > this.mainMaxWeight
+                        && this.main.tail != null
+                        && this.sketch.frequency(this.main.tail.key) < frequency) {
+                    Node victim = this.main.tail;
+                    this.main.remove(victim);
+                    this.delete(victim);
+                    evicted++;
+                }
+
+                if (this.main.weight + candidate.weight <= this.mainMaxWeight) {
+                    this.main.addFirst(candidate);
+                } else {
+                    this.delete(candidate);
+                    evicted++;
+                }
+            }
+
+            // the weight in lists is within arena now, so there must be enough free chunks
+            if (node.live) {
+                int chunk = this.arena.allocate(node.weight / CHUNK_SIZE);
+                if (chunk == -1) {
+                    log.error("no free chunk in block cache arena, weight: {}", node.weight);
+                    if (node.window) {
+                        this.window.remove(node);
+                    } else {
+                        this.main.remove(node);
+                    }
+                    this.delete(node);
+                } else {
+                    node.chunk = this.arena.write(chunk, data);
+                }
+            }
+            return evicted;
+        }
+    }
+
+    /**
+     * events in a cached block, decoded while it's accessed.
+     * It's read only.
+     */
+    static final class LazyBlock extends AbstractList<WeEvent> implements RandomAccess {
+        private final byte[] data;
+        private final String[] topicNames;
+        private final WeEvent[] events;
+
+        LazyBlock(byte[] data, String[] topicNames) {
+            this.data = data;
+            this.topicNames = topicNames;
+            this.events = new WeEvent[ByteBuffer.wrap(data).getInt(0)];
+        }
+
+        @Override
+        public WeEvent get(int index) {
+            if (index < 0 || index >= this.events.length) {
+                throw new IndexOutOfBoundsException("index: " + index + " size: " + this.events.length);
+            }
+
+            WeEvent event = this.events[index];
+            if (event == null) {
+                ByteBuffer buffer = ByteBuffer.wrap(this.data);
+                buffer.position(buffer.getInt(4 + 4 * index));
+                event = decodeEvent(buffer, this.topicNames);
+                this.events[index] = event;
+            }
+            return event;
+        }
+
+        @Override
+        public int size() {
+            return this.events.length;
+        }
+    }
+
+    private Stripe[] stripes = new Stripe[STRIPES];
+
+    private long maxWeight;
+
+    // group <-> index in key
+    private Map<String, Long> groups = new ConcurrentHashMap<>();
+    private AtomicInteger groupIndex = new AtomicInteger(0);
+
+    // topic name <-> id in encoded block, the names is interned
+    private Map<String, Integer> topicIds = new ConcurrentHashMap<>();
+    private volatile String[] topicNames = new String[16];
+    private int topicCount = 0;
+
+    private LongAdder hitCount = new LongAdder();
+    private LongAdder missCount = new LongAdder();
+    private LongAdder evictionCount = new LongAdder();
+    private AtomicLong offHeapBytes = new AtomicLong(0);
+
+    /**
+     * @param maxWeight max bytes of cached blocks, see weigh
+     */
+    public BlockCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+        for (int idx = 0; idx < STRIPES; idx++) {
+            this.stripes[idx] = new Stripe(maxWeight / STRIPES, this.offHeapBytes);
+        }
+    }
+
+    /**
+     * memory of events in block, it's the encoded size in chunks.
+     *
+     * @param events events in block
+     * @return bytes
+     */
+    public static int weigh(List<WeEvent> events) {
+        return weighEncoded(encode(events, topic -> 0).length);
+    }
+
+    private static int weighEncoded(int length) {
+        return (length + CHUNK_SIZE - 1) / CHUNK_SIZE * CHUNK_SIZE;
+    }
+
+    public List<WeEvent> get(String group, Long blockNum) {
+        long key = this.key(group, blockNum);
+        Stripe stripe = this.stripeOf(key);
+        byte[] data = null;
+        synchronized (stripe) {
+            stripe.sketch.increment(key);
+            Node node = stripe.find(key);
+            if (node != null && node.chunk != -1) {
+                if (node.window) {
+                    stripe.window.moveToFirst(node);
+                } else {
+                    stripe.main.moveToFirst(node);
+                }
+                data = stripe.arena.read(node.chunk, node.length);
+            }
+        }
+
+        if (data == null) {
+            this.missCount.increment();
+            return null;
+        }
+        this.hitCount.increment();
+        return new LazyBlock(data, this.topicNames);
+    }
+
+    public void put(String group, Long blockNum, List<WeEvent> events) {
+        byte[] data = encode(events, this::topicId);
+        int weight = weighEncoded(data.length);
+        long key = this.key(group, blockNum);
+        Stripe stripe = this.stripeOf(key);
+        if (weight > stripe.windowMaxWeight + stripe.mainMaxWeight) {
+            log.debug("block is too large to cache, group: {} block: {} weight: {}", group, blockNum, weight);
+            return;
+        }
+
+        Node node = new Node();
+        node.key = key;
+        node.length = data.length;
+        node.weight = weight;
+        int evicted;
+        synchronized (stripe) {
+            if (stripe.find(key) != null) {
+                return;
+            }
+            evicted = stripe.add(node, data);
+        }
+        if (evicted > 0) {
+            this.evictionCount.add(evicted);
+        }
+    }
+
+    public Stats getStats() {
+        Stats stats = new Stats();
+        stats.setHitCount(this.hitCount.sum());
+        stats.setMissCount(this.missCount.sum());
+        stats.setEvictionCount(this.evictionCount.sum());
+        stats.setMaxWeight(this.maxWeight);
+        stats.setOffHeapBytes(this.offHeapBytes.get());
+        stats.setTopicCount(this.topicIds.size());
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                stats.setEntryCount(stats.getEntryCount() + stripe.size);
+                stats.setWeight(stats.getWeight() + stripe.window.weight + stripe.main.weight);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * pack (group, block number) into a long.
+     *
+     * @param group group id or channel name
+     * @param blockNum block number
+     * @return key
+     */
+    long key(String group, long blockNum) {
+        Long index = this.groups.computeIfAbsent(group, key -> (long) this.groupIndex.getAndIncrement());
+        return (index << BLOCK_BITS) | blockNum;
+    }
+
+    /**
+     * id of topic in dictionary, assigned at the first time.
+     * The topic name is decoded into the same String instance.
+     */
+    int topicId(String topic) {
+        Integer id = this.topicIds.get(topic);
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (this.topicIds) {
+            id = this.topicIds.get(topic);
+            if (id == null) {
+                String[] names = this.topicNames;
+                if (this.topicCount == names.length) {
+                    names = Arrays.copyOf(names, names.length * 2);
+                }
+                id = this.topicCount++;
+                names[id] = topic;
+                // publish the name before id
+                this.topicNames = names;
+                this.topicIds.put(topic, id);
+            }
+            return id;
+        }
+    }
+
+    /*
+     * layout in arena, fixed width numbers so event can be located by offset, see class doc for why not WeEventCodec
+     * block: event count(4) + offset of every event(4 * count) + events
+     * event: topic id(4) + event id + content + extensions
+     * bytes in length(4) + data, extensions in entry count(4) + (key + value) * count, -1 if null
+     */
+    static byte[] encode(List<WeEvent> events, ToIntFunction<String> topicId) {
+        List<byte[]> fields = new ArrayList<>();
+        int[] offsets = new int[events.size()];
+        int length = 4 + 4 * events.size();
+        for (int idx = 0; idx < events.size(); idx++) {
+            WeEvent event = events.get(idx);
+            offsets[idx] = length;
+            length += 4;
+            length += addField(fields, event.getEventId() == null ? null : event.getEventId().getBytes(StandardCharsets.UTF_8));
+            length += addField(fields, event.getContent());
+            length += 4;
+            if (event.getExtensions() != null) {
+                for (Map.Entry<String, String> extension : event.getExtensions().entrySet()) {
+                    length += addField(fields, extension.getKey() == null ? null : extension.getKey().getBytes(StandardCharsets.UTF_8));
+                    length += addField(fields, extension.getValue() == null ? null : extension.getValue().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(events.size());
+        for (int offset : offsets) {
+            buffer.putInt(offset);
+        }
+        int field = 0;
+        for (WeEvent event : events) {
+            buffer.putInt(topicId.applyAsInt(event.getTopic()));
+            field = putField(buffer, fields, field);
+            field = putField(buffer, fields, field);
+            if (event.getExtensions() == null) {
+                buffer.putInt(NULL_LENGTH);
+            } else {
+                buffer.putInt(event.getExtensions().size());
+                for (int idx = 0; idx < event.getExtensions().size() * 2; idx++) {
+                    field = putField(buffer, fields, field);
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    static WeEvent decodeEvent(ByteBuffer buffer, String[] topicNames) {
+        try {
+            WeEvent event = new WeEvent();
+            event.setTopic(topicNames[buffer.getInt()]);
+            byte[] eventId = getField(buffer);
+            event.setEventId(eventId == null ? null : new String(eventId, StandardCharsets.UTF_8));
+            event.setContent(getField(buffer));
+            int size = buffer.getInt();
+            if (size != NULL_LENGTH) {
+                Map<String, String> extensions = new HashMap<>();
+                for (int idx = 0; idx < size; idx++) {
+                    byte[] key = getField(buffer);
+                    byte[] value = getField(buffer);
+                    extensions.put(key == null ? null : new String(key, StandardCharsets.UTF_8),
+                            value == null ? null : new String(value, StandardCharsets.UTF_8));
+                }
+                event.setExtensions(extensions);
+            }
+            return event;
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+            // never happen, the data is encoded by itself
+            throw new IllegalStateException("invalid cached block data", e);
+        }
+    }
+
+    private static int addField(List<byte[]> fields, byte[] data) {
+        fields.add(data);
+        return 4 + (data == null ? 0 : data.length);
+    }
+
+    private static int putField(ByteBuffer buffer, List<byte[]> fields, int field) {
+        byte[] data = fields.get(field);
+        if (data == null) {
+            buffer.putInt(NULL_LENGTH);
+        } else {
+            buffer.putInt(data.length);
+            buffer.put(data);
+        }
+        return field + 1;
+    }
+
+    private static byte[] getField(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return data;
+    }
+
+    private Stripe stripeOf(long key) {
+        return this.stripes[(spread(key) >>> 16) & (STRIPES - 1)];
+    }
+
+    private static int spread(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
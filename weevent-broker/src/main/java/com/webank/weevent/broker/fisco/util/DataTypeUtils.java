@@ -1,17 +1,13 @@
 package com.webank.weevent.broker.fisco.util;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Map;
 
-import com.webank.weevent.broker.fisco.constant.WeEventConstants;
 import com.webank.weevent.sdk.BrokerException;
-import com.webank.weevent.sdk.ErrorCode;
+import com.webank.weevent.sdk.EventId;
 
 import com.alibaba.fastjson.JSON;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.bouncycastle.util.encoders.Hex;
 
 /**
  * Data type conversion utilities between solidity data type and java data type.
@@ -19,7 +15,7 @@ import org.bouncycastle.util.encoders.Hex;
 @Slf4j
 public final class DataTypeUtils {
     /**
-     * encode eventId
+     * encode eventId, see EventId.
      *
      * @param topicName topic name
      * @param eventBlockNumber block chain block number
@@ -27,31 +23,17 @@ public final class DataTypeUtils {
      * @return encodeString
      */
     public static String encodeEventId(String topicName, int eventBlockNumber, int eventSeq) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(genTopicNameHash(topicName));
-        sb.append(WeEventConstants.EVENT_ID_SPLIT_CHAR);
-        sb.append(eventSeq);
-        sb.append(WeEventConstants.EVENT_ID_SPLIT_CHAR);
-        sb.append(eventBlockNumber);
-        return sb.toString();
+        return EventId.of(topicName, eventBlockNumber, eventSeq).toString();
     }
 
     /**
-     * generate topicName hash
+     * generate topicName hash, it's memoized in EventId.
      *
      * @param topicName topic name
      * @return substring left 4bit hash data to hex encode
      */
     public static String genTopicNameHash(String topicName) {
-        String encodeData = "";
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] messageDigest = md.digest(topicName.getBytes());
-            encodeData = new String(Hex.encode(messageDigest)).substring(0, WeEventConstants.TOPIC_NAME_ENCODE_LENGTH);
-        } catch (NoSuchAlgorithmException e) {
-            log.error("NoSuchAlgorithmException:{}", e.getMessage());
-        }
-        return encodeData;
+        return EventId.topicHash(topicName);
     }
 
     /**
@@ -61,15 +43,7 @@ public final class DataTypeUtils {
      * @return seq
      */
     public static Long decodeSeq(String eventId) throws BrokerException {
-        String[] tokens = eventId.split(WeEventConstants.EVENT_ID_SPLIT_CHAR);
-        if (tokens.length != 3) {
-            throw new BrokerException(ErrorCode.EVENT_ID_IS_ILLEGAL);
-        }
-
-        if (tokens[0].length() != WeEventConstants.TOPIC_NAME_ENCODE_LENGTH) {
-            throw new BrokerException(ErrorCode.EVENT_ID_IS_ILLEGAL);
-        }
-        return DataTypeUtils.stringToLong(tokens[1]);
+        return EventId.parse(eventId).getSeq();
     }
 
     /**
@@ -79,14 +53,7 @@ public final class DataTypeUtils {
      * @return blockNumber
      */
     public static Long decodeBlockNumber(String eventId) throws BrokerException {
-        String[] tokens = eventId.split(WeEventConstants.EVENT_ID_SPLIT_CHAR);
-        if (tokens.length != 3) {
-            throw new BrokerException(ErrorCode.EVENT_ID_IS_ILLEGAL);
-        }
-        if (tokens[0].length() != WeEventConstants.TOPIC_NAME_ENCODE_LENGTH) {
-            throw new BrokerException(ErrorCode.EVENT_ID_IS_ILLEGAL);
-        }
-        return DataTypeUtils.stringToLong(tokens[2]);
+        return EventId.parse(eventId).getBlockNumber();
     }
 
     /**
@@ -96,14 +63,7 @@ public final class DataTypeUtils {
      * @return topicName hash
      */
     public static String decodeTopicNameHash(String eventId) throws BrokerException {
-        String[] tokens = eventId.split(WeEventConstants.EVENT_ID_SPLIT_CHAR);
-        if (tokens.length != 3) {
-            throw new BrokerException(ErrorCode.EVENT_ID_IS_ILLEGAL);
-        }
-        if (tokens[0].length() != WeEventConstants.TOPIC_NAME_ENCODE_LENGTH) {
-            throw new BrokerException(ErrorCode.EVENT_ID_IS_ILLEGAL);
-        }
-        return tokens[0];
+        return EventId.parse(eventId).getTopicHash();
     }
 
     /**
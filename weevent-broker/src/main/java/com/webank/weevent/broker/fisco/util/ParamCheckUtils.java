@@ -11,6 +11,7 @@ import java.util.UUID;
 import com.webank.weevent.broker.fisco.constant.WeEventConstants;
 import com.webank.weevent.sdk.BrokerException;
 import com.webank.weevent.sdk.ErrorCode;
+import com.webank.weevent.sdk.EventId;
 import com.webank.weevent.sdk.WeEvent;
 
 import org.apache.commons.lang3.StringUtils;
@@ -58,7 +59,14 @@ public class ParamCheckUtils {
         }
     }
 
-    public static void validateEventId(String topicName, String eventId, Long blockHeight) throws BrokerException {
+    /**
+     * @param topicName topic name, blank meanings not check
+     * @param eventId event id
+     * @param blockHeight block height
+     * @return parsed event id
+     * @throws BrokerException BrokerException
+     */
+    public static EventId validateEventId(String topicName, String eventId, Long blockHeight) throws BrokerException {
         if (StringUtils.isBlank(eventId)) {
             throw new BrokerException(ErrorCode.EVENT_ID_IS_ILLEGAL);
         }
@@ -66,21 +74,20 @@ public class ParamCheckUtils {
             throw new BrokerException(ErrorCode.EVENT_ID_EXCEEDS_MAX_LENGTH);
         }
 
-        if (!StringUtils.isBlank(topicName)
-                && !DataTypeUtils.genTopicNameHash(topicName).equals(DataTypeUtils.decodeTopicNameHash(eventId))) {
+        EventId parsed = EventId.parse(eventId);
+        if (!StringUtils.isBlank(topicName) && !parsed.isTopic(topicName)) {
             throw new BrokerException(ErrorCode.EVENT_ID_IS_ILLEGAL);
         }
 
-        Long lastEventSeq = DataTypeUtils.decodeSeq(eventId);
-        Long lastBlock = DataTypeUtils.decodeBlockNumber(eventId);
-        if (lastEventSeq <= 0 || lastBlock <= 0) {
+        if (parsed.getSeq() <= 0 || parsed.getBlockNumber() <= 0) {
             throw new BrokerException(ErrorCode.EVENT_ID_IS_ILLEGAL);
         }
         if (blockHeight == 0L) {
             throw new BrokerException(ErrorCode.GET_BLOCK_HEIGHT_ERROR);
-        } else if (lastBlock > blockHeight) {
+        } else if (parsed.getBlockNumber() > blockHeight) {
             throw new BrokerException(ErrorCode.EVENT_ID_IS_MISMATCH);
         }
+        return parsed;
     }
 
 
@@ -0,0 +1,252 @@
+package com.webank.weevent.broker.fisco.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Binary codec of the events in a block, used by redis and local block store.
+ * ##### more details #####
+ * Block: version(1) + dictionary + event count + events.
+ * Dictionary: string count + strings, it's the topic names and extension keys in this block, each only once.
+ * Event: topic(index in dictionary) + event id + content + extensions.
+ * Extensions: entry count + (key(index in dictionary) + value) * count.
+ * Every number is an unsigned varint, bytes and string is length + data.
+ * Length of bytes and string, extension entry count and dictionary index are stored plus 1, so 0 meanings null.
+ * Dictionary string count and event count are never null, they are stored as it is.
+ * Local block cache has it's own layout in memory for random access, see BlockCache.encode.
+ * Data in java serialization from SerializeUtils is still decoded, it's written by the old version.
+ *
+ * @author matthewliu
+ * @since 2019/10/31
+ */
+@Slf4j
+public class WeEventCodec {
+    public final static byte VERSION_1 = 1;
+
+    // the first byte of java serialization stream, see ObjectStreamConstants.STREAM_MAGIC
+    private final static byte JAVA_SERIALIZATION = (byte) 0xAC;
+
+    // buffer larger than this is not kept for reuse
+    private final static int MAX_REUSE_SIZE = 1024 * 1024;
+
+    private final static ThreadLocal<Encoder> encoders = ThreadLocal.withInitial(Encoder::new);
+
+    /**
+     * reusable encoding state in one thread
+     */
+    private static final class Encoder {
+        private byte[] buffer = new byte[4096];
+        private int position;
+        private Map<String, Integer> dictionary = new HashMap<>();
+        private List<String> strings = new ArrayList<>();
+
+        void reset() {
+            if (this.buffer.length > MAX_REUSE_SIZE) {
+                this.buffer = new byte[4096];
+            }
+            this.position = 0;
+            this.dictionary.clear();
+            this.strings.clear();
+        }
+
+        void ensure(int size) {
+            if (this.position + size > this.buffer.length) {
+                this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.position + size));
+            }
+        }
+
+        void writeByte(byte value) {
+            this.ensure(1);
+            this.buffer[this.position++] = value;
+        }
+
+        void writeVarint(int value) {
+            this.ensure(5);
+            while ((value & ~0x7F) != 0) {
+                this.buffer[this.position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.buffer[this.position++] = (byte) value;
+        }
+
+        void writeBytes(byte[] data) {
+            if (data == null) {
+                this.writeVarint(0);
+                return;
+            }
+            this.writeVarint(data.length + 1);
+            this.ensure(data.length);
+            System.arraycopy(data, 0, this.buffer, this.position, data.length);
+            this.position += data.length;
+        }
+
+        void writeString(String value) {
+            this.writeBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // index in dictionary plus 1, 0 if null
+        int index(String value) {
+            if (value == null) {
+                return 0;
+            }
+            return this.dictionary.computeIfAbsent(value, key -> {
+                this.strings.add(key);
+                return this.strings.size();
+            });
+        }
+    }
+
+    /**
+     * decoding state
+     */
+    private static final class Decoder {
+        private final byte[] buffer;
+        private int position;
+
+        Decoder(byte[] buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte current = this.buffer[this.position++];
+                value |= (current & 0x7F) << shift;
+                if ((current & 0x80) == 0) {
+                    if (value < 0) {
+                        throw new IllegalArgumentException("negative varint");
+                    }
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("varint too long");
+        }
+
+        byte[] readBytes() {
+            int length = this.readVarint();
+            if (length == 0) {
+                return null;
+            }
+            length--;
+            if (length > this.buffer.length - this.position) {
+                throw new IllegalArgumentException("length beyond data");
+            }
+            byte[] data = Arrays.copyOfRange(this.buffer, this.position, this.position + length);
+            this.position += length;
+            return data;
+        }
+
+        String readString() {
+            byte[] data = this.readBytes();
+            return data == null ? null : new String(data, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * encode events in block.
+     *
+     * @param events event list
+     * @return bytes
+     */
+    public static byte[] encode(List<WeEvent> events) {
+        Encoder encoder = encoders.get();
+        encoder.reset();
+
+        // index all the strings into dictionary first, the dictionary is written ahead of events
+        for (WeEvent event : events) {
+            encoder.index(event.getTopic());
+            if (event.getExtensions() != null) {
+                for (String key : event.getExtensions().keySet()) {
+                    encoder.index(key);
+                }
+            }
+        }
+
+        encoder.writeByte(VERSION_1);
+        encoder.writeVarint(encoder.strings.size());
+        for (String value : encoder.strings) {
+            encoder.writeString(value);
+        }
+
+        encoder.writeVarint(events.size());
+        for (WeEvent event : events) {
+            encoder.writeVarint(encoder.index(event.getTopic()));
+            encoder.writeString(event.getEventId());
+            encoder.writeBytes(event.getContent());
+            if (event.getExtensions() == null) {
+                encoder.writeVarint(0);
+            } else {
+                encoder.writeVarint(event.getExtensions().size() + 1);
+                for (Map.Entry<String, String> extension : event.getExtensions().entrySet()) {
+                    encoder.writeVarint(encoder.index(extension.getKey()));
+                    encoder.writeString(extension.getValue());
+                }
+            }
+        }
+
+        return Arrays.copyOf(encoder.buffer, encoder.position);
+    }
+
+    /**
+     * decode events in block.
+     *
+     * @param data bytes from encode, or SerializeUtils in old version
+     * @return event list, null if data is invalid
+     */
+    public static List<WeEvent> decode(byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+
+        if (data[0] == JAVA_SERIALIZATION) {
+            log.debug("decode data in java serialization");
+            return SerializeUtils.deserializeList(data);
+        }
+
+        if (data[0] != VERSION_1) {
+            log.error("unknown codec version: {}", data[0]);
+            return null;
+        }
+
+        try {
+            Decoder decoder = new Decoder(data, 1);
+            int count = decoder.readVarint();
+            String[] strings = new String[count + 1];
+            for (int idx = 1; idx <= count; idx++) {
+                strings[idx] = decoder.readString();
+            }
+
+            int size = decoder.readVarint();
+            List<WeEvent> events = new ArrayList<>(Math.min(size, data.length));
+            for (int idx = 0; idx < size; idx++) {
+                WeEvent event = new WeEvent();
+                event.setTopic(strings[decoder.readVarint()]);
+                event.setEventId(decoder.readString());
+                event.setContent(decoder.readBytes());
+                int extensionSize = decoder.readVarint();
+                if (extensionSize > 0) {
+                    Map<String, String> extensions = new HashMap<>();
+                    for (int entry = 1; entry < extensionSize; entry++) {
+                        String key = strings[decoder.readVarint()];
+                        extensions.put(key, decoder.readString());
+                    }
+                    event.setExtensions(extensions);
+                }
+                events.add(event);
+            }
+            return events;
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            log.error("invalid encoded events", e);
+            return null;
+        }
+    }
+}
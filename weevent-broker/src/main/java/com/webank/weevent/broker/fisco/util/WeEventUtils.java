@@ -46,6 +46,8 @@ public class WeEventUtils {
             groupId = WeEvent.DEFAULT_GROUP_ID;
         } else if (WeEventConstants.FABRIC.equals(BrokerApplication.weEventConfig.getBlockChainType())){
             groupId = FabricDelegate.getChannelName();
+        } else if (WeEventConstants.MEMORY.equals(BrokerApplication.weEventConfig.getBlockChainType())) {
+            groupId = WeEvent.DEFAULT_GROUP_ID;
         } else {
             log.error("error blockChain type!");
         }
@@ -17,6 +17,7 @@ import com.webank.weevent.broker.fisco.web3sdk.v2.SupportedVersion;
 import com.webank.weevent.broker.fisco.web3sdk.v2.Web3SDK2Wrapper;
 import com.webank.weevent.broker.fisco.web3sdk.v2.solc10.Topic;
 import com.webank.weevent.broker.fisco.web3sdk.v2.solc10.TopicController;
+import com.webank.weevent.broker.metrics.BrokerMetrics;
 import com.webank.weevent.protocol.rest.entity.GroupGeneral;
 import com.webank.weevent.protocol.rest.entity.TbBlock;
 import com.webank.weevent.protocol.rest.entity.TbNode;
@@ -27,6 +28,7 @@ import com.webank.weevent.sdk.SendResult;
 import com.webank.weevent.sdk.TopicInfo;
 import com.webank.weevent.sdk.WeEvent;
 
+import io.micrometer.core.instrument.Counter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
@@ -69,6 +71,9 @@ public class FiscoBcos2 {
     // history topic, (address <-> version)
     private Map<String, Long> historyTopicVersion = new ConcurrentHashMap<>();
 
+    // tx skipped in loop, see Web3SDK2Wrapper.loop
+    private Counter skippedTransactionCounter;
+
     public FiscoBcos2(FiscoConfig fiscoConfig) {
         this.fiscoConfig = fiscoConfig;
     }
@@ -77,6 +82,7 @@ public class FiscoBcos2 {
         log.info("WeEvent support solidity version, now: {} support: {}", SupportedVersion.nowVersion, SupportedVersion.history);
 
         if (this.topicController == null) {
+            this.skippedTransactionCounter = BrokerMetrics.skippedTransactionCounter(String.valueOf(groupId));
             this.credentials = Web3SDK2Wrapper.getCredentials(this.fiscoConfig);
             this.web3j = Web3SDK2Wrapper.initWeb3j(groupId, this.fiscoConfig, FiscoBcosDelegate.threadPool);
 
@@ -227,9 +233,12 @@ public class FiscoBcos2 {
             topicInfo.setTopicName(topicName);
             topicInfo.setSenderAddress(topic.getValue2());
             topicInfo.setCreatedTimestamp(topic.getValue3().longValue());
+            topicInfo.setCreatedBlock(topic.getValue4().longValue());
             topicInfo.setSequenceNumber(topic.getValue5().longValue());
             topicInfo.setBlockNumber(topic.getValue6().longValue());
+            topicInfo.setLastBlock(topic.getValue6().longValue());
             topicInfo.setLastTimestamp(topic.getValue7().longValue());
+            topicInfo.setLastSender(topic.getValue8());
 
             this.topicInfo.put(topicName, topicInfo);
             return topicInfo;
@@ -243,9 +252,7 @@ public class FiscoBcos2 {
     }
 
     public WeEvent getEvent(String eventId) throws BrokerException {
-        ParamCheckUtils.validateEventId("", eventId, getBlockHeight());
-
-        Long blockNum = DataTypeUtils.decodeBlockNumber(eventId);
+        Long blockNum = ParamCheckUtils.validateEventId("", eventId, getBlockHeight()).getBlockNumber();
         List<WeEvent> events = this.loop(blockNum);
         for (WeEvent event : events) {
             if (eventId.equals(event.getEventId())) {
@@ -305,7 +312,8 @@ public class FiscoBcos2 {
      * @return java.lang.Integer null if net error
      */
     public List<WeEvent> loop(Long blockNum) throws BrokerException {
-        return Web3SDK2Wrapper.loop(this.web3j, blockNum, this.historyTopicVersion, this.historyTopicContract);
+        return Web3SDK2Wrapper.loop(this.web3j, blockNum, this.historyTopicVersion, this.historyTopicContract,
+                this.skippedTransactionCounter);
     }
 
     public GroupGeneral getGroupGeneral() throws BrokerException {
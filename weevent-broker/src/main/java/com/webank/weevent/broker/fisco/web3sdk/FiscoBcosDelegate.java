@@ -1,18 +1,23 @@
 package com.webank.weevent.broker.fisco.web3sdk;
 
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import com.webank.weevent.BrokerApplication;
 import com.webank.weevent.broker.config.FiscoConfig;
+import com.webank.weevent.broker.config.WeEventConfig;
+import com.webank.weevent.broker.fisco.BlockSegmentStore;
 import com.webank.weevent.broker.fisco.RedisService;
 import com.webank.weevent.broker.fisco.constant.WeEventConstants;
 import com.webank.weevent.broker.fisco.dto.ListPage;
-import com.webank.weevent.broker.fisco.util.LRUCache;
+import com.webank.weevent.broker.fisco.util.BlockCache;
+import com.webank.weevent.broker.metrics.BrokerMetrics;
 import com.webank.weevent.protocol.rest.entity.GroupGeneral;
 import com.webank.weevent.protocol.rest.entity.TbBlock;
 import com.webank.weevent.protocol.rest.entity.TbNode;
@@ -33,7 +38,7 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
  * Parameter groupId in all interface:
  * a. default 1L in 1.3.x
  * b. default 1L in 2.x, meanings first group
- * There is 2 different caches for block data. One is local memory, another is redis.
+ * There is 3 different caches for block data. Local memory, local block store in disk, and redis.
  * All can be opened/closed by configuration. And is independent to each other.
  *
  * @author matthewliu
@@ -50,14 +55,23 @@ public class FiscoBcosDelegate {
     // web3sdk timeout, ms
     public static Integer timeout = 10000;
 
+    // max receipt request in flight while fetching one block
+    public static Integer receiptConcurrency = 32;
+
     // thread pool used in web3sdk
     public static ThreadPoolTaskExecutor threadPool;
 
+    // prefix of redis key in fisco 2.x, differ from the old key which had no separator
+    private final static String REDIS_KEY_VERSION = "v2_";
+
     // block data cached in redis
     private static RedisService redisService;
 
     // block data cached in local memory
-    private static LRUCache<String, List<WeEvent>> blockCache;
+    private static BlockCache blockCache;
+
+    // block data stored in local disk
+    private static BlockSegmentStore blockStore;
 
     // groupId list
     private List<String> groupIdList = new ArrayList<>();
@@ -86,12 +100,27 @@ public class FiscoBcosDelegate {
         }
 
         if (blockCache == null) {
-            // skip local cache if lru.cache.capacity = 0
-            Integer capacity = BrokerApplication.weEventConfig.getMaxCapacity();
-            if (capacity > 0) {
-                log.info("init local memory cache: " + capacity);
+            // skip local cache if block.cache.max-bytes = 0
+            Long maxBytes = BrokerApplication.weEventConfig.getBlockCacheMaxBytes();
+            if (maxBytes > 0) {
+                log.info("init local memory cache: " + maxBytes);
 
-                blockCache = new LRUCache<>(capacity);
+                blockCache = new BlockCache(maxBytes);
+            }
+        }
+
+        if (blockStore == null) {
+            // skip local block store if block.store.path is empty
+            WeEventConfig weEventConfig = BrokerApplication.weEventConfig;
+            if (StringUtils.isNotBlank(weEventConfig.getBlockStorePath())) {
+                try {
+                    blockStore = new BlockSegmentStore(weEventConfig.getBlockStorePath(),
+                            weEventConfig.getBlockStoreSegmentSize(),
+                            weEventConfig.getBlockStoreMaxSize(),
+                            weEventConfig.getBlockStoreMaxAgeHours());
+                } catch (IOException e) {
+                    log.error("init local block store failed", e);
+                }
             }
         }
     }
@@ -116,6 +145,7 @@ public class FiscoBcosDelegate {
     public void initProxy(FiscoConfig fiscoConfig) throws BrokerException {
         threadPool = initThreadPool(fiscoConfig);
         timeout = fiscoConfig.getWeb3sdkTimeout();
+        receiptConcurrency = fiscoConfig.getWeb3sdkReceiptConcurrency();
 
         if (StringUtils.isBlank(fiscoConfig.getVersion())) {
             log.error("the fisco version in fisco.properties is null");
@@ -286,21 +316,63 @@ public class FiscoBcosDelegate {
         }
     }
 
+    /**
+     * statistics of local memory cache.
+     *
+     * @return null if no cache
+     */
+    public static BlockCache.Stats getBlockCacheStats() {
+        return blockCache == null ? null : blockCache.getStats();
+    }
+
+    /**
+     * close local block store if any, called while consumer shutdown.
+     */
+    public static synchronized void closeBlockStore() {
+        if (blockStore != null) {
+            blockStore.close();
+            blockStore = null;
+        }
+    }
+
+    /**
+     * statistics of redis access.
+     *
+     * @return null if no redis
+     */
+    public static RedisService.Stats getRedisStats() {
+        return redisService == null ? null : redisService.getStats();
+    }
+
     private String getRedisKey(Long blockNum, Long groupId) {
         if (this.fiscoBcos != null) {
             return Long.toString(blockNum);
         } else {
-            return Long.toString(groupId) + blockNum;
+            // separator is needed, or else group 1 block 23 is the same as group 12 block 3.
+            // The old key(group id + block number, digits only) is never read, it's expired by redis or removed by hand
+            return REDIS_KEY_VERSION + groupId + "_" + blockNum;
         }
     }
 
-    private List<WeEvent> getFromCache(String key) {
+    private List<WeEvent> getFromCache(String key, Long groupId, Long blockNum) {
         try {
-            if (blockCache != null && blockCache.containsKey(key)) {
-                return blockCache.get(key);
+            if (blockCache != null) {
+                List<WeEvent> events = blockCache.get(String.valueOf(groupId), blockNum);
+                if (events != null) {
+                    return events;
+                }
+            }
+            if (blockStore != null) {
+                List<WeEvent> events = blockStore.get(String.valueOf(groupId), blockNum);
+                if (events != null) {
+                    if (blockCache != null) {
+                        blockCache.put(String.valueOf(groupId), blockNum, events);
+                    }
+                    return events;
+                }
             }
-            if (redisService != null && redisService.isEventsExistInRedis(key)) {
-                return redisService.readEventsFromRedis(key);
+            if (redisService != null) {
+                return getFromRedis(key, groupId, blockNum);
             }
         } catch (Exception e) {
             log.error("Exception happened while read events from redis server", e);
@@ -309,14 +381,41 @@ public class FiscoBcosDelegate {
         return null;
     }
 
-    private void setCache(String key, List<WeEvent> events) {
+    /*
+     * read the following blocks in the same round trip, and keep them in local memory cache.
+     * Without local memory cache, only the block itself is read.
+     */
+    private List<WeEvent> getFromRedis(String key, Long groupId, Long blockNum) {
+        int window = blockCache == null ? 1 : Math.max(BrokerApplication.weEventConfig.getRedisPrefetchWindow(), 1);
+        String[] keys = new String[window];
+        keys[0] = key;
+        for (int idx = 1; idx < window; idx++) {
+            keys[idx] = getRedisKey(blockNum + idx, groupId);
+        }
+
+        Map<String, List<WeEvent>> blocks = redisService.readEventsFromRedis(keys);
+        if (blockCache != null) {
+            for (int idx = 0; idx < window; idx++) {
+                List<WeEvent> events = blocks.get(keys[idx]);
+                if (events != null) {
+                    blockCache.put(String.valueOf(groupId), blockNum + idx, events);
+                }
+            }
+        }
+        return blocks.get(key);
+    }
+
+    private void setCache(String key, Long groupId, Long blockNum, List<WeEvent> events) {
         try {
             if (events != null) {
                 if (blockCache != null) {
-                    blockCache.putIfAbsent(key, events);
+                    blockCache.put(String.valueOf(groupId), blockNum, events);
+                }
+                if (blockStore != null) {
+                    blockStore.put(String.valueOf(groupId), blockNum, events);
                 }
                 if (redisService != null) {
-                    redisService.writeEventsToRedis(key, events);
+                    redisService.writeEventsToRedisAsync(key, events);
                 }
             }
         } catch (Exception e) {
@@ -341,10 +440,12 @@ public class FiscoBcosDelegate {
         }
 
         // try to get data from local cache and redis
+        long start = System.nanoTime();
         String key = getRedisKey(blockNum, groupId);
-        events = getFromCache(key);
+        events = getFromCache(key, groupId, blockNum);
         // redis data may be dirty
         if (events != null) {
+            BrokerMetrics.blockFetchTimer(String.valueOf(groupId), BrokerMetrics.SOURCE_CACHE).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             return events;
         }
 
@@ -354,9 +455,10 @@ public class FiscoBcosDelegate {
         } else {
             events = this.fiscoBcos2Map.get(groupId).loop(blockNum);
         }
+        BrokerMetrics.blockFetchTimer(String.valueOf(groupId), BrokerMetrics.SOURCE_CHAIN).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 
         //write events list to redis server
-        setCache(key, events);
+        setCache(key, groupId, blockNum, events);
 
         return events;
     }
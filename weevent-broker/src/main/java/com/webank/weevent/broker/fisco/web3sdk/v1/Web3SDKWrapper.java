@@ -4,8 +4,10 @@ package com.webank.weevent.broker.fisco.web3sdk.v1;
 import java.lang.reflect.Method;
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
@@ -18,6 +20,7 @@ import com.webank.weevent.broker.config.FiscoConfig;
 import com.webank.weevent.broker.fisco.constant.WeEventConstants;
 import com.webank.weevent.broker.fisco.util.DataTypeUtils;
 import com.webank.weevent.broker.fisco.web3sdk.FiscoBcosDelegate;
+import com.webank.weevent.broker.metrics.LatencyTracker;
 import com.webank.weevent.sdk.BrokerException;
 import com.webank.weevent.sdk.ErrorCode;
 import com.webank.weevent.sdk.WeEvent;
@@ -342,15 +345,14 @@ public class Web3SDKWrapper {
             }
             log.debug("tx in block: {}", transactionHashList.size());
 
-            for (String transactionHash : transactionHashList) {
-                EthGetTransactionReceipt transactionReceipt = web3j.ethGetTransactionReceipt(transactionHash)
-                        .sendAsync().get(FiscoBcosDelegate.timeout, TimeUnit.MILLISECONDS);
-                if (!transactionReceipt.getTransactionReceipt().isPresent()) {
-                    log.error(String.format("loop block empty tx receipt, blockNum: %s tx hash: %s", blockNum, transactionHash));
-                    return null;
-                }
+            List<TransactionReceipt> receipts = batchTransactionReceipt(web3j, transactionHashList, FiscoBcosDelegate.receiptConcurrency);
+            if (receipts == null) {
+                log.error("loop block empty tx receipt, blockNum: {}", blockNum);
+                return null;
+            }
 
-                TransactionReceipt receipt = transactionReceipt.getTransactionReceipt().get();
+            long commitTime = ethBlock.getBlock().getTimestamp().longValue();
+            for (TransactionReceipt receipt : receipts) {
                 List<Topic.LogWeEventEventResponse> logWeEventEvents = Topic.getLogWeEventEvents(receipt);
                 for (Topic.LogWeEventEventResponse logEvent : logWeEventEvents) {
                     String topicName = logEvent.topicName.toString();
@@ -359,6 +361,7 @@ public class Web3SDKWrapper {
                             logEvent.eventContent.getValue().getBytes(StandardCharsets.UTF_8),
                             DataTypeUtils.json2Map(logEvent.extensions.toString()));
                     event.setEventId(DataTypeUtils.encodeEventId(topicName, uint256ToInt(logEvent.eventBlockNumer), uint256ToInt(logEvent.eventSeq)));
+                    LatencyTracker.stampCommit(event, commitTime);
 
                     log.debug("get a event from block chain: {}", event);
                     events.add(event);
@@ -376,6 +379,45 @@ public class Web3SDKWrapper {
         }
     }
 
+    /**
+     * Fetch transaction receipts concurrently with web3sdk's async request.
+     *
+     * @param web3j the web3j
+     * @param transactionHashList transaction hash list
+     * @param maxInFlight max request in flight
+     * @return receipt list in the same order as transaction hash list, null if some receipt is empty
+     */
+    public static List<TransactionReceipt> batchTransactionReceipt(Web3j web3j,
+                                                                   List<String> transactionHashList,
+                                                                   int maxInFlight)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        List<TransactionReceipt> receipts = new ArrayList<>(transactionHashList.size());
+        Deque<Future<EthGetTransactionReceipt>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (receipts.size() < transactionHashList.size()) {
+                // keep the window full
+                while (next < transactionHashList.size() && inFlight.size() < Math.max(maxInFlight, 1)) {
+                    inFlight.addLast(web3j.ethGetTransactionReceipt(transactionHashList.get(next)).sendAsync());
+                    next++;
+                }
+
+                // wait in tx order
+                EthGetTransactionReceipt transactionReceipt = inFlight.removeFirst().get(FiscoBcosDelegate.timeout, TimeUnit.MILLISECONDS);
+                if (!transactionReceipt.getTransactionReceipt().isPresent()) {
+                    log.error("empty tx receipt, tx hash: {}", transactionHashList.get(receipts.size()));
+                    return null;
+                }
+                receipts.add(transactionReceipt.getTransactionReceipt().get());
+            }
+        } finally {
+            // request left if failed
+            inFlight.forEach(future -> future.cancel(false));
+        }
+
+        return receipts;
+    }
+
     /**
      * String to bytes 32.
      *
@@ -6,11 +6,15 @@ import java.math.BigInteger;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -19,6 +23,7 @@ import java.util.stream.Collectors;
 import com.webank.weevent.broker.config.FiscoConfig;
 import com.webank.weevent.broker.fisco.constant.WeEventConstants;
 import com.webank.weevent.broker.fisco.web3sdk.FiscoBcosDelegate;
+import com.webank.weevent.broker.metrics.LatencyTracker;
 import com.webank.weevent.protocol.rest.entity.GroupGeneral;
 import com.webank.weevent.protocol.rest.entity.TbBlock;
 import com.webank.weevent.protocol.rest.entity.TbNode;
@@ -27,6 +32,7 @@ import com.webank.weevent.sdk.BrokerException;
 import com.webank.weevent.sdk.ErrorCode;
 import com.webank.weevent.sdk.WeEvent;
 
+import io.micrometer.core.instrument.Counter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -416,11 +422,13 @@ public class Web3SDK2Wrapper {
      * @param blockNum the blockNum
      * @param supportedVersion version list
      * @param historyTopic topic list
+     * @param skippedTransactionCounter count the tx not sent to topic contract
      * @return null if net error
      */
     public static List<WeEvent> loop(Web3j web3j, Long blockNum,
                                      Map<String, Long> supportedVersion,
-                                     Map<String, Contract> historyTopic) throws BrokerException {
+                                     Map<String, Contract> historyTopic,
+                                     Counter skippedTransactionCounter) throws BrokerException {
         List<WeEvent> events = new ArrayList<>();
         if (blockNum <= 0) {
             return events;
@@ -429,25 +437,32 @@ public class Web3SDK2Wrapper {
         try {
             log.debug("fetch block, blockNum: {}", blockNum);
 
-            // "false" to load only tx hash.
-            BcosBlock bcosBlock = web3j.getBlockByNumber(new DefaultBlockParameterNumber(blockNum), false)
+            // "true" to load full tx, so that tx.to can be checked before fetching receipt.
+            BcosBlock bcosBlock = web3j.getBlockByNumber(new DefaultBlockParameterNumber(blockNum), true)
                     .sendAsync().get(FiscoBcosDelegate.timeout, TimeUnit.MILLISECONDS);
-            List<String> transactionHashList = bcosBlock.getBlock().getTransactions().stream()
-                    .map(transactionResult -> (String) transactionResult.get()).collect(Collectors.toList());
+            List<Transaction> transactionList = bcosBlock.getBlock().getTransactions().stream()
+                    .map(transactionResult -> (Transaction) transactionResult.get()).collect(Collectors.toList());
+            if (transactionList.isEmpty()) {
+                return events;
+            }
+
+            // skip tx not sent to topic contract, most of tx in a shared chain is not WeEvent's
+            List<String> transactionHashList = filterTopicTransaction(transactionList, historyTopic.keySet());
+            int skipped = transactionList.size() - transactionHashList.size();
+            skippedTransactionCounter.increment(skipped);
+            log.debug("tx in block: {}, skipped tx: {}, blockNum: {}", transactionList.size(), skipped, blockNum);
             if (transactionHashList.isEmpty()) {
                 return events;
             }
-            log.debug("tx in block: {}", transactionHashList.size());
 
-            for (String transactionHash : transactionHashList) {
-                BcosTransactionReceipt transactionReceipt = web3j.getTransactionReceipt(transactionHash)
-                        .sendAsync().get(FiscoBcosDelegate.timeout, TimeUnit.MILLISECONDS);
-                if (!transactionReceipt.getTransactionReceipt().isPresent()) {
-                    log.error(String.format("loop block empty tx receipt, blockNum: %s tx hash: %s", blockNum, transactionHash));
-                    return null;
-                }
+            List<TransactionReceipt> receipts = batchTransactionReceipt(web3j, transactionHashList, FiscoBcosDelegate.receiptConcurrency);
+            if (receipts == null) {
+                log.error("loop block empty tx receipt, blockNum: {}", blockNum);
+                return null;
+            }
 
-                TransactionReceipt receipt = transactionReceipt.getTransactionReceipt().get();
+            long commitTime = bcosBlock.getBlock().getTimestamp().longValue();
+            for (TransactionReceipt receipt : receipts) {
                 // tx.to is contract address
                 String address = receipt.getTo();
                 if (historyTopic.containsKey(address)) {
@@ -456,6 +471,7 @@ public class Web3SDK2Wrapper {
 
                     WeEvent event = SupportedVersion.decodeWeEvent(receipt, version.intValue(), historyTopic);
                     if (event != null) {
+                        LatencyTracker.stampCommit(event, commitTime);
                         log.debug("get a event from block chain: {}", event);
                         events.add(event);
                     }
@@ -476,6 +492,60 @@ public class Web3SDK2Wrapper {
         }
     }
 
+    /**
+     * filter the tx sent to topic contract.
+     *
+     * @param transactionList tx list in block
+     * @param topicAddress all topic contract address
+     * @return target tx hash list in block order
+     */
+    public static List<String> filterTopicTransaction(List<Transaction> transactionList, Set<String> topicAddress) {
+        Set<String> addresses = topicAddress.stream().map(String::toLowerCase).collect(Collectors.toSet());
+        return transactionList.stream()
+                .filter(transaction -> transaction.getTo() != null && addresses.contains(transaction.getTo().toLowerCase()))
+                .map(Transaction::getHash)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Fetch transaction receipts concurrently with web3sdk's async request.
+     *
+     * @param web3j the web3j
+     * @param transactionHashList transaction hash list
+     * @param maxInFlight max request in flight
+     * @return receipt list in the same order as transaction hash list, null if some receipt is empty
+     */
+    public static List<TransactionReceipt> batchTransactionReceipt(Web3j web3j,
+                                                                   List<String> transactionHashList,
+                                                                   int maxInFlight)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        List<TransactionReceipt> receipts = new ArrayList<>(transactionHashList.size());
+        Deque<CompletableFuture<BcosTransactionReceipt>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (receipts.size() < transactionHashList.size()) {
+                // keep the window full
+                while (next < transactionHashList.size() && inFlight.size() < Math.max(maxInFlight, 1)) {
+                    inFlight.addLast(web3j.getTransactionReceipt(transactionHashList.get(next)).sendAsync());
+                    next++;
+                }
+
+                // wait in tx order
+                BcosTransactionReceipt transactionReceipt = inFlight.removeFirst().get(FiscoBcosDelegate.timeout, TimeUnit.MILLISECONDS);
+                if (!transactionReceipt.getTransactionReceipt().isPresent()) {
+                    log.error("empty tx receipt, tx hash: {}", transactionHashList.get(receipts.size()));
+                    return null;
+                }
+                receipts.add(transactionReceipt.getTransactionReceipt().get());
+            }
+        } finally {
+            // request left if failed
+            inFlight.forEach(future -> future.cancel(false));
+        }
+
+        return receipts;
+    }
+
     public static GroupGeneral getGroupGeneral(Web3j web3j) throws BrokerException {
         // Current number of nodes, number of blocks, number of transactions
         GroupGeneral groupGeneral = new GroupGeneral();
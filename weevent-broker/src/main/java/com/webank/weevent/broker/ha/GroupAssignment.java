@@ -0,0 +1,170 @@
+package com.webank.weevent.broker.ha;
+
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * Assign every group to one live broker in cluster, the owner ingest the group from block chain.
+ * ##### more details #####
+ * Every live broker has an ephemeral node in members path, it's the same as "/nodes" in MasterJob.
+ * The owner of group is chosen by rendezvous hashing over the live members, every broker compute it locally,
+ * so there is no coordination and only the groups of a failed broker are moved to others.
+ * While members are changing, brokers may disagree in a short time, a group is ingested twice or by peers directly.
+ *
+ * @author matthewliu
+ * @since 2019/11/08
+ */
+@Slf4j
+public class GroupAssignment {
+    private CuratorFramework client;
+
+    // path of live brokers
+    private String membersPath;
+
+    // this broker, like "127.0.0.1:8080"
+    private String nodeName;
+
+    // watch the members
+    private PathChildrenCache membersCache;
+
+    // sorted live broker names
+    private volatile List<String> members = new ArrayList<>();
+
+    public GroupAssignment(CuratorFramework client, String membersPath, String nodeName) {
+        this.client = client;
+        this.membersPath = membersPath;
+        this.nodeName = nodeName;
+    }
+
+    public String getNodeName() {
+        return this.nodeName;
+    }
+
+    public List<String> getMembers() {
+        return this.members;
+    }
+
+    /**
+     * join the cluster and watch the members.
+     *
+     * @throws Exception zookeeper exception
+     */
+    public void start() throws Exception {
+        try {
+            this.client.create()
+                    .creatingParentsIfNeeded()
+                    .withMode(CreateMode.EPHEMERAL)
+                    .forPath(ZKPaths.makePath(this.membersPath, this.nodeName), this.nodeName.getBytes(StandardCharsets.UTF_8));
+        } catch (KeeperException.NodeExistsException e) {
+            log.info("member node already exist, {}", this.nodeName);
+        }
+
+        this.membersCache = new PathChildrenCache(this.client, this.membersPath, false);
+        this.membersCache.getListenable().addListener((client, event) -> this.refresh());
+        this.membersCache.start(PathChildrenCache.StartMode.BUILD_INITIAL_CACHE);
+        this.refresh();
+
+        log.info("GroupAssignment started, members path: {} node: {}", this.membersPath, this.nodeName);
+    }
+
+    public void close() {
+        try {
+            if (this.membersCache != null) {
+                this.membersCache.close();
+            }
+        } catch (IOException e) {
+            log.error("close members cache failed", e);
+        }
+    }
+
+    /**
+     * owner of group in live members.
+     *
+     * @param groupId group id or channel name
+     * @return owner's node name, null if no member
+     */
+    public String getOwner(String groupId) {
+        return owner(this.members, groupId);
+    }
+
+    /**
+     * this broker is the owner of group, or there is no member known.
+     *
+     * @param groupId group id or channel name
+     * @return true if need to ingest from block chain
+     */
+    public boolean isOwner(String groupId) {
+        String owner = this.getOwner(groupId);
+        return owner == null || owner.equals(this.nodeName);
+    }
+
+    /**
+     * the host is one of the live members, used to restrict the inner api to the cluster.
+     *
+     * @param host ip address of the peer
+     * @return true if it's a member
+     */
+    public boolean isMemberHost(String host) {
+        for (String member : this.members) {
+            int split = member.lastIndexOf(':');
+            if ((split < 0 ? member : member.substring(0, split)).equals(host)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * rendezvous hashing, the member with the highest weight is the owner.
+     *
+     * @param members member names
+     * @param groupId group id
+     * @return null if no member
+     */
+    static String owner(List<String> members, String groupId) {
+        String owner = null;
+        long maxWeight = Long.MIN_VALUE;
+        for (String member : members) {
+            long weight = weight(member, groupId);
+            if (owner == null || weight > maxWeight || (weight == maxWeight && member.compareTo(owner) < 0)) {
+                owner = member;
+                maxWeight = weight;
+            }
+        }
+        return owner;
+    }
+
+    private static long weight(String member, String groupId) {
+        long x = member.hashCode() * 0x9E3779B97F4A7C15L + groupId.hashCode();
+        x ^= (x >>> 33);
+        x *= 0xFF51AFD7ED558CCDL;
+        x ^= (x >>> 33);
+        x *= 0xC4CEB9FE1A85EC53L;
+        return x ^ (x >>> 33);
+    }
+
+    private void refresh() {
+        List<String> current = new ArrayList<>();
+        for (ChildData child : this.membersCache.getCurrentData()) {
+            current.add(ZKPaths.getNodeFromPath(child.getPath()));
+        }
+        Collections.sort(current);
+
+        if (!current.equals(this.members)) {
+            log.info("live members changed, {} -> {}", this.members, current);
+            this.members = current;
+        }
+    }
+}
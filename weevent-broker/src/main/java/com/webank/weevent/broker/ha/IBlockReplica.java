@@ -0,0 +1,38 @@
+package com.webank.weevent.broker.ha;
+
+
+import java.util.List;
+
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.WeEvent;
+
+/**
+ * Internal replication channel, read the decoded blocks from the owner of group.
+ * see GroupAssignment.
+ *
+ * @author matthewliu
+ * @since 2019/11/08
+ */
+public interface IBlockReplica {
+    /**
+     * block height known by owner
+     *
+     * @param owner owner's node name
+     * @param groupId group id
+     * @return block height
+     * @throws BrokerException BrokerException
+     */
+    Long getBlockHeight(String owner, String groupId) throws BrokerException;
+
+    /**
+     * events of continuous blocks from blockNum, stop at the first block not exist yet
+     *
+     * @param owner owner's node name
+     * @param groupId group id
+     * @param blockNum first block
+     * @param count max block count
+     * @return list of events in every block
+     * @throws BrokerException BrokerException
+     */
+    List<List<WeEvent>> getBlocks(String owner, String groupId, Long blockNum, int count) throws BrokerException;
+}
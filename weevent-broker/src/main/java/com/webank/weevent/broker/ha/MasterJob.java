@@ -32,6 +32,8 @@ public class MasterJob {
     private String zookeeperRootPath;
     private String leaderPath;
     private boolean isMaster = false;
+    // owner of every group in cluster, null if not sharding
+    private GroupAssignment groupAssignment;
 
     public MasterJob() {
         // handler ha and master job
@@ -49,6 +51,10 @@ public class MasterJob {
         return this.client;
     }
 
+    public GroupAssignment getGroupAssignment() {
+        return this.groupAssignment;
+    }
+
     // create path/node if not exist
     private boolean ensurePath(CuratorFramework client, String... paths) {
         try {
@@ -156,6 +162,17 @@ public class MasterJob {
             return null;
         }
 
+        // share the live nodes to assign groups
+        if (BrokerApplication.weEventConfig.getHaGroupSharding()) {
+            GroupAssignment groupAssignment = new GroupAssignment(client, nodesPath, nodeName);
+            try {
+                groupAssignment.start();
+                this.groupAssignment = groupAssignment;
+            } catch (Exception e) {
+                log.error("start group assignment failed, ingest all groups in this node", e);
+            }
+        }
+
         // leader path "/event-broker/master"
         this.leaderPath = this.zookeeperRootPath + "/master";
         log.info("start to select leader, {}", leaderPath);
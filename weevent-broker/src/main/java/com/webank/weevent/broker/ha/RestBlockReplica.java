@@ -0,0 +1,70 @@
+package com.webank.weevent.broker.ha;
+
+
+import java.util.List;
+
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Read blocks from the owner by it's inner restful api, see AdminRest.
+ * The url is built from scheme and context path of this broker, every broker in cluster should be configured the same.
+ *
+ * @author matthewliu
+ * @since 2019/11/08
+ */
+@Slf4j
+public class RestBlockReplica implements IBlockReplica {
+    private final static String INNER_PATH = "/admin/inner";
+
+    private RestTemplate restTemplate;
+
+    // like "https://%s/weevent/admin/inner", %s is the owner
+    private String urlFormat;
+
+    /**
+     * @param timeout connect and read timeout in ms
+     * @param scheme http or https
+     * @param contextPath server.servlet.context-path, maybe blank
+     */
+    public RestBlockReplica(int timeout, String scheme, String contextPath) {
+        this.urlFormat = scheme + "://%s" + StringUtils.defaultString(contextPath) + INNER_PATH;
+
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(timeout);
+        requestFactory.setReadTimeout(timeout);
+        this.restTemplate = new RestTemplate(requestFactory);
+    }
+
+    @Override
+    public Long getBlockHeight(String owner, String groupId) throws BrokerException {
+        String url = String.format(this.urlFormat, owner) + "/blockHeight?groupId=" + groupId;
+        try {
+            Long blockHeight = this.restTemplate.getForObject(url, Long.class);
+            return blockHeight == null ? 0L : blockHeight;
+        } catch (RestClientException e) {
+            log.error("get block height from owner failed, url: " + url, e);
+            throw new BrokerException("get block height from owner failed", e);
+        }
+    }
+
+    @Override
+    public List<List<WeEvent>> getBlocks(String owner, String groupId, Long blockNum, int count) throws BrokerException {
+        String url = String.format(this.urlFormat, owner) + String.format("/blocks?groupId=%s&blockNum=%d&count=%d", groupId, blockNum, count);
+        try {
+            return this.restTemplate.exchange(url, HttpMethod.GET, null, new ParameterizedTypeReference<List<List<WeEvent>>>() {
+            }).getBody();
+        } catch (RestClientException e) {
+            log.error("get blocks from owner failed, url: " + url, e);
+            throw new BrokerException("get blocks from owner failed", e);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.webank.weevent.broker.ha;
+
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.webank.weevent.BrokerApplication;
+import com.webank.weevent.broker.task.IBlockChain;
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Block chain used by event loops in HA cluster, only the owner of group ingest from block chain.
+ * ##### more details #####
+ * The group owned by this broker is read from local block chain directly, see GroupAssignment.
+ * The others are read from their owner in windows, the decoded windows are kept for following loops.
+ * Every reader, like main loop, history loop and backfill workers, goes forward in it's own window,
+ * so the windows are evicted by least recently used, not by block number, or they would evict each other.
+ * The block height of them is the last block dispatched by owner, and local block notify is ignored,
+ * so loops never ask for blocks the owner does not have yet.
+ * If the owner is not available, like it's failed and not reassigned yet, read from local block chain instead.
+ *
+ * @author matthewliu
+ * @since 2019/11/08
+ */
+@Slf4j
+public class ShardedBlockChain implements IBlockChain {
+    // max windows kept in every group, enough for main loop, history loop and backfill workers
+    private final static int MAX_WINDOWS = 16;
+
+    // continuous blocks replicated in one request
+    private static class Window {
+        private final long from;
+        private final List<List<WeEvent>> blocks;
+
+        Window(long from, List<List<WeEvent>> blocks) {
+            this.from = from;
+            this.blocks = blocks;
+        }
+
+        List<WeEvent> get(long blockNum) {
+            if (blockNum < this.from || blockNum >= this.from + this.blocks.size()) {
+                return null;
+            }
+            return this.blocks.get((int) (blockNum - this.from));
+        }
+    }
+
+    // window's first block <-> window, in access order
+    private static class Windows extends LinkedHashMap<Long, Window> {
+        Windows() {
+            super(MAX_WINDOWS, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Window> eldest) {
+            return this.size() > MAX_WINDOWS;
+        }
+
+        List<WeEvent> find(long blockNum) {
+            for (Window window : this.values()) {
+                List<WeEvent> events = window.get(blockNum);
+                if (events != null) {
+                    // touch it
+                    this.get(window.from);
+                    return events;
+                }
+            }
+            return null;
+        }
+    }
+
+    // local block chain
+    private IBlockChain local;
+
+    private GroupAssignment groupAssignment;
+
+    private IBlockReplica blockReplica;
+
+    // max blocks in one replication
+    private int window;
+
+    // group id <-> replicated windows
+    private Map<String, Windows> replicatedWindows = new ConcurrentHashMap<>();
+
+    // statistics
+    private AtomicLong replicatedCount = new AtomicLong(0);
+    private AtomicLong fallbackCount = new AtomicLong(0);
+
+    public ShardedBlockChain(IBlockChain local, GroupAssignment groupAssignment, IBlockReplica blockReplica, int window) {
+        this.local = local;
+        this.groupAssignment = groupAssignment;
+        this.blockReplica = blockReplica;
+        this.window = Math.max(1, window);
+    }
+
+    /**
+     * shard the block chain in cluster if enabled, see broker.ha.group-sharding.
+     *
+     * @param local local block chain
+     * @return local block chain if not enabled
+     */
+    public static IBlockChain build(IBlockChain local) {
+        if (!BrokerApplication.weEventConfig.getHaGroupSharding()) {
+            return local;
+        }
+
+        MasterJob masterJob = BrokerApplication.applicationContext.getBean(MasterJob.class);
+        if (masterJob.getGroupAssignment() == null) {
+            log.warn("no zookeeper, skip group sharding");
+            return local;
+        }
+
+        log.info("ingest groups sharded in cluster");
+        // the same scheme and context path as this broker, see RestHA.getUrlFormat
+        String scheme = BrokerApplication.environment.getProperty("server.ssl.enabled", Boolean.class, false) ? "https" : "http";
+        String contextPath = BrokerApplication.environment.getProperty("server.servlet.context-path", "");
+        return new ShardedBlockChain(local,
+                masterJob.getGroupAssignment(),
+                new RestBlockReplica(BrokerApplication.weEventConfig.getZookeeperTimeout(), scheme, contextPath),
+                BrokerApplication.weEventConfig.getHaReplicationWindow());
+    }
+
+    public long getReplicatedCount() {
+        return this.replicatedCount.get();
+    }
+
+    public long getFallbackCount() {
+        return this.fallbackCount.get();
+    }
+
+    @Override
+    public int getIdleTime() {
+        return this.local.getIdleTime();
+    }
+
+    @Override
+    public Long getBlockHeight(String groupId) throws BrokerException {
+        if (this.groupAssignment.isOwner(groupId)) {
+            return this.local.getBlockHeight(groupId);
+        }
+
+        String owner = this.groupAssignment.getOwner(groupId);
+        try {
+            Long blockHeight = this.blockReplica.getBlockHeight(owner, groupId);
+            if (blockHeight > 0) {
+                return blockHeight;
+            }
+        } catch (BrokerException e) {
+            log.error("get block height from owner: {} failed in group: {}", owner, groupId);
+        }
+
+        this.fallbackCount.incrementAndGet();
+        return this.local.getBlockHeight(groupId);
+    }
+
+    @Override
+    public boolean hasBlockEventNotify() {
+        return this.local.hasBlockEventNotify();
+    }
+
+    /**
+     * local block notify is ahead of the owner, so it's ignored in the group not owned.
+     * the block height is read from owner instead.
+     */
+    @Override
+    public boolean hasBlockEventNotify(String groupId) {
+        return this.groupAssignment.isOwner(groupId) && this.local.hasBlockEventNotify();
+    }
+
+    @Override
+    public List<WeEvent> loop(Long blockNum, String groupId) throws BrokerException {
+        if (this.groupAssignment.isOwner(groupId)) {
+            return this.local.loop(blockNum, groupId);
+        }
+
+        Windows windows = this.replicatedWindows.computeIfAbsent(groupId, key -> new Windows());
+        // one replication in flight for every group
+        synchronized (windows) {
+            List<WeEvent> events = windows.find(blockNum);
+            if (events == null) {
+                try {
+                    events = this.replicate(windows, blockNum, groupId);
+                } catch (BrokerException e) {
+                    log.error("replicate blocks from owner: {} failed in group: {}", this.groupAssignment.getOwner(groupId), groupId);
+                    this.fallbackCount.incrementAndGet();
+                    return this.local.loop(blockNum, groupId);
+                }
+            }
+
+            // null if the owner has not dispatched it yet, caller idle and try again
+            // the list is modified by caller
+            return events == null ? null : new ArrayList<>(events);
+        }
+    }
+
+    /**
+     * replicate blocks from owner in a window.
+     *
+     * @return the first block, null if the owner has not dispatched it yet
+     * @throws BrokerException owner is not available
+     */
+    private List<WeEvent> replicate(Windows windows, Long blockNum, String groupId) throws BrokerException {
+        String owner = this.groupAssignment.getOwner(groupId);
+        List<List<WeEvent>> replicated = this.blockReplica.getBlocks(owner, groupId, blockNum, this.window);
+        if (replicated == null || replicated.isEmpty()) {
+            return null;
+        }
+
+        log.debug("replicate blocks from owner: {} group: {} block: {}-{}", owner, groupId, blockNum, blockNum + replicated.size() - 1);
+        this.replicatedCount.addAndGet(replicated.size());
+        // the least recently used window is evicted if too many
+        windows.put(blockNum, new Window(blockNum, replicated));
+        return replicated.get(0);
+    }
+}
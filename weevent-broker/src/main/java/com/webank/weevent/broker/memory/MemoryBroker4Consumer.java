@@ -0,0 +1,171 @@
+package com.webank.weevent.broker.memory;
+
+import java.util.List;
+import java.util.Map;
+
+import com.webank.weevent.BrokerApplication;
+import com.webank.weevent.broker.ha.ShardedBlockChain;
+import com.webank.weevent.broker.plugin.IConsumer;
+import com.webank.weevent.broker.task.IBlockChain;
+import com.webank.weevent.broker.task.IEventLoopStats;
+import com.webank.weevent.broker.task.MainEventLoop;
+import com.webank.weevent.broker.task.Subscription;
+import com.webank.weevent.broker.task.SubscriptionCheckpoint;
+import com.webank.weevent.broker.task.SubscriptionManager;
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Event broker's consumer implement in memory, see MemoryChain.
+ * The same MainEventLoop, Subscription and NotifyTask as in FISCO-BCOS, so they can be profiled without block chain.
+ * Subscriptions are managed in SubscriptionManager, only the IBlockChain methods are here.
+ * This class is thread safe.
+ *
+ * @author matthewliu
+ * @since 2019/11/17
+ */
+@Slf4j
+public class MemoryBroker4Consumer extends MemoryTopicAdmin implements IConsumer, IBlockChain, IEventLoopStats, MemoryChain.IBlockEventListener {
+    /**
+     * daemon thread pool
+     */
+    private ThreadPoolTaskExecutor threadPoolTaskExecutor;
+
+    /**
+     * subscriptions and main event loops
+     */
+    private SubscriptionManager subscriptionManager;
+
+    /**
+     * idle time if no new block, one block interval
+     */
+    private int idleTime;
+
+    public MemoryBroker4Consumer() {
+        super();
+
+        this.threadPoolTaskExecutor = (ThreadPoolTaskExecutor) BrokerApplication.applicationContext.getBean("weevent_daemon_task_executor");
+        this.idleTime = BrokerApplication.weEventConfig.getMemoryBlockIntervalMs();
+        this.subscriptionManager = new SubscriptionManager(this, this,
+                new SubscriptionCheckpoint(BrokerApplication.weEventConfig.getCheckpointPath(),
+                        BrokerApplication.weEventConfig.getCheckpointFlushEvents(),
+                        BrokerApplication.weEventConfig.getCheckpointFlushMs(),
+                        BrokerApplication.weEventConfig.getCheckpointExpireSeconds() * 1000L));
+        this.subscriptionManager.setCreatedBlockLookup(this::getCreatedBlock);
+        this.subscriptionManager.setNotifyBatch(BrokerApplication.weEventConfig.getDeliveryBatchSize(),
+                BrokerApplication.weEventConfig.getDeliveryLingerMs());
+        this.subscriptionManager.setNotifyQueueBound(BrokerApplication.weEventConfig.getDeliveryQueueMaxEvents(),
+                BrokerApplication.weEventConfig.getDeliveryQueueMaxBytes());
+        this.subscriptionManager.setDeliveryExecutor((ThreadPoolTaskExecutor) BrokerApplication.applicationContext.getBean("weevent_delivery_executor"));
+        this.subscriptionManager.setLatencyTracking(BrokerApplication.weEventConfig.getLatencyTracking());
+        memoryChain.setListener(this);
+    }
+
+    // topic may be a topic pattern
+    @Override
+    public String subscribe(String topic, String groupId, String offset,
+                            @NonNull Map<SubscribeExt, String> ext,
+                            @NonNull ConsumerListener listener) throws BrokerException {
+        String[] topics = {topic};
+        return this.subscribe(topics, groupId, offset, ext, listener);
+    }
+
+    @Override
+    public String subscribe(String[] topics, String groupId, String offset,
+                            @NonNull Map<SubscribeExt, String> ext,
+                            @NonNull ConsumerListener listener) throws BrokerException {
+        this.validateGroupId(groupId);
+        return this.subscriptionManager.subscribe(topics, groupId, offset, ext, listener);
+    }
+
+    /**
+     * the first block where the topics created.
+     *
+     * @param topics topic name or pattern list
+     * @param groupId group id
+     * @return null if unknown, like topic pattern
+     */
+    private Long getCreatedBlock(String[] topics, String groupId) throws BrokerException {
+        Long createdBlock = null;
+        for (String topic : topics) {
+            if (Subscription.isTopicPattern(topic)) {
+                return null;
+            }
+
+            Long blockNumber = memoryChain.getTopicInfo(topic, groupId).getCreatedBlock();
+            if (createdBlock == null || blockNumber < createdBlock) {
+                createdBlock = blockNumber;
+            }
+        }
+        return createdBlock;
+    }
+
+    @Override
+    public boolean unSubscribe(String subscriptionId) throws BrokerException {
+        return this.subscriptionManager.unSubscribe(subscriptionId);
+    }
+
+    @Override
+    public boolean isStarted() {
+        return this.subscriptionManager.isStarted();
+    }
+
+    @Override
+    public synchronized boolean startConsumer() throws BrokerException {
+        // only the owner of group ingest from block chain in HA cluster
+        IBlockChain blockChain = ShardedBlockChain.build(this);
+
+        this.subscriptionManager.start(memoryChain.listGroupId(),
+                groupId -> new MainEventLoop(this.threadPoolTaskExecutor, blockChain, groupId));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean shutdownConsumer() {
+        this.subscriptionManager.shutdown();
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> listSubscription(String groupId) throws BrokerException {
+        this.validateGroupId(groupId);
+        return this.subscriptionManager.listSubscription(groupId);
+    }
+
+    // methods from IEventLoopStats
+    @Override
+    public Map<String, MainEventLoop.Stats> listEventLoopStats() {
+        return this.subscriptionManager.listEventLoopStats();
+    }
+
+    // methods from IBlockChain
+    @Override
+    public int getIdleTime() {
+        return this.idleTime;
+    }
+
+    @Override
+    public Long getBlockHeight(String groupId) throws BrokerException {
+        return memoryChain.getBlockHeight(groupId);
+    }
+
+    @Override
+    public boolean hasBlockEventNotify() {
+        return memoryChain.supportBlockEventNotify();
+    }
+
+    @Override
+    public List<WeEvent> loop(Long blockNum, String groupId) throws BrokerException {
+        return memoryChain.loop(blockNum, groupId);
+    }
+
+    // method from MemoryChain.IBlockEventListener
+    @Override
+    public void onEvent(String groupId, Long blockHeight) {
+        this.subscriptionManager.onNewBlock(groupId, blockHeight);
+    }
+}
@@ -0,0 +1,57 @@
+package com.webank.weevent.broker.memory;
+
+import java.util.concurrent.TimeUnit;
+
+import com.webank.weevent.BrokerApplication;
+import com.webank.weevent.broker.fisco.util.ParamCheckUtils;
+import com.webank.weevent.broker.metrics.BrokerMetrics;
+import com.webank.weevent.broker.metrics.LatencyTracker;
+import com.webank.weevent.broker.plugin.IProducer;
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.SendResult;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Event broker's producer implement in memory, see MemoryChain.
+ *
+ * @author matthewliu
+ * @since 2019/11/17
+ */
+@Slf4j
+public class MemoryBroker4Producer extends MemoryTopicAdmin implements IProducer {
+    @Override
+    public boolean startProducer() {
+        return true;
+    }
+
+    @Override
+    public boolean shutdownProducer() {
+        return true;
+    }
+
+    @Override
+    public SendResult publish(WeEvent event, String groupId) throws BrokerException {
+        log.debug("publish input param WeEvent: {}", event);
+        // stamp publish time for end to end latency before checked, so the stamp is checked too, see LatencyTracker
+        if (BrokerApplication.weEventConfig.getLatencyTracking()) {
+            event.setExtensions(LatencyTracker.withStamp(event.getExtensions(), WeEvent.WeEvent_PublishTime, System.currentTimeMillis()));
+        }
+        ParamCheckUtils.validateEvent(event);
+        this.validateGroupId(groupId);
+
+        long start = System.nanoTime();
+        SendResult sendResult;
+        try {
+            sendResult = memoryChain.publish(event, groupId);
+        } catch (BrokerException e) {
+            BrokerMetrics.publishTimer(groupId, SendResult.SendResultStatus.ERROR.name())
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+        BrokerMetrics.publishTimer(groupId, sendResult.getStatus().name())
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return sendResult;
+    }
+}
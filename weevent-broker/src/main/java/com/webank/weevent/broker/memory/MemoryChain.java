@@ -0,0 +1,489 @@
+package com.webank.weevent.broker.memory;
+
+
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.webank.weevent.broker.metrics.LatencyTracker;
+import com.webank.weevent.protocol.rest.entity.GroupGeneral;
+import com.webank.weevent.protocol.rest.entity.TbBlock;
+import com.webank.weevent.protocol.rest.entity.TbNode;
+import com.webank.weevent.protocol.rest.entity.TbTransHash;
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.ErrorCode;
+import com.webank.weevent.sdk.EventId;
+import com.webank.weevent.sdk.SendResult;
+import com.webank.weevent.sdk.TopicInfo;
+import com.webank.weevent.sdk.TopicPage;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Block chain simulated in memory, so the whole broker can be load tested without FISCO-BCOS or Fabric.
+ * ##### more details #####
+ * Every group has it's own ledger:
+ * publish         put a transaction into pending queue, and wait until it's committed
+ * seal            every blockInterval ms, take at most txPerBlock pending transactions into a new block
+ * commit          commitLatency ms after sealing, like consensus, the block is visible with block timestamp,
+ *                 the events are numbered in topic, and stamped with WeEvent.WeEvent_CommitTime if tracked
+ * notify          IBlockEventListener is called after commit if blockNotify, else consumer poll the block height
+ * No empty block is sealed, and only the last maxBlocks blocks are kept, the older ones are empty in loop.
+ * Block 1 is the genesis block without any event, because the event loop need a positive block height to start.
+ * Topics are created instantly, not in a transaction.
+ * This class is thread safe, sealing and committing are in one daemon thread.
+ *
+ * @author matthewliu
+ * @since 2019/11/17
+ */
+@Slf4j
+public class MemoryChain {
+    // wait for a transaction committed, like web3sdk.timeout
+    private final static int PUBLISH_TIMEOUT = 10000;
+
+    // page size if not given in query
+    private final static int DEFAULT_PAGE_SIZE = 10;
+
+    private final static String NODE_NAME = "memory";
+
+    private final int blockInterval;
+    private final int txPerBlock;
+    private final int commitLatency;
+    private final boolean blockNotify;
+    private final int maxBlocks;
+
+    // group id <-> ledger
+    private final Map<String, Ledger> ledgers = new HashMap<>();
+
+    private final ScheduledExecutorService sealer;
+
+    private volatile IBlockEventListener listener;
+
+    /**
+     * new block event listener, like FiscoBcosDelegate.IBlockEventListener
+     */
+    public interface IBlockEventListener {
+        void onEvent(String groupId, Long blockHeight);
+    }
+
+    private static class Transaction {
+        private final WeEvent event;
+        private final CompletableFuture<SendResult> future = new CompletableFuture<>();
+
+        Transaction(WeEvent event) {
+            this.event = event;
+        }
+    }
+
+    private static class Block {
+        private final long number;
+        private final long timestamp;
+        private final List<WeEvent> events;
+
+        Block(long number, long timestamp, List<WeEvent> events) {
+            this.number = number;
+            this.timestamp = timestamp;
+            this.events = events;
+        }
+    }
+
+    // changed only in sealer thread, except created
+    private static class Topic {
+        private final String name;
+        private final String address;
+        private final long createdTimestamp;
+        private final long createdBlock;
+        private volatile long sequenceNumber;
+        private volatile long lastTimestamp;
+        private volatile long lastBlock;
+
+        Topic(String name, String address, long createdTimestamp, long createdBlock) {
+            this.name = name;
+            this.address = address;
+            this.createdTimestamp = createdTimestamp;
+            this.createdBlock = createdBlock;
+        }
+    }
+
+    private static class Ledger {
+        private final String groupId;
+
+        // block number <-> block
+        private final Map<Long, Block> blocks = new ConcurrentHashMap<>();
+
+        // topic name <-> topic, list in name order
+        private final ConcurrentSkipListMap<String, Topic> topics = new ConcurrentSkipListMap<>();
+
+        private final BlockingQueue<Transaction> pending = new LinkedBlockingQueue<>();
+
+        private final AtomicLong transactionCount = new AtomicLong(0);
+
+        // committed block height
+        private volatile long height;
+
+        // block number sealed, committed later
+        private long sealed;
+
+        Ledger(String groupId) {
+            this.groupId = groupId;
+
+            // genesis
+            this.blocks.put(1L, new Block(1L, System.currentTimeMillis(), Collections.emptyList()));
+            this.height = 1L;
+            this.sealed = 1L;
+        }
+    }
+
+    /**
+     * @param groups group id list
+     * @param blockInterval seal a block every blockInterval ms
+     * @param txPerBlock max transactions in a block
+     * @param commitLatency delay from sealing to commit in ms
+     * @param blockNotify notify listener with new block
+     * @param maxBlocks blocks kept in every group
+     */
+    public MemoryChain(List<String> groups, int blockInterval, int txPerBlock, int commitLatency, boolean blockNotify, int maxBlocks) {
+        this.blockInterval = Math.max(1, blockInterval);
+        this.txPerBlock = Math.max(1, txPerBlock);
+        this.commitLatency = Math.max(0, commitLatency);
+        this.blockNotify = blockNotify;
+        this.maxBlocks = Math.max(1, maxBlocks);
+        for (String groupId : groups) {
+            this.ledgers.put(groupId, new Ledger(groupId));
+        }
+
+        this.sealer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "memory-chain-sealer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        log.info("start memory chain, groups: {} block interval: {} tx per block: {} commit latency: {} block notify: {}",
+                this.ledgers.keySet(), this.blockInterval, this.txPerBlock, this.commitLatency, this.blockNotify);
+
+        this.sealer.scheduleAtFixedRate(this::seal, this.blockInterval, this.blockInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        this.sealer.shutdownNow();
+        for (Ledger ledger : this.ledgers.values()) {
+            for (Transaction transaction : ledger.pending) {
+                transaction.future.complete(new SendResult(SendResult.SendResultStatus.ERROR));
+            }
+            ledger.pending.clear();
+        }
+        log.info("stop memory chain");
+    }
+
+    public void setListener(IBlockEventListener listener) {
+        this.listener = listener;
+    }
+
+    public boolean supportBlockEventNotify() {
+        return this.blockNotify;
+    }
+
+    public List<String> listGroupId() {
+        return new ArrayList<>(this.ledgers.keySet());
+    }
+
+    private Ledger getLedger(String groupId) throws BrokerException {
+        Ledger ledger = groupId == null ? null : this.ledgers.get(groupId);
+        if (ledger == null) {
+            throw new BrokerException(ErrorCode.EVENT_GROUP_ID_NOT_FOUND);
+        }
+        return ledger;
+    }
+
+    public boolean createTopic(String topic, String groupId) throws BrokerException {
+        Ledger ledger = this.getLedger(groupId);
+        long now = System.currentTimeMillis();
+        Topic created = new Topic(topic, String.format("0x%040x", ledger.topics.size() + 1), now, ledger.height);
+        if (ledger.topics.putIfAbsent(topic, created) != null) {
+            throw new BrokerException(ErrorCode.TOPIC_ALREADY_EXIST);
+        }
+        return true;
+    }
+
+    public boolean isTopicExist(String topic, String groupId) throws BrokerException {
+        return this.getLedger(groupId).topics.containsKey(topic);
+    }
+
+    public TopicInfo getTopicInfo(String topic, String groupId) throws BrokerException {
+        Topic target = this.getLedger(groupId).topics.get(topic);
+        if (target == null) {
+            throw new BrokerException(ErrorCode.TOPIC_NOT_EXIST);
+        }
+        return toTopicInfo(target);
+    }
+
+    private static TopicInfo toTopicInfo(Topic topic) {
+        TopicInfo topicInfo = new TopicInfo();
+        topicInfo.setTopicName(topic.name);
+        topicInfo.setTopicAddress(topic.address);
+        topicInfo.setSenderAddress(NODE_NAME);
+        topicInfo.setCreatedTimestamp(topic.createdTimestamp);
+        topicInfo.setCreatedBlock(topic.createdBlock);
+        topicInfo.setBlockNumber(topic.lastBlock);
+        topicInfo.setSequenceNumber(topic.sequenceNumber);
+        topicInfo.setLastTimestamp(topic.lastTimestamp);
+        topicInfo.setLastSender(NODE_NAME);
+        topicInfo.setLastBlock(topic.lastBlock);
+        return topicInfo;
+    }
+
+    public TopicPage listTopic(int pageIndex, int pageSize, String groupId) throws BrokerException {
+        Ledger ledger = this.getLedger(groupId);
+        TopicPage topicPage = new TopicPage();
+        topicPage.setTotal(ledger.topics.size());
+        topicPage.setPageIndex(pageIndex);
+        topicPage.setPageSize(pageSize);
+
+        int skip = pageIndex * pageSize;
+        for (Topic topic : ledger.topics.values()) {
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            if (topicPage.getTopicInfoList().size() >= pageSize) {
+                break;
+            }
+            topicPage.getTopicInfoList().add(toTopicInfo(topic));
+        }
+        return topicPage;
+    }
+
+    /**
+     * publish an event and wait until it's committed.
+     *
+     * @param event event
+     * @param groupId group id
+     * @return SendResult, TIMEOUT if not committed in time
+     * @throws BrokerException BrokerException
+     */
+    public SendResult publish(WeEvent event, String groupId) throws BrokerException {
+        Ledger ledger = this.getLedger(groupId);
+        if (!ledger.topics.containsKey(event.getTopic())) {
+            throw new BrokerException(ErrorCode.TOPIC_NOT_EXIST);
+        }
+
+        Transaction transaction = new Transaction(event);
+        ledger.pending.add(transaction);
+        try {
+            return transaction.future.get(PUBLISH_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.error("publish failed due to transaction timeout.", e);
+            SendResult sendResult = new SendResult(SendResult.SendResultStatus.TIMEOUT);
+            sendResult.setTopic(event.getTopic());
+            return sendResult;
+        } catch (InterruptedException e) {
+            log.error("publish failed due to wait transaction interrupted.", e);
+            // keep the interrupted status for the caller
+            Thread.currentThread().interrupt();
+            throw new BrokerException(ErrorCode.TRANSACTION_EXECUTE_ERROR);
+        } catch (ExecutionException e) {
+            log.error("publish failed due to transaction execution error.", e);
+            throw new BrokerException(ErrorCode.TRANSACTION_EXECUTE_ERROR);
+        }
+    }
+
+    private void seal() {
+        try {
+            for (Ledger ledger : this.ledgers.values()) {
+                List<Transaction> transactions = new ArrayList<>();
+                ledger.pending.drainTo(transactions, this.txPerBlock);
+                if (transactions.isEmpty()) {
+                    continue;
+                }
+
+                ledger.sealed++;
+                long blockNumber = ledger.sealed;
+                if (this.commitLatency > 0) {
+                    // tasks with the same delay are executed in order
+                    this.sealer.schedule(() -> this.commit(ledger, blockNumber, transactions), this.commitLatency, TimeUnit.MILLISECONDS);
+                } else {
+                    this.commit(ledger, blockNumber, transactions);
+                }
+            }
+        } catch (RuntimeException e) {
+            // do not stop scheduling
+            log.error("seal block failed", e);
+        }
+    }
+
+    private void commit(Ledger ledger, long blockNumber, List<Transaction> transactions) {
+        long timestamp = System.currentTimeMillis();
+        List<WeEvent> events = new ArrayList<>(transactions.size());
+        List<SendResult> sendResults = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            WeEvent event = transaction.event;
+            Topic topic = ledger.topics.get(event.getTopic());
+            topic.sequenceNumber++;
+            topic.lastTimestamp = timestamp;
+            topic.lastBlock = blockNumber;
+
+            // decoded copy, like from block chain
+            WeEvent committed = new WeEvent(event.getTopic(), event.getContent(),
+                    event.getExtensions() == null ? new HashMap<>() : new HashMap<>(event.getExtensions()));
+            LatencyTracker.stampCommit(committed, timestamp);
+            committed.setEventId(EventId.of(event.getTopic(), blockNumber, topic.sequenceNumber).toString());
+            events.add(committed);
+            sendResults.add(new SendResult(SendResult.SendResultStatus.SUCCESS, committed.getTopic(), committed.getEventId()));
+        }
+
+        ledger.blocks.put(blockNumber, new Block(blockNumber, timestamp, Collections.unmodifiableList(events)));
+        ledger.blocks.remove(blockNumber - this.maxBlocks);
+        ledger.transactionCount.addAndGet(events.size());
+        ledger.height = blockNumber;
+
+        for (int i = 0; i < transactions.size(); i++) {
+            transactions.get(i).future.complete(sendResults.get(i));
+        }
+
+        IBlockEventListener blockEventListener = this.listener;
+        if (this.blockNotify && blockEventListener != null) {
+            blockEventListener.onEvent(ledger.groupId, blockNumber);
+        }
+    }
+
+    public Long getBlockHeight(String groupId) throws BrokerException {
+        return this.getLedger(groupId).height;
+    }
+
+    /**
+     * events in block, empty if not committed or dropped.
+     *
+     * @param blockNum block number
+     * @param groupId group id
+     * @return events
+     * @throws BrokerException BrokerException
+     */
+    public List<WeEvent> loop(Long blockNum, String groupId) throws BrokerException {
+        Block block = this.getLedger(groupId).blocks.get(blockNum);
+        if (block == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(block.events);
+    }
+
+    public WeEvent getEvent(String eventId, String groupId) throws BrokerException {
+        Ledger ledger = this.getLedger(groupId);
+        EventId parsed = EventId.parse(eventId);
+        if (parsed.getBlockNumber() > ledger.height) {
+            throw new BrokerException(ErrorCode.EVENT_ID_IS_MISMATCH);
+        }
+
+        Block block = ledger.blocks.get(parsed.getBlockNumber());
+        if (block != null) {
+            for (WeEvent event : block.events) {
+                if (eventId.equals(event.getEventId())) {
+                    return event;
+                }
+            }
+        }
+        throw new BrokerException(ErrorCode.EVENT_ID_NOT_EXIST);
+    }
+
+    public GroupGeneral getGroupGeneral(String groupId) throws BrokerException {
+        Ledger ledger = this.getLedger(groupId);
+        GroupGeneral groupGeneral = new GroupGeneral();
+        groupGeneral.setNodeCount(1);
+        groupGeneral.setTransactionCount(BigInteger.valueOf(ledger.transactionCount.get()));
+        groupGeneral.setLatestBlock(BigInteger.valueOf(ledger.height));
+        return groupGeneral;
+    }
+
+    // the given block, or the latest blocks in page
+    private List<Block> queryBlocks(Ledger ledger, Integer pageNumber, Integer pageSize, BigInteger blockNumber) {
+        List<Block> blocks = new ArrayList<>();
+        if (blockNumber != null) {
+            Block block = ledger.blocks.get(blockNumber.longValue());
+            if (block != null) {
+                blocks.add(block);
+            }
+            return blocks;
+        }
+
+        int size = pageSize == null || pageSize <= 0 ? DEFAULT_PAGE_SIZE : pageSize;
+        int page = pageNumber == null || pageNumber <= 0 ? 1 : pageNumber;
+        long from = ledger.height - (long) (page - 1) * size;
+        for (long number = from; number > from - size && number > 0; number--) {
+            Block block = ledger.blocks.get(number);
+            if (block != null) {
+                blocks.add(block);
+            }
+        }
+        return blocks;
+    }
+
+    private static String blockHash(long blockNumber) {
+        return String.format("0x%064x", blockNumber);
+    }
+
+    private static LocalDateTime toLocalDateTime(long timestamp) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault());
+    }
+
+    public List<TbBlock> queryBlockList(String groupId, Integer pageNumber, Integer pageSize, BigInteger blockNumber) throws BrokerException {
+        List<TbBlock> tbBlocks = new ArrayList<>();
+        for (Block block : this.queryBlocks(this.getLedger(groupId), pageNumber, pageSize, blockNumber)) {
+            TbBlock tbBlock = new TbBlock(blockHash(block.number),
+                    BigInteger.valueOf(block.number),
+                    toLocalDateTime(block.timestamp),
+                    block.events.size(),
+                    0);
+            tbBlock.setSealer(NODE_NAME);
+            tbBlocks.add(tbBlock);
+        }
+        return tbBlocks;
+    }
+
+    public List<TbTransHash> queryTransList(String groupId, Integer pageNumber, Integer pageSize, BigInteger blockNumber) throws BrokerException {
+        List<TbTransHash> tbTransHashes = new ArrayList<>();
+        for (Block block : this.queryBlocks(this.getLedger(groupId), pageNumber, pageSize, blockNumber)) {
+            for (int i = 0; i < block.events.size(); i++) {
+                WeEvent event = block.events.get(i);
+                tbTransHashes.add(new TbTransHash(String.format("0x%032x%032x", block.number, i),
+                        NODE_NAME,
+                        event.getTopic(),
+                        BigInteger.valueOf(block.number),
+                        toLocalDateTime(block.timestamp)));
+            }
+        }
+        return tbTransHashes;
+    }
+
+    public List<TbNode> queryNodeList(String groupId) throws BrokerException {
+        Ledger ledger = this.getLedger(groupId);
+        TbNode tbNode = new TbNode();
+        tbNode.setNodeId(NODE_NAME);
+        tbNode.setNodeName(NODE_NAME);
+        tbNode.setBlockNumber(BigInteger.valueOf(ledger.height));
+        tbNode.setPbftView(BigInteger.ZERO);
+        tbNode.setNodeActive(1);
+
+        List<TbNode> tbNodes = new ArrayList<>();
+        tbNodes.add(tbNode);
+        return tbNodes;
+    }
+}
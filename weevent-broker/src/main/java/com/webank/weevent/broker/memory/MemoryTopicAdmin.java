@@ -0,0 +1,166 @@
+package com.webank.weevent.broker.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.webank.weevent.BrokerApplication;
+import com.webank.weevent.broker.config.WeEventConfig;
+import com.webank.weevent.broker.fisco.util.ParamCheckUtils;
+import com.webank.weevent.broker.plugin.IEventTopic;
+import com.webank.weevent.protocol.rest.entity.GroupGeneral;
+import com.webank.weevent.protocol.rest.entity.QueryEntity;
+import com.webank.weevent.protocol.rest.entity.TbBlock;
+import com.webank.weevent.protocol.rest.entity.TbNode;
+import com.webank.weevent.protocol.rest.entity.TbTransHash;
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.ErrorCode;
+import com.webank.weevent.sdk.TopicInfo;
+import com.webank.weevent.sdk.TopicPage;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Topic admin on the block chain simulated in memory, see MemoryChain.
+ * It's configured in weevent.properties with "broker.blockchain.type=memory" and "broker.memory.*".
+ *
+ * @author matthewliu
+ * @since 2019/11/17
+ */
+@Slf4j
+public class MemoryTopicAdmin implements IEventTopic {
+    // the only chain shared by producer and consumer
+    protected static MemoryChain memoryChain;
+
+    static {
+        memoryChain = build(BrokerApplication.weEventConfig);
+        memoryChain.start();
+    }
+
+    private static MemoryChain build(WeEventConfig config) {
+        List<String> groups = new ArrayList<>();
+        for (String groupId : config.getMemoryGroups().split(",")) {
+            if (StringUtils.isNotBlank(groupId)) {
+                groups.add(groupId.trim());
+            }
+        }
+        if (groups.isEmpty()) {
+            groups.add(WeEvent.DEFAULT_GROUP_ID);
+        }
+
+        return new MemoryChain(groups,
+                config.getMemoryBlockIntervalMs(),
+                config.getMemoryTxPerBlock(),
+                config.getMemoryCommitLatencyMs(),
+                config.getMemoryBlockNotify(),
+                config.getMemoryMaxBlocks());
+    }
+
+    @Override
+    public boolean open(String topic, String groupId) throws BrokerException {
+        log.info("open topic: {} groupId: {}", topic, groupId);
+
+        ParamCheckUtils.validateTopicName(topic);
+        this.validateGroupId(groupId);
+        try {
+            return memoryChain.createTopic(topic, groupId);
+        } catch (BrokerException e) {
+            if (e.getCode() == ErrorCode.TOPIC_ALREADY_EXIST.getCode()) {
+                return true;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean close(String topic, String groupId) throws BrokerException {
+        log.info("close topic: {} groupId: {}", topic, groupId);
+
+        ParamCheckUtils.validateTopicName(topic);
+        this.validateGroupId(groupId);
+        if (exist(topic, groupId)) {
+            return true;
+        }
+
+        throw new BrokerException(ErrorCode.TOPIC_NOT_EXIST);
+    }
+
+    @Override
+    public WeEvent getEvent(String eventId, String groupId) throws BrokerException {
+        log.debug("getEvent function input param eventId: {}", eventId);
+
+        this.validateGroupId(groupId);
+        return memoryChain.getEvent(eventId, groupId);
+    }
+
+    @Override
+    public boolean exist(String topic, String groupId) throws BrokerException {
+        ParamCheckUtils.validateTopicName(topic);
+        this.validateGroupId(groupId);
+
+        return memoryChain.isTopicExist(topic, groupId);
+    }
+
+    @Override
+    public TopicPage list(Integer pageIndex, Integer pageSize, String groupId) throws BrokerException {
+        if (pageIndex == null || pageIndex < 0) {
+            throw new BrokerException(ErrorCode.TOPIC_PAGE_INDEX_INVALID);
+        }
+        if (pageSize == null || pageSize <= 0 || pageSize > 100) {
+            throw new BrokerException(ErrorCode.TOPIC_PAGE_SIZE_INVALID);
+        }
+        this.validateGroupId(groupId);
+
+        return memoryChain.listTopic(pageIndex, pageSize, groupId);
+    }
+
+    @Override
+    public TopicInfo state(String topic, String groupId) throws BrokerException {
+        ParamCheckUtils.validateTopicName(topic);
+        this.validateGroupId(groupId);
+
+        return memoryChain.getTopicInfo(topic, groupId);
+    }
+
+    @Override
+    public List<String> listGroupId() {
+        return memoryChain.listGroupId();
+    }
+
+    @Override
+    public GroupGeneral getGroupGeneral(String groupId) throws BrokerException {
+        this.validateGroupId(groupId);
+        return memoryChain.getGroupGeneral(groupId);
+    }
+
+    @Override
+    public List<TbTransHash> queryTransList(QueryEntity queryEntity) throws BrokerException {
+        this.validateGroupId(queryEntity.getGroupId());
+        return memoryChain.queryTransList(queryEntity.getGroupId(),
+                queryEntity.getPageNumber(),
+                queryEntity.getPageSize(),
+                queryEntity.getBlockNumber());
+    }
+
+    @Override
+    public List<TbBlock> queryBlockList(QueryEntity queryEntity) throws BrokerException {
+        this.validateGroupId(queryEntity.getGroupId());
+        return memoryChain.queryBlockList(queryEntity.getGroupId(),
+                queryEntity.getPageNumber(),
+                queryEntity.getPageSize(),
+                queryEntity.getBlockNumber());
+    }
+
+    @Override
+    public List<TbNode> queryNodeList(QueryEntity queryEntity) throws BrokerException {
+        this.validateGroupId(queryEntity.getGroupId());
+        return memoryChain.queryNodeList(queryEntity.getGroupId());
+    }
+
+    protected void validateGroupId(String groupId) throws BrokerException {
+        if (StringUtils.isBlank(groupId) || !memoryChain.listGroupId().contains(groupId)) {
+            throw new BrokerException(ErrorCode.EVENT_GROUP_ID_NOT_FOUND);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.webank.weevent.broker.metrics;
+
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Meters of the produce and consume pipeline, registered in micrometer's global registry.
+ * ##### more details #####
+ * Stages and their meters:
+ * weevent.publish          Timer   group, status           IProducer.publish into block chain
+ * weevent.block.fetch      Timer   group, source           IBlockChain.loop, source is "cache" or "chain"
+ * weevent.block.skipped-tx Counter group                   tx in block not sent to topic contract, receipt not fetched
+ * weevent.dispatch         Timer   group                   MainEventLoop dispatch a batch of blocks to subscriptions
+ * weevent.notify.delivery  Timer   group, protocol         NotifyTask deliver a batch of events to the listener
+ * weevent.notify.events    Counter group, protocol         events delivered
+ * weevent.notify.queue     Gauge   group                   events waiting in notify queues
+ * weevent.eventloop.lag    Gauge   group                   blocks behind the block chain
+ * weevent.eventloop.catch-up-blocks Counter group          blocks dealt while catching up, it's rate is the catch up throughput
+ * weevent.eventloop.catch-up-rate   Gauge   group          blocks per second in the current or last catch up
+ * Meters are looked up once and kept by the caller in hot path, like NotifyTask and MainEventLoop.
+ * Publish and block fetch timers are used by shared producer and delegate, they are cached here.
+ * No meter is tagged with topic, topics are created by client without limit, it's too many series to keep.
+ * Without any registry added, like in unit test, the meters are no-op.
+ * The registry in prometheus format is added while broker starting, see BrokerApplication and AdminRest.
+ *
+ * @author matthewliu
+ * @since 2019/11/14
+ */
+public class BrokerMetrics {
+    public final static String TAG_GROUP = "group";
+    public final static String TAG_PROTOCOL = "protocol";
+    public final static String TAG_STATUS = "status";
+    public final static String TAG_SOURCE = "source";
+
+    public final static String SOURCE_CACHE = "cache";
+    public final static String SOURCE_CHAIN = "chain";
+
+    // group id <-> status <-> publish timer
+    private final static Map<String, Map<String, Timer>> publishTimers = new ConcurrentHashMap<>();
+    // group id <-> source <-> block fetch timer
+    private final static Map<String, Map<String, Timer>> blockFetchTimers = new ConcurrentHashMap<>();
+
+    // gauge name + group id <-> current value, the gauge refer to the holder weakly
+    private final static Map<String, GaugeValue> gauges = new ConcurrentHashMap<>();
+
+    private static class GaugeValue {
+        private volatile Supplier<Number> supplier;
+
+        double get() {
+            Number number = this.supplier.get();
+            return number == null ? Double.NaN : number.doubleValue();
+        }
+    }
+
+    private BrokerMetrics() {
+    }
+
+    public static MeterRegistry getRegistry() {
+        return Metrics.globalRegistry;
+    }
+
+    // timer with histogram, bucket in [1ms, 30s]
+    private static Timer timer(String name, String description, String... tags) {
+        return Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(Metrics.globalRegistry);
+    }
+
+    private static <V> Map<String, V> child(Map<String, Map<String, V>> parent, String key) {
+        return parent.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+    }
+
+    public static Timer publishTimer(String groupId, String status) {
+        return child(publishTimers, groupId).computeIfAbsent(status, key ->
+                timer("weevent.publish", "publish event into block chain",
+                        TAG_GROUP, groupId, TAG_STATUS, status));
+    }
+
+    public static Timer blockFetchTimer(String groupId, String source) {
+        return child(blockFetchTimers, groupId).computeIfAbsent(source, key ->
+                timer("weevent.block.fetch", "fetch events in one block",
+                        TAG_GROUP, groupId, TAG_SOURCE, source));
+    }
+
+    public static Counter skippedTransactionCounter(String groupId) {
+        return Counter.builder("weevent.block.skipped-tx")
+                .description("transactions in block not sent to topic contract")
+                .tags(TAG_GROUP, groupId)
+                .register(Metrics.globalRegistry);
+    }
+
+    public static Counter catchUpBlocksCounter(String groupId) {
+        return Counter.builder("weevent.eventloop.catch-up-blocks")
+                .description("blocks dealt while catching up block height")
+                .tags(TAG_GROUP, groupId)
+                .register(Metrics.globalRegistry);
+    }
+
+    public static Timer dispatchTimer(String groupId) {
+        return timer("weevent.dispatch", "dispatch blocks to subscriptions",
+                TAG_GROUP, groupId);
+    }
+
+    public static Timer deliveryTimer(String groupId, String protocol) {
+        return timer("weevent.notify.delivery", "deliver a batch of events to subscriber",
+                TAG_GROUP, groupId, TAG_PROTOCOL, protocol);
+    }
+
+    public static Counter deliveryCounter(String groupId, String protocol) {
+        return Counter.builder("weevent.notify.events")
+                .description("events delivered to subscriber")
+                .tags(TAG_GROUP, groupId, TAG_PROTOCOL, protocol)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * gauge of a group, the value is read while scraping.
+     * The supplier is replaced if register again, like the event loop is restarted.
+     *
+     * @param name gauge name
+     * @param groupId group id
+     * @param value value supplier
+     */
+    public static void gauge(String name, String groupId, Supplier<Number> value) {
+        GaugeValue gaugeValue = gauges.computeIfAbsent(name + "/" + groupId, key -> {
+            GaugeValue holder = new GaugeValue();
+            holder.supplier = value;
+            Gauge.builder(name, holder, GaugeValue::get)
+                    .tags(TAG_GROUP, groupId)
+                    .register(Metrics.globalRegistry);
+            return holder;
+        });
+        gaugeValue.supplier = value;
+    }
+
+    /**
+     * summary of all the meters, used in /admin/metrics.
+     * Timer is in ms, like {"weevent.dispatch{group=1}": {"count": 10, "mean": 0.5, "max": 1.2, "total": 5}}.
+     *
+     * @return meter name with tags <-> statistics
+     */
+    public static Map<String, Map<String, Double>> summary() {
+        Map<String, Map<String, Double>> summary = new TreeMap<>();
+        for (Meter meter : Metrics.globalRegistry.getMeters()) {
+            Map<String, Double> values = new TreeMap<>();
+            if (meter instanceof Timer) {
+                Timer timer = (Timer) meter;
+                values.put("count", (double) timer.count());
+                values.put("total", timer.totalTime(TimeUnit.MILLISECONDS));
+                values.put("mean", timer.mean(TimeUnit.MILLISECONDS));
+                values.put("max", timer.max(TimeUnit.MILLISECONDS));
+            } else {
+                for (Measurement measurement : meter.measure()) {
+                    values.put(measurement.getStatistic().name().toLowerCase(), measurement.getValue());
+                }
+            }
+            summary.put(meterName(meter.getId()), values);
+        }
+        return summary;
+    }
+
+    private static String meterName(Meter.Id id) {
+        StringBuilder name = new StringBuilder(id.getName()).append("{");
+        boolean first = true;
+        for (Tag tag : id.getTags()) {
+            if (!first) {
+                name.append(",");
+            }
+            name.append(tag.getKey()).append("=").append(tag.getValue());
+            first = false;
+        }
+        return name.append("}").toString();
+    }
+}
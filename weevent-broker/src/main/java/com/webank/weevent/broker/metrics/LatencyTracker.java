@@ -0,0 +1,219 @@
+package com.webank.weevent.broker.metrics;
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.Data;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * End to end latency of events, from publish to delivery, in HdrHistogram.
+ * ##### more details #####
+ * Every event is stamped in extensions with epoch milliseconds, so a client can compute it's own latency too:
+ * WeEvent.WeEvent_PublishTime    stamped by producer before checking and sending transaction, it's stored in block chain
+ * WeEvent.WeEvent_CommitTime     block's timestamp, stamped while decoding block, only if the event has publish stamp
+ * Events published by a broker without broker.latency.tracking are delivered with their extensions unchanged.
+ * The dispatch time is not stamped, the events from block chain are shared by cache and history and not copied,
+ * MainEventLoop pass it to NotifyTask along with the events, events replayed from history have no dispatch time.
+ * NotifyTask record the stages of every delivered event with dispatch time, in recorder of it's topic and protocol:
+ * commit      publish -> commit
+ * dispatch    commit -> dispatch
+ * delivery    dispatch -> delivery
+ * total       publish -> delivery
+ * The stamps are from different hosts, a negative stage due to clock skew is counted as 0.
+ * Recorder is lock free for writer, the intervals are accumulated while reporting, see report.
+ * At most MAX_TRACKERS topic and protocol pairs are kept, the others are counted in topic "other".
+ *
+ * @author matthewliu
+ * @since 2019/11/15
+ */
+public class LatencyTracker {
+    public final static String STAGE_COMMIT = "commit";
+    public final static String STAGE_DISPATCH = "dispatch";
+    public final static String STAGE_DELIVERY = "delivery";
+    public final static String STAGE_TOTAL = "total";
+
+    private final static int MAX_TRACKERS = 1024;
+    private final static String OTHER_TOPIC = "other";
+
+    // 2 significant digits is enough for percentile in ms, and keep the histogram small
+    private final static int SIGNIFICANT_DIGITS = 2;
+
+    // topic + protocol <-> tracker
+    private final static Map<String, LatencyTracker> trackers = new ConcurrentHashMap<>();
+
+    private final Stage commit = new Stage();
+    private final Stage dispatch = new Stage();
+    private final Stage delivery = new Stage();
+    private final Stage total = new Stage();
+
+    @Data
+    public static class Stats {
+        private long count;
+        private long p50;
+        private long p99;
+        private long p999;
+        private long max;
+    }
+
+    private static class Stage {
+        private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+
+        // intervals reported so far
+        private final Histogram accumulated = new Histogram(SIGNIFICANT_DIGITS);
+        private Histogram interval;
+
+        void record(long ms) {
+            this.recorder.recordValue(Math.max(0L, ms));
+        }
+
+        synchronized Stats report() {
+            this.interval = this.recorder.getIntervalHistogram(this.interval);
+            this.accumulated.add(this.interval);
+
+            Stats stats = new Stats();
+            stats.setCount(this.accumulated.getTotalCount());
+            stats.setP50(this.accumulated.getValueAtPercentile(50.0));
+            stats.setP99(this.accumulated.getValueAtPercentile(99.0));
+            stats.setP999(this.accumulated.getValueAtPercentile(99.9));
+            stats.setMax(this.accumulated.getMaxValue());
+            return stats;
+        }
+    }
+
+    private LatencyTracker() {
+    }
+
+    /**
+     * tracker of topic and protocol, it should be kept by caller in hot path.
+     *
+     * @param topic topic name
+     * @param protocol subscribe protocol, see Subscription.interfaceType
+     * @return tracker
+     */
+    public static LatencyTracker of(String topic, String protocol) {
+        String key = topic + WeEvent.LAYER_SEPARATE + protocol;
+        LatencyTracker tracker = trackers.get(key);
+        if (tracker != null) {
+            return tracker;
+        }
+
+        if (trackers.size() >= MAX_TRACKERS) {
+            key = OTHER_TOPIC + WeEvent.LAYER_SEPARATE + protocol;
+        }
+        return trackers.computeIfAbsent(key, k -> new LatencyTracker());
+    }
+
+    /**
+     * record the stages of a delivered event, skip it if it's not dispatched by MainEventLoop.
+     *
+     * @param event delivered event
+     * @param dispatchTime dispatch time in epoch milliseconds, 0 if replayed from history
+     * @param deliveryTime delivery time in epoch milliseconds
+     */
+    public void record(WeEvent event, long dispatchTime, long deliveryTime) {
+        if (dispatchTime <= 0) {
+            return;
+        }
+        this.delivery.record(deliveryTime - dispatchTime);
+
+        long commitTime = getStamp(event, WeEvent.WeEvent_CommitTime);
+        if (commitTime > 0) {
+            this.dispatch.record(dispatchTime - commitTime);
+        }
+
+        long publishTime = getStamp(event, WeEvent.WeEvent_PublishTime);
+        if (publishTime > 0) {
+            if (commitTime > 0) {
+                this.commit.record(commitTime - publishTime);
+            }
+            this.total.record(deliveryTime - publishTime);
+        }
+    }
+
+    /**
+     * percentile of every stage, in milliseconds, used in /admin/latency.
+     *
+     * @return topic/protocol <-> stage <-> statistics
+     */
+    public static Map<String, Map<String, Stats>> report() {
+        Map<String, Map<String, Stats>> report = new TreeMap<>();
+        for (Map.Entry<String, LatencyTracker> entry : trackers.entrySet()) {
+            LatencyTracker tracker = entry.getValue();
+            Map<String, Stats> stages = new HashMap<>();
+            stages.put(STAGE_COMMIT, tracker.commit.report());
+            stages.put(STAGE_DISPATCH, tracker.dispatch.report());
+            stages.put(STAGE_DELIVERY, tracker.delivery.report());
+            stages.put(STAGE_TOTAL, tracker.total.report());
+            report.put(entry.getKey(), stages);
+        }
+        return report;
+    }
+
+    /**
+     * stamp in event's extensions, the event is modified.
+     *
+     * @param event event
+     * @param key stamp key, like WeEvent.WeEvent_PublishTime
+     * @param time epoch milliseconds
+     */
+    public static void stamp(WeEvent event, String key, long time) {
+        if (event.getExtensions() == null) {
+            event.setExtensions(new HashMap<>());
+        }
+        event.getExtensions().put(key, String.valueOf(time));
+    }
+
+    /**
+     * stamp commit time in event's extensions if it's published with tracking, see WeEvent.WeEvent_PublishTime.
+     *
+     * @param event decoded event
+     * @param time block's timestamp in epoch milliseconds
+     */
+    public static void stampCommit(WeEvent event, long time) {
+        if (getStamp(event, WeEvent.WeEvent_PublishTime) > 0) {
+            stamp(event, WeEvent.WeEvent_CommitTime, time);
+        }
+    }
+
+    /**
+     * a copy of extensions with stamp, the original one may be not modifiable.
+     *
+     * @param extensions extensions, maybe null
+     * @param key stamp key
+     * @param time epoch milliseconds
+     * @return stamped copy
+     */
+    public static Map<String, String> withStamp(Map<String, String> extensions, String key, long time) {
+        Map<String, String> stamped = extensions == null ? new HashMap<>() : new HashMap<>(extensions);
+        stamped.put(key, String.valueOf(time));
+        return stamped;
+    }
+
+    /**
+     * @param event event
+     * @param key stamp key
+     * @return epoch milliseconds, 0 if not stamped
+     */
+    public static long getStamp(WeEvent event, String key) {
+        if (event.getExtensions() == null) {
+            return 0L;
+        }
+
+        String stamp = event.getExtensions().get(key);
+        if (stamp == null) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(stamp);
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.webank.weevent.broker.plugin;
 
+import java.util.List;
 import java.util.Map;
 
 import com.webank.weevent.BrokerApplication;
@@ -64,6 +65,9 @@ public interface IConsumer extends IEventTopic {
                 case "fabric":
                     Class<?> fabric = Class.forName("com.webank.weevent.broker.fabric.FabricBroker4Consumer");
                     return (IConsumer) fabric.newInstance();
+                case "memory":
+                    Class<?> memory = Class.forName("com.webank.weevent.broker.memory.MemoryBroker4Consumer");
+                    return (IConsumer) memory.newInstance();
                 default:
                     return null;
             }
@@ -107,6 +111,23 @@ public interface IConsumer extends IEventTopic {
          */
         void onEvent(String subscriptionId, WeEvent event);
 
+        /**
+         * Called while some events arrived together, in order.
+         * Override it to handle events in batch, default is onEvent one by one.
+         *
+         * @param subscriptionId binding which subscription
+         * @param events the events
+         */
+        default void onEvents(String subscriptionId, List<WeEvent> events) {
+            for (WeEvent event : events) {
+                try {
+                    this.onEvent(subscriptionId, event);
+                } catch (Exception e) {
+                    this.onException(e);
+                }
+            }
+        }
+
         /**
          * Called while raise exception.
          *
@@ -126,7 +147,9 @@ public interface IConsumer extends IEventTopic {
         // from which protocol
         InterfaceType,
         // remote client ip
-        RemoteIP;
+        RemoteIP,
+        // name of durable subscription, resume from it's checkpoint
+        DurableName;
     }
 
     /**
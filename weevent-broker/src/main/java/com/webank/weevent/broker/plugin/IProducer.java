@@ -49,6 +49,9 @@ public interface IProducer extends IEventTopic {
         if (WeEventConstants.FABRIC.equals(BrokerApplication.weEventConfig.getBlockChainType())) {
             return build(WeEventConstants.FABRIC);
         }
+        if (WeEventConstants.MEMORY.equals(BrokerApplication.weEventConfig.getBlockChainType())) {
+            return build(WeEventConstants.MEMORY);
+        }
         return build(WeEventConstants.FISCO);
     }
 
@@ -57,7 +60,7 @@ public interface IProducer extends IEventTopic {
      * <p>
      * Please setup a event agent first with tools @see.
      *
-     * @param blockChain "fisco" or "fabric"
+     * @param blockChain "fisco", "fabric" or "memory"
      * @return IProducer
      */
     static IProducer build(String blockChain) {
@@ -71,6 +74,10 @@ public interface IProducer extends IEventTopic {
                 case WeEventConstants.FABRIC:
                     Class<?> fabric = Class.forName("com.webank.weevent.broker.fabric.FabricBroker4Producer");
                     return (IProducer) fabric.newInstance();
+
+                case WeEventConstants.MEMORY:
+                    Class<?> memory = Class.forName("com.webank.weevent.broker.memory.MemoryBroker4Producer");
+                    return (IProducer) memory.newInstance();
                 default:
                     return null;
             }
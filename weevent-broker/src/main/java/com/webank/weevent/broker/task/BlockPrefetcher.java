@@ -0,0 +1,155 @@
+package com.webank.weevent.broker.task;
+
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Fetch stage of MainEventLoop's block ingestion pipeline.
+ * ##### more details #####
+ * While block N is dispatching in MainEventLoop, block N+1..N+depth is fetched and decoded by worker threads.
+ * The fetched blocks are kept in a ring buffer with (depth + 1) slots, slot index is blockNum % (depth + 1).
+ * MainEventLoop always take block in order, so the output order is strict.
+ * A slot is dropped if it's block is not the expected one, and fetched again in caller thread if needed.
+ *
+ * @author matthewliu
+ * @since 2019/10/23
+ */
+@Slf4j
+public class BlockPrefetcher {
+    /**
+     * one slot in ring buffer
+     */
+    static class Slot {
+        private Long blockNum;
+        private Future<List<WeEvent>> future;
+
+        Slot(Long blockNum, Future<List<WeEvent>> future) {
+            this.blockNum = blockNum;
+            this.future = future;
+        }
+    }
+
+    // block chain
+    private IBlockChain blockChain;
+
+    // binding group
+    private String groupId;
+
+    // block number to fetch ahead
+    private int depth;
+
+    // ring buffer between fetch stage and dispatch stage
+    private Slot[] ring;
+
+    // fetch workers
+    private ThreadPoolTaskExecutor workers;
+
+    public BlockPrefetcher(IBlockChain blockChain, String groupId, int depth, int workerCount) {
+        this.blockChain = blockChain;
+        this.groupId = groupId;
+        this.depth = depth;
+        this.ring = new Slot[depth + 1];
+
+        this.workers = new ThreadPoolTaskExecutor();
+        this.workers.setThreadNamePrefix("block_prefetch_" + groupId + "_");
+        this.workers.setCorePoolSize(workerCount);
+        this.workers.setMaxPoolSize(workerCount);
+        // canceled task may be still in queue
+        this.workers.setQueueCapacity(2 * (depth + 1));
+        this.workers.setDaemon(true);
+        this.workers.initialize();
+
+        log.info("BlockPrefetcher initialized, group: {} depth: {} workers: {}", groupId, depth, workerCount);
+    }
+
+    /**
+     * take the events in target block, and prefetch the following blocks.
+     *
+     * @param blockNum target block
+     * @param blockHeight current block height, do not prefetch beyond it
+     * @return null if net error, the same as IBlockChain.loop
+     * @throws BrokerException BrokerException
+     */
+    public List<WeEvent> take(Long blockNum, Long blockHeight) throws BrokerException {
+        // fill the ring buffer ahead
+        long last = Math.min(blockNum + this.depth, blockHeight);
+        for (long ahead = blockNum; ahead <= last; ahead++) {
+            this.schedule(ahead);
+        }
+
+        int idx = this.index(blockNum);
+        Slot slot = this.ring[idx];
+        this.ring[idx] = null;
+        if (slot == null || !slot.blockNum.equals(blockNum)) {
+            // rejected by worker pool, fetch in caller thread
+            log.debug("miss prefetch block: {}, fetch directly", blockNum);
+            return this.blockChain.loop(blockNum, this.groupId);
+        }
+
+        try {
+            return slot.future.get();
+        } catch (InterruptedException e) {
+            log.error("wait prefetch block interrupted, block: {}", blockNum);
+            // keep the interrupted status for the caller
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BrokerException) {
+                throw (BrokerException) e.getCause();
+            }
+            log.error("prefetch block failed, block: " + blockNum, e);
+            return null;
+        }
+    }
+
+    /**
+     * drop all prefetched blocks.
+     */
+    public void clear() {
+        for (int idx = 0; idx < this.ring.length; idx++) {
+            if (this.ring[idx] != null) {
+                this.ring[idx].future.cancel(false);
+                this.ring[idx] = null;
+            }
+        }
+    }
+
+    public void shutdown() {
+        this.clear();
+        this.workers.shutdown();
+    }
+
+    private int index(long blockNum) {
+        return (int) (blockNum % this.ring.length);
+    }
+
+    private void schedule(long blockNum) {
+        int idx = this.index(blockNum);
+        Slot slot = this.ring[idx];
+        if (slot != null) {
+            if (slot.blockNum == blockNum) {
+                return;
+            }
+
+            // stale block
+            slot.future.cancel(false);
+            this.ring[idx] = null;
+        }
+
+        try {
+            Future<List<WeEvent>> future = this.workers.submit(() -> this.blockChain.loop(blockNum, this.groupId));
+            this.ring[idx] = new Slot(blockNum, future);
+        } catch (TaskRejectedException e) {
+            log.warn("prefetch block rejected, block: {}", blockNum);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.webank.weevent.broker.task;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.webank.weevent.sdk.BrokerException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Block height of one group, shared by MainEventLoop and HistoryEventLoop.
+ * ##### more details #####
+ * The height is pushed by new block event notify if the block chain support, see IBlockChain.hasBlockEventNotify.
+ * If there is no notify within idle time, the height is stale, the first reader refresh it from block chain,
+ * the others wait for it and reuse the result.
+ * So there is at most one block height request in every idle time, no matter how many loops and subscriptions.
+ *
+ * @author matthewliu
+ * @since 2019/11/07
+ */
+@Slf4j
+public class ChainHeadTracker {
+    // block chain
+    private IBlockChain blockChain;
+
+    // binding group
+    private String groupId;
+
+    // last known block height
+    private volatile long blockHeight = 0L;
+
+    // last update time in ms, from notify or request
+    private volatile long updateTime = 0L;
+
+    // serialize the requests to block chain
+    private final Object refreshLock = new Object();
+
+    // block height request count
+    private AtomicLong requestCount = new AtomicLong(0);
+
+    // idle wait count for new block
+    private AtomicLong waitCount = new AtomicLong(0);
+
+    public ChainHeadTracker(IBlockChain blockChain, String groupId) {
+        this.blockChain = blockChain;
+        this.groupId = groupId;
+    }
+
+    public long getRequestCount() {
+        return this.requestCount.get();
+    }
+
+    public long getWaitCount() {
+        return this.waitCount.get();
+    }
+
+    /**
+     * new block event notify from block chain.
+     *
+     * @param blockHeight new block height
+     */
+    public void onNewBlock(Long blockHeight) {
+        synchronized (this) {
+            if (blockHeight > this.blockHeight) {
+                this.blockHeight = blockHeight;
+            }
+            this.updateTime = System.currentTimeMillis();
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * block height, refresh from block chain if no update within idle time.
+     *
+     * @return block height, 0 meanings request failed
+     * @throws BrokerException BrokerException
+     */
+    public Long getBlockHeight() throws BrokerException {
+        if (this.isFresh()) {
+            return this.blockHeight;
+        }
+        return this.refresh();
+    }
+
+    /**
+     * wait until block height reach the target block, or timeout.
+     *
+     * @param targetBlock target block
+     * @param timeout max wait time in ms
+     * @return block height, may be less than target block if timeout, 0 meanings request failed
+     * @throws BrokerException BrokerException
+     */
+    public Long awaitBlockHeight(Long targetBlock, long timeout) throws BrokerException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            Long height = this.getBlockHeight();
+            long remain = deadline - System.currentTimeMillis();
+            if (height <= 0 || height >= targetBlock || remain <= 0) {
+                return height;
+            }
+
+            synchronized (this) {
+                // double check after notified
+                if (this.blockHeight < targetBlock) {
+                    try {
+                        this.waitCount.incrementAndGet();
+                        // wake up when stale, to refresh it
+                        this.wait(Math.max(1L, Math.min(remain, this.updateTime + this.blockChain.getIdleTime() - System.currentTimeMillis())));
+                    } catch (InterruptedException e) {
+                        log.warn("got InterruptedException in wait block height");
+                        // keep the interrupted status for the caller
+                        Thread.currentThread().interrupt();
+                        return this.blockHeight;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isFresh() {
+        return System.currentTimeMillis() - this.updateTime < this.blockChain.getIdleTime();
+    }
+
+    private Long refresh() throws BrokerException {
+        synchronized (this.refreshLock) {
+            // refreshed by other thread while waiting
+            if (this.isFresh()) {
+                return this.blockHeight;
+            }
+
+            this.requestCount.incrementAndGet();
+            Long height = this.blockChain.getBlockHeight(this.groupId);
+            if (height <= 0) {
+                log.error("get block height failed in group: {}", this.groupId);
+                return height;
+            }
+
+            log.debug("refresh block height: {} in group: {}", height, this.groupId);
+            this.onNewBlock(height);
+            return height;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.webank.weevent.broker.task;
+
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.webank.weevent.broker.fisco.constant.WeEventConstants;
+
+/**
+ * Set of eventId for dedup, optional as a FIFO window.
+ * ##### more details #####
+ * The eventId "topicHash-seq-blockNumber" is parsed into a fixed width primitive key without allocation,
+ * high = (topicHash << 32) | seq, low = blockNumber + 1, low == 0 meanings empty slot.
+ * Keys are kept in an open addressing table with linear probing, removed by backward shift.
+ * In FIFO window, a ring of keys remember the insert order, the oldest one is evicted if full.
+ * The arrays grow on demand, so a idle subscription cost nothing.
+ * The eventId not in standard format is kept in a plain string set, it's never happened in block chain.
+ * Not thread safe.
+ *
+ * @author matthewliu
+ * @since 2019/11/05
+ */
+public class EventIdSet {
+    private final static int INITIAL_CAPACITY = 16;
+
+    // max keys in FIFO window, 0 meanings unbounded
+    private final int window;
+
+    // open addressing table
+    private long[] highs;
+    private long[] lows;
+    private int size = 0;
+
+    // FIFO ring of keys, only in window
+    private long[] ringHighs;
+    private long[] ringLows;
+    private int ringHead = 0;
+
+    // eventId not in standard format
+    private Set<String> others;
+
+    // parsed key of last eventId
+    private long high;
+    private long low;
+
+    /**
+     * unbounded set.
+     */
+    public EventIdSet() {
+        this(0);
+    }
+
+    /**
+     * @param window max eventIds in FIFO window, 0 meanings unbounded
+     */
+    public EventIdSet(int window) {
+        this.window = window;
+        this.highs = new long[INITIAL_CAPACITY];
+        this.lows = new long[INITIAL_CAPACITY];
+        if (window > 0) {
+            this.ringHighs = new long[Math.min(window, INITIAL_CAPACITY)];
+            this.ringLows = new long[this.ringHighs.length];
+        }
+    }
+
+    public int size() {
+        return this.size + (this.others == null ? 0 : this.others.size());
+    }
+
+    public boolean contains(String eventId) {
+        if (!this.parse(eventId)) {
+            return this.others != null && this.others.contains(eventId);
+        }
+        return this.lows[this.find(this.high, this.low)] != 0;
+    }
+
+    /**
+     * add eventId, evict the oldest one if window is full.
+     *
+     * @param eventId eventId
+     * @return false if already exist
+     */
+    public boolean add(String eventId) {
+        if (!this.parse(eventId)) {
+            return this.addOther(eventId);
+        }
+
+        long h = this.high;
+        long l = this.low;
+        if (this.lows[this.find(h, l)] != 0) {
+            return false;
+        }
+
+        if (this.window > 0) {
+            if (this.size >= this.window) {
+                // evict the oldest
+                this.remove(this.ringHighs[this.ringHead], this.ringLows[this.ringHead]);
+                this.ringHighs[this.ringHead] = h;
+                this.ringLows[this.ringHead] = l;
+                this.ringHead = (this.ringHead + 1) % this.window;
+            } else {
+                if (this.size == this.ringHighs.length) {
+                    this.growRing();
+                }
+                this.ringHighs[this.size] = h;
+                this.ringLows[this.size] = l;
+            }
+        }
+
+        // keep load factor under 0.5
+        if ((this.size + 1) * 2 > this.highs.length) {
+            this.growTable();
+        }
+        int slot = this.find(h, l);
+        this.highs[slot] = h;
+        this.lows[slot] = l;
+        this.size++;
+        return true;
+    }
+
+    public void clear() {
+        this.highs = new long[INITIAL_CAPACITY];
+        this.lows = new long[INITIAL_CAPACITY];
+        this.size = 0;
+        if (this.window > 0) {
+            this.ringHighs = new long[Math.min(this.window, INITIAL_CAPACITY)];
+            this.ringLows = new long[this.ringHighs.length];
+            this.ringHead = 0;
+        }
+        this.others = null;
+    }
+
+    // slot of the key, or the empty slot to put it
+    private int find(long h, long l) {
+        int mask = this.highs.length - 1;
+        int slot = hash(h, l) & mask;
+        while (this.lows[slot] != 0 && (this.lows[slot] != l || this.highs[slot] != h)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void remove(long h, long l) {
+        int mask = this.highs.length - 1;
+        int slot = this.find(h, l);
+        if (this.lows[slot] == 0) {
+            return;
+        }
+
+        // backward shift the following keys in the same cluster
+        int next = (slot + 1) & mask;
+        while (this.lows[next] != 0) {
+            int home = hash(this.highs[next], this.lows[next]) & mask;
+            // move if it's home is not in (slot, next]
+            if ((next > slot && (home <= slot || home > next)) || (next < slot && home <= slot && home > next)) {
+                this.highs[slot] = this.highs[next];
+                this.lows[slot] = this.lows[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        this.highs[slot] = 0;
+        this.lows[slot] = 0;
+        this.size--;
+    }
+
+    private void growTable() {
+        long[] oldHighs = this.highs;
+        long[] oldLows = this.lows;
+        this.highs = new long[oldHighs.length * 2];
+        this.lows = new long[oldLows.length * 2];
+        for (int i = 0; i < oldLows.length; i++) {
+            if (oldLows[i] != 0) {
+                int slot = this.find(oldHighs[i], oldLows[i]);
+                this.highs[slot] = oldHighs[i];
+                this.lows[slot] = oldLows[i];
+            }
+        }
+    }
+
+    // only before window is full, the ring is in insert order from 0
+    private void growRing() {
+        int capacity = Math.min(this.window, this.ringHighs.length * 2);
+        long[] newHighs = new long[capacity];
+        long[] newLows = new long[capacity];
+        System.arraycopy(this.ringHighs, 0, newHighs, 0, this.ringHighs.length);
+        System.arraycopy(this.ringLows, 0, newLows, 0, this.ringLows.length);
+        this.ringHighs = newHighs;
+        this.ringLows = newLows;
+    }
+
+    private boolean addOther(String eventId) {
+        if (this.others == null) {
+            if (this.window > 0) {
+                this.others = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                        return this.size() > window;
+                    }
+                });
+            } else {
+                this.others = new HashSet<>();
+            }
+        }
+        return this.others.add(eventId);
+    }
+
+    private static int hash(long h, long l) {
+        long x = h * 0x9E3779B97F4A7C15L + l;
+        x ^= (x >>> 32);
+        x *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (x ^ (x >>> 29));
+    }
+
+    /**
+     * parse "topicHash-seq-blockNumber" into high/low without allocation.
+     *
+     * @param eventId eventId
+     * @return false if not in standard format
+     */
+    private boolean parse(String eventId) {
+        int hashLength = WeEventConstants.TOPIC_NAME_ENCODE_LENGTH;
+        if (eventId == null || eventId.length() < hashLength + 4 || eventId.charAt(hashLength) != '-') {
+            return false;
+        }
+
+        long topicHash = 0;
+        for (int i = 0; i < hashLength; i++) {
+            int digit = Character.digit(eventId.charAt(i), 16);
+            if (digit < 0) {
+                return false;
+            }
+            topicHash = (topicHash << 4) | digit;
+        }
+
+        int split = eventId.indexOf('-', hashLength + 1);
+        if (split < 0) {
+            return false;
+        }
+        long seq = parseNumber(eventId, hashLength + 1, split);
+        long blockNumber = parseNumber(eventId, split + 1, eventId.length());
+        if (seq < 0 || blockNumber < 0) {
+            return false;
+        }
+
+        this.high = (topicHash << 32) | seq;
+        this.low = blockNumber + 1;
+        return true;
+    }
+
+    // unsigned decimal in 32 bits, -1 if invalid
+    private static long parseNumber(String value, int from, int to) {
+        if (from >= to || to - from > 10) {
+            return -1;
+        }
+
+        long number = 0;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number > 0xFFFFFFFFL ? -1 : number;
+    }
+}
@@ -0,0 +1,212 @@
+package com.webank.weevent.broker.task;
+
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Parallel backfill for HistoryEventLoop, used while history is far behind block height.
+ * ##### more details #####
+ * The history range is split into chunks with chunkSize blocks, every chunk is fetched by a worker thread.
+ * At most maxPendingChunks chunks are fetching or fetched but not taken, this bound the memory of out-of-order chunks.
+ * If maxPendingBytes > 0, no more chunk is scheduled while the fetched but not taken chunks reach it, in the same event size as NotifyTask.
+ * It's a soft bound, the chunks already fetching are not known until done, so it may be exceeded by them.
+ * Chunks are taken in block order, so the delivery order to NotifyTask is the same as the serial history loop.
+ * If the expected block is not the head of pending chunks(new subscription join with lower cursor), all pending chunks are dropped.
+ *
+ * @author matthewliu
+ * @since 2019/10/25
+ */
+@Slf4j
+public class HistoryBackfill {
+    /**
+     * continuous blocks fetched in one task
+     */
+    static class Chunk {
+        private Long from;
+        private Long to;
+        // bytes of fetched events, 0 if not done yet
+        private volatile long bytes = 0;
+        private Future<List<List<WeEvent>>> future;
+
+        Chunk(Long from, Long to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    // block chain
+    private IBlockChain blockChain;
+
+    // binding group
+    private String groupId;
+
+    // block number in one chunk
+    private int chunkSize;
+
+    // max chunk in memory
+    private int maxPendingChunks;
+
+    // max bytes of fetched chunks in memory, 0 meanings no limit
+    private long maxPendingBytes;
+
+    // chunks in block order
+    private Deque<Chunk> pending = new ArrayDeque<>();
+
+    // fetch workers
+    private ThreadPoolTaskExecutor workers;
+
+    public HistoryBackfill(IBlockChain blockChain, String groupId, int workerCount, int chunkSize, int maxPendingChunks, long maxPendingBytes) {
+        this.blockChain = blockChain;
+        this.groupId = groupId;
+        this.chunkSize = chunkSize;
+        this.maxPendingChunks = Math.max(maxPendingChunks, workerCount);
+        this.maxPendingBytes = Math.max(maxPendingBytes, 0);
+
+        this.workers = new ThreadPoolTaskExecutor();
+        this.workers.setThreadNamePrefix("history_backfill_" + groupId + "_");
+        this.workers.setCorePoolSize(workerCount);
+        this.workers.setMaxPoolSize(workerCount);
+        // canceled task may be still in queue
+        this.workers.setQueueCapacity(2 * this.maxPendingChunks);
+        this.workers.setDaemon(true);
+        this.workers.initialize();
+
+        log.info("HistoryBackfill initialized, group: {} workers: {} chunk size: {} max pending chunks: {} max pending bytes: {}",
+                groupId, workerCount, chunkSize, this.maxPendingChunks, this.maxPendingBytes);
+    }
+
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /**
+     * take the chunk start from target block, and fetch the following chunks.
+     *
+     * @param blockNum first block in chunk
+     * @param blockHeight current block height, do not fetch beyond it
+     * @return events of continuous blocks from blockNum, maybe less than chunk size, null if net error
+     * @throws BrokerException BrokerException
+     */
+    public List<List<WeEvent>> take(Long blockNum, Long blockHeight) throws BrokerException {
+        Chunk head = this.pending.peekFirst();
+        if (head != null && !head.from.equals(blockNum)) {
+            log.info("history cursor moved, drop pending chunks, expected: {} actual: {}", head.from, blockNum);
+            this.clear();
+        }
+
+        // fill the pending chunks ahead
+        long next = this.pending.isEmpty() ? blockNum : this.pending.peekLast().to + 1;
+        while (this.pending.size() < this.maxPendingChunks && next <= blockHeight && !this.isFull()) {
+            long to = Math.min(next + this.chunkSize - 1, blockHeight);
+            if (!this.schedule(next, to)) {
+                break;
+            }
+            next = to + 1;
+        }
+
+        head = this.pending.pollFirst();
+        if (head == null) {
+            // rejected by worker pool, fetch in caller thread
+            List<WeEvent> events = this.blockChain.loop(blockNum, this.groupId);
+            if (events == null) {
+                return null;
+            }
+            List<List<WeEvent>> blocks = new ArrayList<>();
+            blocks.add(events);
+            return blocks;
+        }
+
+        try {
+            List<List<WeEvent>> blocks = head.future.get();
+            if (blocks.size() < head.to - head.from + 1) {
+                // the following chunks is not continuous any more
+                this.clear();
+            }
+            return blocks.isEmpty() ? null : blocks;
+        } catch (InterruptedException e) {
+            log.error("wait backfill chunk interrupted, block: {}", blockNum);
+            this.clear();
+            // keep the interrupted status for the caller
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            this.clear();
+            if (e.getCause() instanceof BrokerException) {
+                throw (BrokerException) e.getCause();
+            }
+            log.error("backfill chunk failed, block: " + blockNum, e);
+            return null;
+        }
+    }
+
+    /**
+     * drop all pending chunks.
+     */
+    public void clear() {
+        for (Chunk chunk : this.pending) {
+            chunk.future.cancel(false);
+        }
+        this.pending.clear();
+    }
+
+    // called in another thread, pending chunks will be canceled by worker pool
+    public void shutdown() {
+        this.workers.shutdown();
+    }
+
+    // fetched but not taken chunks reach max pending bytes
+    private boolean isFull() {
+        if (this.maxPendingBytes <= 0) {
+            return false;
+        }
+
+        long bytes = 0;
+        for (Chunk chunk : this.pending) {
+            bytes += chunk.bytes;
+        }
+        return bytes >= this.maxPendingBytes;
+    }
+
+    private boolean schedule(long from, long to) {
+        Chunk chunk = new Chunk(from, to);
+        try {
+            chunk.future = this.workers.submit(() -> this.fetch(chunk));
+            this.pending.addLast(chunk);
+            return true;
+        } catch (TaskRejectedException e) {
+            log.warn("backfill chunk rejected, block: {}-{}", from, to);
+            return false;
+        }
+    }
+
+    // fetch blocks in order, stop at the first failed block
+    private List<List<WeEvent>> fetch(Chunk chunk) throws BrokerException {
+        List<List<WeEvent>> blocks = new ArrayList<>();
+        long bytes = 0;
+        for (long blockNum = chunk.from; blockNum <= chunk.to; blockNum++) {
+            List<WeEvent> events = this.blockChain.loop(blockNum, this.groupId);
+            if (events == null) {
+                log.error("fetch events from block failed, block height: {}", blockNum);
+                break;
+            }
+            for (WeEvent event : events) {
+                bytes += NotifyTask.sizeOf(event);
+            }
+            blocks.add(events);
+        }
+        chunk.bytes = bytes;
+        return blocks;
+    }
+}
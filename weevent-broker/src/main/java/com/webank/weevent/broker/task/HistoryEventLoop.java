@@ -1,8 +1,11 @@
 package com.webank.weevent.broker.task;
 
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.webank.weevent.sdk.BrokerException;
 import com.webank.weevent.sdk.ErrorCode;
@@ -11,7 +14,16 @@ import com.webank.weevent.sdk.WeEvent;
 import lombok.extern.slf4j.Slf4j;
 
 /**
- * History event loop task within unique thread.
+ * History event loop task within unique thread, shared by all the catching up subscriptions in one group.
+ * ##### more details #####
+ * Every subscription in history has a cursor, see Subscription.historyLastBlock.
+ * Each loop read the block next to the lowest cursor once, and fan it out to every subscription at that cursor.
+ * Subscriptions start from different offset will meet at the same cursor sooner or later, then go forward together.
+ * The switch to MainEventLoop is done in tryStopHistory, it's exclusive with fan out.
+ * If the lowest cursor is far behind block height, the blocks are fetched in parallel by HistoryBackfill if enabled.
+ * The blocks without events of the subscription's topics are skipped if they are covered by TopicBlockIndex.
+ * The subscription whose notify queue is busy is paused, it's cursor is not moved until the consumer catch up.
+ * The block height is read from ChainHeadTracker, no request to block chain in every loop.
  *
  * @author matthewliu
  * @since 2019/08/30
@@ -24,9 +36,14 @@ public class HistoryEventLoop extends StoppableTask {
     private IBlockChain blockChain;
 
     /**
-     * Last detected block.
+     * binding group
      */
-    private Long lastBlock;
+    private String groupId;
+
+    /**
+     * shared block height in group
+     */
+    private ChainHeadTracker chainHeadTracker;
 
     /**
      * Cached value for highest block height.
@@ -34,48 +51,127 @@ public class HistoryEventLoop extends StoppableTask {
     private Long cachedBlockHeight = 0L;
 
     /**
-     * binding to dispatch event
+     * Subscription ID <-> Subscription in history
+     */
+    private Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * optional, parallel backfill for deep history
      */
-    private Subscription subscription;
+    private HistoryBackfill historyBackfill;
 
-    public Long getLastBlock() {
-        return this.lastBlock;
+    /**
+     * optional, skip the blocks without target topic
+     */
+    private TopicBlockIndex topicBlockIndex;
+
+    public HistoryEventLoop(IBlockChain blockChain, String groupId) {
+        this(blockChain, groupId, new ChainHeadTracker(blockChain, groupId));
     }
 
-    public HistoryEventLoop(IBlockChain blockChain, Subscription subscription, Long lastBlock) throws BrokerException {
-        super("history-event-loop@" + subscription.getUuid());
+    /**
+     * @param blockChain block chain
+     * @param groupId group id
+     * @param chainHeadTracker block height shared with MainEventLoop
+     */
+    public HistoryEventLoop(IBlockChain blockChain, String groupId, ChainHeadTracker chainHeadTracker) {
+        super("history-event-loop-" + groupId);
         this.blockChain = blockChain;
-        this.subscription = subscription;
+        this.groupId = groupId;
+        this.chainHeadTracker = chainHeadTracker;
+
+        log.info("HistoryEventLoop initialized in group: {}", this.groupId);
+    }
 
-        if (lastBlock != 0) {
-            this.dispatchTargetBlock(lastBlock, this.subscription.getOffset());
+    /**
+     * enable parallel backfill if history is behind block height more than one chunk.
+     *
+     * @param workerCount worker thread number
+     * @param chunkSize block number in one chunk
+     * @param maxPendingChunks max chunk fetched ahead, bound the memory
+     * @param maxPendingBytes max bytes of chunks fetched ahead, 0 meanings no limit
+     */
+    public void enableBackfill(int workerCount, int chunkSize, int maxPendingChunks, long maxPendingBytes) {
+        if (workerCount > 0 && chunkSize > 0) {
+            this.historyBackfill = new HistoryBackfill(this.blockChain, this.groupId, workerCount, chunkSize, maxPendingChunks, maxPendingBytes);
         }
-        this.lastBlock = lastBlock;
+    }
 
-        log.info("HistoryEventLoop initialized with last block: {}, {}", this.lastBlock, this.subscription);
+    @Override
+    public void doExit() {
+        super.doExit();
+
+        if (this.historyBackfill != null) {
+            this.historyBackfill.shutdown();
+        }
+    }
+
+    public void setTopicBlockIndex(TopicBlockIndex topicBlockIndex) {
+        this.topicBlockIndex = topicBlockIndex;
+    }
+
+    public int size() {
+        return this.subscriptions.size();
+    }
+
+    public synchronized void addSubscription(Subscription subscription) {
+        log.info("add subscription into HistoryEventLoop, last block: {}, {}", subscription.getHistoryLastBlock(), subscription);
+        this.subscriptions.put(subscription.getUuid(), subscription);
+    }
+
+    public synchronized void removeSubscription(Subscription subscription) {
+        this.subscriptions.remove(subscription.getUuid());
+    }
+
+    /**
+     * switch to MainEventLoop if history arrive at main loop's block.
+     *
+     * @param subscription subscription in history
+     * @param mainLastBlock last block done in MainEventLoop
+     * @return true if switched
+     */
+    public synchronized boolean tryStopHistory(Subscription subscription, Long mainLastBlock) {
+        Long historyLastBlock = subscription.getHistoryLastBlock();
+        if (mainLastBlock > 0 && historyLastBlock != null && mainLastBlock <= historyLastBlock) {
+            log.info("switch history to main event loop, {} ---> {}, {}", historyLastBlock, mainLastBlock, subscription);
+
+            this.subscriptions.remove(subscription.getUuid());
+            subscription.setHistoryLastBlock(null);
+            return true;
+        }
+
+        return false;
     }
 
     /**
      * dispatch the target block where the offset is directly in caller thead.
      * dispatch in caller thread to make sure offset/eventId is exist.
      *
+     * @param blockChain block chain
+     * @param subscription subscription
      * @param blockNum block num
      */
-    private void dispatchTargetBlock(Long blockNum, String offset) throws BrokerException {
-        // fetch event from block chain
-        List<WeEvent> events = filterBlockEvent(blockNum,
-                this.subscription.getTopics(),
-                this.subscription.getGroupId(),
-                this.subscription.getTag());
+    public static void dispatchTargetBlock(IBlockChain blockChain, Subscription subscription, Long blockNum) throws BrokerException {
+        // idle until get event
+        List<WeEvent> blockEvents = null;
+        while (blockEvents == null) {
+            blockEvents = blockChain.loop(blockNum, subscription.getGroupId());
+            if (blockEvents == null) {
+                StoppableTask.idle(blockChain.getIdleTime());
+            }
+        }
+
+        // filter target event
+        List<WeEvent> events = Subscription.filter(blockEvents, subscription.getTopics(), subscription.getTag());
         log.info("fetch events from block height: {} topics: {} tag: {} events num: {}",
                 blockNum,
-                Arrays.toString(this.subscription.getTopics()),
-                this.subscription.getTag(),
+                Arrays.toString(subscription.getTopics()),
+                subscription.getTag(),
                 events.size());
 
         int targetIdx = -1;
         for (int idx = 0; idx < events.size(); idx++) {
-            if (events.get(idx).getEventId().equals(offset)) {
+            if (events.get(idx).getEventId().equals(subscription.getOffset())) {
                 targetIdx = idx;
                 break;
             }
@@ -83,7 +179,7 @@ public class HistoryEventLoop extends StoppableTask {
 
         // can not find offset
         if (targetIdx < 0) {
-            log.error("can not find eventId: {} in block height: {}", offset, blockNum);
+            log.error("can not find eventId: {} in block height: {}", subscription.getOffset(), blockNum);
             throw new BrokerException(ErrorCode.EVENT_ID_NOT_EXIST);
         }
 
@@ -92,43 +188,94 @@ public class HistoryEventLoop extends StoppableTask {
 
         // dispatch event after offset
         if (!events.isEmpty()) {
-            this.subscription.dispatch(events, false, blockNum);
+            subscription.dispatch(events, false, blockNum);
         }
     }
 
     /**
-     * filter event from one block
+     * fan out the events in block to every subscription at the cursor.
      *
-     * @param blockNum block height
-     * @param topics topic list
-     * @param groupId groupId
-     * @param tag tag
-     * @return event list
-     * @throws BrokerException the exp
+     * @param blockEvents all events in block
+     * @param cursor subscription's last block
+     * @param currentBlock block to dispatch
      */
-    private List<WeEvent> filterBlockEvent(Long blockNum, String[] topics, String groupId, String tag) throws BrokerException {
-        // idle until get event
-        List<WeEvent> blockEventsList = null;
-        while (blockEventsList == null) {
-            blockEventsList = this.blockChain.loop(blockNum, groupId);
-            if (blockEventsList == null) {
-                StoppableTask.idle(this.blockChain.getIdleTime());
+    private synchronized void fanOut(List<WeEvent> blockEvents, Long cursor, Long currentBlock) {
+        for (Subscription subscription : this.subscriptions.values()) {
+            if (!cursor.equals(subscription.getHistoryLastBlock()) || subscription.isNotifyBusy()) {
+                continue;
+            }
+
+            List<WeEvent> events = Subscription.filter(blockEvents, subscription.getTopics(), subscription.getTag());
+            // cursor is already rewound if overflow
+            if (events.isEmpty() || subscription.dispatch(events, false, currentBlock)) {
+                subscription.setHistoryLastBlock(currentBlock);
             }
         }
+    }
 
-        // filter target event
-        return Subscription.filter(blockEventsList, topics, tag);
+    /**
+     * move the subscriptions at the cursor to the block before their next relevant block.
+     *
+     * @param cursor subscription's last block
+     * @return true if any subscription moved
+     */
+    private synchronized boolean skipEmptyBlocks(Long cursor) {
+        boolean moved = false;
+        for (Subscription subscription : this.subscriptions.values()) {
+            if (!cursor.equals(subscription.getHistoryLastBlock())) {
+                continue;
+            }
+
+            Long lastBlock = Math.min(this.topicBlockIndex.nextBlock(subscription.getTopics(), cursor) - 1, this.cachedBlockHeight);
+            if (lastBlock > cursor) {
+                log.debug("skip empty blocks in history, {} -> {}, {}", cursor, lastBlock, subscription);
+                subscription.setHistoryLastBlock(lastBlock);
+                moved = true;
+            }
+        }
+        return moved;
+    }
+
+    private synchronized void dispatch(Throwable e, Long cursor) {
+        for (Subscription subscription : this.subscriptions.values()) {
+            if (cursor.equals(subscription.getHistoryLastBlock())) {
+                subscription.getNotifyTask().getConsumerListener().onException(e);
+            }
+        }
+    }
+
+    /**
+     * the lowest cursor of all subscriptions in history, except the busy ones
+     *
+     * @return null if no subscription
+     */
+    private Long lowestCursor() {
+        Long cursor = null;
+        for (Subscription subscription : new ArrayList<>(this.subscriptions.values())) {
+            Long lastBlock = subscription.getHistoryLastBlock();
+            if (lastBlock != null && !subscription.isNotifyBusy() && (cursor == null || lastBlock < cursor)) {
+                cursor = lastBlock;
+            }
+        }
+        return cursor;
     }
 
     @Override
     protected void taskOnceLoop() {
+        Long cursor = this.lowestCursor();
+        if (cursor == null) {
+            // no subscription in history
+            StoppableTask.idle(this.blockChain.getIdleTime());
+            return;
+        }
+
         try {
             // current block height to deal with in this one loop
-            Long currentBlock = this.lastBlock + 1;
+            Long currentBlock = cursor + 1;
 
-            // cache may be expired, refresh it
+            // cache may be expired, wait for the shared tracker
             if (currentBlock > this.cachedBlockHeight) {
-                Long blockHeight = this.blockChain.getBlockHeight(this.subscription.getGroupId());
+                Long blockHeight = this.chainHeadTracker.awaitBlockHeight(currentBlock, this.blockChain.getIdleTime());
                 if (blockHeight <= 0) {
                     // Don't try too fast if net error.
                     StoppableTask.idle(this.blockChain.getIdleTime());
@@ -138,33 +285,53 @@ public class HistoryEventLoop extends StoppableTask {
 
                 // no new block
                 if (currentBlock > this.cachedBlockHeight) {
-                    log.debug("no new block in group: {}, idle", this.subscription.getGroupId());
+                    log.debug("no new block in group: {}, idle", this.groupId);
+                    return;
+                }
+            }
+
+            // jump to the next relevant block
+            if (this.topicBlockIndex != null && this.skipEmptyBlocks(cursor)) {
+                return;
+            }
+
+            // far behind, fetch chunks in parallel
+            if (this.historyBackfill != null && this.cachedBlockHeight - cursor > this.historyBackfill.getChunkSize()) {
+                List<List<WeEvent>> blocks = this.historyBackfill.take(currentBlock, this.cachedBlockHeight);
+                if (blocks == null) {
+                    log.error("backfill events from block failed, block height: {}", currentBlock);
                     StoppableTask.idle(this.blockChain.getIdleTime());
                     return;
                 }
+                log.debug("history backfill done, group: {} block: {}-{}", this.groupId, currentBlock, currentBlock + blocks.size() - 1);
+
+                // in block order, subscriptions at this cursor go forward block by block
+                for (int idx = 0; idx < blocks.size(); idx++) {
+                    if (this.topicBlockIndex != null) {
+                        this.topicBlockIndex.record(currentBlock + idx, blocks.get(idx));
+                    }
+                    this.fanOut(blocks.get(idx), cursor + idx, currentBlock + idx);
+                }
+                return;
             }
 
-            // loop one block, and filter target event with topic
-            log.debug("history event loop in group: {}, topics: {} cached block height: {}",
-                    this.subscription.getGroupId(),
-                    Arrays.toString(this.subscription.getTopics()),
-                    this.cachedBlockHeight);
-            List<WeEvent> events = filterBlockEvent(currentBlock,
-                    this.subscription.getTopics(),
-                    this.subscription.getGroupId(),
-                    this.subscription.getTag());
-            log.debug("history event loop done, block: {} event size: {}", currentBlock, events.size());
-
-            // it there is event to notify
-            if (!events.isEmpty()) {
-                this.subscription.dispatch(events, false, currentBlock);
+            // loop one block once for all subscriptions at this cursor
+            List<WeEvent> blockEvents = this.blockChain.loop(currentBlock, this.groupId);
+            if (blockEvents == null) {
+                log.error("fetch events from block failed, block height: {}", currentBlock);
+                StoppableTask.idle(this.blockChain.getIdleTime());
+                return;
+            }
+            log.debug("history event loop done, group: {} block: {} event size: {}", this.groupId, currentBlock, blockEvents.size());
+            if (this.topicBlockIndex != null) {
+                this.topicBlockIndex.record(currentBlock, blockEvents);
             }
 
-            // next block
-            this.lastBlock = currentBlock;
+            this.fanOut(blockEvents, cursor, currentBlock);
         } catch (BrokerException e) {
-            log.error("history event loop exception in group: " + this.subscription.getGroupId(), e);
-            this.subscription.getNotifyTask().getConsumerListener().onException(e);
+            log.error("history event loop exception in group: " + this.groupId, e);
+            this.dispatch(e, cursor);
+            StoppableTask.idle(this.blockChain.getIdleTime());
         }
     }
 }
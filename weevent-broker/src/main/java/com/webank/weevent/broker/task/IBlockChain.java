@@ -37,6 +37,16 @@ public interface IBlockChain {
      */
     boolean hasBlockEventNotify();
 
+    /**
+     * if new block event notify is used in this group, like not in the group owned by peer, see ShardedBlockChain
+     *
+     * @param groupId group id
+     * @return true if used
+     */
+    default boolean hasBlockEventNotify(String groupId) {
+        return this.hasBlockEventNotify();
+    }
+
     /**
      * get data from block chain and it's cache
      *
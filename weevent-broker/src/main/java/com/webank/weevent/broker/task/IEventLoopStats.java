@@ -0,0 +1,19 @@
+package com.webank.weevent.broker.task;
+
+
+import java.util.Map;
+
+/**
+ * Statistics of event loops, implemented by the consumers which run MainEventLoop, used in /admin/eventLoop.
+ *
+ * @author matthewliu
+ * @since 2019/11/21
+ */
+public interface IEventLoopStats {
+    /**
+     * statistics of event loop in every group, like lag and catch up throughput
+     *
+     * @return group id <-> statistics
+     */
+    Map<String, MainEventLoop.Stats> listEventLoopStats();
+}
@@ -4,20 +4,28 @@ package com.webank.weevent.broker.task;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
+import com.webank.weevent.broker.metrics.BrokerMetrics;
 import com.webank.weevent.sdk.BrokerException;
 import com.webank.weevent.sdk.ErrorCode;
 import com.webank.weevent.sdk.WeEvent;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 /**
  * Detect new event from target group.
+ * The subscription whose notify queue overflow is demoted into the shared HistoryEventLoop,
+ * and merged back in mergeHistory after catching up.
+ * The block height is read from ChainHeadTracker shared with HistoryEventLoop.
+ * If it's behind block height more than one block, blocks are dealt back to back without idle until catch up,
+ * and some blocks are dispatched together if catchUpBatch is set.
  *
  * @author matthewliu
  * @since 2019/08/30
@@ -27,6 +35,9 @@ public class MainEventLoop extends StoppableTask {
     // daemon thread pool
     private ThreadPoolTaskExecutor threadPoolTaskExecutor;
 
+    // shared executor to notify subscriptions, default is the daemon thread pool
+    private Executor deliveryExecutor;
+
     // block chain
     private IBlockChain blockChain;
 
@@ -34,7 +45,7 @@ public class MainEventLoop extends StoppableTask {
     private String groupId;
 
     // last well done block
-    private Long lastBlock;
+    private volatile Long lastBlock;
 
     // Subscription ID <-> Subscription
     private Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
@@ -45,33 +56,197 @@ public class MainEventLoop extends StoppableTask {
     // subscription in history loop
     private List<String> historySubscriptionIds = new ArrayList<>();
 
-    // new block notified
-    private BlockingDeque<Long> blockNotifyQueue;
+    // index of subscription in main loop, route events to subscription
+    private SubscriptionIndex subscriptionIndex = new SubscriptionIndex();
+
+    // block height shared by main loop and history loop
+    private ChainHeadTracker chainHeadTracker;
+
+    // optional, fetch following blocks while dispatching
+    private BlockPrefetcher blockPrefetcher;
+
+    // shared history loop for all subscription in history
+    private HistoryEventLoop historyEventLoop;
+
+    // optional, blocks with event of every topic
+    private TopicBlockIndex topicBlockIndex;
+
+    // max blocks dispatched together in catch up, 1 meanings block by block
+    private int catchUpBatch = 1;
+
+    // last known block height
+    private volatile Long blockHeight = 0L;
+
+    // behind block height more than one block, deal blocks back to back
+    private volatile boolean catchingUp = false;
+
+    // statistics of catch up, see Stats
+    private volatile long catchUpCount = 0;
+    private volatile long catchUpBlocks = 0;
+    private volatile double catchUpRate = 0;
+    private volatile long catchUpStartBlock;
+    private volatile long catchUpStartTime;
+
+    // time of dispatch, see BrokerMetrics
+    private Timer dispatchTimer;
+
+    // blocks dealt in catch up, see BrokerMetrics
+    private Counter catchUpBlocksCounter;
+
+    // record dispatch time of events, see LatencyTracker
+    private boolean latencyTracking = false;
+
+    /**
+     * statistics of event loop
+     */
+    @Data
+    public static class Stats {
+        private String groupId;
+        private long blockHeight;
+        private long lastBlock;
+        // blocks behind block height
+        private long lag;
+        private boolean catchingUp;
+        private long catchUpCount;
+        // blocks dealt in catch up
+        private long catchUpBlocks;
+        // blocks per second in the current or last catch up
+        private double catchUpRate;
+        private long blockHeightRequestCount;
+        private int mainSubscriptionCount;
+        private int historySubscriptionCount;
+    }
 
     public MainEventLoop(ThreadPoolTaskExecutor threadPoolTaskExecutor, IBlockChain blockChain, String groupId) throws BrokerException {
+        this(threadPoolTaskExecutor, blockChain, groupId, 0, 0);
+    }
+
+    /**
+     * @param threadPoolTaskExecutor daemon thread pool
+     * @param blockChain block chain
+     * @param groupId group id
+     * @param prefetchDepth block number to fetch ahead, 0 meanings no prefetch
+     * @param prefetchWorkers worker thread number to fetch ahead
+     * @throws BrokerException BrokerException
+     */
+    public MainEventLoop(ThreadPoolTaskExecutor threadPoolTaskExecutor,
+                         IBlockChain blockChain,
+                         String groupId,
+                         int prefetchDepth,
+                         int prefetchWorkers) throws BrokerException {
         super("main-event-loop-" + groupId);
         this.threadPoolTaskExecutor = threadPoolTaskExecutor;
+        this.deliveryExecutor = threadPoolTaskExecutor;
         this.blockChain = blockChain;
         this.groupId = groupId;
 
-        // get last block
-        Long blockHeight = this.blockChain.getBlockHeight(this.groupId);
+        // get last block, updated by new block event notify if supported, see IBlockChain.hasBlockEventNotify
+        this.chainHeadTracker = new ChainHeadTracker(blockChain, groupId);
+        Long blockHeight = this.chainHeadTracker.getBlockHeight();
         if (blockHeight <= 0) {
             throw new BrokerException(ErrorCode.WEB3SDK_INIT_ERROR);
         }
 
-        // may be in notify strategy
-        if (blockChain.hasBlockEventNotify()) {
-            this.blockNotifyQueue = new LinkedBlockingDeque<>();
+        if (prefetchDepth > 0 && prefetchWorkers > 0) {
+            this.blockPrefetcher = new BlockPrefetcher(blockChain, groupId, prefetchDepth, prefetchWorkers);
         }
 
+        this.historyEventLoop = new HistoryEventLoop(blockChain, groupId, this.chainHeadTracker);
+
+        this.dispatchTimer = BrokerMetrics.dispatchTimer(groupId);
+        this.catchUpBlocksCounter = BrokerMetrics.catchUpBlocksCounter(groupId);
+
         // init last block
         this.lastBlock = blockHeight;
+        this.blockHeight = blockHeight;
         log.info("MainEventLoop initialized with last block: {} in group: {}", this.lastBlock, this.groupId);
     }
 
+    /**
+     * fetch deep history in parallel, see HistoryBackfill.
+     *
+     * @param workerCount worker thread number, 0 meanings no parallel backfill
+     * @param chunkSize block number in one chunk
+     * @param maxPendingChunks max chunk fetched ahead
+     * @param maxPendingBytes max bytes of chunks fetched ahead, 0 meanings no limit
+     */
+    public void enableHistoryBackfill(int workerCount, int chunkSize, int maxPendingChunks, long maxPendingBytes) {
+        this.historyEventLoop.enableBackfill(workerCount, chunkSize, maxPendingChunks, maxPendingBytes);
+    }
+
+    /**
+     * index every block in this group, and let history skip the blocks without target topic.
+     * Notice: every new block will be fetched even if no subscription.
+     *
+     * @param path directory of index log, blank meanings memory only
+     */
+    public void enableTopicIndex(String path) {
+        this.topicBlockIndex = new TopicBlockIndex(path, this.groupId);
+        this.historyEventLoop.setTopicBlockIndex(this.topicBlockIndex);
+    }
+
+    /**
+     * notify subscriptions in a fixed size executor, instead of the daemon thread pool.
+     *
+     * @param deliveryExecutor shared delivery executor
+     */
+    public void setDeliveryExecutor(Executor deliveryExecutor) {
+        this.deliveryExecutor = deliveryExecutor;
+    }
+
+    public ChainHeadTracker getChainHeadTracker() {
+        return this.chainHeadTracker;
+    }
+
+    /**
+     * dispatch some blocks together while catching up.
+     *
+     * @param catchUpBatch max blocks in one dispatch, 1 meanings block by block
+     */
+    public void setCatchUpBatch(int catchUpBatch) {
+        this.catchUpBatch = Math.max(1, catchUpBatch);
+    }
+
+    /**
+     * record dispatch time of events for end to end latency, see LatencyTracker.
+     *
+     * @param latencyTracking true if enabled
+     */
+    public void setLatencyTracking(boolean latencyTracking) {
+        this.latencyTracking = latencyTracking;
+    }
+
+    // blocks per second in the current or last catch up, not locked for gauge while scraping
+    private double getCatchUpRate() {
+        if (this.catchingUp) {
+            long cost = Math.max(1L, System.currentTimeMillis() - this.catchUpStartTime);
+            return (this.lastBlock - this.catchUpStartBlock) * 1000.0 / cost;
+        }
+        return this.catchUpRate;
+    }
+
+    public synchronized Stats getStats() {
+        Stats stats = new Stats();
+        stats.setGroupId(this.groupId);
+        stats.setBlockHeight(this.blockHeight);
+        stats.setLastBlock(this.lastBlock);
+        stats.setLag(Math.max(0L, this.blockHeight - this.lastBlock));
+        stats.setCatchingUp(this.catchingUp);
+        stats.setCatchUpCount(this.catchUpCount);
+        stats.setCatchUpBlocks(this.catchUpBlocks);
+        stats.setCatchUpRate(this.getCatchUpRate());
+        stats.setBlockHeightRequestCount(this.chainHeadTracker.getRequestCount());
+        stats.setMainSubscriptionCount(this.mainSubscriptionIds.size());
+        stats.setHistorySubscriptionCount(this.historySubscriptionIds.size());
+        return stats;
+    }
+
     public synchronized void doStart() {
+        BrokerMetrics.gauge("weevent.eventloop.lag", this.groupId, () -> Math.max(0L, this.blockHeight - this.lastBlock));
+        BrokerMetrics.gauge("weevent.eventloop.catch-up-rate", this.groupId, this::getCatchUpRate);
+        BrokerMetrics.gauge("weevent.notify.queue", this.groupId, this::getQueuedEvents);
         this.threadPoolTaskExecutor.execute(this);
+        this.threadPoolTaskExecutor.execute(this.historyEventLoop);
     }
 
     public synchronized void doStop() {
@@ -79,6 +254,15 @@ public class MainEventLoop extends StoppableTask {
 
         // stop main loop first
         this.doExit();
+        this.historyEventLoop.doExit();
+
+        if (this.blockPrefetcher != null) {
+            this.blockPrefetcher.shutdown();
+        }
+
+        if (this.topicBlockIndex != null) {
+            this.topicBlockIndex.close();
+        }
 
         for (String subscriptionId : this.mainSubscriptionIds) {
             if (subscriptions.containsKey(subscriptionId)) {
@@ -94,21 +278,24 @@ public class MainEventLoop extends StoppableTask {
     }
 
     public synchronized void addSubscription(Subscription subscription) {
-        subscription.doStart(this.threadPoolTaskExecutor);
+        subscription.doStart(this.deliveryExecutor);
 
         this.subscriptions.put(subscription.getUuid(), subscription);
-        if (subscription.getHistoryEventLoop() == null) {
-            this.mainSubscriptionIds.add(subscription.getUuid());
-        } else {
+        if (subscription.isHistory()) {
             this.historySubscriptionIds.add(subscription.getUuid());
+            this.historyEventLoop.addSubscription(subscription);
+        } else {
+            this.mainSubscriptionIds.add(subscription.getUuid());
+            this.subscriptionIndex.add(subscription);
         }
     }
 
     public synchronized void removeSubscription(Subscription subscription) {
-        if (subscription.getHistoryEventLoop() == null) {
-            this.mainSubscriptionIds.remove(subscription.getUuid());
+        if (this.mainSubscriptionIds.remove(subscription.getUuid())) {
+            this.subscriptionIndex.remove(subscription);
         } else {
             this.historySubscriptionIds.remove(subscription.getUuid());
+            this.historyEventLoop.removeSubscription(subscription);
         }
 
         subscription.doStop();
@@ -119,7 +306,7 @@ public class MainEventLoop extends StoppableTask {
         List<String> stopped = new ArrayList<>();
         for (String subscriptionId : this.historySubscriptionIds) {
             if (this.subscriptions.containsKey(subscriptionId)
-                    && this.subscriptions.get(subscriptionId).tryStopHistory(this.lastBlock)) {
+                    && this.historyEventLoop.tryStopHistory(this.subscriptions.get(subscriptionId), this.lastBlock)) {
                 // try to stop history if needed
                 stopped.add(subscriptionId);
             }
@@ -129,12 +316,76 @@ public class MainEventLoop extends StoppableTask {
         if (!stopped.isEmpty()) {
             this.historySubscriptionIds.removeAll(stopped);
             this.mainSubscriptionIds.addAll(stopped);
+            for (String subscriptionId : stopped) {
+                this.subscriptionIndex.add(this.subscriptions.get(subscriptionId));
+            }
         }
     }
 
-    private synchronized void dispatch(List<WeEvent> events, Long blockHeight) {
+    /**
+     * dispatch blocks in order.
+     * They are merged into one dispatch if no subscription is still skipping them, see Subscription.historyBlock.
+     *
+     * @param blocks events in every block
+     * @param fromBlock the first block
+     */
+    private synchronized void dispatchBlocks(List<List<WeEvent>> blocks, Long fromBlock) {
+        long start = System.nanoTime();
+        Long toBlock = fromBlock + blocks.size() - 1;
+        if (blocks.size() > 1 && this.isMergeable(fromBlock)) {
+            List<WeEvent> events = new ArrayList<>();
+            for (List<WeEvent> block : blocks) {
+                events.addAll(block);
+            }
+            this.dispatch(events, toBlock);
+        } else {
+            for (int idx = 0; idx < blocks.size(); idx++) {
+                this.dispatch(blocks.get(idx), fromBlock + idx);
+            }
+        }
+        this.dispatchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    // events waiting in notify queue of all the subscriptions
+    private long getQueuedEvents() {
+        long queued = 0;
+        for (Subscription subscription : this.subscriptions.values()) {
+            queued += subscription.getNotifyTask().getEventQueue().size();
+        }
+        return queued;
+    }
+
+    private boolean isMergeable(Long fromBlock) {
         for (String subscriptionId : this.mainSubscriptionIds) {
-            this.subscriptions.get(subscriptionId).dispatch(events, true, blockHeight);
+            Subscription subscription = this.subscriptions.get(subscriptionId);
+            if (subscription != null && subscription.getHistoryBlock() >= fromBlock) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void dispatch(List<WeEvent> events, Long blockHeight) {
+        // the events are shared with cache and history, dispatch time is kept by notify queue instead of stamped
+        long dispatchTime = this.latencyTracking ? System.currentTimeMillis() : 0L;
+
+        // match every event once, then notify the target subscription only
+        Map<Subscription, List<WeEvent>> routes = this.subscriptionIndex.route(events);
+        for (Map.Entry<Subscription, List<WeEvent>> route : routes.entrySet()) {
+            if (!route.getKey().dispatch(route.getValue(), true, blockHeight, dispatchTime)) {
+                this.demote(route.getKey());
+            }
+        }
+    }
+
+    // notify queue overflow, replay from history until catch up again
+    private void demote(Subscription subscription) {
+        log.info("switch main event loop to history, {}", subscription);
+
+        if (this.mainSubscriptionIds.remove(subscription.getUuid())) {
+            this.subscriptionIndex.remove(subscription);
+            this.historySubscriptionIds.add(subscription.getUuid());
+            this.historyEventLoop.addSubscription(subscription);
         }
     }
 
@@ -147,10 +398,39 @@ public class MainEventLoop extends StoppableTask {
     @Override
     protected void taskOnceLoop() {
         try {
-            if (this.blockNotifyQueue == null) {
-                this.normalLoop();
+            // the block try to deal with in this one loop
+            Long currentBlock = this.lastBlock + 1;
+
+            // wait for new block event notify, or the shared refresh in tracker
+            // it's return immediately if behind block height, no idle in catch up
+            Long blockHeight = this.chainHeadTracker.awaitBlockHeight(currentBlock, this.blockChain.getIdleTime());
+            if (blockHeight <= 0) {
+                log.error("get block height failed, retry");
+
+                // Don't try too fast if net error.
+                StoppableTask.idle(this.blockChain.getIdleTime());
+                return;
+            }
+            this.blockHeight = blockHeight;
+
+            // no new block
+            if (currentBlock > blockHeight) {
+                log.debug("no new block in group: {}, idle", this.groupId);
+                return;
+            }
+
+            // more than one block behind
+            if (!this.catchingUp && blockHeight > currentBlock) {
+                this.startCatchUp(blockHeight);
+            }
+
+            if (this.catchingUp) {
+                this.dealBlocks(currentBlock, Math.min(blockHeight, currentBlock + this.catchUpBatch - 1), blockHeight);
+                if (this.lastBlock >= blockHeight) {
+                    this.stopCatchUp();
+                }
             } else {
-                this.loopWithNotifySupport();
+                this.dealBlocks(currentBlock, currentBlock, blockHeight);
             }
         } catch (BrokerException e) {
             log.error("main event loop exception in group: " + this.groupId, e);
@@ -159,103 +439,95 @@ public class MainEventLoop extends StoppableTask {
     }
 
     /**
-     * normal loop, like in FISCO-BCOS 1.3
+     * new block event notify, like in FISCO-BCOS 2.0
      *
-     * @throws BrokerException BrokerException
+     * @param blockHeight new block height
      */
-    private void normalLoop() throws BrokerException {
-        // the block try to deal with in this one loop
-        Long currentBlock = this.lastBlock + 1;
-
-        // get block height
-        Long blockHeight = this.blockChain.getBlockHeight(this.groupId);
-        if (blockHeight <= 0) {
-            log.error("get block height failed, retry");
-
-            // Don't try too fast if net error.
-            StoppableTask.idle(this.blockChain.getIdleTime());
+    public void onNewBlock(Long blockHeight) {
+        if (!this.blockChain.hasBlockEventNotify(this.groupId)) {
+            log.debug("ignore new block event in group: {}, {}", this.groupId, blockHeight);
             return;
         }
 
-        // no new block
-        if (currentBlock > blockHeight) {
-            log.debug("no new block in group: {}, idle", this.groupId);
-            StoppableTask.idle(this.blockChain.getIdleTime());
-            return;
-        }
+        log.info("new block event from web3sdk, {}", blockHeight);
 
-        this.dealOneBlock(currentBlock);
+        this.chainHeadTracker.onNewBlock(blockHeight);
     }
 
-    public void onNewBlock(Long blockHeight) {
-        log.info("new block event from web3sdk, {}", blockHeight);
+    private void startCatchUp(Long blockHeight) {
+        log.info("start catch up in group: {}, {} ---> {}", this.groupId, this.lastBlock, blockHeight);
 
-        try {
-            if (!this.blockNotifyQueue.offer(blockHeight, this.blockChain.getIdleTime(), TimeUnit.MILLISECONDS)) {
-                log.error("new block event queue failed due to queue is full");
-            }
-        } catch (InterruptedException e) {
-            log.error("new block event queue failed", e);
-        }
+        this.catchingUp = true;
+        this.catchUpCount++;
+        this.catchUpStartBlock = this.lastBlock;
+        this.catchUpStartTime = System.currentTimeMillis();
+    }
+
+    private void stopCatchUp() {
+        long blocks = this.lastBlock - this.catchUpStartBlock;
+        long cost = Math.max(1L, System.currentTimeMillis() - this.catchUpStartTime);
+        this.catchUpRate = blocks * 1000.0 / cost;
+        this.catchingUp = false;
+
+        log.info("catch up done in group: {}, blocks: {} cost: {} ms", this.groupId, blocks, cost);
     }
 
     /**
-     * loop with new block event notify support, like in FISCO-BCOS 2.0
+     * fetch and dispatch blocks in order, they are dispatched together in catch up if possible.
      *
+     * @param fromBlock first block
+     * @param toBlock last block, inclusive
+     * @param blockHeight current block height
      * @throws BrokerException BrokerException
      */
-    private void loopWithNotifySupport() throws BrokerException {
-        // the block try to deal with in this one loop
-        Long currentBlock = this.lastBlock + 1;
-
-        // get block height
-        Long blockHeight;
-        try {
-            blockHeight = this.blockNotifyQueue.poll(this.blockChain.getIdleTime(), TimeUnit.MILLISECONDS);
-            if (blockHeight == null) {
-                log.debug("can not find new block event notify within idle time");
-
-                blockHeight = this.blockChain.getBlockHeight(this.groupId);
-                if (blockHeight <= 0) {
-                    log.error("get block height failed, retry");
-                    // retry if net error.
-                    return;
-                }
-            }
-        } catch (Exception e) {
-            log.error("get notify from new block event queue failed", e);
-            return;
-        }
+    private void dealBlocks(Long fromBlock, Long toBlock, Long blockHeight) throws BrokerException {
+        // merge history if needed
+        this.mergeHistory();
 
-        // retry if no new block
-        if (currentBlock > blockHeight) {
-            log.debug("no new block in group: {}, idle", this.groupId);
+        // no need to fetch event if no subscription, except for topic index
+        if (this.mainSubscriptionIds.isEmpty() && this.topicBlockIndex == null) {
+            this.moveTo(toBlock);
             return;
         }
 
-        this.dealOneBlock(currentBlock);
-    }
-
-    private void dealOneBlock(Long currentBlock) throws BrokerException {
-        // merge history if needed
-        this.mergeHistory();
-
-        // no need to fetch event if no subscription
-        if (!this.mainSubscriptionIds.isEmpty()) {
+        List<List<WeEvent>> blocks = new ArrayList<>();
+        for (Long currentBlock = fromBlock; currentBlock <= toBlock; currentBlock++) {
             // fetch all event from block chain in this block
-            List<WeEvent> events = this.blockChain.loop(currentBlock, this.groupId);
+            List<WeEvent> events;
+            if (this.blockPrefetcher != null) {
+                events = this.blockPrefetcher.take(currentBlock, blockHeight);
+            } else {
+                events = this.blockChain.loop(currentBlock, this.groupId);
+            }
             // idle until get event information(include empty)
             if (events == null) {
                 log.error("fetch events from block failed, block height: {}", currentBlock);
-                StoppableTask.idle(this.blockChain.getIdleTime());
-                return;
+                break;
             }
             log.info("fetch events done, block: {} group: {} event size: {}", currentBlock, this.groupId, events.size());
 
-            this.dispatch(events, currentBlock);
+            if (this.topicBlockIndex != null) {
+                this.topicBlockIndex.record(currentBlock, events);
+            }
+            blocks.add(events);
+        }
+
+        if (blocks.isEmpty()) {
+            StoppableTask.idle(this.blockChain.getIdleTime());
+            return;
         }
 
+        this.dispatchBlocks(blocks, fromBlock);
+
         // next block
-        this.lastBlock = currentBlock;
+        this.moveTo(fromBlock + blocks.size() - 1);
+    }
+
+    private void moveTo(Long block) {
+        if (this.catchingUp) {
+            this.catchUpBlocks += block - this.lastBlock;
+            this.catchUpBlocksCounter.increment(block - this.lastBlock);
+        }
+        this.lastBlock = block;
     }
 }
@@ -1,107 +1,512 @@
 package com.webank.weevent.broker.task;
 
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedHashMap;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.webank.weevent.broker.metrics.LatencyTracker;
 import com.webank.weevent.broker.plugin.IConsumer;
-import com.webank.weevent.sdk.BrokerException;
-import com.webank.weevent.sdk.ErrorCode;
 import com.webank.weevent.sdk.WeEvent;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 
 /**
- * Notify task run in unique thread.
+ * Notify mailbox of a subscription, run in shared delivery executor.
+ * ##### more details #####
+ * It's not a thread any more, a lot of subscriptions can share a few delivery threads.
+ * The mailbox is submitted into executor only when there are pending events, and never submitted twice at the same time,
+ * so the events of one subscription are notified one by one in order.
+ * Every run notify at most DRAIN_BATCH events, then the mailbox is submitted again at the tail of executor's queue,
+ * so a busy subscription can not starve the others.
+ * Events are notified in batch by ConsumerListener.onEvents, up to batchSize events in one call.
+ * If lingerMs > 0 and the batch is not full, the mailbox wait lingerMs in a timer for more events,
+ * without holding the delivery thread.
+ * The queue is bounded in events and bytes if maxEvents/maxBytes > 0. push never block the event loop,
+ * if it overflow the whole backlog is dropped and push return false, the subscription replay it from history,
+ * see overflowEvent and Subscription.demote.
+ * HistoryEventLoop use pushAvailable instead, the queue is not dropped and it replay from the first event not accepted,
+ * or else a block larger than the queue would be dropped and replayed forever.
+ * The dispatch time of events in queue is kept in dispatchMarks, one mark for a push, the events are not copied to stamp it.
+ * Queue and marks are changed together under the lock of dispatchMarks. Marks are always kept even if latency is not tracked,
+ * or the events pushed before setLatencyProtocol would take the marks of later pushes. Continuous pushes at the same time
+ * share one mark, so it's only one mark of 0 if not tracked.
  *
  * @author matthewliu
  * @since 2019/08/30
  */
 @Slf4j
 @Getter
-public class NotifyTask extends StoppableTask {
+public class NotifyTask implements Runnable {
+    // max events notified in one run
+    private final static int DRAIN_BATCH = 64;
+
+    // estimated bytes of event object besides content
+    private final static int EVENT_OVERHEAD = 128;
+
+    // timer for linger, shared by all the tasks
+    private static ScheduledExecutorService lingerTimer;
+
     private String subscriptionId;
     private IConsumer.ConsumerListener consumerListener;
     private int idleTime;
 
-    private BlockingDeque<WeEvent> eventQueue = new LinkedBlockingDeque<>();
-    private long notifiedCount = 0;
+    private BlockingQueue<WeEvent> eventQueue = new LinkedBlockingQueue<>();
+    private volatile long notifiedCount = 0;
     private Date lastTimeStamp = new Date();
 
-    // (eventId <-> timestamp), value is not used yet
-    private Map<String, Long> mergeCache = new FixedFIFOCache<>(1024);
+    // FIFO window of notified eventId
+    private EventIdSet mergeCache = new EventIdSet(1024);
 
-    // fixed size FIFO cache
-    static class FixedFIFOCache<K, V> extends LinkedHashMap<K, V> {
-        private int capacity;
+    // delivery executor, null if not started
+    private volatile Executor executor;
 
-        public FixedFIFOCache(int capacity) {
-            super(capacity, 0.8f, false);
-            this.capacity = capacity;
-        }
+    // true if submitted into executor and not finished
+    private AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    // flag to exit
+    private volatile boolean exit = false;
+
+    // max events in ConsumerListener.onEvents
+    private int batchSize = 1;
+
+    // wait more events if batch is not full, 0 meanings no wait
+    private int lingerMs = 0;
+
+    // already lingered for current batch
+    private boolean lingered = false;
+
+    // max events in queue, 0 meanings no limit
+    private int maxEvents = 0;
+
+    // max bytes of events in queue, 0 meanings no limit
+    private long maxBytes = 0;
+
+    // estimated bytes of events in queue
+    private AtomicLong queuedBytes = new AtomicLong(0);
+
+    // times of queue overflow
+    private volatile long overflowCount = 0;
+
+    // the oldest event dropped in last overflow, it's where to replay from
+    private volatile WeEvent overflowEvent;
+
+    // optional, record the last notified eventId of durable subscription
+    private SubscriptionCheckpoint checkpoint;
+    private String checkpointKey;
+
+    // optional, delivery meters, see BrokerMetrics
+    private Timer deliveryTimer;
+    private Counter deliveryCounter;
 
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-            return this.size() > capacity;
+    // optional, track end to end latency in this protocol
+    private String latencyProtocol;
+
+    // topic <-> latency tracker, only accessed in run
+    private Map<String, LatencyTracker> latencyTrackers = new HashMap<>();
+
+    // dispatch time of the events in queue in order, one to one with eventQueue
+    private final Deque<DispatchMark> dispatchMarks = new ArrayDeque<>();
+
+    // dispatch time of the batch in notifying, only accessed in run
+    private long[] dispatchTimes = new long[1];
+
+    // continuous events pushed at the same dispatch time
+    private static class DispatchMark {
+        private int events;
+        private final long time;
+
+        DispatchMark(int events, long time) {
+            this.events = events;
+            this.time = time;
         }
     }
 
     public NotifyTask(String subscriptionId, int idleTime, @NonNull IConsumer.ConsumerListener consumerListener) {
-        super("event-notify@" + subscriptionId);
-
         this.subscriptionId = subscriptionId;
         this.consumerListener = consumerListener;
         this.idleTime = idleTime;
     }
 
-    public void push(List<WeEvent> events) {
-        try {
-            // offer event into queue one by one
+    /**
+     * begin to notify in executor.
+     *
+     * @param executor shared delivery executor
+     */
+    public void doStart(@NonNull Executor executor) {
+        this.executor = executor;
+        this.schedule();
+    }
+
+    /**
+     * stop notify, the pending events is dropped.
+     */
+    public void doExit() {
+        log.info("set exit flag, subscriptionId: {}", this.subscriptionId);
+        this.exit = true;
+        synchronized (this.dispatchMarks) {
+            this.eventQueue.clear();
+            this.dispatchMarks.clear();
+        }
+        this.queuedBytes.set(0);
+    }
+
+    /**
+     * bound the queue, the backlog is dropped if overflow.
+     *
+     * @param maxEvents max events in queue, 0 meanings no limit
+     * @param maxBytes max bytes of events in queue, 0 meanings no limit
+     */
+    public void setBound(int maxEvents, long maxBytes) {
+        this.maxEvents = Math.max(maxEvents, 0);
+        this.maxBytes = Math.max(maxBytes, 0);
+    }
+
+    /**
+     * push events into queue, never block.
+     *
+     * @param events events to notify
+     * @return false if queue overflow, all the events not notified yet are dropped, see overflowEvent
+     */
+    public boolean push(List<WeEvent> events) {
+        return this.push(events, 0L);
+    }
+
+    /**
+     * push events dispatched from MainEventLoop, never block.
+     *
+     * @param events events to notify
+     * @param dispatchTime dispatch time in epoch milliseconds for latency, 0 meanings not tracked
+     * @return false if queue overflow, all the events not notified yet are dropped, see overflowEvent
+     */
+    public boolean push(List<WeEvent> events, long dispatchTime) {
+        synchronized (this.dispatchMarks) {
             for (WeEvent event : events) {
-                if (!this.eventQueue.offer(event, this.idleTime, TimeUnit.MILLISECONDS)) {
-                    log.error("push notify failed due to queue is full");
-                    this.consumerListener.onException(new BrokerException(ErrorCode.SUBSCRIPTION_NOTIFY_QUEUE_FULL));
-                    return;
+                long size = sizeOf(event);
+                if (this.isFull(size)) {
+                    this.overflow(event);
+                    return false;
                 }
-                log.debug("offer notify queue, event: {}", event);
+
+                this.offer(event, size);
             }
-        } catch (InterruptedException e) {
-            log.error("offer notify queue failed", e);
+            this.mark(events.size(), dispatchTime);
+        }
+
+        this.schedule();
+        return true;
+    }
+
+    /**
+     * push events into queue until it's full, never block and the events in queue are kept.
+     *
+     * @param events events to notify
+     * @return false if queue full, the events from overflowEvent are not accepted
+     */
+    public boolean pushAvailable(List<WeEvent> events) {
+        boolean accepted = true;
+        synchronized (this.dispatchMarks) {
+            int offered = 0;
+            for (WeEvent event : events) {
+                long size = sizeOf(event);
+                if (this.isFull(size)) {
+                    this.overflowEvent = event;
+                    this.overflowCount++;
+                    log.info("notify queue is full, subscriptionId: {} replay from: {}", this.subscriptionId, event.getEventId());
+                    accepted = false;
+                    break;
+                }
+
+                this.offer(event, size);
+                offered++;
+            }
+            // replayed from history, not tracked
+            this.mark(offered, 0L);
+        }
+
+        this.schedule();
+        return accepted;
+    }
+
+    // under lock of dispatchMarks, after the events are offered
+    private void mark(int events, long time) {
+        if (events == 0) {
+            return;
+        }
+
+        DispatchMark last = this.dispatchMarks.peekLast();
+        if (last != null && last.time == time) {
+            last.events += events;
+        } else {
+            this.dispatchMarks.addLast(new DispatchMark(events, time));
+        }
+    }
+
+    // under lock of dispatchMarks, the dispatch time of the head event in queue
+    private long takeMark() {
+        DispatchMark first = this.dispatchMarks.peekFirst();
+        if (first == null) {
+            return 0L;
+        }
+
+        if (--first.events == 0) {
+            this.dispatchMarks.pollFirst();
+        }
+        return first.time;
+    }
+
+    // accept one event at least even if it's too large
+    private boolean isFull(long size) {
+        return !this.eventQueue.isEmpty()
+                && ((this.maxEvents > 0 && this.eventQueue.size() >= this.maxEvents)
+                || (this.maxBytes > 0 && this.queuedBytes.get() + size > this.maxBytes));
+    }
+
+    private void offer(WeEvent event, long size) {
+        this.queuedBytes.addAndGet(size);
+        this.eventQueue.offer(event);
+        log.debug("offer notify queue, event: {}", event);
+    }
+
+    /**
+     * queue is used more than half, the history should not push more.
+     *
+     * @return true if busy
+     */
+    public boolean isBusy() {
+        return (this.maxEvents > 0 && this.eventQueue.size() * 2 >= this.maxEvents)
+                || (this.maxBytes > 0 && this.queuedBytes.get() * 2 >= this.maxBytes);
+    }
+
+    public long getQueuedBytes() {
+        return this.queuedBytes.get();
+    }
+
+    // drop the backlog, the delivered events are not in queue any more
+    private void overflow(WeEvent current) {
+        List<WeEvent> dropped = new ArrayList<>();
+        this.eventQueue.drainTo(dropped);
+        this.dispatchMarks.clear();
+        for (WeEvent event : dropped) {
+            this.queuedBytes.addAndGet(-sizeOf(event));
         }
+
+        this.overflowEvent = dropped.isEmpty() ? current : dropped.get(0);
+        this.overflowCount++;
+        log.warn("notify queue overflow, drop {} events, subscriptionId: {} replay from: {}",
+                dropped.size(), this.subscriptionId, this.overflowEvent.getEventId());
+    }
+
+    static long sizeOf(WeEvent event) {
+        return EVENT_OVERHEAD + (event.getContent() == null ? 0 : event.getContent().length);
+    }
+
+    /**
+     * advance the delivery cursor after every notify, at least once, see SubscriptionCheckpoint.
+     *
+     * @param checkpoint checkpoint store
+     * @param checkpointKey see SubscriptionCheckpoint.key
+     */
+    public void setCheckpoint(SubscriptionCheckpoint checkpoint, String checkpointKey) {
+        this.checkpoint = checkpoint;
+        this.checkpointKey = checkpointKey;
+    }
+
+    /**
+     * measure the delivery, looked up once here instead of every notify.
+     *
+     * @param deliveryTimer time of ConsumerListener.onEvent/onEvents
+     * @param deliveryCounter events delivered
+     */
+    public void setMeters(Timer deliveryTimer, Counter deliveryCounter) {
+        this.deliveryTimer = deliveryTimer;
+        this.deliveryCounter = deliveryCounter;
+    }
+
+    /**
+     * track end to end latency of the events dispatched by MainEventLoop, see LatencyTracker.
+     * Only set if latency tracking is enabled, or no tracker is registered.
+     * It can be set after events are pushed, the dispatch time of them is kept anyway.
+     *
+     * @param latencyProtocol subscribe protocol
+     */
+    public void setLatencyProtocol(String latencyProtocol) {
+        this.latencyProtocol = latencyProtocol;
+    }
+
+    /**
+     * notify events in batch.
+     *
+     * @param batchSize max events in one ConsumerListener.onEvents
+     * @param lingerMs wait more events if batch is not full, 0 meanings no wait
+     */
+    public void setBatch(int batchSize, int lingerMs) {
+        this.batchSize = Math.max(batchSize, 1);
+        this.lingerMs = Math.max(lingerMs, 0);
     }
 
     @Override
-    protected void taskOnceLoop() {
+    public void run() {
         try {
-            WeEvent event = this.eventQueue.poll(this.idleTime, TimeUnit.MILLISECONDS);
-            // empty queue, try next.
-            if (event == null) {
+            // wait for a full batch, only once
+            if (this.lingerMs > 0 && this.batchSize > 1 && !this.lingered
+                    && !this.exit && this.eventQueue.size() < this.batchSize) {
+                this.lingered = true;
+                getLingerTimer().schedule(this::resubmit, this.lingerMs, TimeUnit.MILLISECONDS);
                 return;
             }
-            log.debug("poll from notify queue, event: {}", event);
+            this.lingered = false;
 
-            // avoid duplicate with FIFO cache
-            if (this.mergeCache.containsKey(event.getEventId())) {
-                log.warn("event to be notify again, skip {}", event.getEventId());
-            } else {
-                // notify a single event once time
-                this.consumerListener.onEvent(this.subscriptionId, event);
-                this.notifiedCount++;
-                long now = System.currentTimeMillis();
-                this.lastTimeStamp.setTime(now);
+            if (this.dispatchTimes.length < this.batchSize) {
+                this.dispatchTimes = new long[this.batchSize];
+            }
+            List<WeEvent> batch = new ArrayList<>();
+            int drained = 0;
+            while (drained < DRAIN_BATCH && !this.exit) {
+                batch.clear();
+                synchronized (this.dispatchMarks) {
+                    this.eventQueue.drainTo(batch, this.batchSize);
+                    for (int idx = 0; idx < batch.size(); idx++) {
+                        this.dispatchTimes[idx] = this.takeMark();
+                    }
+                }
+                // empty queue, wait next push.
+                if (batch.isEmpty()) {
+                    break;
+                }
+                for (WeEvent event : batch) {
+                    this.queuedBytes.addAndGet(-sizeOf(event));
+                }
+
+                drained += batch.size();
+                this.notifyEvents(batch);
+            }
+        } catch (RuntimeException e) {
+            log.error("notify events failed, subscriptionId: {}", this.subscriptionId, e);
+        }
+
+        if (!this.lingered) {
+            this.scheduled.set(false);
+
+            // more events pushed after the last poll, or left by batch limit
+            if (!this.eventQueue.isEmpty()) {
+                this.schedule();
+            }
+        }
+    }
 
-                // avoid duplicate with FIFO cache
-                this.mergeCache.put(event.getEventId(), now);
+    private static synchronized ScheduledExecutorService getLingerTimer() {
+        if (lingerTimer == null) {
+            lingerTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "notify_linger");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return lingerTimer;
+    }
+
+    // submit again after linger, it's still marked as scheduled
+    private void resubmit() {
+        try {
+            this.executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            log.error("submit notify task failed, subscriptionId: {}", this.subscriptionId, e);
+            this.lingered = false;
+            this.scheduled.set(false);
+        }
+    }
+
+    private void schedule() {
+        Executor current = this.executor;
+        if (current == null || this.exit) {
+            return;
+        }
 
-                log.info("notify biz done, subscriptionId: {} eventId: {}", this.subscriptionId, event.getEventId());
+        if (this.scheduled.compareAndSet(false, true)) {
+            try {
+                current.execute(this);
+            } catch (RejectedExecutionException e) {
+                log.error("submit notify task failed, subscriptionId: {}", this.subscriptionId, e);
+                this.scheduled.set(false);
             }
+        }
+    }
+
+    // dispatchTimes[idx] is the dispatch time of events[idx]
+    private void recordLatency(List<WeEvent> events) {
+        long now = System.currentTimeMillis();
+        for (int idx = 0; idx < events.size(); idx++) {
+            WeEvent event = events.get(idx);
+            LatencyTracker tracker = this.latencyTrackers.get(event.getTopic());
+            if (tracker == null) {
+                tracker = LatencyTracker.of(event.getTopic(), this.latencyProtocol);
+                this.latencyTrackers.put(event.getTopic(), tracker);
+            }
+            tracker.record(event, this.dispatchTimes[idx], now);
+        }
+    }
+
+    private void notifyEvents(List<WeEvent> batch) {
+        log.debug("poll from notify queue, events: {}", batch.size());
+
+        try {
+            // avoid duplicate with FIFO cache
+            List<WeEvent> events = new ArrayList<>(batch.size());
+            for (int idx = 0; idx < batch.size(); idx++) {
+                WeEvent event = batch.get(idx);
+                if (this.mergeCache.add(event.getEventId())) {
+                    // keep dispatch time aligned with the events notified
+                    this.dispatchTimes[events.size()] = this.dispatchTimes[idx];
+                    events.add(event);
+                } else {
+                    log.warn("event to be notify again, skip {}", event.getEventId());
+                }
+            }
+            if (events.isEmpty()) {
+                return;
+            }
+
+            // notify a batch of events once time
+            long start = System.nanoTime();
+            if (events.size() == 1) {
+                this.consumerListener.onEvent(this.subscriptionId, events.get(0));
+            } else {
+                this.consumerListener.onEvents(this.subscriptionId, events);
+            }
+            if (this.deliveryTimer != null) {
+                this.deliveryTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                this.deliveryCounter.increment(events.size());
+            }
+            if (this.latencyProtocol != null) {
+                this.recordLatency(events);
+            }
+            this.notifiedCount += events.size();
+            this.lastTimeStamp.setTime(System.currentTimeMillis());
+            if (this.checkpoint != null && !this.exit) {
+                // returned from listener, not acknowledged by client, see SubscriptionCheckpoint
+                this.checkpoint.advance(this.checkpointKey, events.get(events.size() - 1).getEventId());
+            }
+
+            log.info("notify biz done, subscriptionId: {} events: {} last eventId: {}",
+                    this.subscriptionId, events.size(), events.get(events.size() - 1).getEventId());
         } catch (Exception e) {
             this.consumerListener.onException(e);
         }
@@ -4,36 +4,38 @@ package com.webank.weevent.broker.task;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 import com.webank.weevent.broker.fisco.constant.WeEventConstants;
-import com.webank.weevent.broker.fisco.util.DataTypeUtils;
+import com.webank.weevent.broker.metrics.BrokerMetrics;
 import com.webank.weevent.broker.plugin.IConsumer;
 import com.webank.weevent.sdk.BrokerException;
 import com.webank.weevent.sdk.ErrorCode;
+import com.webank.weevent.sdk.EventId;
 import com.webank.weevent.sdk.WeEvent;
 
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 /**
  * One topic subscription.
  * ##### more details #####
  * Normally, the events published in the future will be notified by MainEventLoop.
- * If the offset is not WeEvent.OFFSET_LAST, then it need a helper task HistoryEventLoop to fetch history events.
+ * If the offset is not WeEvent.OFFSET_LAST, then it need the group's shared HistoryEventLoop to fetch history events.
  * It works like as followings:
  * HistoryEventLoop(deal with events in caller thread if has in the same block of offset -> target history events -> current block) ===> MainEventLoop
  * HistoryEventLoop aim to fetch target event between offset and current block(current block will float forward while fetching).
  * It's notify task will switch into MainEventLoop while arriving at highest block height(=current block height in MainEventLoop).
- * But the switch action is done by MainEventLoop in another thread, HistoryEventLoop may float forward a few block at the same time.
- * Because once loop (both in HistoryEventLoop and MainEventLoop) is a long blocking task,
- * so we use a merge cache to avoid repeat notify, not a strict consistency. Like ideas showed in optimistic lock.
+ * The switch action is done by MainEventLoop in another thread, but it's exclusive with HistoryEventLoop's dispatch,
+ * the blocks already dispatched by HistoryEventLoop are skipped in MainEventLoop, see historyBlock.
+ * We still use a merge cache to avoid repeat notify, not a strict consistency. Like ideas showed in optimistic lock.
+ * If the notify queue overflow, the subscription is demoted into HistoryEventLoop from the oldest dropped event,
+ * or rewound from the first event not accepted if it's full while replaying history,
+ * and promoted into MainEventLoop again after catching up, so the memory is bounded without losing events.
  *
  * @author matthewliu
  * @since 2019/08/30
@@ -93,15 +95,15 @@ public class Subscription {
     private NotifyTask notifyTask;
 
     /**
-     * optional, if offset != WeEvent.OFFSET_LAST then need a event loop to fetch history event
+     * optional, if offset != WeEvent.OFFSET_LAST then need HistoryEventLoop to fetch history event from this block.
+     * it's the cursor in HistoryEventLoop, null if not in history.
      */
-    private HistoryEventLoop historyEventLoop;
+    private volatile Long historyLastBlock;
 
     /**
      * helper to avoid repeat notify if exist HistoryEventLoop
-     * (eventId <-> timestamp), value is not used yet
      */
-    private Map<String, Long> mergeCache;
+    private EventIdSet mergeCache;
 
     /**
      * merge cache block area
@@ -113,6 +115,26 @@ public class Subscription {
      */
     private Long historyBlock = 0L;
 
+    /**
+     * optional, replay history from this event after demoted, the events before it in the same block are notified already
+     */
+    private EventId replayEventId;
+
+    /**
+     * times of demoted into HistoryEventLoop
+     */
+    private volatile long demotionCount = 0;
+
+    /**
+     * optional, name of durable subscription, it's resumed from the checkpoint in next subscribe
+     */
+    private String durableName;
+
+    /**
+     * track end to end latency in NotifyTask, see LatencyTracker
+     */
+    private boolean latencyTracking = false;
+
     @Override
     public String toString() {
         return "Subscription{" +
@@ -147,15 +169,56 @@ public class Subscription {
             if (WeEvent.OFFSET_FIRST.equals(this.offset)) {
                 lastBlock = 0L;
             } else {
-                lastBlock = DataTypeUtils.decodeBlockNumber(offset);
+                lastBlock = EventId.parse(offset).getBlockNumber();
             }
-            this.historyEventLoop = new HistoryEventLoop(blockChain, this, lastBlock);
+            // the rest of target block is dispatched after settings applied, see dispatchTargetBlock
+            this.historyLastBlock = lastBlock;
+            this.historyBlock = lastBlock;
+            this.mergeCache = new EventIdSet();
+        }
+    }
+
+    /**
+     * dispatch the events after offset in the target block directly in caller thread, only if offset is an eventId.
+     * call it after notify settings like batch and queue bound are applied, and before added into MainEventLoop.
+     *
+     * @param blockChain block chain
+     * @throws BrokerException offset not exist
+     */
+    public void dispatchTargetBlock(IBlockChain blockChain) throws BrokerException {
+        if (WeEvent.OFFSET_LAST.equals(this.offset) || WeEvent.OFFSET_FIRST.equals(this.offset)) {
+            return;
+        }
+
+        Long blockNum = EventId.parse(this.offset).getBlockNumber();
+        if (blockNum == 0) {
+            return;
+        }
 
-            this.historyBlock = this.historyEventLoop.getLastBlock();
-            this.mergeCache = new HashMap<>();
+        // target block is not notified yet, the cursor is rewound by demote if notify queue is full
+        this.historyBlock = blockNum - 1;
+        HistoryEventLoop.dispatchTargetBlock(blockChain, this, blockNum);
+    }
+
+    /**
+     * start history from the block where the topics created, only for WeEvent.OFFSET_FIRST.
+     * the blocks before it has no event of the topics.
+     *
+     * @param blockNum first block with the topics
+     */
+    public void skipHistoryBefore(Long blockNum) {
+        if (WeEvent.OFFSET_FIRST.equals(this.offset) && blockNum != null && blockNum > 1) {
+            log.info("skip history before block: {}, {}", blockNum, this);
+
+            this.historyLastBlock = blockNum - 1;
+            this.historyBlock = blockNum - 1;
         }
     }
 
+    public boolean isHistory() {
+        return this.historyLastBlock != null;
+    }
+
     public Long getNotifyingEventCount() {
         return (long) this.notifyTask.getEventQueue().size();
     }
@@ -168,39 +231,60 @@ public class Subscription {
         return this.notifyTask.getLastTimeStamp();
     }
 
+    public Long getNotifyingEventBytes() {
+        return this.notifyTask.getQueuedBytes();
+    }
+
+    public Long getOverflowCount() {
+        return this.notifyTask.getOverflowCount();
+    }
+
+    /**
+     * notify queue is used more than half, HistoryEventLoop wait for it.
+     *
+     * @return true if busy
+     */
+    public boolean isNotifyBusy() {
+        return this.notifyTask.isBusy();
+    }
+
     // mainLoop = true meanings dispatch from MainEventLoop, always history first then main loop
-    public void dispatch(List<WeEvent> events, boolean mainLoop, Long blockHeight) {
+    // the events is already filtered, by SubscriptionIndex in MainEventLoop or by HistoryEventLoop itself
+    // return false if notify queue overflow, the subscription is rewound to replay from history, see demote
+    public boolean dispatch(List<WeEvent> events, boolean mainLoop, Long blockHeight) {
+        return this.dispatch(events, mainLoop, blockHeight, 0L);
+    }
+
+    // dispatchTime is the time dispatched from MainEventLoop in epoch milliseconds, 0 meanings latency not tracked
+    public boolean dispatch(List<WeEvent> events, boolean mainLoop, Long blockHeight, long dispatchTime) {
         // skip block before notified history block
         if (blockHeight <= this.historyBlock) {
-            return;
+            return true;
         }
 
-        List<WeEvent> topicEvents;
+        List<WeEvent> topicEvents = events;
         if (mainLoop) {
-            // filter the events if from main loop
-            topicEvents = filter(events, this.topics, this.tag);
             if (topicEvents.isEmpty()) {
-                return;
+                return true;
             }
         } else {
             log.info("dispatch from HistoryEventLoop");
 
+            // skip the events notified before demoted
+            if (this.replayEventId != null) {
+                topicEvents = this.skipBeforeReplay(topicEvents, blockHeight);
+            }
+
             // record last history block
             if (blockHeight > this.historyBlock) {
                 this.historyBlock = blockHeight;
             }
-
-            // already filter if from history
-            topicEvents = events;
         }
 
         // need merge in cache
-        if (this.mergeCache != null) {
-            topicEvents.removeIf((event) -> this.mergeCache.containsKey(event.getEventId()));
-            Long now = System.currentTimeMillis();
-            for (WeEvent event : topicEvents) {
-                this.mergeCache.put(event.getEventId(), now);
-            }
+        EventIdSet merging = this.mergeCache;
+        if (merging != null) {
+            topicEvents.removeIf((event) -> merging.contains(event.getEventId()));
 
             // cleanup merge cache if needed
             if (mainLoop && blockHeight > this.historyBlock + this.mergeBlock) {
@@ -213,47 +297,123 @@ public class Subscription {
 
         if (topicEvents.isEmpty()) {
             log.info("event list is empty after filter by merge cache");
-            return;
+            return true;
         }
 
-        // notify to remote really
-        this.notifyTask.push(topicEvents);
+        // notify to remote really, history keep what is accepted and replay the rest
+        boolean accepted = mainLoop ? this.notifyTask.push(topicEvents, dispatchTime) : this.notifyTask.pushAvailable(topicEvents);
+        if (!accepted) {
+            this.demote(this.notifyTask.getOverflowEvent());
+            return false;
+        }
+
+        // only the events accepted by notify queue are merged
+        if (this.mergeCache != null) {
+            for (WeEvent event : topicEvents) {
+                this.mergeCache.add(event.getEventId());
+            }
+        }
+        return true;
     }
 
-    public synchronized void doStart(ThreadPoolTaskExecutor threadPoolTaskExecutor) {
-        threadPoolTaskExecutor.execute(this.notifyTask);
-        if (this.historyEventLoop != null) {
-            threadPoolTaskExecutor.execute(this.historyEventLoop);
+    /**
+     * rewind to replay from the event in HistoryEventLoop, the caller move it into HistoryEventLoop if in main loop.
+     *
+     * @param event the oldest event not notified
+     */
+    private void demote(WeEvent event) {
+        EventId eventId = null;
+        Long blockNum;
+        try {
+            eventId = EventId.parse(event.getEventId());
+            blockNum = eventId.getBlockNumber();
+        } catch (BrokerException e) {
+            log.error("invalid eventId, replay from current block", e);
+            blockNum = this.historyBlock;
+        }
+
+        if (!this.isHistory()) {
+            this.demotionCount++;
         }
+        log.warn("demote into history from block: {} eventId: {}, {}", blockNum, event.getEventId(), this);
+
+        this.historyLastBlock = blockNum - 1;
+        this.historyBlock = blockNum - 1;
+        this.replayEventId = eventId;
+        // the events dropped from notify queue must be replayed, so do not merge with the old cache.
+        // the events before replayEventId are not replayed any more, a new cache is enough to merge with main loop when promoted
+        this.mergeCache = new EventIdSet();
     }
 
-    // can not doStart again after doStop
-    public synchronized void doStop() {
-        this.notifyTask.doExit();
+    // events in the replay block before replayEventId are already notified
+    private List<WeEvent> skipBeforeReplay(List<WeEvent> events, Long blockHeight) {
+        Long replayBlock = this.replayEventId.getBlockNumber();
 
-        // wait task exit really
-        StoppableTask.idle(this.idleTime);
+        if (blockHeight < replayBlock) {
+            return events;
+        }
 
-        stopHistory();
+        List<WeEvent> remain = events;
+        if (blockHeight.equals(replayBlock)) {
+            for (int idx = 0; idx < events.size(); idx++) {
+                if (events.get(idx).getEventId().equals(this.replayEventId.toString())) {
+                    remain = new ArrayList<>(events.subList(idx, events.size()));
+                    break;
+                }
+            }
+        }
+        this.replayEventId = null;
+        return remain;
     }
 
-    public synchronized void stopHistory() {
-        if (this.historyEventLoop != null) {
-            this.historyEventLoop.doExit();
-            this.historyEventLoop = null;
-        }
+    /**
+     * notify events to listener in batch.
+     *
+     * @param batchSize max events in one ConsumerListener.onEvents
+     * @param lingerMs wait more events if batch is not full, 0 meanings no wait
+     */
+    public void setNotifyBatch(int batchSize, int lingerMs) {
+        this.notifyTask.setBatch(batchSize, lingerMs);
     }
 
-    public synchronized boolean tryStopHistory(Long mainLastBlock) {
-        if (mainLastBlock > 0 && mainLastBlock <= this.historyEventLoop.getLastBlock()) {
-            log.info("switch history to main event loop, {} ---> {}, {}",
-                    this.historyEventLoop.getLastBlock(), mainLastBlock, this);
+    /**
+     * keep the last delivered eventId in checkpoint, an at least once delivery cursor, see SubscriptionCheckpoint.
+     *
+     * @param durableName durable name
+     * @param checkpoint checkpoint store
+     */
+    public void setDurable(String durableName, SubscriptionCheckpoint checkpoint) {
+        this.durableName = durableName;
+        this.notifyTask.setCheckpoint(checkpoint, SubscriptionCheckpoint.key(this.groupId, durableName));
+    }
 
-            stopHistory();
-            return true;
+    public boolean isDurable() {
+        return this.durableName != null;
+    }
+
+    /**
+     * bound the notify queue, demote into history if overflow.
+     *
+     * @param maxEvents max events in queue, 0 meanings no limit
+     * @param maxBytes max bytes of events in queue, 0 meanings no limit
+     */
+    public void setNotifyQueueBound(int maxEvents, long maxBytes) {
+        this.notifyTask.setBound(maxEvents, maxBytes);
+    }
+
+    public synchronized void doStart(Executor deliveryExecutor) {
+        String protocol = StringUtils.isBlank(this.interfaceType) ? "unknown" : this.interfaceType;
+        this.notifyTask.setMeters(BrokerMetrics.deliveryTimer(this.groupId, protocol),
+                BrokerMetrics.deliveryCounter(this.groupId, protocol));
+        if (this.latencyTracking) {
+            this.notifyTask.setLatencyProtocol(protocol);
         }
+        this.notifyTask.doStart(deliveryExecutor);
+    }
 
-        return false;
+    // can not doStart again after doStop
+    public synchronized void doStop() {
+        this.notifyTask.doExit();
     }
 
     /**
@@ -362,7 +522,7 @@ public class Subscription {
      * @param pattern mqtt pattern with wildcard
      * @return true if match
      */
-    private static boolean patternMatch(String topic, String pattern) {
+    static boolean patternMatch(String topic, String pattern) {
         String[] topicLayer = topic.split(WeEvent.LAYER_SEPARATE);
         String[] patternLayer = pattern.split(WeEvent.LAYER_SEPARATE);
 
@@ -0,0 +1,283 @@
+package com.webank.weevent.broker.task;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.EventId;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Checkpoints of durable subscriptions, it's an at least once delivery cursor, not an acknowledgement.
+ * ##### more details #####
+ * A durable subscription is identified by group id and it's name, see IConsumer.SubscribeExt.DurableName.
+ * NotifyTask advance the cursor to the last eventId returned from ConsumerListener.onEvent(s),
+ * there is no acknowledgement from client in the protocols, like STOMP ACK or MQTT PUBACK.
+ * So the events handed to protocol but not received by client are lost if client is gone, like in a non durable one.
+ * The cursor is updated in memory, and flushed into file in background, every flushEvents advances or every flushMs,
+ * never in the notify thread.
+ * Subscribing with the same name again resume from the cursor instead of the offset in request,
+ * so at most a flush interval of events are notified again after broker restart, not the whole topic history.
+ * The file is written into a temporary file and then moved, a half written file never replace the last good one.
+ * The checkpoint not in use and not advanced in expireMs is removed while flushing, or else every durable name ever used
+ * is kept forever. It's not removed in unsubscribe, MQTT and STOMP unsubscribe too when the connection is lost.
+ * A durable name can be used by one subscription at the same time, see acquire.
+ * This class is thread safe.
+ *
+ * @author matthewliu
+ * @since 2019/11/12
+ */
+@Slf4j
+public class SubscriptionCheckpoint {
+    private final static String FILE_NAME = "subscription-checkpoint.properties";
+
+    // separator of eventId and update time in file
+    private final static String TIME_SEPARATE = ",";
+
+    // group id + durable name <-> last delivered eventId and it's update time
+    private Map<String, Cursor> checkpoints = new ConcurrentHashMap<>();
+
+    // durable names in use
+    private Set<String> actives = ConcurrentHashMap.newKeySet();
+
+    // optional, checkpoint file
+    private File file;
+
+    // flush every this advances, 0 meanings only in timer
+    private int flushEvents;
+
+    // remove the checkpoint not advanced in this time, 0 meanings never
+    private long expireMs;
+
+    // advances not flushed yet
+    private AtomicInteger unflushed = new AtomicInteger(0);
+
+    // optional, background thread to flush, in timer or every flushEvents advances
+    private ScheduledExecutorService flusher;
+
+    // a flush of flushEvents is queued in flusher
+    private AtomicBoolean flushPending = new AtomicBoolean(false);
+
+    private static class Cursor {
+        private final String eventId;
+        private final long updateTime;
+
+        Cursor(String eventId, long updateTime) {
+            this.eventId = eventId;
+            this.updateTime = updateTime;
+        }
+    }
+
+    public SubscriptionCheckpoint(String path, int flushEvents, int flushMs) {
+        this(path, flushEvents, flushMs, 0L);
+    }
+
+    /**
+     * @param path directory of checkpoint file, blank meanings memory only
+     * @param flushEvents flush every this advances, 0 meanings only in timer
+     * @param flushMs flush interval in timer, 0 meanings no timer
+     * @param expireMs remove the checkpoint not in use and not advanced in this time, 0 meanings never
+     */
+    public SubscriptionCheckpoint(String path, int flushEvents, int flushMs, long expireMs) {
+        this.flushEvents = Math.max(flushEvents, 0);
+        this.expireMs = Math.max(expireMs, 0L);
+
+        if (StringUtils.isBlank(path)) {
+            log.info("subscription checkpoint in memory only");
+            return;
+        }
+
+        File directory = new File(path);
+        if (!directory.exists() && !directory.mkdirs()) {
+            log.error("create checkpoint directory failed, {}, use memory only", path);
+            return;
+        }
+
+        this.file = new File(directory, FILE_NAME);
+        try {
+            this.load();
+        } catch (IOException e) {
+            log.error("load subscription checkpoint failed, use memory only", e);
+            this.file = null;
+            return;
+        }
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint_flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (flushMs > 0) {
+            this.flusher.scheduleWithFixedDelay(this::flush, flushMs, flushMs, TimeUnit.MILLISECONDS);
+        }
+        log.info("subscription checkpoint initialized, file: {} checkpoints: {}", this.file, this.checkpoints.size());
+    }
+
+    public static String key(String groupId, String durableName) {
+        return groupId + WeEvent.LAYER_SEPARATE + durableName;
+    }
+
+    /**
+     * take the durable name, one subscription for one name at the same time.
+     *
+     * @param key see key
+     * @return false if it's in use
+     */
+    public boolean acquire(String key) {
+        return this.actives.add(key);
+    }
+
+    /**
+     * give back the durable name, the checkpoint is flushed and kept for next subscribe.
+     *
+     * @param key see key
+     */
+    public void release(String key) {
+        if (this.actives.remove(key)) {
+            this.flush();
+        }
+    }
+
+    public String get(String key) {
+        Cursor cursor = this.checkpoints.get(key);
+        return cursor == null ? null : cursor.eventId;
+    }
+
+    public int size() {
+        return this.checkpoints.size();
+    }
+
+    /**
+     * where to resume the durable subscription.
+     *
+     * @param key see key
+     * @param topics topic name or pattern list
+     * @param offset offset in subscribe request
+     * @return the checkpoint if exist and it's of the topics, or else the offset in request
+     */
+    public String resume(String key, String[] topics, String offset) {
+        String eventId = this.get(key);
+        if (eventId == null) {
+            return offset;
+        }
+
+        try {
+            EventId checkpoint = EventId.parse(eventId);
+            for (String topic : topics) {
+                if (Subscription.isTopicPattern(topic) || checkpoint.isTopic(topic)) {
+                    log.info("resume durable subscription: {} from checkpoint: {}", key, eventId);
+                    return eventId;
+                }
+            }
+        } catch (BrokerException e) {
+            log.error("invalid checkpoint: {}", eventId, e);
+        }
+
+        log.warn("checkpoint: {} is not of the topics, subscribe from: {}", eventId, offset);
+        return offset;
+    }
+
+    /**
+     * advance the delivery cursor to the last eventId returned from ConsumerListener, called in notify thread.
+     * flush is queued into background if there are flushEvents advances, the caller never wait for file.
+     *
+     * @param key see key
+     * @param eventId eventId
+     */
+    public void advance(String key, String eventId) {
+        this.checkpoints.put(key, new Cursor(eventId, System.currentTimeMillis()));
+
+        int count = this.unflushed.incrementAndGet();
+        if (this.flushEvents > 0 && count >= this.flushEvents
+                && this.flusher != null && this.flushPending.compareAndSet(false, true)) {
+            this.flusher.execute(() -> {
+                this.flushPending.set(false);
+                this.flush();
+            });
+        }
+    }
+
+    public synchronized void flush() {
+        this.expire();
+        if (this.file == null || this.unflushed.getAndSet(0) == 0) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        for (Map.Entry<String, Cursor> entry : this.checkpoints.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().eventId + TIME_SEPARATE + entry.getValue().updateTime);
+        }
+        File temp = new File(this.file.getPath() + ".tmp");
+        try {
+            try (OutputStream output = new FileOutputStream(temp)) {
+                properties.store(output, "durable subscription checkpoints");
+            }
+            Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("flush subscription checkpoint, size: {}", properties.size());
+        } catch (IOException e) {
+            log.error("flush subscription checkpoint failed", e);
+        }
+    }
+
+    /**
+     * give back all the durable names, like consumer is shutdown.
+     */
+    public void releaseAll() {
+        this.actives.clear();
+        this.flush();
+    }
+
+    // remove the checkpoints not in use and not advanced in expireMs, called in flush
+    private void expire() {
+        if (this.expireMs <= 0) {
+            return;
+        }
+
+        long deadline = System.currentTimeMillis() - this.expireMs;
+        boolean removed = this.checkpoints.entrySet().removeIf(entry ->
+                entry.getValue().updateTime < deadline && !this.actives.contains(entry.getKey()));
+        if (removed) {
+            this.unflushed.incrementAndGet();
+        }
+    }
+
+    private void load() throws IOException {
+        if (!this.file.exists()) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream input = new FileInputStream(this.file)) {
+            properties.load(input);
+        }
+        long now = System.currentTimeMillis();
+        for (String key : properties.stringPropertyNames()) {
+            // no update time in the file written by old version, age from now
+            String[] value = properties.getProperty(key).split(TIME_SEPARATE);
+            long updateTime = now;
+            if (value.length > 1 && StringUtils.isNumeric(value[1])) {
+                updateTime = Long.parseLong(value[1]);
+            }
+            this.checkpoints.put(key, new Cursor(value[0], updateTime));
+        }
+    }
+}
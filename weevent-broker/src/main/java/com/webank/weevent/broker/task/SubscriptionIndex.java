@@ -0,0 +1,313 @@
+package com.webank.weevent.broker.task;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Subscription index in one group, used by MainEventLoop to route the events in a block.
+ * ##### more details #####
+ * Normal topic name is indexed by it's full name in a hash map.
+ * Topic pattern is indexed in a topic-level trie, '+' and '#' are special child in every level.
+ * Every end point in the index is a tag bucket, subscription without tag and subscription with tag are kept apart.
+ * So every event is matched once no matter how many subscriptions there is,
+ * and the matching rule is the same as Subscription.filter.
+ * This class is not thread safe, it's guarded by MainEventLoop.
+ *
+ * @author matthewliu
+ * @since 2019/10/22
+ */
+@Slf4j
+public class SubscriptionIndex {
+    /**
+     * subscription list at the end of a topic name or a topic pattern, split by tag
+     */
+    static class TagBucket {
+        // subscription without tag
+        private Set<Subscription> all = new HashSet<>();
+
+        // tag <-> subscription with this tag
+        private Map<String, Set<Subscription>> tagged = new HashMap<>();
+
+        void add(Subscription subscription) {
+            if (StringUtils.isBlank(subscription.getTag())) {
+                this.all.add(subscription);
+            } else {
+                this.tagged.computeIfAbsent(subscription.getTag(), key -> new HashSet<>()).add(subscription);
+            }
+        }
+
+        void remove(Subscription subscription) {
+            if (StringUtils.isBlank(subscription.getTag())) {
+                this.all.remove(subscription);
+            } else {
+                Set<Subscription> target = this.tagged.get(subscription.getTag());
+                if (target != null) {
+                    target.remove(subscription);
+                    if (target.isEmpty()) {
+                        this.tagged.remove(subscription.getTag());
+                    }
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return this.all.isEmpty() && this.tagged.isEmpty();
+        }
+
+        void match(String eventTag, Set<Subscription> to) {
+            to.addAll(this.all);
+            if (eventTag != null && !this.tagged.isEmpty()) {
+                Set<Subscription> target = this.tagged.get(eventTag);
+                if (target != null) {
+                    to.addAll(target);
+                }
+            }
+        }
+    }
+
+    /**
+     * one level in topic pattern trie
+     */
+    static class TopicNode {
+        // normal layer <-> next level
+        private Map<String, TopicNode> children = new HashMap<>();
+
+        // '+' in this level
+        private TopicNode oneLayer;
+
+        // '#' in this level
+        private TagBucket allLayer;
+
+        // pattern end in this level
+        private TagBucket end;
+
+        boolean isEmpty() {
+            return this.children.isEmpty()
+                    && this.oneLayer == null
+                    && (this.allLayer == null || this.allLayer.isEmpty())
+                    && (this.end == null || this.end.isEmpty());
+        }
+    }
+
+    // topic name <-> subscription
+    private Map<String, TagBucket> topicNames = new HashMap<>();
+
+    // root of topic pattern trie
+    private TopicNode patterns = new TopicNode();
+
+    // all subscription in this index
+    private Set<Subscription> subscriptions = new HashSet<>();
+
+    // reused in matching, avoid allocate in every event
+    private Set<Subscription> matched = new HashSet<>();
+
+    public int size() {
+        return this.subscriptions.size();
+    }
+
+    public boolean isEmpty() {
+        return this.subscriptions.isEmpty();
+    }
+
+    public boolean contains(Subscription subscription) {
+        return this.subscriptions.contains(subscription);
+    }
+
+    public void add(Subscription subscription) {
+        if (!this.subscriptions.add(subscription)) {
+            return;
+        }
+
+        for (String topic : subscription.getTopics()) {
+            if (Subscription.isTopicPattern(topic)) {
+                TagBucket bucket = this.ensurePattern(topic);
+                if (bucket != null) {
+                    bucket.add(subscription);
+                }
+            } else {
+                this.topicNames.computeIfAbsent(topic, key -> new TagBucket()).add(subscription);
+            }
+        }
+    }
+
+    public void remove(Subscription subscription) {
+        if (!this.subscriptions.remove(subscription)) {
+            return;
+        }
+
+        for (String topic : subscription.getTopics()) {
+            if (Subscription.isTopicPattern(topic)) {
+                this.removePattern(this.patterns, topic.split(WeEvent.LAYER_SEPARATE), 0,
+                        !topic.contains(WeEvent.WILD_CARD_ONE_LAYER), subscription);
+            } else {
+                TagBucket bucket = this.topicNames.get(topic);
+                if (bucket != null) {
+                    bucket.remove(subscription);
+                    if (bucket.isEmpty()) {
+                        this.topicNames.remove(topic);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * route the events to the matched subscriptions.
+     *
+     * @param events events in block
+     * @return subscription <-> it's events in original order, no entry if nothing matched
+     */
+    public Map<Subscription, List<WeEvent>> route(List<WeEvent> events) {
+        Map<Subscription, List<WeEvent>> routes = new LinkedHashMap<>();
+        if (this.subscriptions.isEmpty()) {
+            return routes;
+        }
+
+        for (WeEvent event : events) {
+            this.match(event, this.matched);
+            for (Subscription subscription : this.matched) {
+                routes.computeIfAbsent(subscription, key -> new ArrayList<>()).add(event);
+            }
+            this.matched.clear();
+        }
+
+        return routes;
+    }
+
+    /**
+     * get the subscriptions match this event, each subscription once.
+     *
+     * @param event event
+     * @param to matched subscriptions
+     */
+    public void match(WeEvent event, Set<Subscription> to) {
+        String topic = event.getTopic();
+        String eventTag = null;
+        if (event.getExtensions() != null) {
+            eventTag = event.getExtensions().get(WeEvent.WeEvent_TAG);
+        }
+
+        TagBucket bucket = this.topicNames.get(topic);
+        if (bucket != null) {
+            bucket.match(eventTag, to);
+        }
+
+        if (!this.patterns.isEmpty()) {
+            this.matchPattern(this.patterns, topic.split(WeEvent.LAYER_SEPARATE), 0, eventTag, to);
+        }
+    }
+
+    private void matchPattern(TopicNode node, String[] layers, int depth, String eventTag, Set<Subscription> to) {
+        // '#' need at least one layer left, see Subscription.patternMatch
+        if (node.allLayer != null && layers.length > depth) {
+            node.allLayer.match(eventTag, to);
+        }
+
+        if (depth == layers.length) {
+            if (node.end != null) {
+                node.end.match(eventTag, to);
+            }
+            return;
+        }
+
+        TopicNode next = node.children.get(layers[depth]);
+        if (next != null) {
+            this.matchPattern(next, layers, depth + 1, eventTag, to);
+        }
+        if (node.oneLayer != null) {
+            this.matchPattern(node.oneLayer, layers, depth + 1, eventTag, to);
+        }
+    }
+
+    /**
+     * walk through the pattern, create node if needed.
+     * Like Subscription.patternMatch, '+' takes precedence over '#', and '#' is a normal layer in pattern with '+'.
+     *
+     * @param pattern topic pattern
+     * @return bucket, null if pattern never match
+     */
+    private TagBucket ensurePattern(String pattern) {
+        String[] layers = pattern.split(WeEvent.LAYER_SEPARATE);
+        boolean sharpMode = !pattern.contains(WeEvent.WILD_CARD_ONE_LAYER);
+        if (sharpMode && (layers.length == 0 || !layers[layers.length - 1].equals(WeEvent.WILD_CARD_ALL_LAYER))) {
+            log.error("'#' must be in last layer, skip index pattern: {}", pattern);
+            return null;
+        }
+
+        TopicNode node = this.patterns;
+        int size = sharpMode ? layers.length - 1 : layers.length;
+        for (int idx = 0; idx < size; idx++) {
+            if (!sharpMode && layers[idx].equals(WeEvent.WILD_CARD_ONE_LAYER)) {
+                if (node.oneLayer == null) {
+                    node.oneLayer = new TopicNode();
+                }
+                node = node.oneLayer;
+            } else {
+                node = node.children.computeIfAbsent(layers[idx], key -> new TopicNode());
+            }
+        }
+
+        if (sharpMode) {
+            if (node.allLayer == null) {
+                node.allLayer = new TagBucket();
+            }
+            return node.allLayer;
+        } else {
+            if (node.end == null) {
+                node.end = new TagBucket();
+            }
+            return node.end;
+        }
+    }
+
+    // remove subscription from trie, and prune the empty node
+    private void removePattern(TopicNode node, String[] layers, int depth, boolean sharpMode, Subscription subscription) {
+        if (sharpMode && depth >= layers.length - 1) {
+            if (depth == layers.length - 1 && node.allLayer != null) {
+                node.allLayer.remove(subscription);
+                if (node.allLayer.isEmpty()) {
+                    node.allLayer = null;
+                }
+            }
+            return;
+        }
+
+        if (depth == layers.length) {
+            if (node.end != null) {
+                node.end.remove(subscription);
+                if (node.end.isEmpty()) {
+                    node.end = null;
+                }
+            }
+            return;
+        }
+
+        if (!sharpMode && layers[depth].equals(WeEvent.WILD_CARD_ONE_LAYER)) {
+            if (node.oneLayer != null) {
+                this.removePattern(node.oneLayer, layers, depth + 1, false, subscription);
+                if (node.oneLayer.isEmpty()) {
+                    node.oneLayer = null;
+                }
+            }
+        } else {
+            TopicNode next = node.children.get(layers[depth]);
+            if (next != null) {
+                this.removePattern(next, layers, depth + 1, sharpMode, subscription);
+                if (next.isEmpty()) {
+                    node.children.remove(layers[depth]);
+                }
+            }
+        }
+    }
+}
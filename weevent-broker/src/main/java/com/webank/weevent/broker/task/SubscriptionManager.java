@@ -0,0 +1,417 @@
+package com.webank.weevent.broker.task;
+
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import com.webank.weevent.broker.fisco.dto.SubscriptionInfo;
+import com.webank.weevent.broker.fisco.util.ParamCheckUtils;
+import com.webank.weevent.broker.plugin.IConsumer;
+import com.webank.weevent.broker.plugin.IEventTopic;
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.ErrorCode;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Subscriptions and main event loops of a consumer, shared by all the block chain implements.
+ * ##### more details #####
+ * IConsumer implement extends it's own topic admin, so it hold this class instead of extending a base class,
+ * and keep only the block chain specific parts: IBlockChain, how to build MainEventLoop and where a topic is created.
+ * Group id is in string, like channel name in Fabric.
+ * A durable name is acquired before subscribe, and given back if failed in any step, unsubscribe or shutdown.
+ * This class is thread safe.
+ *
+ * @author matthewliu
+ * @since 2019/11/19
+ */
+@Slf4j
+public class SubscriptionManager {
+    /**
+     * build a MainEventLoop of group with block chain specific configuration, not started.
+     */
+    public interface MainEventLoopFactory {
+        MainEventLoop build(String groupId) throws BrokerException;
+    }
+
+    /**
+     * the first block where the topics created, see Subscription.skipHistoryBefore.
+     */
+    public interface CreatedBlockLookup {
+        /**
+         * @param topics topic name or pattern list
+         * @param groupId group id
+         * @return null if unknown, like topic pattern
+         * @throws BrokerException BrokerException
+         */
+        Long getCreatedBlock(String[] topics, String groupId) throws BrokerException;
+    }
+
+    private final IEventTopic topicAdmin;
+    private final IBlockChain blockChain;
+    private final SubscriptionCheckpoint subscriptionCheckpoint;
+
+    /**
+     * Subscription ID <-> Subscription
+     */
+    private Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * Group ID <-> MainEventLoop
+     */
+    private Map<String, MainEventLoop> mainEventLoops = new ConcurrentHashMap<>();
+
+    /**
+     * Whether the Consumer has started
+     */
+    private volatile boolean started = false;
+
+    // optional, skip history before the topic created if subscribe from OFFSET_FIRST
+    private CreatedBlockLookup createdBlockLookup;
+
+    // subscription settings, see Subscription
+    private Integer mergeBlock;
+    private int notifyBatchSize = 1;
+    private int notifyLingerMs = 0;
+    private int notifyQueueMaxEvents = 0;
+    private long notifyQueueMaxBytes = 0;
+
+    // main event loop settings, see MainEventLoop
+    private Executor deliveryExecutor;
+    private boolean latencyTracking = false;
+
+    /**
+     * @param topicAdmin check the topic exist
+     * @param blockChain block chain of subscriptions, not sharded
+     * @param subscriptionCheckpoint checkpoints of durable subscriptions
+     */
+    public SubscriptionManager(IEventTopic topicAdmin, IBlockChain blockChain, SubscriptionCheckpoint subscriptionCheckpoint) {
+        this.topicAdmin = topicAdmin;
+        this.blockChain = blockChain;
+        this.subscriptionCheckpoint = subscriptionCheckpoint;
+    }
+
+    public void setCreatedBlockLookup(CreatedBlockLookup createdBlockLookup) {
+        this.createdBlockLookup = createdBlockLookup;
+    }
+
+    /**
+     * @param mergeBlock see Subscription.setMergeBlock, null meanings default
+     */
+    public void setMergeBlock(Integer mergeBlock) {
+        this.mergeBlock = mergeBlock;
+    }
+
+    /**
+     * @param batchSize see Subscription.setNotifyBatch
+     * @param lingerMs see Subscription.setNotifyBatch
+     */
+    public void setNotifyBatch(int batchSize, int lingerMs) {
+        this.notifyBatchSize = batchSize;
+        this.notifyLingerMs = lingerMs;
+    }
+
+    /**
+     * @param maxEvents see Subscription.setNotifyQueueBound
+     * @param maxBytes see Subscription.setNotifyQueueBound
+     */
+    public void setNotifyQueueBound(int maxEvents, long maxBytes) {
+        this.notifyQueueMaxEvents = maxEvents;
+        this.notifyQueueMaxBytes = maxBytes;
+    }
+
+    /**
+     * @param deliveryExecutor see MainEventLoop.setDeliveryExecutor, null meanings daemon thread pool
+     */
+    public void setDeliveryExecutor(Executor deliveryExecutor) {
+        this.deliveryExecutor = deliveryExecutor;
+    }
+
+    /**
+     * @param latencyTracking see MainEventLoop.setLatencyTracking, and Subscription.latencyTracking
+     */
+    public void setLatencyTracking(boolean latencyTracking) {
+        this.latencyTracking = latencyTracking;
+    }
+
+    private static boolean isEventId(String offset) {
+        return !WeEvent.OFFSET_FIRST.equals(offset) && !WeEvent.OFFSET_LAST.equals(offset);
+    }
+
+    /**
+     * check params and subscribe, the group id is validated by caller.
+     *
+     * @param topics topic name or pattern list
+     * @param groupId group id
+     * @param offset offset, see IConsumer.subscribe
+     * @param ext extend params
+     * @param listener listener
+     * @return subscription id
+     * @throws BrokerException BrokerException
+     */
+    public String subscribe(String[] topics, String groupId, String offset,
+                            Map<IConsumer.SubscribeExt, String> ext,
+                            IConsumer.ConsumerListener listener) throws BrokerException {
+        // check params
+        if (topics == null || topics.length == 0) {
+            throw new BrokerException(ErrorCode.TOPIC_LIST_IS_NULL);
+        }
+        ParamCheckUtils.validateOffset(offset);
+
+        for (String topic : topics) {
+            if (Subscription.isTopicPattern(topic)) {
+                Subscription.validateTopicPattern(topic);
+            } else {
+                ParamCheckUtils.validateTopicName(topic);
+
+                // check topic exist
+                if (!this.topicAdmin.exist(topic, groupId)) {
+                    throw new BrokerException(ErrorCode.TOPIC_NOT_EXIST);
+                }
+            }
+        }
+
+        if (isEventId(offset)) {
+            // do not validate topic name and eventId if more then one topic, or a topic pattern
+            ParamCheckUtils.validateEventId(topics.length > 1 || Subscription.isTopicPattern(topics[0]) ? "" : topics[0],
+                    offset,
+                    this.blockChain.getBlockHeight(groupId));
+        }
+
+        log.info("subscribe groupId: {} topics: {} offset: {} ext: {}", groupId, Arrays.toString(topics), offset, ext);
+        return this.subscribeTopic(topics, groupId, offset, ext, listener);
+    }
+
+    private String subscribeTopic(String[] topics, String groupId, String offset,
+                                  Map<IConsumer.SubscribeExt, String> ext,
+                                  IConsumer.ConsumerListener listener) throws BrokerException {
+        // external params
+        String interfaceType = "";
+        if (ext.containsKey(IConsumer.SubscribeExt.InterfaceType)) {
+            interfaceType = ext.get(IConsumer.SubscribeExt.InterfaceType);
+        }
+        String remoteIp = "";
+        if (ext.containsKey(IConsumer.SubscribeExt.RemoteIP)) {
+            remoteIp = ext.get(IConsumer.SubscribeExt.RemoteIP);
+        }
+        String tag = "";
+        if (ext.containsKey(IConsumer.SubscribeExt.TopicTag)) {
+            tag = ext.get(IConsumer.SubscribeExt.TopicTag);
+            if (StringUtils.isBlank(tag)) {
+                throw new BrokerException(ErrorCode.TOPIC_TAG_IS_BLANK);
+            }
+        }
+
+        // custom input subscriptionId, support in STOMP
+        String subscriptionId = "";
+        if (ext.containsKey(IConsumer.SubscribeExt.SubscriptionId)) {
+            subscriptionId = ext.get(IConsumer.SubscribeExt.SubscriptionId);
+            ParamCheckUtils.validateSubscriptionId(subscriptionId);
+        }
+
+        if (this.subscriptions.containsKey(subscriptionId)) {
+            log.info("already exist subscription: {}", subscriptionId);
+
+            // subscription in MQTT and STOMP is connection orientated, will auto unsubscribe when connection lost.
+            // so it's something wrong when already exist
+            throw new BrokerException(ErrorCode.SUBSCRIPTIONID_ALREADY_EXIST);
+        }
+
+        MainEventLoop mainEventLoop = this.mainEventLoops.get(groupId);
+        if (mainEventLoop == null) {
+            // consumer is not started, or group is added after started
+            log.error("no event loop in group: {}", groupId);
+            throw new BrokerException(ErrorCode.EVENT_GROUP_ID_NOT_FOUND);
+        }
+
+        // durable subscription, resume from the checkpoint if exist
+        String durableName = null;
+        String checkpointKey = null;
+        if (ext.containsKey(IConsumer.SubscribeExt.DurableName)) {
+            durableName = ext.get(IConsumer.SubscribeExt.DurableName);
+            if (StringUtils.isBlank(durableName)) {
+                throw new BrokerException(ErrorCode.DURABLE_NAME_IS_BLANK);
+            }
+
+            checkpointKey = SubscriptionCheckpoint.key(groupId, durableName);
+            if (!this.subscriptionCheckpoint.acquire(checkpointKey)) {
+                log.info("already exist durable subscription: {}", durableName);
+                throw new BrokerException(ErrorCode.DURABLE_NAME_ALREADY_EXIST);
+            }
+        }
+
+        // give back the durable name if failed in any step after acquired
+        boolean subscribed = false;
+        try {
+            if (checkpointKey != null) {
+                offset = this.subscriptionCheckpoint.resume(checkpointKey, topics, offset);
+            }
+
+            // new subscribe
+            Subscription subscription = new Subscription(this.blockChain,
+                    subscriptionId,
+                    topics,
+                    groupId,
+                    offset,
+                    tag,
+                    listener);
+            if (durableName != null) {
+                subscription.setDurable(durableName, this.subscriptionCheckpoint);
+            }
+            if (this.mergeBlock != null) {
+                subscription.setMergeBlock(this.mergeBlock);
+            }
+            subscription.setNotifyBatch(this.notifyBatchSize, this.notifyLingerMs);
+            subscription.setNotifyQueueBound(this.notifyQueueMaxEvents, this.notifyQueueMaxBytes);
+            subscription.setLatencyTracking(this.latencyTracking);
+            if (WeEvent.OFFSET_FIRST.equals(offset) && this.createdBlockLookup != null) {
+                subscription.skipHistoryBefore(this.createdBlockLookup.getCreatedBlock(topics, groupId));
+            }
+            subscription.setInterfaceType(interfaceType);
+            subscription.setRemoteIp(remoteIp);
+            subscription.dispatchTargetBlock(this.blockChain);
+
+            mainEventLoop.addSubscription(subscription);
+            this.subscriptions.put(subscription.getUuid(), subscription);
+            subscribed = true;
+
+            return subscription.getUuid();
+        } finally {
+            if (!subscribed && checkpointKey != null) {
+                this.subscriptionCheckpoint.release(checkpointKey);
+            }
+        }
+    }
+
+    public boolean unSubscribe(String subscriptionId) throws BrokerException {
+        if (StringUtils.isBlank(subscriptionId)) {
+            throw new BrokerException(ErrorCode.SUBSCRIPTIONID_IS_BLANK);
+        }
+
+        Subscription subscription = this.subscriptions.remove(subscriptionId);
+        if (subscription == null) {
+            log.warn("not exist subscriptionId {}", subscriptionId);
+            throw new BrokerException(ErrorCode.SUBSCRIPTIONID_NOT_EXIST);
+        }
+
+        MainEventLoop mainEventLoop = this.mainEventLoops.get(subscription.getGroupId());
+        if (mainEventLoop != null) {
+            mainEventLoop.removeSubscription(subscription);
+        }
+        if (subscription.isDurable()) {
+            this.subscriptionCheckpoint.release(SubscriptionCheckpoint.key(subscription.getGroupId(), subscription.getDurableName()));
+        }
+
+        log.info("unSubscribe success, subscriptionId {}", subscriptionId);
+        return true;
+    }
+
+    public boolean isStarted() {
+        return this.started;
+    }
+
+    /**
+     * start a MainEventLoop in every group.
+     *
+     * @param groupIds group id list
+     * @param factory build MainEventLoop of group
+     * @throws BrokerException BrokerException
+     */
+    public synchronized void start(List<String> groupIds, MainEventLoopFactory factory) throws BrokerException {
+        if (this.started) {
+            throw new BrokerException(ErrorCode.CONSUMER_ALREADY_STARTED);
+        }
+
+        for (String groupId : groupIds) {
+            MainEventLoop mainEventLoop = factory.build(groupId);
+            if (this.deliveryExecutor != null) {
+                mainEventLoop.setDeliveryExecutor(this.deliveryExecutor);
+            }
+            mainEventLoop.setLatencyTracking(this.latencyTracking);
+            mainEventLoop.doStart();
+            this.mainEventLoops.put(groupId, mainEventLoop);
+        }
+
+        this.started = true;
+        log.info("start consumer finish");
+    }
+
+    /**
+     * stop main event loops and referred subscriptions, and give back all the durable names.
+     */
+    public synchronized void shutdown() {
+        for (Map.Entry<String, MainEventLoop> mainEventLoop : this.mainEventLoops.entrySet()) {
+            mainEventLoop.getValue().doStop();
+        }
+        this.mainEventLoops.clear();
+        this.subscriptions.clear();
+        this.subscriptionCheckpoint.releaseAll();
+
+        this.started = false;
+        log.info("shutdown consumer finish");
+    }
+
+    /**
+     * new block notified by block chain.
+     *
+     * @param groupId group id
+     * @param blockHeight new block height
+     */
+    public void onNewBlock(String groupId, Long blockHeight) {
+        MainEventLoop mainEventLoop = this.mainEventLoops.get(groupId);
+        if (mainEventLoop != null) {
+            mainEventLoop.onNewBlock(blockHeight);
+        }
+    }
+
+    public Map<String, Object> listSubscription(String groupId) {
+        Map<String, Object> subscribeIdList = new HashMap<>();
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        for (Map.Entry<String, Subscription> entry : this.subscriptions.entrySet()) {
+            Subscription subscription = entry.getValue();
+            if (!groupId.equals(subscription.getGroupId())) {
+                continue;
+            }
+
+            SubscriptionInfo subscriptionInfo = new SubscriptionInfo();
+            subscriptionInfo.setInterfaceType(subscription.getInterfaceType());
+            subscriptionInfo.setNotifiedEventCount(subscription.getNotifiedEventCount().toString());
+            subscriptionInfo.setNotifyingEventCount(subscription.getNotifyingEventCount().toString());
+            subscriptionInfo.setNotifyingEventBytes(subscription.getNotifyingEventBytes().toString());
+            subscriptionInfo.setOverflowCount(subscription.getOverflowCount().toString());
+            subscriptionInfo.setDemotionCount(String.valueOf(subscription.getDemotionCount()));
+            subscriptionInfo.setNotifyTimeStamp(dateFormat.format(subscription.getNotifyTimeStamp()));
+            subscriptionInfo.setRemoteIp(subscription.getRemoteIp());
+            subscriptionInfo.setCreateTimeStamp(dateFormat.format(subscription.getCreateTimeStamp()));
+            subscriptionInfo.setGroupId(subscription.getGroupId());
+
+            // Arrays.toString will append plus "[]"
+            if (subscription.getTopics().length == 1) {
+                subscriptionInfo.setTopicName(subscription.getTopics()[0]);
+            } else {
+                subscriptionInfo.setTopicName(Arrays.toString(subscription.getTopics()));
+            }
+
+            subscriptionInfo.setSubscribeId(subscription.getUuid());
+            subscribeIdList.put(subscription.getUuid(), subscriptionInfo);
+        }
+
+        log.debug("subscriptions: {}", this.subscriptions.toString());
+        return subscribeIdList;
+    }
+
+    public Map<String, MainEventLoop.Stats> listEventLoopStats() {
+        Map<String, MainEventLoop.Stats> stats = new HashMap<>();
+        for (Map.Entry<String, MainEventLoop> mainEventLoop : this.mainEventLoops.entrySet()) {
+            stats.put(mainEventLoop.getKey(), mainEventLoop.getValue().getStats());
+        }
+        return stats;
+    }
+}
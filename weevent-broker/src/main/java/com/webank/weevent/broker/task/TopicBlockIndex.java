@@ -0,0 +1,304 @@
+package com.webank.weevent.broker.task;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.webank.weevent.broker.fisco.constant.WeEventConstants;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Sparse index of the blocks that contain events for a topic, in one group.
+ * ##### more details #####
+ * It's populated by MainEventLoop and HistoryEventLoop with every block they fetched.
+ * Only the blocks fetched are covered by the index, it's kept in continuous ranges.
+ * In a covered range, HistoryEventLoop can jump from one relevant block to the next directly.
+ * Block numbers of a topic are kept in a sorted primitive array, 8 bytes per block instead of a boxed tree node.
+ * If a path is given, every fetched block is appended to an index log: block number + topic number + topics,
+ * and the index is rebuilt from the log while loading. The half written tail of log is truncated.
+ * This class is thread safe.
+ *
+ * @author matthewliu
+ * @since 2019/10/28
+ */
+@Slf4j
+public class TopicBlockIndex {
+    // flush index log every this blocks
+    private final static int FLUSH_INTERVAL = 64;
+
+    // topic name <-> blocks with event of this topic
+    private Map<String, BlockList> topicBlocks = new HashMap<>();
+
+    // covered range, start <-> end(inclusive), not overlapping nor adjacent
+    private TreeMap<Long, Long> covered = new TreeMap<>();
+
+    // optional, index log
+    private File file;
+    private DataOutputStream output;
+    private int unflushed = 0;
+
+    /**
+     * sorted block numbers without duplicate, almost always appended in order
+     */
+    static class BlockList {
+        private long[] blocks = new long[4];
+        private int size = 0;
+
+        void add(long blockNum) {
+            int idx;
+            if (this.size == 0 || this.blocks[this.size - 1] < blockNum) {
+                idx = this.size;
+            } else {
+                idx = Arrays.binarySearch(this.blocks, 0, this.size, blockNum);
+                if (idx >= 0) {
+                    return;
+                }
+                idx = -idx - 1;
+            }
+
+            if (this.size == this.blocks.length) {
+                this.blocks = Arrays.copyOf(this.blocks, this.size + (this.size >> 1));
+            }
+            System.arraycopy(this.blocks, idx, this.blocks, idx + 1, this.size - idx);
+            this.blocks[idx] = blockNum;
+            this.size++;
+        }
+
+        // the least block >= blockNum, null if none
+        Long ceiling(long blockNum) {
+            int idx = Arrays.binarySearch(this.blocks, 0, this.size, blockNum);
+            if (idx < 0) {
+                idx = -idx - 1;
+            }
+            return idx < this.size ? this.blocks[idx] : null;
+        }
+
+        int size() {
+            return this.size;
+        }
+    }
+
+    /**
+     * @param path directory of index log, blank meanings memory only
+     * @param groupId group id
+     */
+    public TopicBlockIndex(String path, String groupId) {
+        if (StringUtils.isBlank(path)) {
+            log.info("topic block index in memory only, group: {}", groupId);
+            return;
+        }
+
+        File directory = new File(path);
+        if (!directory.exists() && !directory.mkdirs()) {
+            log.error("create topic index directory failed, {}, use memory only", path);
+            return;
+        }
+
+        this.file = new File(directory, "topic-index-" + groupId + ".log");
+        try {
+            this.load();
+            this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file, true)));
+        } catch (IOException e) {
+            log.error("load topic index failed, use memory only", e);
+            this.file = null;
+        }
+        log.info("topic block index initialized, group: {} topics: {} covered ranges: {}", groupId, this.topicBlocks.size(), this.covered.size());
+    }
+
+    /**
+     * record the topics in a fetched block.
+     *
+     * @param blockNum block number
+     * @param events all events in block
+     */
+    public synchronized void record(Long blockNum, List<WeEvent> events) {
+        if (this.isCovered(blockNum)) {
+            return;
+        }
+
+        Set<String> topics = new HashSet<>();
+        for (WeEvent event : events) {
+            topics.add(event.getTopic());
+        }
+        this.add(blockNum, topics);
+
+        if (this.output != null) {
+            try {
+                this.output.writeLong(blockNum);
+                this.output.writeInt(topics.size());
+                for (String topic : topics) {
+                    byte[] data = topic.getBytes(StandardCharsets.UTF_8);
+                    this.output.writeInt(data.length);
+                    this.output.write(data);
+                }
+
+                this.unflushed++;
+                if (this.unflushed >= FLUSH_INTERVAL) {
+                    this.flush();
+                }
+            } catch (IOException e) {
+                log.error("write topic index log failed", e);
+            }
+        }
+    }
+
+    public synchronized boolean isCovered(Long blockNum) {
+        Map.Entry<Long, Long> range = this.covered.floorEntry(blockNum);
+        return range != null && range.getValue() >= blockNum;
+    }
+
+    /**
+     * the next block worth to fetch for the topics.
+     * If the block after lastBlock is not covered, it must be fetched.
+     * Or else it's the first block with event of the topics in this covered range, or the block after the range.
+     *
+     * @param topics topic name or pattern list
+     * @param lastBlock last block done
+     * @return block number
+     */
+    public synchronized Long nextBlock(String[] topics, Long lastBlock) {
+        Long next = lastBlock + 1;
+        Map.Entry<Long, Long> range = this.covered.floorEntry(next);
+        if (range == null || range.getValue() < next) {
+            return next;
+        }
+
+        Long end = range.getValue();
+        Long target = null;
+        for (String topic : topics) {
+            if (Subscription.isTopicPattern(topic)) {
+                for (Map.Entry<String, BlockList> entry : this.topicBlocks.entrySet()) {
+                    if (Subscription.patternMatch(entry.getKey(), topic)) {
+                        target = earlier(target, entry.getValue().ceiling(next));
+                    }
+                }
+            } else {
+                BlockList blocks = this.topicBlocks.get(topic);
+                if (blocks != null) {
+                    target = earlier(target, blocks.ceiling(next));
+                }
+            }
+        }
+
+        if (target != null && target <= end) {
+            return target;
+        }
+        return end + 1;
+    }
+
+    public synchronized void flush() {
+        if (this.output != null) {
+            try {
+                this.output.flush();
+                this.unflushed = 0;
+            } catch (IOException e) {
+                log.error("flush topic index log failed", e);
+            }
+        }
+    }
+
+    public synchronized void close() {
+        if (this.output != null) {
+            try {
+                this.output.close();
+            } catch (IOException e) {
+                log.error("close topic index log failed", e);
+            }
+            this.output = null;
+        }
+    }
+
+    private static Long earlier(Long a, Long b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return Math.min(a, b);
+    }
+
+    private void add(Long blockNum, Set<String> topics) {
+        for (String topic : topics) {
+            this.topicBlocks.computeIfAbsent(topic, key -> new BlockList()).add(blockNum);
+        }
+
+        // merge into covered range
+        Long start = blockNum;
+        Long end = blockNum;
+        Map.Entry<Long, Long> lower = this.covered.floorEntry(blockNum - 1);
+        if (lower != null && lower.getValue() == blockNum - 1) {
+            start = lower.getKey();
+        }
+        Long higher = this.covered.get(blockNum + 1);
+        if (higher != null) {
+            end = higher;
+            this.covered.remove(blockNum + 1);
+        }
+        this.covered.put(start, end);
+    }
+
+    // rebuild index from log, and truncate the broken tail
+    private void load() throws IOException {
+        if (!this.file.exists()) {
+            return;
+        }
+
+        long valid = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)))) {
+            while (true) {
+                long blockNum = input.readLong();
+                int size = input.readInt();
+                long length = 8 + 4;
+                Set<String> topics = new HashSet<>();
+                for (int idx = 0; idx < size; idx++) {
+                    int dataLength = input.readInt();
+                    if (dataLength < 0 || dataLength > WeEventConstants.TOPIC_NAME_MAX_LENGTH) {
+                        log.error("invalid topic length in topic index log: {}", dataLength);
+                        break;
+                    }
+                    byte[] data = new byte[dataLength];
+                    input.readFully(data);
+                    topics.add(new String(data, StandardCharsets.UTF_8));
+                    length += 4 + data.length;
+                }
+                if (topics.size() != size) {
+                    break;
+                }
+
+                if (!this.isCovered(blockNum)) {
+                    this.add(blockNum, topics);
+                }
+                valid += length;
+            }
+        } catch (EOFException e) {
+            log.debug("reach the end of topic index log");
+        }
+
+        if (valid < this.file.length()) {
+            log.warn("truncate broken topic index log, {} -> {}", this.file.length(), valid);
+            try (RandomAccessFile broken = new RandomAccessFile(this.file, "rw")) {
+                broken.getChannel().truncate(valid);
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.webank.weevent.protocol.mqtt.command;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,6 +15,7 @@ import com.webank.weevent.protocol.mqtt.store.ISessionStore;
 import com.webank.weevent.protocol.mqtt.store.ISubscribeStore;
 import com.webank.weevent.protocol.mqtt.store.dto.SubscribeStore;
 import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.ErrorCode;
 import com.webank.weevent.sdk.WeEvent;
 
 import com.alibaba.fastjson.JSON;
@@ -65,27 +67,52 @@ public class Subscribe {
         InetSocketAddress socketAddress = (InetSocketAddress) channel.remoteAddress();
         ext.put(IConsumer.SubscribeExt.RemoteIP, socketAddress.getAddress().getHostAddress());
 
-        topicSubscriptions.forEach(topicSubscription -> {
+        for (MqttTopicSubscription topicSubscription : topicSubscriptions) {
             String topicFilter = topicSubscription.topicName();
             MqttQoS mqttQoS = topicSubscription.qualityOfService();
             if (MqttQoS.AT_MOST_ONCE == mqttQoS || MqttQoS.EXACTLY_ONCE == mqttQoS) {
+                // the subscriptions done before are removed in DisConnect when channel inactive
                 channel.close();
                 log.error("subscribe don't support QoS=0 or QoS=2");
                 return;
             }
-            String subscriptionId = "";
+            // session not clean, resume from where the client left
+            Map<IConsumer.SubscribeExt, String> topicExt = new HashMap<>(ext);
+            if (iSessionStore.containsKey(clientId) && !iSessionStore.get(clientId).isCleanSession()) {
+                topicExt.put(IConsumer.SubscribeExt.DurableName, clientId + WeEvent.LAYER_SEPARATE + topicFilter);
+            }
+
+            // subscribe the same topic again, replace the existing one and give back it's durable name
+            SubscribeStore existing = iSubscribeStore.get(topicFilter, clientId);
+            if (existing != null) {
+                this.unSubscribe(existing.getSubscriptionId());
+                iSubscribeStore.remove(topicFilter, clientId);
+            }
+
+            String subscriptionId;
             try {
                 String groupId = WeEventUtils.getDefaultGroupId();
                 subscriptionId = this.iConsumer.subscribe(topicFilter,
                         groupId,
                         WeEvent.OFFSET_LAST,
-                        ext,
+                        topicExt,
                         new IConsumer.ConsumerListener() {
                             @Override
                             public void onEvent(String subscriptionId, WeEvent event) {
                                 log.info("consumer onEvent, subscriptionId: {} event: {}", subscriptionId, event);
                                 // send to subscribe
-                                sendPublishMessage(topicFilter, mqttQoS, JSON.toJSON(event).toString().getBytes(), false, false);
+                                sendPublishMessage(topicFilter, mqttQoS, Collections.singletonList(encodeEvent(event)), false, false);
+                            }
+
+                            @Override
+                            public void onEvents(String subscriptionId, List<WeEvent> events) {
+                                log.info("consumer onEvents, subscriptionId: {} events: {}", subscriptionId, events.size());
+                                List<byte[]> messages = new ArrayList<>(events.size());
+                                for (WeEvent event : events) {
+                                    messages.add(encodeEvent(event));
+                                }
+                                // send to subscribe
+                                sendPublishMessage(topicFilter, mqttQoS, messages, false, false);
                             }
 
                             @Override
@@ -95,13 +122,21 @@ public class Subscribe {
                         });
             } catch (BrokerException e) {
                 log.error("subscribe exception:{}", e.getMessage());
+                mqttQoSList.add(MqttQoS.FAILURE.value());
+                continue;
+            }
+
+            // the durable name is taken until unsubscribe, make sure it's given back even if DisConnect is missed
+            if (topicExt.containsKey(IConsumer.SubscribeExt.DurableName)) {
+                String durableSubscriptionId = subscriptionId;
+                channel.closeFuture().addListener(future -> this.unSubscribe(durableSubscriptionId));
             }
 
             SubscribeStore subscribeStore = new SubscribeStore(clientId, subscriptionId, topicFilter, mqttQoS.value());
             iSubscribeStore.put(topicFilter, subscribeStore);
             mqttQoSList.add(mqttQoS.value());
             log.debug("SUBSCRIBE - clientId: {}, topFilter: {}, QoS: {} subscriptionId:{}", clientId, topicFilter, mqttQoS.value(), subscriptionId);
-        });
+        }
 
         MqttSubAckMessage subAckMessage = (MqttSubAckMessage) MqttMessageFactory.newMessage(
                 new MqttFixedHeader(MqttMessageType.SUBACK, false, MqttQoS.AT_MOST_ONCE, false, 0),
@@ -110,38 +145,75 @@ public class Subscribe {
         channel.writeAndFlush(subAckMessage);
     }
 
-    private void sendPublishMessage(String topic, MqttQoS mqttQoS, byte[] messageBytes, boolean retain, boolean dup) {
+    // it may be unsubscribed already, like in DisConnect
+    private void unSubscribe(String subscriptionId) {
+        try {
+            this.iConsumer.unSubscribe(subscriptionId);
+        } catch (BrokerException e) {
+            if (e.getCode() != ErrorCode.SUBSCRIPTIONID_NOT_EXIST.getCode()) {
+                log.error("unSubscribe Exception:{}", e.getMessage());
+            }
+        }
+    }
+
+    // write all the messages into channel, then flush once
+    private void sendPublishMessage(String topic, MqttQoS mqttQoS, List<byte[]> messages, boolean retain, boolean dup) {
         List<SubscribeStore> subscribeStores = iSubscribeStore.searchByTopic(topic);
         subscribeStores.forEach(subscribeStore -> {
             if (iSessionStore.containsKey(subscribeStore.getClientId())) {
                 //get subscribe QOS value
                 MqttQoS respQoS = mqttQoS.value() > subscribeStore.getMqttQoS() ? MqttQoS.valueOf(subscribeStore.getMqttQoS()) : mqttQoS;
-                if (respQoS == MqttQoS.AT_MOST_ONCE) {
-                    MqttPublishMessage publishMessage = (MqttPublishMessage) MqttMessageFactory.newMessage(
-                            new MqttFixedHeader(MqttMessageType.PUBLISH, dup, respQoS, retain, 0),
-                            new MqttPublishVariableHeader(topic, 0), Unpooled.buffer().writeBytes(messageBytes));
-                    log.debug("PUBLISH - clientId: {}, topic: {}, Qos: {}", subscribeStore.getClientId(), topic, respQoS.value());
-                    iSessionStore.get(subscribeStore.getClientId()).getChannel().writeAndFlush(publishMessage);
-                }
+                Channel subscribeChannel = iSessionStore.get(subscribeStore.getClientId()).getChannel();
+                for (byte[] messageBytes : messages) {
+                    if (respQoS == MqttQoS.AT_MOST_ONCE) {
+                        MqttPublishMessage publishMessage = newPublishMessage(topic, respQoS, 0, messageBytes, retain, dup);
+                        log.debug("PUBLISH - clientId: {}, topic: {}, Qos: {}", subscribeStore.getClientId(), topic, respQoS.value());
+                        subscribeChannel.write(publishMessage);
+                    }
 
-                if (respQoS == MqttQoS.AT_LEAST_ONCE) {
-                    int messageId = iMessageIdStore.getNextMessageId();
-                    MqttPublishMessage publishMessage = (MqttPublishMessage) MqttMessageFactory.newMessage(
-                            new MqttFixedHeader(MqttMessageType.PUBLISH, dup, respQoS, retain, 0),
-                            new MqttPublishVariableHeader(topic, messageId), Unpooled.buffer().writeBytes(messageBytes));
-                    log.debug("PUBLISH AT_LEAST_ONCE- clientId: {}, topic: {}, Qos: {}, messageId: {}", subscribeStore.getClientId(), topic, respQoS.value(), messageId);
-                    iSessionStore.get(subscribeStore.getClientId()).getChannel().writeAndFlush(publishMessage);
-                }
+                    if (respQoS == MqttQoS.AT_LEAST_ONCE) {
+                        int messageId = iMessageIdStore.getNextMessageId();
+                        MqttPublishMessage publishMessage = newPublishMessage(topic, respQoS, messageId, messageBytes, retain, dup);
+                        log.debug("PUBLISH AT_LEAST_ONCE- clientId: {}, topic: {}, Qos: {}, messageId: {}", subscribeStore.getClientId(), topic, respQoS.value(), messageId);
+                        subscribeChannel.write(publishMessage);
+                    }
 
-                if (respQoS == MqttQoS.EXACTLY_ONCE) {
-                    int messageId = iMessageIdStore.getNextMessageId();
-                    MqttPublishMessage publishMessage = (MqttPublishMessage) MqttMessageFactory.newMessage(
-                            new MqttFixedHeader(MqttMessageType.PUBLISH, dup, respQoS, retain, 0),
-                            new MqttPublishVariableHeader(topic, messageId), Unpooled.buffer().writeBytes(messageBytes));
-                    log.debug("PUBLISH EXACTLY_ONCE- clientId: {}, topic: {}, Qos: {}, messageId: {}", subscribeStore.getClientId(), topic, respQoS.value(), messageId);
-                    iSessionStore.get(subscribeStore.getClientId()).getChannel().writeAndFlush(publishMessage);
+                    if (respQoS == MqttQoS.EXACTLY_ONCE) {
+                        int messageId = iMessageIdStore.getNextMessageId();
+                        MqttPublishMessage publishMessage = newPublishMessage(topic, respQoS, messageId, messageBytes, retain, dup);
+                        log.debug("PUBLISH EXACTLY_ONCE- clientId: {}, topic: {}, Qos: {}, messageId: {}", subscribeStore.getClientId(), topic, respQoS.value(), messageId);
+                        subscribeChannel.write(publishMessage);
+                    }
                 }
+                subscribeChannel.flush();
             }
         });
     }
+
+    /**
+     * event in json, it's the payload of PUBLISH.
+     *
+     * @param event event
+     * @return payload
+     */
+    public static byte[] encodeEvent(WeEvent event) {
+        return JSON.toJSON(event).toString().getBytes();
+    }
+
+    /**
+     * PUBLISH message to subscriber.
+     *
+     * @param topic topic name
+     * @param mqttQoS QoS granted to subscriber
+     * @param messageId message id, 0 in QoS 0
+     * @param messageBytes payload
+     * @param retain retain flag
+     * @param dup dup flag
+     * @return PUBLISH message
+     */
+    public static MqttPublishMessage newPublishMessage(String topic, MqttQoS mqttQoS, int messageId, byte[] messageBytes, boolean retain, boolean dup) {
+        return (MqttPublishMessage) MqttMessageFactory.newMessage(
+                new MqttFixedHeader(MqttMessageType.PUBLISH, dup, mqttQoS, retain, 0),
+                new MqttPublishVariableHeader(topic, messageId), Unpooled.buffer().writeBytes(messageBytes));
+    }
 }
@@ -30,8 +30,9 @@ public class ISubscribeStoreImpl implements ISubscribeStore {
 
     @Override
     public SubscribeStore get(String topicFilter, String clientId) {
-        if (0 != subscribeCache.size() && !subscribeCache.get(topicFilter).isEmpty()) {
-            return subscribeCache.get(topicFilter).get(clientId);
+        ConcurrentHashMap<String, SubscribeStore> map = subscribeCache.get(topicFilter);
+        if (map != null) {
+            return map.get(clientId);
         }
         return null;
     }
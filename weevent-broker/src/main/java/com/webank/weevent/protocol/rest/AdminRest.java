@@ -2,15 +2,27 @@ package com.webank.weevent.protocol.rest;
 
 import java.math.BigInteger;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import com.webank.weevent.BrokerApplication;
 import com.webank.weevent.broker.config.BuildInfo;
+import com.webank.weevent.broker.fabric.sdk.FabricDelegate;
+import com.webank.weevent.broker.fisco.RedisService;
+import com.webank.weevent.broker.fisco.constant.WeEventConstants;
+import com.webank.weevent.broker.fisco.util.BlockCache;
 import com.webank.weevent.broker.fisco.util.SystemInfoUtils;
 import com.webank.weevent.broker.fisco.util.WeEventUtils;
+import com.webank.weevent.broker.fisco.web3sdk.FiscoBcosDelegate;
+import com.webank.weevent.broker.ha.GroupAssignment;
+import com.webank.weevent.broker.metrics.BrokerMetrics;
+import com.webank.weevent.broker.metrics.LatencyTracker;
 import com.webank.weevent.broker.plugin.IConsumer;
+import com.webank.weevent.broker.task.IBlockChain;
+import com.webank.weevent.broker.task.IEventLoopStats;
+import com.webank.weevent.broker.task.MainEventLoop;
 import com.webank.weevent.protocol.rest.entity.GroupGeneral;
 import com.webank.weevent.protocol.rest.entity.QueryEntity;
 import com.webank.weevent.protocol.rest.entity.TbBlock;
@@ -18,8 +30,10 @@ import com.webank.weevent.protocol.rest.entity.TbNode;
 import com.webank.weevent.protocol.rest.entity.TbTransHash;
 import com.webank.weevent.sdk.BrokerException;
 import com.webank.weevent.sdk.ErrorCode;
+import com.webank.weevent.sdk.WeEvent;
 
 import com.alibaba.fastjson.JSON;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -42,6 +56,7 @@ import org.springframework.web.client.RestTemplate;
 public class AdminRest extends RestHA {
     private IConsumer consumer;
     private BuildInfo buildInfo;
+    private PrometheusMeterRegistry prometheusMeterRegistry;
 
     @Autowired
     public void setConsumer(IConsumer consumer) {
@@ -53,6 +68,11 @@ public class AdminRest extends RestHA {
         this.buildInfo = buildInfo;
     }
 
+    @Autowired
+    public void setPrometheusMeterRegistry(PrometheusMeterRegistry prometheusMeterRegistry) {
+        this.prometheusMeterRegistry = prometheusMeterRegistry;
+    }
+
     @RequestMapping(path = "/listSubscription")
     public Map<String, Object> listSubscription(@RequestParam(name = "groupId", required = false) String groupIdStr) throws BrokerException {
         String groupId = groupIdStr;
@@ -94,6 +114,79 @@ public class AdminRest extends RestHA {
         return this.consumer.listSubscription(groupId);
     }
 
+    /**
+     * the inner api for group sharding is only open to the live members in cluster, see GroupAssignment.
+     */
+    private void checkClusterMember() throws BrokerException {
+        GroupAssignment groupAssignment = this.masterJob == null ? null : this.masterJob.getGroupAssignment();
+        if (groupAssignment == null) {
+            throw new BrokerException("not in HA cluster");
+        }
+
+        // not X-Forwarded-For, it's from the peer itself
+        String remoteAddr = this.request.getRemoteAddr();
+        if (!groupAssignment.isMemberHost(remoteAddr)) {
+            log.error("inner api is not allowed from: {}", remoteAddr);
+            throw new BrokerException("only allowed from members in HA cluster");
+        }
+    }
+
+    // empty if the consumer run no event loop
+    private Map<String, MainEventLoop.Stats> listEventLoopStats() {
+        if (this.consumer instanceof IEventLoopStats) {
+            return ((IEventLoopStats) this.consumer).listEventLoopStats();
+        }
+        return new HashMap<>();
+    }
+
+    /**
+     * last block dispatched by event loop, used by peers in HA cluster, see ShardedBlockChain.
+     * Not the chain head, peers never ask for the blocks beyond it, see innerBlocks.
+     */
+    @RequestMapping(path = "/inner/blockHeight")
+    public Long innerBlockHeight(@RequestParam(name = "groupId") String groupId) throws BrokerException {
+        this.checkClusterMember();
+
+        MainEventLoop.Stats stats = this.listEventLoopStats().get(groupId);
+        if (stats == null) {
+            throw new BrokerException(ErrorCode.WEB3SDK_UNKNOWN_GROUP);
+        }
+        return stats.getLastBlock();
+    }
+
+    /**
+     * decoded events in continuous blocks from local block chain, used by peers in HA cluster, see ShardedBlockChain.
+     * At most broker.ha.replication-window blocks in one request.
+     */
+    @RequestMapping(path = "/inner/blocks")
+    public List<List<WeEvent>> innerBlocks(@RequestParam(name = "groupId") String groupId,
+                                           @RequestParam(name = "blockNum") Long blockNum,
+                                           @RequestParam(name = "count") Integer count) throws BrokerException {
+        this.checkClusterMember();
+        if (!(this.consumer instanceof IBlockChain)) {
+            throw new BrokerException("consumer can not read blocks");
+        }
+
+        // stop at the block not exist yet, and not beyond the block dispatched by local event loop
+        IBlockChain blockChain = (IBlockChain) this.consumer;
+        Long lastBlock = blockChain.getBlockHeight(groupId);
+        MainEventLoop.Stats stats = this.listEventLoopStats().get(groupId);
+        if (stats != null) {
+            lastBlock = Math.min(lastBlock, stats.getLastBlock());
+        }
+
+        int maxCount = Math.min(count, BrokerApplication.weEventConfig.getHaReplicationWindow());
+        List<List<WeEvent>> blocks = new ArrayList<>();
+        for (long idx = 0; idx < maxCount && blockNum + idx <= lastBlock; idx++) {
+            List<WeEvent> events = blockChain.loop(blockNum + idx, groupId);
+            if (events == null) {
+                break;
+            }
+            blocks.add(events);
+        }
+        return blocks;
+    }
+
     @RequestMapping(path = "/getVersion")
     public ResponseData<BuildInfo> getVersion() {
         ResponseData<BuildInfo> responseData = new ResponseData<>();
@@ -102,6 +195,88 @@ public class AdminRest extends RestHA {
         return responseData;
     }
 
+    /**
+     * statistics of local block cache, data is null if no cache.
+     */
+    @RequestMapping(path = "/blockCache")
+    public ResponseData<BlockCache.Stats> getBlockCacheStats() {
+        ResponseData<BlockCache.Stats> responseData = new ResponseData<>();
+        String blockChainType = BrokerApplication.weEventConfig.getBlockChainType();
+        if (WeEventConstants.MEMORY.equals(blockChainType)) {
+            // blocks are in memory already, no cache
+            responseData.setData(null);
+        } else if (WeEventConstants.FABRIC.equals(blockChainType)) {
+            responseData.setData(FabricDelegate.getBlockCacheStats());
+        } else {
+            responseData.setData(FiscoBcosDelegate.getBlockCacheStats());
+        }
+        responseData.setCode(ErrorCode.SUCCESS.getCode());
+        responseData.setMessage(ErrorCode.SUCCESS.getCodeDesc());
+        return responseData;
+    }
+
+    /**
+     * statistics of redis access, data is null if no redis.
+     */
+    @RequestMapping(path = "/redis")
+    public ResponseData<RedisService.Stats> getRedisStats() {
+        ResponseData<RedisService.Stats> responseData = new ResponseData<>();
+        // redis is only used in FISCO-BCOS
+        String blockChainType = BrokerApplication.weEventConfig.getBlockChainType();
+        if (WeEventConstants.MEMORY.equals(blockChainType) || WeEventConstants.FABRIC.equals(blockChainType)) {
+            responseData.setData(null);
+        } else {
+            responseData.setData(FiscoBcosDelegate.getRedisStats());
+        }
+        responseData.setCode(ErrorCode.SUCCESS.getCode());
+        responseData.setMessage(ErrorCode.SUCCESS.getCodeDesc());
+        return responseData;
+    }
+
+    /**
+     * statistics of event loop in every group, like lag and catch up throughput.
+     */
+    @RequestMapping(path = "/eventLoop")
+    public ResponseData<Map<String, MainEventLoop.Stats>> getEventLoopStats() {
+        ResponseData<Map<String, MainEventLoop.Stats>> responseData = new ResponseData<>();
+        responseData.setData(this.listEventLoopStats());
+        responseData.setCode(ErrorCode.SUCCESS.getCode());
+        responseData.setMessage(ErrorCode.SUCCESS.getCodeDesc());
+        return responseData;
+    }
+
+    /**
+     * summary of publish, block fetch, dispatch and delivery meters, see BrokerMetrics.
+     */
+    @RequestMapping(path = "/metrics")
+    public ResponseData<Map<String, Map<String, Double>>> getMetrics() {
+        ResponseData<Map<String, Map<String, Double>>> responseData = new ResponseData<>();
+        responseData.setData(BrokerMetrics.summary());
+        responseData.setCode(ErrorCode.SUCCESS.getCode());
+        responseData.setMessage(ErrorCode.SUCCESS.getCodeDesc());
+        return responseData;
+    }
+
+    /**
+     * percentile of end to end latency in every topic and protocol, in milliseconds, see LatencyTracker.
+     */
+    @RequestMapping(path = "/latency")
+    public ResponseData<Map<String, Map<String, LatencyTracker.Stats>>> getLatency() {
+        ResponseData<Map<String, Map<String, LatencyTracker.Stats>>> responseData = new ResponseData<>();
+        responseData.setData(LatencyTracker.report());
+        responseData.setCode(ErrorCode.SUCCESS.getCode());
+        responseData.setMessage(ErrorCode.SUCCESS.getCodeDesc());
+        return responseData;
+    }
+
+    /**
+     * all the meters in prometheus text format, used as prometheus's scrape target.
+     */
+    @RequestMapping(path = "/prometheus", produces = "text/plain; version=0.0.4; charset=utf-8")
+    public String prometheus() {
+        return this.prometheusMeterRegistry.scrape();
+    }
+
     /**
      * get general
      */
@@ -1,9 +1,11 @@
 package com.webank.weevent.protocol.stomp;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -79,8 +81,7 @@ public class BrokerStomp extends TextWebSocketHandler {
             return;
         }
 
-        StompDecoder decoder = new StompDecoder();
-        List<Message<byte[]>> stompMsg = decoder.decode(ByteBuffer.wrap(message.getPayload().getBytes(StandardCharsets.UTF_8)));
+        List<Message<byte[]>> stompMsg = decodeFrames(message.getPayload());
         for (Message<byte[]> msg : stompMsg) {
             handleSingleMessage(msg, session);
         }
@@ -236,6 +237,9 @@ public class BrokerStomp extends TextWebSocketHandler {
         //subscription
         String continueSubscriptionIdStr = getHeadersValue(WeEvent.WeEvent_SubscriptionId, msg);
 
+        // durable subscription
+        String durableName = getHeadersValue(WeEvent.WeEvent_DurableName, msg);
+
         String groupId = WeEvent.DEFAULT_GROUP_ID;
         if (nativeHeaders.containsKey(WeEventConstants.EVENT_GROUP_ID)) {
             Object eventGroupId = nativeHeaders.get(WeEventConstants.EVENT_GROUP_ID);
@@ -254,7 +258,7 @@ public class BrokerStomp extends TextWebSocketHandler {
 
         try {
             String simpDestination = getSimpDestination(msg);
-            String subscriptionId = handleSubscribe(session, simpDestination, groupId, headerIdStr, subEventId, continueSubscriptionIdStr, tag);
+            String subscriptionId = handleSubscribe(session, simpDestination, groupId, headerIdStr, subEventId, continueSubscriptionIdStr, durableName, tag);
 
             // package the return frame
             StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.RECEIPT);
@@ -456,6 +460,7 @@ public class BrokerStomp extends TextWebSocketHandler {
      * @param groupId group id
      * @param subEventId event id
      * @param continueSubscriptionId subscription id
+     * @param durableName durable subscription name
      * @param tag weevent-tag
      * @return String consumer subscription id, return "" if error
      * @throws BrokerException Exception
@@ -466,6 +471,7 @@ public class BrokerStomp extends TextWebSocketHandler {
                                    String headerIdStr,
                                    String subEventId,
                                    String continueSubscriptionId,
+                                   String durableName,
                                    String tag) throws BrokerException {
         log.info("destination: {} header subscribe id: {} group id: {}", simpDestination, headerIdStr, groupId);
 
@@ -491,6 +497,10 @@ public class BrokerStomp extends TextWebSocketHandler {
             log.info("continueSubscriptionId:{}", continueSubscriptionId);
             ext.put(IConsumer.SubscribeExt.SubscriptionId, continueSubscriptionId);
         }
+        if (!StringUtils.isBlank(durableName)) {
+            log.info("durableName:{}", durableName);
+            ext.put(IConsumer.SubscribeExt.DurableName, durableName);
+        }
         if (!StringUtils.isBlank(tag)) {
             ext.put(IConsumer.SubscribeExt.TopicTag, tag);
         }
@@ -511,6 +521,16 @@ public class BrokerStomp extends TextWebSocketHandler {
                         }
                     }
 
+                    @Override
+                    public void onEvents(String subscriptionId, List<WeEvent> events) {
+                        log.info("consumer onEvents, subscriptionId: {} events: {}", subscriptionId, events.size());
+                        try {
+                            handleOnEvents(headerIdStr, subscriptionId, events, session);
+                        } catch (IOException e) {
+                            log.error("exception in session.sendMessage", e);
+                        }
+                    }
+
                     @Override
                     public void onException(Throwable e) {
                         log.error("consumer onException", e);
@@ -530,6 +550,40 @@ public class BrokerStomp extends TextWebSocketHandler {
                                String subscriptionId,
                                WeEvent event,
                                WebSocketSession session) throws IOException {
+        this.handleOnEvents(headerIdStr, subscriptionId, Collections.singletonList(event), session);
+    }
+
+    // every event is a MESSAGE frame, all the frames are sent in one websocket message
+    private void handleOnEvents(String headerIdStr,
+                                String subscriptionId,
+                                List<WeEvent> events,
+                                WebSocketSession session) throws IOException {
+        TextMessage textMessage = new TextMessage(encodeEvents(headerIdStr, subscriptionId, events));
+
+        send2Remote(session, textMessage);
+    }
+
+    /**
+     * decode STOMP frames in a websocket message.
+     *
+     * @param payload websocket message
+     * @return STOMP frames
+     */
+    public static List<Message<byte[]>> decodeFrames(String payload) {
+        StompDecoder decoder = new StompDecoder();
+        return decoder.decode(ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * encode events into MESSAGE frames, every event is a frame.
+     *
+     * @param headerIdStr subscription id on stomp
+     * @param subscriptionId subscription id in broker
+     * @param events events
+     * @return frames in one websocket message
+     * @throws IOException IOException
+     */
+    public static byte[] encodeEvents(String headerIdStr, String subscriptionId, List<WeEvent> events) throws IOException {
         StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
         // package the return frame
         accessor.setSubscriptionId(headerIdStr);
@@ -539,11 +593,14 @@ public class BrokerStomp extends TextWebSocketHandler {
         accessor.setContentType(new MimeType("text", "plain", StandardCharsets.UTF_8));
         ObjectMapper mapper = new ObjectMapper();
         MessageHeaders headers = accessor.getMessageHeaders();
-        Message<byte[]> message1 = MessageBuilder.createMessage(mapper.writeValueAsBytes(event), headers);
-        byte[] bytes = new StompEncoder().encode(message1);
-        TextMessage textMessage = new TextMessage(bytes);
+        StompEncoder encoder = new StompEncoder();
 
-        send2Remote(session, textMessage);
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        for (WeEvent event : events) {
+            Message<byte[]> message1 = MessageBuilder.createMessage(mapper.writeValueAsBytes(event), headers);
+            frames.write(encoder.encode(message1));
+        }
+        return frames.toByteArray();
     }
 
     /**
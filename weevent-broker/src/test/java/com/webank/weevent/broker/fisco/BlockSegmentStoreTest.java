@@ -0,0 +1,199 @@
+package com.webank.weevent.broker.fisco;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+/**
+ * BlockSegmentStore Tester, run on local file system only.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 10/26/2019
+ */
+@Slf4j
+public class BlockSegmentStoreTest {
+    private final static String groupId = WeEvent.DEFAULT_GROUP_ID;
+    private final static int segmentSize = 64 * 1024;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String path;
+
+    @Before
+    public void before() throws Exception {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+
+        this.path = this.folder.newFolder().getAbsolutePath();
+    }
+
+    private static List<WeEvent> newBlock(long blockNum) {
+        List<WeEvent> events = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            WeEvent event = new WeEvent("com.weevent.test", ("hello world " + blockNum).getBytes(StandardCharsets.UTF_8));
+            event.setEventId(blockNum + "-" + i);
+            events.add(event);
+        }
+        return events;
+    }
+
+    private static void assertBlock(long blockNum, List<WeEvent> events) {
+        Assert.assertNotNull(events);
+        Assert.assertEquals(3, events.size());
+        Assert.assertEquals(blockNum + "-0", events.get(0).getEventId());
+        Assert.assertEquals("hello world " + blockNum, new String(events.get(0).getContent(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * read what is written, in any order
+     */
+    @Test
+    public void testPutGet() throws Exception {
+        BlockSegmentStore store = new BlockSegmentStore(this.path, segmentSize, Long.MAX_VALUE, 24);
+        Assert.assertNull(store.get(groupId, 1L));
+
+        for (long blockNum = 10; blockNum > 0; blockNum--) {
+            store.put(groupId, blockNum, newBlock(blockNum));
+        }
+        // append only
+        store.put(groupId, 1L, new ArrayList<>());
+
+        for (long blockNum = 1; blockNum <= 10; blockNum++) {
+            assertBlock(blockNum, store.get(groupId, blockNum));
+        }
+        Assert.assertNull(store.get(groupId, 11L));
+        Assert.assertNull(store.get("2", 1L));
+        store.close();
+    }
+
+    /**
+     * no group is opened again after closed
+     */
+    @Test
+    public void testClosed() throws Exception {
+        BlockSegmentStore store = new BlockSegmentStore(this.path, segmentSize, Long.MAX_VALUE, 24);
+        store.put(groupId, 1L, newBlock(1L));
+        store.close();
+
+        Assert.assertNull(store.get(groupId, 1L));
+        store.put(groupId, 2L, newBlock(2L));
+        Assert.assertEquals(0, store.segmentCount(groupId));
+        store.close();
+
+        // only the block put before closed
+        store = new BlockSegmentStore(this.path, segmentSize, Long.MAX_VALUE, 24);
+        assertBlock(1L, store.get(groupId, 1L));
+        Assert.assertNull(store.get(groupId, 2L));
+        store.close();
+    }
+
+    /**
+     * data is still there after restart, the half written record is dropped
+     */
+    @Test
+    public void testRecover() throws Exception {
+        BlockSegmentStore store = new BlockSegmentStore(this.path, segmentSize, Long.MAX_VALUE, 24);
+        for (long blockNum = 1; blockNum <= 10; blockNum++) {
+            store.put(groupId, blockNum, newBlock(blockNum));
+        }
+        long size = store.size(groupId);
+        store.close();
+
+        // broken the last record, like crash while writing
+        File segment = new File(new File(this.path, groupId), String.format("%020d.seg", 0));
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(size - 1);
+            int last = file.read();
+            file.seek(size - 1);
+            file.write(last + 1);
+        }
+
+        store = new BlockSegmentStore(this.path, segmentSize, Long.MAX_VALUE, 24);
+        for (long blockNum = 1; blockNum < 10; blockNum++) {
+            assertBlock(blockNum, store.get(groupId, blockNum));
+        }
+        Assert.assertNull(store.get(groupId, 10L));
+
+        // write again
+        store.put(groupId, 10L, newBlock(10));
+        store.put(groupId, 11L, newBlock(11));
+        store.close();
+
+        store = new BlockSegmentStore(this.path, segmentSize, Long.MAX_VALUE, 24);
+        assertBlock(10, store.get(groupId, 10L));
+        assertBlock(11, store.get(groupId, 11L));
+        store.close();
+    }
+
+    /**
+     * a corrupt length near Integer.MAX_VALUE is dropped in recovery, not overflow
+     */
+    @Test
+    public void testCorruptLength() throws Exception {
+        BlockSegmentStore store = new BlockSegmentStore(this.path, segmentSize, Long.MAX_VALUE, 24);
+        for (long blockNum = 1; blockNum <= 10; blockNum++) {
+            store.put(groupId, blockNum, newBlock(blockNum));
+        }
+        store.close();
+
+        // payload length of the first record
+        File segment = new File(new File(this.path, groupId), String.format("%020d.seg", 0));
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(12);
+            file.writeInt(Integer.MAX_VALUE - 8);
+        }
+
+        store = new BlockSegmentStore(this.path, segmentSize, Long.MAX_VALUE, 24);
+        Assert.assertNull(store.get(groupId, 1L));
+        Assert.assertEquals(0, store.size(groupId));
+
+        // write again
+        store.put(groupId, 1L, newBlock(1));
+        assertBlock(1, store.get(groupId, 1L));
+        store.close();
+    }
+
+    /**
+     * roll new segment if full, and delete the oldest by size
+     */
+    @Test
+    public void testRollAndRetention() throws Exception {
+        long maxSize = 3 * segmentSize;
+        BlockSegmentStore store = new BlockSegmentStore(this.path, segmentSize, maxSize, 24);
+        long blockCount = 4000;
+        for (long blockNum = 1; blockNum <= blockCount; blockNum++) {
+            store.put(groupId, blockNum, newBlock(blockNum));
+        }
+
+        log.info("segments: {} size: {}", store.segmentCount(groupId), store.size(groupId));
+        Assert.assertTrue(store.segmentCount(groupId) > 1);
+        Assert.assertTrue(store.size(groupId) <= maxSize + segmentSize);
+
+        // the oldest is deleted, the newest is kept
+        Assert.assertNull(store.get(groupId, 1L));
+        assertBlock(blockCount, store.get(groupId, blockCount));
+
+        File[] files = new File(this.path, groupId).listFiles();
+        Assert.assertNotNull(files);
+        Assert.assertEquals(store.segmentCount(groupId), files.length);
+        store.close();
+    }
+}
@@ -7,10 +7,12 @@ import java.util.List;
 import java.util.Map;
 
 import com.webank.weevent.JUnitTestBase;
+import com.webank.weevent.broker.fisco.util.DataTypeUtils;
 import com.webank.weevent.broker.plugin.IConsumer;
 import com.webank.weevent.broker.plugin.IProducer;
 import com.webank.weevent.sdk.BrokerException;
 import com.webank.weevent.sdk.ErrorCode;
+import com.webank.weevent.sdk.EventId;
 import com.webank.weevent.sdk.SendResult;
 import com.webank.weevent.sdk.WeEvent;
 
@@ -324,6 +326,30 @@ public class FiscoBcosBroker4ConsumerTest extends JUnitTestBase {
         }
     }
 
+    /**
+     * durable name is given back if subscribe failed
+     */
+    @Test
+    public void testDurableNameReleasedOnFailure() throws Exception {
+        String durableName = "durable_" + System.currentTimeMillis();
+        this.ext.put(IConsumer.SubscribeExt.DurableName, durableName);
+
+        // not exist event in the block of last event
+        EventId eventId = EventId.parse(this.lastEventId);
+        String notExistEventId = DataTypeUtils.encodeEventId(this.topicName,
+                (int) eventId.getBlockNumber(), (int) eventId.getSeq() + 1000);
+        try {
+            this.iConsumer.subscribe(this.topicName, this.groupId, notExistEventId, this.ext, this.defaultListener);
+            Assert.fail();
+        } catch (BrokerException e) {
+            log.info("subscribe failed, {}", e.getMessage());
+        }
+
+        String result = this.iConsumer.subscribe(this.topicName, this.groupId, WeEvent.OFFSET_LAST, this.ext, this.defaultListener);
+        Assert.assertFalse(result.isEmpty());
+        Assert.assertTrue(this.iConsumer.unSubscribe(result));
+    }
+
     @Test
     public void testSingleTopicSubscribeLastEventId() throws Exception {
         MyConsumerListener listener = new MyConsumerListener();
@@ -0,0 +1,310 @@
+package com.webank.weevent.broker.fisco;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * RedisService Tester with batch read and write, run against an in-process redis stand-in.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 10/31/2019
+ */
+@Slf4j
+public class RedisServicePipelineTest {
+    private final static int expireSeconds = 600;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private MiniRedis miniRedis;
+    private JedisPool jedisPool;
+    private RedisService redisService;
+
+    /**
+     * redis stand-in, speak RESP with GET/MGET/SET/EXISTS/PING only
+     */
+    static class MiniRedis implements Runnable {
+        private ServerSocket serverSocket;
+        private Map<String, byte[]> data = new ConcurrentHashMap<>();
+        private Map<String, Integer> expires = new ConcurrentHashMap<>();
+        // command name <-> received times
+        private Map<String, AtomicInteger> commands = new ConcurrentHashMap<>();
+
+        MiniRedis() throws IOException {
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread thread = new Thread(this, "mini_redis");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return this.serverSocket.getLocalPort();
+        }
+
+        int count(String command) {
+            AtomicInteger count = this.commands.get(command);
+            return count == null ? 0 : count.get();
+        }
+
+        void close() throws IOException {
+            this.serverSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!this.serverSocket.isClosed()) {
+                try {
+                    Socket socket = this.serverSocket.accept();
+                    Thread thread = new Thread(() -> this.serve(socket), "mini_redis_connection");
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    log.info("mini redis closed");
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (InputStream input = new BufferedInputStream(socket.getInputStream());
+                 OutputStream output = new BufferedOutputStream(socket.getOutputStream())) {
+                while (true) {
+                    List<byte[]> request = readRequest(input);
+                    if (request == null) {
+                        return;
+                    }
+                    this.execute(request, output);
+                    // flush when the pipelined requests are all handled
+                    if (input.available() == 0) {
+                        output.flush();
+                    }
+                }
+            } catch (IOException e) {
+                log.info("mini redis connection closed");
+            }
+        }
+
+        private void execute(List<byte[]> request, OutputStream output) throws IOException {
+            String command = new String(request.get(0), StandardCharsets.UTF_8).toUpperCase();
+            this.commands.computeIfAbsent(command, key -> new AtomicInteger()).incrementAndGet();
+            switch (command) {
+                case "PING":
+                    output.write("+PONG\r\n".getBytes(StandardCharsets.UTF_8));
+                    break;
+
+                case "GET":
+                    writeBulk(output, this.data.get(new String(request.get(1), StandardCharsets.UTF_8)));
+                    break;
+
+                case "MGET":
+                    output.write(("*" + (request.size() - 1) + "\r\n").getBytes(StandardCharsets.UTF_8));
+                    for (int idx = 1; idx < request.size(); idx++) {
+                        writeBulk(output, this.data.get(new String(request.get(idx), StandardCharsets.UTF_8)));
+                    }
+                    break;
+
+                case "EXISTS":
+                    boolean exist = this.data.containsKey(new String(request.get(1), StandardCharsets.UTF_8));
+                    output.write((":" + (exist ? 1 : 0) + "\r\n").getBytes(StandardCharsets.UTF_8));
+                    break;
+
+                case "SET":
+                    String key = new String(request.get(1), StandardCharsets.UTF_8);
+                    boolean nx = false;
+                    for (int idx = 3; idx < request.size(); idx++) {
+                        String option = new String(request.get(idx), StandardCharsets.UTF_8).toUpperCase();
+                        if ("NX".equals(option)) {
+                            nx = true;
+                        } else if ("EX".equals(option)) {
+                            this.expires.put(key, Integer.valueOf(new String(request.get(++idx), StandardCharsets.UTF_8)));
+                        }
+                    }
+                    if (nx && this.data.containsKey(key)) {
+                        writeBulk(output, null);
+                    } else {
+                        this.data.put(key, request.get(2));
+                        output.write("+OK\r\n".getBytes(StandardCharsets.UTF_8));
+                    }
+                    break;
+
+                default:
+                    output.write(("-ERR unknown command '" + command + "'\r\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private static void writeBulk(OutputStream output, byte[] value) throws IOException {
+            if (value == null) {
+                output.write("$-1\r\n".getBytes(StandardCharsets.UTF_8));
+            } else {
+                output.write(("$" + value.length + "\r\n").getBytes(StandardCharsets.UTF_8));
+                output.write(value);
+                output.write("\r\n".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        // array of bulk strings, null if connection closed
+        private static List<byte[]> readRequest(InputStream input) throws IOException {
+            String line = readLine(input);
+            if (line == null) {
+                return null;
+            }
+            int size = Integer.parseInt(line.substring(1));
+            List<byte[]> request = new ArrayList<>();
+            for (int idx = 0; idx < size; idx++) {
+                int length = Integer.parseInt(readLine(input).substring(1));
+                byte[] value = new byte[length];
+                int offset = 0;
+                while (offset < length) {
+                    int read = input.read(value, offset, length - offset);
+                    if (read < 0) {
+                        return null;
+                    }
+                    offset += read;
+                }
+                // "\r\n"
+                input.read();
+                input.read();
+                request.add(value);
+            }
+            return request;
+        }
+
+        private static String readLine(InputStream input) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int current;
+            while ((current = input.read()) != '\n') {
+                if (current < 0) {
+                    return null;
+                }
+                if (current != '\r') {
+                    line.append((char) current);
+                }
+            }
+            return line.toString();
+        }
+    }
+
+    @Before
+    public void before() throws Exception {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+
+        this.miniRedis = new MiniRedis();
+        this.jedisPool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", this.miniRedis.getPort());
+        this.redisService = new RedisService();
+        this.redisService.setJedisPool(this.jedisPool);
+        this.redisService.setExpireSeconds(expireSeconds);
+    }
+
+    @After
+    public void after() throws Exception {
+        this.jedisPool.close();
+        this.miniRedis.close();
+    }
+
+    private static List<WeEvent> newBlock(long blockNum) {
+        List<WeEvent> events = new ArrayList<>();
+        WeEvent event = new WeEvent("com.weevent.test", ("hello world " + blockNum).getBytes(StandardCharsets.UTF_8));
+        event.setEventId("317e7c4c-75-" + blockNum);
+        events.add(event);
+        return events;
+    }
+
+    /**
+     * blocks is written in one pipeline with expiry, and not overwritten
+     */
+    @Test
+    public void testPipelineWrite() {
+        Map<String, List<WeEvent>> blocks = new HashMap<>();
+        for (long blockNum = 1; blockNum <= 10; blockNum++) {
+            blocks.put("1_" + blockNum, newBlock(blockNum));
+        }
+        this.redisService.writeEventsToRedis(blocks);
+
+        Assert.assertEquals(10, this.miniRedis.count("SET"));
+        Assert.assertEquals(expireSeconds, this.miniRedis.expires.get("1_1").intValue());
+        Assert.assertEquals(1, this.redisService.getStats().getWriteRoundTrips());
+        Assert.assertEquals(10, this.redisService.getStats().getKeysWritten());
+
+        // set if not exist
+        this.redisService.writeEventsToRedis("1_1", newBlock(100));
+        Assert.assertEquals(newBlock(1), this.redisService.readEventsFromRedis("1_1"));
+    }
+
+    /**
+     * a window of blocks is read in one MGET, without EXISTS
+     */
+    @Test
+    public void testBatchRead() {
+        Map<String, List<WeEvent>> blocks = new HashMap<>();
+        for (long blockNum = 1; blockNum <= 20; blockNum++) {
+            blocks.put("1_" + blockNum, newBlock(blockNum));
+        }
+        this.redisService.writeEventsToRedis(blocks);
+
+        String[] keys = new String[32];
+        for (int idx = 0; idx < keys.length; idx++) {
+            keys[idx] = "1_" + (idx + 1);
+        }
+        Map<String, List<WeEvent>> result = this.redisService.readEventsFromRedis(keys);
+        Assert.assertEquals(20, result.size());
+        Assert.assertEquals(newBlock(20), result.get("1_20"));
+        Assert.assertNull(result.get("1_21"));
+        Assert.assertNull(this.redisService.readEventsFromRedis("1_21"));
+
+        Assert.assertEquals(2, this.miniRedis.count("MGET"));
+        Assert.assertEquals(0, this.miniRedis.count("EXISTS"));
+        Assert.assertEquals(0, this.miniRedis.count("GET"));
+
+        RedisService.Stats stats = this.redisService.getStats();
+        log.info("redis stats: {} saved round trips per block: {}", stats, stats.getSavedRoundTripsPerBlock());
+        Assert.assertEquals(2, stats.getReadRoundTrips());
+        Assert.assertEquals(20, stats.getKeysHit());
+        Assert.assertEquals(1.9, stats.getSavedRoundTripsPerBlock(), 0.001);
+    }
+
+    /**
+     * queued blocks is written by writer thread
+     */
+    @Test
+    public void testAsyncWrite() throws Exception {
+        for (long blockNum = 1; blockNum <= 100; blockNum++) {
+            this.redisService.writeEventsToRedisAsync("1_" + blockNum, newBlock(blockNum));
+        }
+
+        for (int i = 0; i < 100 && this.redisService.getStats().getKeysWritten() < 100; i++) {
+            Thread.sleep(50);
+        }
+        RedisService.Stats stats = this.redisService.getStats();
+        log.info("redis stats: {}", stats);
+        Assert.assertEquals(100, stats.getKeysWritten());
+        Assert.assertTrue(stats.getWriteRoundTrips() <= 100);
+        Assert.assertEquals(newBlock(100), this.redisService.readEventsFromRedis("1_100"));
+    }
+}
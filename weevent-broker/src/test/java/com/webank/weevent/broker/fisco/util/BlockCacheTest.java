@@ -0,0 +1,252 @@
+package com.webank.weevent.broker.fisco.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * BlockCache Tester.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 10/29/2019
+ */
+@Slf4j
+public class BlockCacheTest {
+    private final static String groupId = WeEvent.DEFAULT_GROUP_ID;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    @Before
+    public void before() {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+    }
+
+    private static List<WeEvent> newBlock(int size) {
+        List<WeEvent> events = new ArrayList<>();
+        events.add(new WeEvent("com.weevent.test", new byte[size]));
+        return events;
+    }
+
+    @Test
+    public void testGetPut() {
+        BlockCache cache = new BlockCache(1024 * 1024);
+        Assert.assertNull(cache.get(groupId, 1L));
+
+        List<WeEvent> block = newBlock(10);
+        cache.put(groupId, 1L, block);
+        Assert.assertEquals(block, cache.get(groupId, 1L));
+
+        // put if absent
+        cache.put(groupId, 1L, newBlock(20));
+        Assert.assertEquals(block, cache.get(groupId, 1L));
+
+        BlockCache.Stats stats = cache.getStats();
+        Assert.assertEquals(2, stats.getHitCount());
+        Assert.assertEquals(1, stats.getMissCount());
+        Assert.assertEquals(1, stats.getEntryCount());
+        Assert.assertEquals(BlockCache.weigh(block), stats.getWeight());
+    }
+
+    /**
+     * group 1 block 23 is not group 12 block 3
+     */
+    @Test
+    public void testCompositeKey() {
+        BlockCache cache = new BlockCache(1024 * 1024);
+        Assert.assertNotEquals(cache.key("1", 23), cache.key("12", 3));
+
+        List<WeEvent> block = newBlock(10);
+        cache.put("1", 23L, block);
+        Assert.assertNull(cache.get("12", 3L));
+        Assert.assertNull(cache.get("1", 3L));
+        Assert.assertEquals(block, cache.get("1", 23L));
+    }
+
+    /**
+     * every field is kept, and topic name is interned
+     */
+    @Test
+    public void testEncode() throws Exception {
+        BlockCache cache = new BlockCache(1024 * 1024);
+        List<WeEvent> block = new ArrayList<>();
+        Map<String, String> extensions = new HashMap<>();
+        extensions.put(WeEvent.WeEvent_TAG, "tag");
+        extensions.put("weevent-empty", "");
+        WeEvent event = new WeEvent(new String("com.weevent.test"), "hello world".getBytes(StandardCharsets.UTF_8), extensions);
+        event.setEventId("317e7c4c-75-32900000");
+        block.add(event);
+        WeEvent empty = new WeEvent(new String("com.weevent.test"), new byte[0]);
+        empty.setEventId(null);
+        block.add(empty);
+        cache.put(groupId, 1L, block);
+
+        List<WeEvent> cached = cache.get(groupId, 1L);
+        Assert.assertEquals(2, cached.size());
+        Assert.assertEquals(event, cached.get(0));
+        Assert.assertEquals(empty, cached.get(1));
+        // decoded once
+        Assert.assertSame(cached.get(0), cached.get(0));
+        // the same topic instance
+        Assert.assertSame(cached.get(0).getTopic(), cached.get(1).getTopic());
+        Assert.assertSame(cached.get(0).getTopic(), cache.get(groupId, 1L).get(0).getTopic());
+        Assert.assertEquals(1, cache.getStats().getTopicCount());
+
+        // used in redis and block store
+        List<WeEvent> copy = WeEventCodec.decode(WeEventCodec.encode(cached));
+        Assert.assertEquals(block, copy);
+
+        try {
+            cached.add(event);
+            Assert.fail();
+        } catch (UnsupportedOperationException e) {
+            Assert.assertTrue(true);
+        }
+    }
+
+    /**
+     * the arena is reused after eviction, never beyond the max weight
+     */
+    @Test
+    public void testArenaReuse() {
+        long maxWeight = 4 * 1024 * 1024;
+        BlockCache cache = new BlockCache(maxWeight);
+        for (long blockNum = 1; blockNum <= 10000; blockNum++) {
+            cache.put(groupId, blockNum, newBlock(1000 + (int) (blockNum % 3000)));
+        }
+
+        BlockCache.Stats stats = cache.getStats();
+        log.info("stats: {}", stats);
+        Assert.assertTrue(stats.getOffHeapBytes() <= maxWeight);
+        Assert.assertTrue(stats.getEvictionCount() > 0);
+
+        // the newest is there
+        List<WeEvent> events = cache.get(groupId, 10000L);
+        Assert.assertNotNull(events);
+        Assert.assertEquals(1000 + 10000 % 3000, events.get(0).getContent().length);
+    }
+
+    /**
+     * bounded by bytes, not entries
+     */
+    @Test
+    public void testWeightBound() {
+        long maxWeight = 1024 * 1024;
+        BlockCache cache = new BlockCache(maxWeight);
+
+        // larger than stripe
+        cache.put(groupId, 1L, newBlock((int) maxWeight));
+        Assert.assertNull(cache.get(groupId, 1L));
+
+        for (long blockNum = 1; blockNum <= 1000; blockNum++) {
+            cache.put(groupId, blockNum, newBlock(10 * 1024));
+        }
+        BlockCache.Stats stats = cache.getStats();
+        log.info("stats: {}", stats);
+        Assert.assertTrue(stats.getWeight() <= maxWeight);
+        Assert.assertTrue(stats.getEvictionCount() > 0);
+        Assert.assertTrue(stats.getEntryCount() <= 100);
+    }
+
+    /**
+     * hot blocks survive a long scan of cold blocks, LRUCache lost them all
+     */
+    @Test
+    public void testScanResistant() {
+        int hotCount = 100;
+        BlockCache cache = new BlockCache(hotCount * 2 * BlockCache.weigh(newBlock(1024)));
+        LRUCache<Long, List<WeEvent>> lruCache = new LRUCache<>(hotCount * 2);
+
+        // access hot blocks several times
+        for (int round = 0; round < 5; round++) {
+            for (long blockNum = 1; blockNum <= hotCount; blockNum++) {
+                if (cache.get(groupId, blockNum) == null) {
+                    cache.put(groupId, blockNum, newBlock(1024));
+                }
+                if (lruCache.get(blockNum) == null) {
+                    lruCache.putIfAbsent(blockNum, newBlock(1024));
+                }
+            }
+        }
+
+        // scan cold blocks once
+        for (long blockNum = 10000; blockNum < 20000; blockNum++) {
+            if (cache.get(groupId, blockNum) == null) {
+                cache.put(groupId, blockNum, newBlock(1024));
+            }
+            if (lruCache.get(blockNum) == null) {
+                lruCache.putIfAbsent(blockNum, newBlock(1024));
+            }
+        }
+
+        int hit = 0;
+        int lruHit = 0;
+        for (long blockNum = 1; blockNum <= hotCount; blockNum++) {
+            if (cache.get(groupId, blockNum) != null) {
+                hit++;
+            }
+            if (lruCache.get(blockNum) != null) {
+                lruHit++;
+            }
+        }
+        log.info("hot blocks hit after scan, BlockCache: {} LRUCache: {}", hit, lruHit);
+        Assert.assertEquals(0, lruHit);
+        Assert.assertTrue(hit > hotCount / 2);
+    }
+
+    /**
+     * get and put in threads, every hit is the block put with it's number
+     */
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final int threads = 8;
+        final int capacity = 1000;
+        BlockCache cache = new BlockCache((long) capacity * BlockCache.weigh(newBlock(100)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int mismatch = 0;
+                for (int j = 0; j < 20000; j++) {
+                    // 80% in hot blocks, 20% in 100 times more blocks
+                    long blockNum = random.nextInt(10) < 8 ? random.nextInt(capacity) : random.nextInt(capacity * 100);
+                    List<WeEvent> events = cache.get(groupId, blockNum);
+                    if (events == null) {
+                        cache.put(groupId, blockNum, newBlock(100 + (int) (blockNum % 100)));
+                    } else if (events.get(0).getContent().length != 100 + blockNum % 100) {
+                        mismatch++;
+                    }
+                }
+                return mismatch;
+            }));
+        }
+        for (Future<Integer> future : futures) {
+            Assert.assertEquals(0, future.get().intValue());
+        }
+        executor.shutdown();
+
+        BlockCache.Stats stats = cache.getStats();
+        log.info("stats: {}", stats);
+        Assert.assertTrue(stats.getHitRate() > 0.5);
+    }
+}
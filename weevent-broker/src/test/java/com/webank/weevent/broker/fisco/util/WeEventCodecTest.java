@@ -0,0 +1,111 @@
+package com.webank.weevent.broker.fisco.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * WeEventCodec Tester.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 10/31/2019
+ */
+@Slf4j
+public class WeEventCodecTest {
+
+    @Rule
+    public TestName testName = new TestName();
+
+    @Before
+    public void before() {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+    }
+
+    // events like in a busy block, a few topics and the same extension keys
+    private static List<WeEvent> newBlock(int size) {
+        List<WeEvent> events = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Map<String, String> extensions = new HashMap<>();
+            extensions.put(WeEvent.WeEvent_FORMAT, "json");
+            extensions.put(WeEvent.WeEvent_TAG, "tag" + i % 3);
+            WeEvent event = new WeEvent("com.weevent.test" + i % 4, ("{\"hello\": \"world " + i + "\"}").getBytes(StandardCharsets.UTF_8), extensions);
+            event.setEventId("317e7c4c-75-" + (32900000 + i));
+            events.add(event);
+        }
+        return events;
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        List<WeEvent> events = newBlock(10);
+        List<WeEvent> decoded = WeEventCodec.decode(WeEventCodec.encode(events));
+        Assert.assertEquals(events, decoded);
+
+        // topic is decoded once in block
+        Assert.assertSame(decoded.get(0).getTopic(), decoded.get(4).getTopic());
+
+        // empty block
+        Assert.assertEquals(new ArrayList<>(), WeEventCodec.decode(WeEventCodec.encode(new ArrayList<>())));
+    }
+
+    @Test
+    public void testNullField() {
+        List<WeEvent> events = new ArrayList<>();
+        WeEvent event = new WeEvent("com.weevent.test", null);
+        event.setEventId(null);
+        events.add(event);
+        Map<String, String> extensions = new HashMap<>();
+        extensions.put("weevent-empty", "");
+        extensions.put("weevent-null", null);
+        events.add(new WeEvent("", new byte[0], extensions));
+
+        Assert.assertEquals(events, WeEventCodec.decode(WeEventCodec.encode(events)));
+    }
+
+    /**
+     * data written by the old version is still readable
+     */
+    @Test
+    public void testJavaSerialization() {
+        List<WeEvent> events = newBlock(3);
+        Assert.assertEquals(events, WeEventCodec.decode(SerializeUtils.serializeList(events)));
+    }
+
+    @Test
+    public void testInvalidData() {
+        Assert.assertNull(WeEventCodec.decode(null));
+        Assert.assertNull(WeEventCodec.decode(new byte[0]));
+        Assert.assertNull(WeEventCodec.decode(new byte[]{100, 1, 2}));
+
+        byte[] data = WeEventCodec.encode(newBlock(3));
+        byte[] truncated = new byte[data.length / 2];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        Assert.assertNull(WeEventCodec.decode(truncated));
+    }
+
+    /**
+     * smaller than SerializeUtils, the throughput is in WeEventCodecBenchmark
+     */
+    @Test
+    public void testPayloadSize() {
+        List<WeEvent> events = newBlock(50);
+        byte[] javaData = SerializeUtils.serializeList(events);
+        byte[] codecData = WeEventCodec.encode(events);
+        log.info("payload size of {} events, java serialization: {} codec: {}", events.size(), javaData.length, codecData.length);
+        Assert.assertTrue(codecData.length < javaData.length);
+    }
+}
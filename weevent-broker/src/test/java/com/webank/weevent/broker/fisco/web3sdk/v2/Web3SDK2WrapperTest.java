@@ -0,0 +1,157 @@
+package com.webank.weevent.broker.fisco.web3sdk.v2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.webank.weevent.broker.task.StoppableTask;
+
+import lombok.extern.slf4j.Slf4j;
+import mockit.Mock;
+import mockit.MockUp;
+import org.fisco.bcos.web3j.protocol.Web3j;
+import org.fisco.bcos.web3j.protocol.core.Request;
+import org.fisco.bcos.web3j.protocol.core.methods.response.BcosTransactionReceipt;
+import org.fisco.bcos.web3j.protocol.core.methods.response.Transaction;
+import org.fisco.bcos.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * Web3SDK2Wrapper Tester, run offline with a stubbed Web3j.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 10/24/2019
+ */
+@Slf4j
+public class Web3SDK2WrapperTest {
+    private final static long latency = 20;
+    private final static int txCount = 100;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    // simulate the node, handle request concurrently
+    private ExecutorService node;
+
+    private Web3j web3j;
+
+    private List<String> transactionHashList = new ArrayList<>();
+
+    // requests sent and not responded yet, and the max of it
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final AtomicInteger maxInFlight = new AtomicInteger(0);
+
+    @Before
+    public void before() {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+
+        this.node = Executors.newFixedThreadPool(64);
+        for (int i = 0; i < txCount; i++) {
+            this.transactionHashList.add("0x" + i);
+        }
+
+        ExecutorService nodeService = this.node;
+        AtomicInteger inFlightCount = this.inFlight;
+        AtomicInteger maxInFlightCount = this.maxInFlight;
+        this.web3j = new MockUp<Web3j>() {
+            @Mock
+            public Request<?, BcosTransactionReceipt> getTransactionReceipt(String transactionHash) {
+                return new Request<Object, BcosTransactionReceipt>() {
+                    @Override
+                    public CompletableFuture<BcosTransactionReceipt> sendAsync() {
+                        maxInFlightCount.accumulateAndGet(inFlightCount.incrementAndGet(), Math::max);
+                        return CompletableFuture.supplyAsync(() -> {
+                            // rpc latency
+                            StoppableTask.idle(latency);
+                            inFlightCount.decrementAndGet();
+
+                            TransactionReceipt receipt = new TransactionReceipt();
+                            receipt.setTransactionHash(transactionHash);
+                            BcosTransactionReceipt transactionReceipt = new BcosTransactionReceipt();
+                            transactionReceipt.setResult(receipt);
+                            return transactionReceipt;
+                        }, nodeService);
+                    }
+                };
+            }
+        }.getMockInstance();
+    }
+
+    @After
+    public void after() throws Exception {
+        this.node.shutdownNow();
+        this.node.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    private void assertOrder(List<TransactionReceipt> receipts) {
+        Assert.assertNotNull(receipts);
+        Assert.assertEquals(this.transactionHashList.size(), receipts.size());
+        for (int i = 0; i < receipts.size(); i++) {
+            Assert.assertEquals(this.transactionHashList.get(i), receipts.get(i).getTransactionHash());
+        }
+    }
+
+    /**
+     * receipt in tx order
+     */
+    @Test
+    public void testBatchTransactionReceipt() throws Exception {
+        List<TransactionReceipt> receipts = Web3SDK2Wrapper.batchTransactionReceipt(this.web3j, this.transactionHashList, 8);
+        this.assertOrder(receipts);
+    }
+
+    /**
+     * requests are sent concurrently, but never more than the window.
+     * The speedup over serial is measured in weevent-benchmark, see ReceiptBenchmark.
+     */
+    @Test
+    public void testBatchTransactionReceiptWindow() throws Exception {
+        List<TransactionReceipt> serial = Web3SDK2Wrapper.batchTransactionReceipt(this.web3j, this.transactionHashList, 1);
+        this.assertOrder(serial);
+        Assert.assertEquals(1, this.maxInFlight.get());
+
+        this.maxInFlight.set(0);
+        List<TransactionReceipt> concurrent = Web3SDK2Wrapper.batchTransactionReceipt(this.web3j, this.transactionHashList, 8);
+        this.assertOrder(concurrent);
+        log.info("{} tx with window 8, max in flight: {}", txCount, this.maxInFlight.get());
+        Assert.assertTrue(this.maxInFlight.get() > 1);
+        Assert.assertTrue(this.maxInFlight.get() <= 8);
+    }
+
+    /**
+     * only tx sent to topic contract is left
+     */
+    @Test
+    public void testFilterTopicTransaction() {
+        String topicAddress = "0xabcdef";
+        List<Transaction> transactionList = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Transaction transaction = new Transaction();
+            transaction.setHash("0x" + i);
+            // deploy contract tx without "to"
+            if (i != 9) {
+                transaction.setTo(i % 3 == 0 ? topicAddress.toUpperCase() : "0x123456");
+            }
+            transactionList.add(transaction);
+        }
+
+        List<String> target = Web3SDK2Wrapper.filterTopicTransaction(transactionList, Collections.singleton(topicAddress));
+        Assert.assertEquals(3, target.size());
+        Assert.assertEquals("0x0", target.get(0));
+        Assert.assertEquals("0x3", target.get(1));
+        Assert.assertEquals("0x6", target.get(2));
+    }
+}
@@ -0,0 +1,249 @@
+package com.webank.weevent.broker.ha;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.webank.weevent.broker.task.StoppableTask;
+import com.webank.weevent.broker.task.StubBlockChain;
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * GroupAssignment and ShardedBlockChain Tester, run with zookeeper in process.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 11/08/2019
+ */
+@Slf4j
+public class GroupAssignmentTest {
+    private final static String membersPath = "/event_broker/nodes";
+    private final static String node1 = "127.0.0.1:8080";
+    private final static String node2 = "127.0.0.1:8081";
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private TestingServer server;
+    private List<CuratorFramework> clients = new ArrayList<>();
+
+    private final AtomicLong replicaLoopCount = new AtomicLong(0);
+    private volatile boolean ownerFailed = false;
+
+    // local block chain, every block has one event
+    private final StubBlockChain local = new StubBlockChain(100, GroupAssignmentTest::newBlock);
+
+    // the owner in memory
+    private final IBlockReplica blockReplica = new IBlockReplica() {
+        @Override
+        public Long getBlockHeight(String owner, String groupId) throws BrokerException {
+            if (ownerFailed) {
+                throw new BrokerException("owner failed");
+            }
+            return 100L;
+        }
+
+        @Override
+        public List<List<WeEvent>> getBlocks(String owner, String groupId, Long blockNum, int count) throws BrokerException {
+            if (ownerFailed) {
+                throw new BrokerException("owner failed");
+            }
+            replicaLoopCount.incrementAndGet();
+            List<List<WeEvent>> blocks = new ArrayList<>();
+            for (long block = blockNum; block < blockNum + count && block <= 100L; block++) {
+                blocks.add(newBlock(block, groupId));
+            }
+            return blocks;
+        }
+    };
+
+    private static List<WeEvent> newBlock(long blockNum, String groupId) {
+        List<WeEvent> events = new ArrayList<>();
+        WeEvent event = new WeEvent("com.weevent.test", ("hello " + groupId).getBytes(StandardCharsets.UTF_8));
+        event.setEventId(String.valueOf(blockNum));
+        events.add(event);
+        return events;
+    }
+
+    @Before
+    public void before() throws Exception {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+
+        this.server = new TestingServer(true);
+    }
+
+    @After
+    public void after() throws Exception {
+        for (CuratorFramework client : this.clients) {
+            client.close();
+        }
+        this.server.close();
+    }
+
+    private GroupAssignment newAssignment(String nodeName) throws Exception {
+        CuratorFramework client = CuratorFrameworkFactory.newClient(this.server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        this.clients.add(client);
+
+        GroupAssignment groupAssignment = new GroupAssignment(client, membersPath, nodeName);
+        groupAssignment.start();
+        return groupAssignment;
+    }
+
+    private static void waitMembers(GroupAssignment groupAssignment, int size) {
+        for (int i = 0; i < 100 && groupAssignment.getMembers().size() != size; i++) {
+            StoppableTask.idle(50);
+        }
+        Assert.assertEquals(size, groupAssignment.getMembers().size());
+    }
+
+    /**
+     * every group has one owner, moved to the live one if failed
+     */
+    @Test
+    public void testAssign() throws Exception {
+        GroupAssignment assignment1 = this.newAssignment(node1);
+        GroupAssignment assignment2 = this.newAssignment(node2);
+        waitMembers(assignment1, 2);
+        waitMembers(assignment2, 2);
+
+        Map<String, Integer> owned = new HashMap<>();
+        for (int groupId = 1; groupId <= 20; groupId++) {
+            String group = String.valueOf(groupId);
+            Assert.assertEquals(assignment1.getOwner(group), assignment2.getOwner(group));
+            Assert.assertTrue(assignment1.isOwner(group) ^ assignment2.isOwner(group));
+            owned.merge(assignment1.getOwner(group), 1, Integer::sum);
+        }
+        log.info("owned groups: {}", owned);
+        Assert.assertEquals(2, owned.size());
+
+        // node2 failed
+        assignment2.close();
+        this.clients.get(1).close();
+        waitMembers(assignment1, 1);
+        for (int groupId = 1; groupId <= 20; groupId++) {
+            Assert.assertTrue(assignment1.isOwner(String.valueOf(groupId)));
+        }
+    }
+
+    /**
+     * owned group from local block chain, the others from owner in windows
+     */
+    @Test
+    public void testShardedBlockChain() throws Exception {
+        GroupAssignment assignment1 = this.newAssignment(node1);
+        GroupAssignment assignment2 = this.newAssignment(node2);
+        waitMembers(assignment1, 2);
+
+        String ownedGroup = null;
+        String peerGroup = null;
+        for (int groupId = 1; groupId <= 20; groupId++) {
+            String group = String.valueOf(groupId);
+            if (assignment1.isOwner(group)) {
+                ownedGroup = group;
+            } else {
+                peerGroup = group;
+            }
+        }
+        Assert.assertNotNull(ownedGroup);
+        Assert.assertNotNull(peerGroup);
+
+        ShardedBlockChain blockChain = new ShardedBlockChain(this.local, assignment1, this.blockReplica, 10);
+
+        // owned group
+        for (long blockNum = 1; blockNum <= 30; blockNum++) {
+            Assert.assertEquals(String.valueOf(blockNum), blockChain.loop(blockNum, ownedGroup).get(0).getEventId());
+        }
+        Assert.assertEquals(30, this.local.getLoopTotal());
+        Assert.assertEquals(0, this.replicaLoopCount.get());
+
+        // group owned by peer, one request in every window
+        for (long blockNum = 1; blockNum <= 30; blockNum++) {
+            Assert.assertEquals(String.valueOf(blockNum), blockChain.loop(blockNum, peerGroup).get(0).getEventId());
+        }
+        Assert.assertEquals(30, this.local.getLoopTotal());
+        Assert.assertEquals(3, this.replicaLoopCount.get());
+        Assert.assertEquals(30, blockChain.getReplicatedCount());
+        Assert.assertEquals(100L, blockChain.getBlockHeight(peerGroup).longValue());
+
+        // owner has not dispatched it yet, idle instead of reading from local
+        Assert.assertNull(blockChain.loop(101L, peerGroup));
+        Assert.assertEquals(30, this.local.getLoopTotal());
+        Assert.assertEquals(0, blockChain.getFallbackCount());
+        Assert.assertFalse(blockChain.hasBlockEventNotify(peerGroup));
+
+        // owner failed, fall back to local
+        this.ownerFailed = true;
+        Assert.assertEquals("31", blockChain.loop(31L, peerGroup).get(0).getEventId());
+        Assert.assertEquals(100L, blockChain.getBlockHeight(peerGroup).longValue());
+        Assert.assertEquals(2, blockChain.getFallbackCount());
+
+        // reassigned after owner's session is gone
+        assignment2.close();
+        this.clients.get(1).close();
+        waitMembers(assignment1, 1);
+        Assert.assertTrue(assignment1.isOwner(peerGroup));
+    }
+
+    /**
+     * readers at different cursors keep their own windows, no window is replicated twice
+     */
+    @Test
+    public void testWindowPerCursor() throws Exception {
+        GroupAssignment assignment1 = this.newAssignment(node1);
+        GroupAssignment assignment2 = this.newAssignment(node2);
+        waitMembers(assignment1, 2);
+
+        String peerGroup = null;
+        for (int groupId = 1; groupId <= 20 && peerGroup == null; groupId++) {
+            if (!assignment1.isOwner(String.valueOf(groupId))) {
+                peerGroup = String.valueOf(groupId);
+            }
+        }
+        Assert.assertNotNull(peerGroup);
+        ShardedBlockChain blockChain = new ShardedBlockChain(this.local, assignment1, this.blockReplica, 10);
+
+        // like main loop, history loop and backfill workers, read block by block in turn
+        long[] cursors = {1, 21, 41, 61, 81};
+        for (int idx = 0; idx < 10; idx++) {
+            for (long cursor : cursors) {
+                long blockNum = cursor + idx;
+                Assert.assertEquals(String.valueOf(blockNum), blockChain.loop(blockNum, peerGroup).get(0).getEventId());
+            }
+        }
+        Assert.assertEquals(cursors.length, this.replicaLoopCount.get());
+        Assert.assertEquals(0, this.local.getLoopTotal());
+    }
+
+    /**
+     * inner api is only open to live members
+     */
+    @Test
+    public void testMemberHost() throws Exception {
+        GroupAssignment assignment1 = this.newAssignment(node1);
+        this.newAssignment("192.168.1.2:8080");
+        waitMembers(assignment1, 2);
+
+        Assert.assertTrue(assignment1.isMemberHost("127.0.0.1"));
+        Assert.assertTrue(assignment1.isMemberHost("192.168.1.2"));
+        Assert.assertFalse(assignment1.isMemberHost("192.168.1.3"));
+    }
+}
@@ -0,0 +1,198 @@
+package com.webank.weevent.broker.memory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.webank.weevent.broker.metrics.LatencyTracker;
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.ErrorCode;
+import com.webank.weevent.sdk.EventId;
+import com.webank.weevent.sdk.SendResult;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * MemoryChain Tester.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 11/17/2019
+ */
+@Slf4j
+public class MemoryChainTest {
+    private final static String topicName = "com.weevent.test";
+    private final static String groupId = WeEvent.DEFAULT_GROUP_ID;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private MemoryChain memoryChain;
+
+    @Before
+    public void before() throws Exception {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+    }
+
+    @After
+    public void after() {
+        if (this.memoryChain != null) {
+            this.memoryChain.stop();
+        }
+    }
+
+    private MemoryChain start(int txPerBlock, int commitLatency, int maxBlocks) throws BrokerException {
+        this.memoryChain = new MemoryChain(Collections.singletonList(groupId), 10, txPerBlock, commitLatency, true, maxBlocks);
+        this.memoryChain.start();
+        this.memoryChain.createTopic(topicName, groupId);
+        return this.memoryChain;
+    }
+
+    private static WeEvent newEvent() {
+        return new WeEvent(topicName, "hello world".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * published event is committed in a new block, numbered in topic
+     */
+    @Test
+    public void testPublish() throws Exception {
+        MemoryChain chain = this.start(100, 0, 100);
+        Assert.assertEquals(1L, chain.getBlockHeight(groupId).longValue());
+
+        SendResult sendResult = chain.publish(newEvent(), groupId);
+        Assert.assertEquals(SendResult.SendResultStatus.SUCCESS, sendResult.getStatus());
+
+        EventId eventId = EventId.parse(sendResult.getEventId());
+        Assert.assertEquals(2L, eventId.getBlockNumber());
+        Assert.assertEquals(1L, eventId.getSeq());
+        Assert.assertEquals(2L, chain.getBlockHeight(groupId).longValue());
+
+        List<WeEvent> events = chain.loop(2L, groupId);
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(sendResult.getEventId(), events.get(0).getEventId());
+        Assert.assertEquals(sendResult.getEventId(), chain.getEvent(sendResult.getEventId(), groupId).getEventId());
+        Assert.assertEquals(1L, chain.getTopicInfo(topicName, groupId).getSequenceNumber().longValue());
+
+        // not exist topic
+        try {
+            chain.publish(new WeEvent("com.weevent.other", "hello world".getBytes(StandardCharsets.UTF_8)), groupId);
+            Assert.fail();
+        } catch (BrokerException e) {
+            Assert.assertEquals(ErrorCode.TOPIC_NOT_EXIST.getCode(), e.getCode());
+        }
+    }
+
+    /**
+     * concurrent transactions are sealed in blocks, at most txPerBlock in a block
+     */
+    @Test
+    public void testTxPerBlock() throws Exception {
+        MemoryChain chain = this.start(5, 0, 100);
+
+        ExecutorService executor = Executors.newFixedThreadPool(20);
+        List<Future<SendResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(executor.submit(() -> chain.publish(newEvent(), groupId)));
+        }
+        for (Future<SendResult> future : futures) {
+            Assert.assertEquals(SendResult.SendResultStatus.SUCCESS, future.get().getStatus());
+        }
+        executor.shutdown();
+
+        long total = 0;
+        for (long block = 2; block <= chain.getBlockHeight(groupId); block++) {
+            int size = chain.loop(block, groupId).size();
+            Assert.assertTrue(size > 0 && size <= 5);
+            total += size;
+        }
+        Assert.assertEquals(20, total);
+        Assert.assertEquals(20L, chain.getGroupGeneral(groupId).getTransactionCount().longValue());
+    }
+
+    /**
+     * block is visible and notified after commit latency
+     */
+    @Test
+    public void testCommitLatency() throws Exception {
+        MemoryChain chain = this.start(100, 200, 100);
+        List<Long> notified = Collections.synchronizedList(new ArrayList<>());
+        chain.setListener((group, blockHeight) -> notified.add(blockHeight));
+
+        long start = System.currentTimeMillis();
+        SendResult sendResult = chain.publish(newEvent(), groupId);
+        Assert.assertEquals(SendResult.SendResultStatus.SUCCESS, sendResult.getStatus());
+        Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+        Assert.assertEquals(Collections.singletonList(2L), notified);
+    }
+
+    /**
+     * only the last maxBlocks blocks are kept
+     */
+    @Test
+    public void testMaxBlocks() throws Exception {
+        MemoryChain chain = this.start(100, 0, 2);
+        String first = chain.publish(newEvent(), groupId).getEventId();
+        chain.publish(newEvent(), groupId);
+        chain.publish(newEvent(), groupId);
+
+        Assert.assertEquals(4L, chain.getBlockHeight(groupId).longValue());
+        Assert.assertTrue(chain.loop(2L, groupId).isEmpty());
+        Assert.assertEquals(1, chain.loop(4L, groupId).size());
+        try {
+            chain.getEvent(first, groupId);
+            Assert.fail();
+        } catch (BrokerException e) {
+            Assert.assertEquals(ErrorCode.EVENT_ID_NOT_EXIST.getCode(), e.getCode());
+        }
+    }
+
+    /**
+     * the broker without latency tracking deliver the extensions unchanged, stamp commit time only if tracked
+     */
+    @Test
+    public void testExtensionsUnchanged() throws Exception {
+        MemoryChain chain = this.start(100, 0, 100);
+
+        Map<String, String> extensions = new HashMap<>();
+        extensions.put("weevent-format", "json");
+        SendResult untracked = chain.publish(new WeEvent(topicName, "hello world".getBytes(StandardCharsets.UTF_8), extensions), groupId);
+        Assert.assertEquals(extensions, chain.getEvent(untracked.getEventId(), groupId).getExtensions());
+        Assert.assertEquals(extensions, chain.loop(2L, groupId).get(0).getExtensions());
+
+        SendResult tracked = chain.publish(new WeEvent(topicName, "hello world".getBytes(StandardCharsets.UTF_8),
+                LatencyTracker.withStamp(extensions, WeEvent.WeEvent_PublishTime, System.currentTimeMillis())), groupId);
+        WeEvent event = chain.getEvent(tracked.getEventId(), groupId);
+        Assert.assertTrue(LatencyTracker.getStamp(event, WeEvent.WeEvent_CommitTime) > 0);
+        Assert.assertEquals("json", event.getExtensions().get("weevent-format"));
+    }
+
+    /**
+     * unknown group
+     */
+    @Test
+    public void testUnknownGroup() throws Exception {
+        MemoryChain chain = this.start(100, 0, 100);
+        try {
+            chain.getBlockHeight("2");
+            Assert.fail();
+        } catch (BrokerException e) {
+            Assert.assertEquals(ErrorCode.EVENT_GROUP_ID_NOT_FOUND.getCode(), e.getCode());
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.webank.weevent.broker.metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.webank.weevent.broker.plugin.IConsumer;
+import com.webank.weevent.broker.task.NotifyTask;
+import com.webank.weevent.sdk.EventId;
+import com.webank.weevent.sdk.WeEvent;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * BrokerMetrics Tester.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 11/14/2019
+ */
+@Slf4j
+public class BrokerMetricsTest {
+    private final static String topicName = "com.weevent.test";
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private SimpleMeterRegistry registry;
+
+    @Before
+    public void before() {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+
+        this.registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(this.registry);
+    }
+
+    @After
+    public void after() {
+        Metrics.removeRegistry(this.registry);
+        this.registry.close();
+    }
+
+    /**
+     * meter name with tags in summary
+     */
+    @Test
+    public void testSummary() {
+        BrokerMetrics.publishTimer(WeEvent.DEFAULT_GROUP_ID, "SUCCESS").record(2, TimeUnit.MILLISECONDS);
+        BrokerMetrics.publishTimer(WeEvent.DEFAULT_GROUP_ID, "SUCCESS").record(4, TimeUnit.MILLISECONDS);
+
+        Map<String, Map<String, Double>> summary = BrokerMetrics.summary();
+        log.info("summary: {}", summary);
+        Map<String, Double> publish = summary.get("weevent.publish{group=1,status=SUCCESS}");
+        Assert.assertNotNull(publish);
+        Assert.assertEquals(2.0, publish.get("count"), 0.0);
+        Assert.assertEquals(6.0, publish.get("total"), 0.1);
+    }
+
+    /**
+     * tx skipped in block are counted by group
+     */
+    @Test
+    public void testSkippedTransaction() {
+        BrokerMetrics.skippedTransactionCounter(WeEvent.DEFAULT_GROUP_ID).increment(3);
+        BrokerMetrics.skippedTransactionCounter(WeEvent.DEFAULT_GROUP_ID).increment(2);
+
+        Map<String, Double> skipped = BrokerMetrics.summary().get("weevent.block.skipped-tx{group=1}");
+        Assert.assertNotNull(skipped);
+        Assert.assertEquals(5.0, skipped.get("count"), 0.0);
+    }
+
+    /**
+     * blocks dealt in catch up are counted by group
+     */
+    @Test
+    public void testCatchUpBlocks() {
+        BrokerMetrics.catchUpBlocksCounter("100").increment(8);
+        BrokerMetrics.catchUpBlocksCounter("100").increment(2);
+
+        Assert.assertEquals(10.0, this.registry.get("weevent.eventloop.catch-up-blocks").tag(BrokerMetrics.TAG_GROUP, "100").counter().count(), 0.0);
+    }
+
+    /**
+     * gauge read the latest supplier
+     */
+    @Test
+    public void testGauge() {
+        BrokerMetrics.gauge("weevent.eventloop.lag", "100", () -> 10L);
+        Assert.assertEquals(10.0, this.registry.get("weevent.eventloop.lag").tag(BrokerMetrics.TAG_GROUP, "100").gauge().value(), 0.0);
+
+        // event loop restarted
+        BrokerMetrics.gauge("weevent.eventloop.lag", "100", () -> 20L);
+        Assert.assertEquals(20.0, this.registry.get("weevent.eventloop.lag").tag(BrokerMetrics.TAG_GROUP, "100").gauge().value(), 0.0);
+    }
+
+    /**
+     * delivery measured in NotifyTask
+     */
+    @Test
+    public void testDelivery() {
+        NotifyTask notifyTask = new NotifyTask("abc", 1000, new IConsumer.ConsumerListener() {
+            @Override
+            public void onEvent(String subscriptionId, WeEvent event) {
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                Assert.fail();
+            }
+        });
+        notifyTask.setMeters(BrokerMetrics.deliveryTimer(WeEvent.DEFAULT_GROUP_ID, "stomp"),
+                BrokerMetrics.deliveryCounter(WeEvent.DEFAULT_GROUP_ID, "stomp"));
+        // notify in caller thread
+        notifyTask.doStart(Runnable::run);
+
+        List<WeEvent> events = new ArrayList<>();
+        for (long seq = 1; seq <= 3; seq++) {
+            WeEvent event = new WeEvent(topicName, "hello world".getBytes(StandardCharsets.UTF_8));
+            event.setEventId(EventId.of(topicName, 10L, seq).toString());
+            events.add(event);
+        }
+        notifyTask.push(events);
+
+        Assert.assertEquals(3, this.registry.get("weevent.notify.delivery").tag(BrokerMetrics.TAG_PROTOCOL, "stomp").timer().count());
+        Assert.assertEquals(3.0, this.registry.get("weevent.notify.events").tag(BrokerMetrics.TAG_PROTOCOL, "stomp").counter().count(), 0.0);
+    }
+
+    /**
+     * timers used by shared producer and delegate are cached
+     */
+    @Test
+    public void testTimerCached() {
+        Timer publish = BrokerMetrics.publishTimer(WeEvent.DEFAULT_GROUP_ID, "SUCCESS");
+        Assert.assertSame(publish, BrokerMetrics.publishTimer(WeEvent.DEFAULT_GROUP_ID, "SUCCESS"));
+        Assert.assertNotSame(publish, BrokerMetrics.publishTimer(WeEvent.DEFAULT_GROUP_ID, "ERROR"));
+
+        Timer fetch = BrokerMetrics.blockFetchTimer(WeEvent.DEFAULT_GROUP_ID, BrokerMetrics.SOURCE_CACHE);
+        Assert.assertSame(fetch, BrokerMetrics.blockFetchTimer(WeEvent.DEFAULT_GROUP_ID, BrokerMetrics.SOURCE_CACHE));
+        Assert.assertNotSame(fetch, BrokerMetrics.blockFetchTimer(WeEvent.DEFAULT_GROUP_ID, BrokerMetrics.SOURCE_CHAIN));
+
+        // not tagged with topic, one series for every topic
+        Assert.assertNull(publish.getId().getTag("topic"));
+        Assert.assertEquals(1, this.registry.find("weevent.publish")
+                .tags(BrokerMetrics.TAG_GROUP, WeEvent.DEFAULT_GROUP_ID, BrokerMetrics.TAG_STATUS, "SUCCESS").timers().size());
+    }
+}
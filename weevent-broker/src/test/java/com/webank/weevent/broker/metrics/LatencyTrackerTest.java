@@ -0,0 +1,257 @@
+package com.webank.weevent.broker.metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.webank.weevent.broker.plugin.IConsumer;
+import com.webank.weevent.broker.task.IBlockChain;
+import com.webank.weevent.broker.task.NotifyTask;
+import com.webank.weevent.broker.task.StubBlockChain;
+import com.webank.weevent.broker.task.Subscription;
+import com.webank.weevent.sdk.EventId;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * LatencyTracker Tester.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 11/15/2019
+ */
+@Slf4j
+public class LatencyTrackerTest {
+    private final static String protocol = "stomp";
+
+    @Rule
+    public TestName testName = new TestName();
+
+    // trackers are global, every test use it's own topic
+    private String topicName;
+
+    @Before
+    public void before() {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+
+        this.topicName = "com.weevent." + this.testName.getMethodName();
+    }
+
+    private WeEvent newEvent(long seq, long publishTime, long commitTime) {
+        Map<String, String> extensions = new HashMap<>();
+        extensions.put(WeEvent.WeEvent_PublishTime, String.valueOf(publishTime));
+        WeEvent event = new WeEvent(this.topicName, "hello world".getBytes(StandardCharsets.UTF_8), extensions);
+        event.setEventId(EventId.of(this.topicName, 10L, seq).toString());
+        LatencyTracker.stamp(event, WeEvent.WeEvent_CommitTime, commitTime);
+        return event;
+    }
+
+    private Map<String, LatencyTracker.Stats> report() {
+        Map<String, LatencyTracker.Stats> stages = LatencyTracker.report().get(this.topicName + WeEvent.LAYER_SEPARATE + protocol);
+        log.info("latency: {}", stages);
+        Assert.assertNotNull(stages);
+        return stages;
+    }
+
+    /**
+     * every stage from stamps
+     */
+    @Test
+    public void testRecord() {
+        WeEvent event = this.newEvent(1, 1000L, 1100L);
+        LatencyTracker.of(this.topicName, protocol).record(event, 1150L, 1200L);
+
+        Map<String, LatencyTracker.Stats> stages = this.report();
+        Assert.assertEquals(100L, stages.get(LatencyTracker.STAGE_COMMIT).getP50());
+        Assert.assertEquals(50L, stages.get(LatencyTracker.STAGE_DISPATCH).getP50());
+        Assert.assertEquals(50L, stages.get(LatencyTracker.STAGE_DELIVERY).getP50());
+        Assert.assertEquals(200L, stages.get(LatencyTracker.STAGE_TOTAL).getP50());
+        Assert.assertEquals(1L, stages.get(LatencyTracker.STAGE_TOTAL).getCount());
+
+        // accumulated in next report
+        LatencyTracker.of(this.topicName, protocol).record(event, 1150L, 1300L);
+        stages = this.report();
+        Assert.assertEquals(2L, stages.get(LatencyTracker.STAGE_TOTAL).getCount());
+        Assert.assertEquals(300L, stages.get(LatencyTracker.STAGE_TOTAL).getMax());
+    }
+
+    /**
+     * commit time is stamped only if the event is published with tracking
+     */
+    @Test
+    public void testStampCommit() {
+        Map<String, String> extensions = new HashMap<>();
+        extensions.put("weevent-format", "json");
+        WeEvent untracked = new WeEvent(this.topicName, "hello world".getBytes(StandardCharsets.UTF_8), new HashMap<>(extensions));
+        LatencyTracker.stampCommit(untracked, 1100L);
+        Assert.assertEquals(extensions, untracked.getExtensions());
+
+        WeEvent tracked = new WeEvent(this.topicName, "hello world".getBytes(StandardCharsets.UTF_8),
+                LatencyTracker.withStamp(extensions, WeEvent.WeEvent_PublishTime, 1000L));
+        LatencyTracker.stampCommit(tracked, 1100L);
+        Assert.assertEquals(1100L, LatencyTracker.getStamp(tracked, WeEvent.WeEvent_CommitTime));
+    }
+
+    /**
+     * events replayed from history have no dispatch time, skip them
+     */
+    @Test
+    public void testNotDispatched() {
+        LatencyTracker.of(this.topicName, protocol).record(this.newEvent(1, 1000L, 1100L), 0L, 1200L);
+
+        Assert.assertEquals(0L, this.report().get(LatencyTracker.STAGE_TOTAL).getCount());
+    }
+
+    /**
+     * negative stage due to clock skew is counted as 0
+     */
+    @Test
+    public void testClockSkew() {
+        LatencyTracker.of(this.topicName, protocol).record(this.newEvent(1, 1100L, 1000L), 1150L, 1200L);
+
+        Assert.assertEquals(0L, this.report().get(LatencyTracker.STAGE_COMMIT).getMax());
+    }
+
+    /**
+     * delivered events are recorded by NotifyTask
+     */
+    @Test
+    public void testNotifyTask() {
+        NotifyTask notifyTask = new NotifyTask("abc", 1000, new IConsumer.ConsumerListener() {
+            @Override
+            public void onEvent(String subscriptionId, WeEvent event) {
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                Assert.fail();
+            }
+        });
+        notifyTask.setLatencyProtocol(protocol);
+        // notify in caller thread
+        notifyTask.doStart(Runnable::run);
+
+        long now = System.currentTimeMillis();
+        List<WeEvent> events = new ArrayList<>();
+        for (long seq = 1; seq <= 3; seq++) {
+            events.add(this.newEvent(seq, now - 100, now - 50));
+        }
+        notifyTask.push(events, now);
+
+        Map<String, LatencyTracker.Stats> stages = this.report();
+        Assert.assertEquals(3L, stages.get(LatencyTracker.STAGE_TOTAL).getCount());
+        Assert.assertTrue(stages.get(LatencyTracker.STAGE_TOTAL).getP50() >= 100L);
+
+        // dispatch time is not stamped into the event
+        Assert.assertEquals(2, events.get(0).getExtensions().size());
+    }
+
+    /**
+     * dispatch time is kept in order with the queued events, history events in between are skipped
+     */
+    @Test
+    public void testDispatchTimeInQueue() {
+        List<WeEvent> notified = new ArrayList<>();
+        NotifyTask notifyTask = new NotifyTask("abc", 1000, new IConsumer.ConsumerListener() {
+            @Override
+            public void onEvent(String subscriptionId, WeEvent event) {
+                notified.add(event);
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                Assert.fail();
+            }
+        });
+        notifyTask.setLatencyProtocol(protocol);
+        notifyTask.setBatch(4, 0);
+
+        long now = System.currentTimeMillis();
+        long seq = 1;
+        List<WeEvent> main = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            main.add(this.newEvent(seq++, now - 100, now - 50));
+        }
+        List<WeEvent> history = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            history.add(this.newEvent(seq++, now - 1000, now - 500));
+        }
+        List<WeEvent> main2 = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            main2.add(this.newEvent(seq++, now - 100, now - 50));
+        }
+
+        // queued before start, then delivered in batches across the pushes
+        notifyTask.push(main, now - 20);
+        notifyTask.pushAvailable(history);
+        notifyTask.push(main2, now - 10);
+        notifyTask.doStart(Runnable::run);
+
+        Assert.assertEquals(8, notified.size());
+        Map<String, LatencyTracker.Stats> stages = this.report();
+        Assert.assertEquals(6L, stages.get(LatencyTracker.STAGE_TOTAL).getCount());
+        // commit -> dispatch is 30ms or 40ms, a history event would be about 500ms
+        Assert.assertTrue(stages.get(LatencyTracker.STAGE_DISPATCH).getP50() >= 30L);
+        Assert.assertTrue(stages.get(LatencyTracker.STAGE_DISPATCH).getMax() <= 40L);
+    }
+
+    /**
+     * subscribe with eventId, the events after offset in it's block are pushed as history,
+     * they must not take the dispatch time of the events from MainEventLoop
+     */
+    @Test
+    public void testSubscribeWithOffset() throws Exception {
+        long now = System.currentTimeMillis();
+        // 4 events in offset block, 2 events after offset, replayed long ago
+        List<WeEvent> offsetBlock = new ArrayList<>();
+        for (long seq = 1; seq <= 4; seq++) {
+            offsetBlock.add(this.newEvent(seq, now - 1000, now - 500));
+        }
+        IBlockChain blockChain = new StubBlockChain(10, (blockNum, groupId) -> new ArrayList<>(offsetBlock));
+
+        List<WeEvent> notified = new ArrayList<>();
+        Subscription subscription = new Subscription(blockChain, "", new String[]{this.topicName}, WeEvent.DEFAULT_GROUP_ID,
+                offsetBlock.get(1).getEventId(), "", new IConsumer.ConsumerListener() {
+            @Override
+            public void onEvent(String subscriptionId, WeEvent event) {
+                notified.add(event);
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                Assert.fail();
+            }
+        });
+        subscription.setInterfaceType(protocol);
+        subscription.setLatencyTracking(true);
+        subscription.dispatchTargetBlock(blockChain);
+
+        // 3 events in next block from MainEventLoop, queued with the offset block's events
+        List<WeEvent> main = new ArrayList<>();
+        for (long seq = 1; seq <= 3; seq++) {
+            WeEvent event = this.newEvent(seq, now - 100, now - 50);
+            event.setEventId(EventId.of(this.topicName, 11L, seq).toString());
+            main.add(event);
+        }
+        Assert.assertTrue(subscription.dispatch(main, true, 11L, now - 20));
+        // notify in caller thread
+        subscription.doStart(Runnable::run);
+
+        Assert.assertEquals(5, notified.size());
+        Map<String, LatencyTracker.Stats> stages = this.report();
+        // only the events from MainEventLoop, with their own dispatch time
+        Assert.assertEquals(3L, stages.get(LatencyTracker.STAGE_DELIVERY).getCount());
+        Assert.assertEquals(30L, stages.get(LatencyTracker.STAGE_DISPATCH).getP50());
+        Assert.assertEquals(30L, stages.get(LatencyTracker.STAGE_DISPATCH).getMax());
+    }
+}
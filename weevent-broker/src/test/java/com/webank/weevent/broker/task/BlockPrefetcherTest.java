@@ -0,0 +1,127 @@
+package com.webank.weevent.broker.task;
+
+import java.util.List;
+
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * BlockPrefetcher Tester, run offline with a stubbed block chain.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 11/20/2019
+ */
+@Slf4j
+public class BlockPrefetcherTest {
+    private final static int depth = 4;
+    private final static int workerCount = 2;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    // one event per block, topic is the block number
+    private final StubBlockChain blockChain = new StubBlockChain(100, StubBlockChain.numberedBlocks());
+
+    private BlockPrefetcher blockPrefetcher;
+
+    @Before
+    public void before() {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+
+        // rpc latency, the later block may be done first
+        this.blockChain.setLatency(blockNum -> 1 + blockNum % 3);
+        this.blockPrefetcher = new BlockPrefetcher(this.blockChain, WeEvent.DEFAULT_GROUP_ID, depth, workerCount);
+    }
+
+    @After
+    public void after() {
+        this.blockPrefetcher.shutdown();
+    }
+
+    private void assertBlock(long blockNum, List<WeEvent> events) {
+        Assert.assertNotNull(events);
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(String.valueOf(blockNum), events.get(0).getTopic());
+    }
+
+    /**
+     * blocks are taken in order, fetched ahead by workers
+     */
+    @Test
+    public void testTakeInOrder() throws Exception {
+        long blockHeight = 50;
+        for (long blockNum = 1; blockNum <= blockHeight; blockNum++) {
+            this.assertBlock(blockNum, this.blockPrefetcher.take(blockNum, blockHeight));
+        }
+
+        // every block fetched once, by workers
+        for (long blockNum = 1; blockNum <= blockHeight; blockNum++) {
+            Assert.assertEquals(1, this.blockChain.getLoopCount(blockNum));
+        }
+        Assert.assertNull(this.blockChain.getLoopThreads().get(Thread.currentThread().getName()));
+    }
+
+    /**
+     * never fetch the block beyond block height
+     */
+    @Test
+    public void testNotBeyondHeight() throws Exception {
+        this.assertBlock(1, this.blockPrefetcher.take(1L, 2L));
+        this.assertBlock(2, this.blockPrefetcher.take(2L, 2L));
+        // wait the workers
+        StoppableTask.idle(50);
+        Assert.assertEquals(2, this.blockChain.getMaxBlock());
+
+        // block height grow
+        this.assertBlock(3, this.blockPrefetcher.take(3L, 10L));
+        StoppableTask.idle(50);
+        Assert.assertEquals(3 + depth, this.blockChain.getMaxBlock());
+    }
+
+    /**
+     * slots of the old cursor are dropped if cursor jump, never return a stale block
+     */
+    @Test
+    public void testCursorJump() throws Exception {
+        long blockHeight = 100;
+        this.assertBlock(1, this.blockPrefetcher.take(1L, blockHeight));
+
+        // jump forward, every slot is taken by 50-54
+        this.assertBlock(50, this.blockPrefetcher.take(50L, blockHeight));
+        this.assertBlock(51, this.blockPrefetcher.take(51L, blockHeight));
+
+        // jump back, the slots of 52-54 are stale
+        for (long blockNum = 2; blockNum <= 10; blockNum++) {
+            this.assertBlock(blockNum, this.blockPrefetcher.take(blockNum, blockHeight));
+        }
+
+        // drop all
+        this.blockPrefetcher.clear();
+        this.assertBlock(11, this.blockPrefetcher.take(11L, blockHeight));
+    }
+
+    /**
+     * fetch in caller thread if workers reject
+     */
+    @Test
+    public void testRejected() throws Exception {
+        this.blockPrefetcher.shutdown();
+
+        this.assertBlock(1, this.blockPrefetcher.take(1L, 10L));
+        this.assertBlock(2, this.blockPrefetcher.take(2L, 10L));
+
+        Assert.assertEquals(2, this.blockChain.getLoopThreads().get(Thread.currentThread().getName()).get());
+        Assert.assertEquals(1, this.blockChain.getLoopThreads().size());
+        Assert.assertEquals(2, this.blockChain.getMaxBlock());
+    }
+}
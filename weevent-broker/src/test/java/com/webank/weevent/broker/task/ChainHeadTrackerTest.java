@@ -0,0 +1,135 @@
+package com.webank.weevent.broker.task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * ChainHeadTracker Tester.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 11/07/2019
+ */
+@Slf4j
+public class ChainHeadTrackerTest {
+    private final static int idleTime = 50;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    // count every block height request
+    private final StubBlockChain blockChain = new StubBlockChain(100);
+
+    @Before
+    public void before() {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+
+        this.blockChain.setIdleTime(idleTime);
+    }
+
+    /**
+     * request count is constant in every idle time, no matter how many readers
+     */
+    @Test
+    public void testSharedRefresh() throws Exception {
+        ChainHeadTracker tracker = new ChainHeadTracker(this.blockChain, WeEvent.DEFAULT_GROUP_ID);
+        Assert.assertEquals(100L, tracker.getBlockHeight().longValue());
+
+        long duration = 1000;
+        long deadline = System.currentTimeMillis() + duration;
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    while (System.currentTimeMillis() < deadline) {
+                        // like the loops waiting for next block
+                        tracker.awaitBlockHeight(this.blockChain.getBlockHeight() + 1, idleTime);
+                    }
+                } catch (Exception e) {
+                    log.error("read block height failed", e);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        long requestCount = this.blockChain.getBlockHeightRequestCount();
+        log.info("block height requests in {} ms: {}", duration, requestCount);
+        Assert.assertEquals(requestCount, tracker.getRequestCount());
+        Assert.assertTrue(requestCount <= duration / idleTime + 2);
+    }
+
+    /**
+     * the waiter is waked up by notify, without request
+     */
+    @Test
+    public void testNotify() throws Exception {
+        ChainHeadTracker tracker = new ChainHeadTracker(this.blockChain, WeEvent.DEFAULT_GROUP_ID);
+        tracker.onNewBlock(100L);
+
+        Thread notifier = new Thread(() -> {
+            StoppableTask.idle(idleTime / 5);
+            tracker.onNewBlock(101L);
+        });
+        notifier.start();
+
+        Assert.assertEquals(101L, tracker.awaitBlockHeight(101L, 10 * idleTime).longValue());
+        notifier.join();
+
+        // ignore the older one
+        tracker.onNewBlock(99L);
+        Assert.assertEquals(101L, tracker.getBlockHeight().longValue());
+        Assert.assertEquals(0, tracker.getRequestCount());
+    }
+
+    /**
+     * no notify in idle time, fall back to request
+     */
+    @Test
+    public void testStale() throws Exception {
+        ChainHeadTracker tracker = new ChainHeadTracker(this.blockChain, WeEvent.DEFAULT_GROUP_ID);
+        tracker.onNewBlock(90L);
+        Assert.assertEquals(90L, tracker.getBlockHeight().longValue());
+
+        StoppableTask.idle(idleTime + 10);
+        Assert.assertEquals(100L, tracker.getBlockHeight().longValue());
+        Assert.assertEquals(1, tracker.getRequestCount());
+
+        // chain is not available
+        StoppableTask.idle(idleTime + 10);
+        this.blockChain.setBlockHeight(0);
+        Assert.assertEquals(0L, tracker.awaitBlockHeight(101L, idleTime).longValue());
+    }
+
+    /**
+     * interrupted waiter return at once, and the interrupted status is kept
+     */
+    @Test
+    public void testInterrupt() throws Exception {
+        ChainHeadTracker tracker = new ChainHeadTracker(this.blockChain, WeEvent.DEFAULT_GROUP_ID);
+        tracker.onNewBlock(100L);
+
+        Thread.currentThread().interrupt();
+        try {
+            Assert.assertEquals(100L, tracker.awaitBlockHeight(101L, 10 * idleTime).longValue());
+            Assert.assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            // clear it
+            Thread.interrupted();
+        }
+    }
+}
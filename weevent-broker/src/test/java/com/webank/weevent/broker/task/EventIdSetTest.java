@@ -0,0 +1,131 @@
+package com.webank.weevent.broker.task;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.webank.weevent.broker.fisco.util.DataTypeUtils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * EventIdSet Tester.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 11/05/2019
+ */
+@Slf4j
+public class EventIdSetTest {
+    private final static String topicHash = DataTypeUtils.genTopicNameHash("com.weevent.test");
+
+    @Rule
+    public TestName testName = new TestName();
+
+    /**
+     * FIFO cache in LinkedHashMap, the old implement in NotifyTask
+     */
+    static class FixedFIFOCache<K, V> extends LinkedHashMap<K, V> {
+        private int capacity;
+
+        FixedFIFOCache(int capacity) {
+            super(capacity, 0.8f, false);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return this.size() > capacity;
+        }
+    }
+
+    @Before
+    public void before() {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+    }
+
+    private static String eventId(long seq, long blockNum) {
+        return topicHash + "-" + seq + "-" + blockNum;
+    }
+
+    /**
+     * standard eventId and others
+     */
+    @Test
+    public void testAdd() {
+        EventIdSet set = new EventIdSet();
+        Assert.assertTrue(set.add(eventId(1, 100)));
+        Assert.assertFalse(set.add(eventId(1, 100)));
+        Assert.assertTrue(set.contains(eventId(1, 100)));
+        Assert.assertFalse(set.contains(eventId(2, 100)));
+        Assert.assertFalse(set.contains(eventId(1, 101)));
+        Assert.assertFalse(set.contains(DataTypeUtils.genTopicNameHash("com.weevent.other") + "-1-100"));
+
+        // not in standard format
+        Assert.assertTrue(set.add("a"));
+        Assert.assertFalse(set.add("a"));
+        Assert.assertTrue(set.add("event-1"));
+        Assert.assertTrue(set.add(topicHash + "-x-1"));
+        Assert.assertTrue(set.add(topicHash + "-1-99999999999"));
+        Assert.assertTrue(set.contains("event-1"));
+        Assert.assertEquals(5, set.size());
+
+        set.clear();
+        Assert.assertEquals(0, set.size());
+        Assert.assertFalse(set.contains(eventId(1, 100)));
+        Assert.assertFalse(set.contains("a"));
+    }
+
+    /**
+     * the oldest one is evicted in FIFO window
+     */
+    @Test
+    public void testWindow() {
+        EventIdSet set = new EventIdSet(100);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(set.add(eventId(i % 10, i / 10)));
+            Assert.assertTrue(set.size() <= 100);
+        }
+        Assert.assertEquals(100, set.size());
+        for (int i = 0; i < 900; i++) {
+            Assert.assertFalse(set.contains(eventId(i % 10, i / 10)));
+        }
+        for (int i = 900; i < 1000; i++) {
+            Assert.assertTrue(set.contains(eventId(i % 10, i / 10)));
+        }
+    }
+
+    /**
+     * the same result as LinkedHashMap in random operations
+     */
+    @Test
+    public void testRandom() {
+        Random random = new Random(0);
+        EventIdSet set = new EventIdSet(256);
+        Map<String, Boolean> expected = new FixedFIFOCache<>(256);
+        Set<String> unboundedExpected = new HashSet<>();
+        EventIdSet unbounded = new EventIdSet();
+        for (int i = 0; i < 100000; i++) {
+            String eventId = eventId(random.nextInt(50), random.nextInt(100));
+            boolean exist = expected.containsKey(eventId);
+            Assert.assertEquals(exist, set.contains(eventId));
+            Assert.assertEquals(!exist, set.add(eventId));
+            if (!exist) {
+                expected.put(eventId, true);
+            }
+            Assert.assertEquals(expected.size(), set.size());
+
+            Assert.assertEquals(unboundedExpected.add(eventId), unbounded.add(eventId));
+        }
+        Assert.assertEquals(unboundedExpected.size(), unbounded.size());
+    }
+}
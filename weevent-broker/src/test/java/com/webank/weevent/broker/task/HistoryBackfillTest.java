@@ -0,0 +1,112 @@
+package com.webank.weevent.broker.task;
+
+import java.util.List;
+
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * HistoryBackfill Tester, run offline with a stubbed block chain.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 10/25/2019
+ */
+@Slf4j
+public class HistoryBackfillTest {
+    private final static long latency = 10;
+    private final static long blockHeight = 200;
+    private final static int workerCount = 8;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    // one event per block, topic is the block number
+    private final StubBlockChain blockChain = new StubBlockChain(blockHeight, StubBlockChain.numberedBlocks());
+
+    private HistoryBackfill historyBackfill;
+
+    @Before
+    public void before() {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+
+        // rpc latency
+        this.blockChain.setLatency(blockNum -> latency);
+        this.historyBackfill = new HistoryBackfill(this.blockChain, WeEvent.DEFAULT_GROUP_ID, workerCount, 10, 16, 0);
+    }
+
+    @After
+    public void after() {
+        this.historyBackfill.shutdown();
+    }
+
+    // take all blocks from "from"
+    private void takeAll(long from) throws Exception {
+        long next = from;
+        while (next <= blockHeight) {
+            List<List<WeEvent>> blocks = this.historyBackfill.take(next, blockHeight);
+            Assert.assertNotNull(blocks);
+            for (List<WeEvent> events : blocks) {
+                Assert.assertEquals(String.valueOf(next), events.get(0).getTopic());
+                next++;
+            }
+        }
+    }
+
+    /**
+     * blocks in order, fetched by workers in parallel
+     */
+    @Test
+    public void testTakeInOrder() throws Exception {
+        this.takeAll(1);
+
+        log.info("{} blocks with {} workers, max requests in flight: {}", blockHeight, workerCount, this.blockChain.getMaxInFlight());
+        Assert.assertTrue(this.blockChain.getMaxInFlight() > 1);
+        Assert.assertTrue(this.blockChain.getMaxInFlight() <= workerCount);
+    }
+
+    /**
+     * no more chunk is scheduled while the fetched chunks reach max pending bytes
+     */
+    @Test
+    public void testMaxPendingBytes() throws Exception {
+        this.historyBackfill.shutdown();
+        this.historyBackfill = new HistoryBackfill(this.blockChain, WeEvent.DEFAULT_GROUP_ID, workerCount, 10, 16, 1);
+
+        // 16 chunks are scheduled before any one is done
+        Assert.assertEquals(10, this.historyBackfill.take(1L, blockHeight).size());
+        for (int i = 0; i < 100 && (this.blockChain.getMaxBlock() < 160 || this.blockChain.getInFlight() > 0); i++) {
+            StoppableTask.idle(10);
+        }
+        Assert.assertEquals(160, this.blockChain.getMaxBlock());
+
+        // full, nothing new
+        Assert.assertEquals(10, this.historyBackfill.take(11L, blockHeight).size());
+        Assert.assertEquals(160, this.blockChain.getMaxBlock());
+
+        // schedule again after the pending chunks are taken
+        this.takeAll(21);
+    }
+
+    /**
+     * cursor move back, pending chunks are dropped
+     */
+    @Test
+    public void testCursorMoved() throws Exception {
+        List<List<WeEvent>> blocks = this.historyBackfill.take(101L, blockHeight);
+        Assert.assertEquals(10, blocks.size());
+        Assert.assertEquals("101", blocks.get(0).get(0).getTopic());
+
+        // new subscription join with lower cursor
+        this.takeAll(51);
+    }
+}
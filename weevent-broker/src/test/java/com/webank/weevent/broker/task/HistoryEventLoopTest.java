@@ -0,0 +1,289 @@
+package com.webank.weevent.broker.task;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import com.webank.weevent.broker.fisco.util.DataTypeUtils;
+import com.webank.weevent.broker.plugin.IConsumer;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * HistoryEventLoop Tester, run offline with a stubbed block chain.
+ * The loop is driven by taskOnceLoop in test thread, except the hand off to MainEventLoop.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 11/20/2019
+ */
+@Slf4j
+public class HistoryEventLoopTest {
+    private final static String topic = "com.weevent.test";
+    private final static int eventsPerBlock = 4;
+    private final static long startHeight = 20;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    // every block has some events
+    private final StubBlockChain blockChain = new StubBlockChain(startHeight, StubBlockChain.topicBlocks(topic, eventsPerBlock));
+
+    private HistoryEventLoop historyEventLoop;
+
+    // delivery executor run by test thread
+    private final Queue<Runnable> pending = new ArrayDeque<>();
+    private final Executor manualExecutor = this.pending::add;
+
+    // listener keep the received eventId in order
+    private static class Receiver implements IConsumer.ConsumerListener {
+        private final List<String> received = new ArrayList<>();
+
+        @Override
+        public synchronized void onEvent(String subscriptionId, WeEvent event) {
+            this.received.add(event.getEventId());
+        }
+
+        @Override
+        public void onException(Throwable e) {
+            log.error("notify failed", e);
+            Assert.fail();
+        }
+
+        synchronized List<String> getReceived() {
+            return new ArrayList<>(this.received);
+        }
+    }
+
+    // eventId in blocks [from, to]
+    private static List<String> expected(long from, long to) {
+        return StubBlockChain.eventIds(topic, eventsPerBlock, from, to);
+    }
+
+    @Before
+    public void before() {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+
+        this.historyEventLoop = new HistoryEventLoop(this.blockChain, WeEvent.DEFAULT_GROUP_ID);
+    }
+
+    private Subscription subscribe(String offset, Receiver receiver, Executor executor) throws Exception {
+        Subscription subscription = new Subscription(this.blockChain, "", new String[]{topic},
+                WeEvent.DEFAULT_GROUP_ID, offset, "", receiver);
+        subscription.dispatchTargetBlock(this.blockChain);
+        subscription.doStart(executor);
+        return subscription;
+    }
+
+    private void drain() {
+        while (!this.pending.isEmpty()) {
+            this.pending.poll().run();
+        }
+    }
+
+    // loop until every subscription in history arrive at block height
+    private void loopToHeight(Subscription... subscriptions) {
+        for (int i = 0; i < 1000; i++) {
+            boolean done = true;
+            for (Subscription subscription : subscriptions) {
+                Long lastBlock = subscription.getHistoryLastBlock();
+                done &= lastBlock != null && lastBlock >= this.blockChain.getBlockHeight();
+            }
+            if (done) {
+                return;
+            }
+
+            this.historyEventLoop.taskOnceLoop();
+            this.drain();
+        }
+        Assert.fail("history not arrive at block height");
+    }
+
+    /**
+     * subscriptions from different offset meet at the same cursor, then share the block fetch
+     */
+    @Test
+    public void testConverge() throws Exception {
+        Receiver first = new Receiver();
+        Subscription fromFirst = this.subscribe(WeEvent.OFFSET_FIRST, first, Runnable::run);
+
+        // offset in the middle of block 10, the rest of block 10 is notified in subscribe
+        String offset = DataTypeUtils.encodeEventId(topic, 10, 1);
+        Receiver middle = new Receiver();
+        Subscription fromMiddle = this.subscribe(offset, middle, Runnable::run);
+        Assert.assertEquals(Long.valueOf(10L), fromMiddle.getHistoryLastBlock());
+
+        this.historyEventLoop.addSubscription(fromFirst);
+        this.historyEventLoop.addSubscription(fromMiddle);
+        this.loopToHeight(fromFirst, fromMiddle);
+
+        Assert.assertEquals(expected(1, startHeight), first.getReceived());
+        List<String> expected = expected(10, startHeight);
+        Assert.assertEquals(expected.subList(2, expected.size()), middle.getReceived());
+
+        // block 10 is fetched in subscribe and in history, the blocks after it only once for both
+        Assert.assertEquals(2, this.blockChain.getLoopCount(10L));
+        for (long blockNum = 11; blockNum <= startHeight; blockNum++) {
+            Assert.assertEquals(1, this.blockChain.getLoopCount(blockNum));
+        }
+    }
+
+    /**
+     * the rest of offset block is bounded by notify queue like the other blocks, the dropped events are replayed in history
+     */
+    @Test
+    public void testOffsetBlockBounded() throws Exception {
+        // 3 events after offset in block 10
+        String offset = DataTypeUtils.encodeEventId(topic, 10, 0);
+        Receiver receiver = new Receiver();
+        Subscription subscription = new Subscription(this.blockChain, "", new String[]{topic},
+                WeEvent.DEFAULT_GROUP_ID, offset, "", receiver);
+        // smaller than the rest of block, applied before the offset block is dispatched
+        subscription.setNotifyQueueBound(2, 0);
+        subscription.dispatchTargetBlock(this.blockChain);
+        subscription.doStart(this.manualExecutor);
+
+        // rewound to replay block 10 from the first dropped event
+        Assert.assertEquals(Long.valueOf(9L), subscription.getHistoryLastBlock());
+        Assert.assertEquals(Long.valueOf(2L), subscription.getNotifyingEventCount());
+        Assert.assertEquals(1L, subscription.getOverflowCount().longValue());
+
+        this.historyEventLoop.addSubscription(subscription);
+        this.loopToHeight(subscription);
+
+        List<String> expected = expected(10, startHeight);
+        Assert.assertEquals(expected.subList(1, expected.size()), receiver.getReceived());
+    }
+
+    /**
+     * the removed subscription is not notified any more, the others go on
+     */
+    @Test
+    public void testRemoveInReplay() throws Exception {
+        Receiver keep = new Receiver();
+        Subscription kept = this.subscribe(WeEvent.OFFSET_FIRST, keep, Runnable::run);
+        Receiver remove = new Receiver();
+        Subscription removed = this.subscribe(WeEvent.OFFSET_FIRST, remove, Runnable::run);
+        this.historyEventLoop.addSubscription(kept);
+        this.historyEventLoop.addSubscription(removed);
+        Assert.assertEquals(2, this.historyEventLoop.size());
+
+        for (int i = 0; i < 100 && removed.getHistoryLastBlock() < 5; i++) {
+            this.historyEventLoop.taskOnceLoop();
+        }
+        Assert.assertEquals(Long.valueOf(5L), removed.getHistoryLastBlock());
+
+        this.historyEventLoop.removeSubscription(removed);
+        removed.doStop();
+        Assert.assertEquals(1, this.historyEventLoop.size());
+        this.loopToHeight(kept);
+
+        Assert.assertEquals(expected(1, startHeight), keep.getReceived());
+        Assert.assertEquals(expected(1, 5), remove.getReceived());
+        Assert.assertEquals(Long.valueOf(5L), removed.getHistoryLastBlock());
+    }
+
+    /**
+     * a subscription in main loop overflow and is demoted, it replay from the dropped event in history
+     */
+    @Test
+    public void testDemotedReenter() throws Exception {
+        Receiver receiver = new Receiver();
+        Subscription subscription = this.subscribe(WeEvent.OFFSET_LAST, receiver, this.manualExecutor);
+        // smaller than a block
+        subscription.setNotifyQueueBound(eventsPerBlock / 2, 0);
+        Assert.assertFalse(subscription.isHistory());
+
+        // next block from MainEventLoop overflow the queue before notify
+        long nextBlock = 11;
+        Assert.assertFalse(subscription.dispatch(StubBlockChain.newBlock(topic, nextBlock, eventsPerBlock), true, nextBlock));
+        Assert.assertTrue(subscription.isHistory());
+        Assert.assertEquals(1, subscription.getDemotionCount());
+        Assert.assertEquals(Long.valueOf(nextBlock - 1), subscription.getHistoryLastBlock());
+
+        // see MainEventLoop.demote
+        this.historyEventLoop.addSubscription(subscription);
+        this.loopToHeight(subscription);
+
+        // every block overflow again in history, but never lose or repeat
+        Assert.assertEquals(expected(nextBlock, startHeight), receiver.getReceived());
+        Assert.assertEquals(1, subscription.getDemotionCount());
+        Assert.assertTrue(subscription.getOverflowCount() > 1);
+
+        // MainEventLoop is at block height, switch back
+        Assert.assertTrue(this.historyEventLoop.tryStopHistory(subscription, startHeight));
+        Assert.assertFalse(subscription.isHistory());
+        Assert.assertEquals(0, this.historyEventLoop.size());
+    }
+
+    /**
+     * not switch to MainEventLoop before history arrive at it's block
+     */
+    @Test
+    public void testNotStopBeforeMain() throws Exception {
+        Subscription subscription = this.subscribe(WeEvent.OFFSET_FIRST, new Receiver(), Runnable::run);
+        this.historyEventLoop.addSubscription(subscription);
+
+        Assert.assertFalse(this.historyEventLoop.tryStopHistory(subscription, 1L));
+        this.historyEventLoop.taskOnceLoop();
+        Assert.assertTrue(this.historyEventLoop.tryStopHistory(subscription, 1L));
+        Assert.assertEquals(0, this.historyEventLoop.size());
+    }
+
+    /**
+     * hand off to MainEventLoop while new blocks keep coming, no event is lost or repeated
+     */
+    @Test
+    public void testHandOff() throws Exception {
+        ThreadPoolTaskExecutor daemonExecutor = new ThreadPoolTaskExecutor();
+        daemonExecutor.setQueueCapacity(0);
+        daemonExecutor.setDaemon(true);
+        daemonExecutor.initialize();
+        MainEventLoop mainEventLoop = new MainEventLoop(daemonExecutor, this.blockChain, WeEvent.DEFAULT_GROUP_ID);
+        mainEventLoop.doStart();
+
+        try {
+            Receiver receiver = new Receiver();
+            Subscription subscription = new Subscription(this.blockChain, "", new String[]{topic},
+                    WeEvent.DEFAULT_GROUP_ID, WeEvent.OFFSET_FIRST, "", receiver);
+            mainEventLoop.addSubscription(subscription);
+
+            // new blocks while replaying history
+            long lastBlock = startHeight + 50;
+            for (long blockNum = startHeight + 1; blockNum <= lastBlock; blockNum++) {
+                this.blockChain.setBlockHeight(blockNum);
+                StoppableTask.idle(2);
+            }
+            for (int i = 0; i < 300 && subscription.isHistory(); i++) {
+                StoppableTask.idle(10);
+            }
+            Assert.assertFalse(subscription.isHistory());
+
+            // notified by MainEventLoop after switch
+            this.blockChain.setBlockHeight(lastBlock + 1);
+            List<String> expected = expected(1, lastBlock + 1);
+            for (int i = 0; i < 300 && receiver.getReceived().size() < expected.size(); i++) {
+                StoppableTask.idle(10);
+            }
+            // no more repeated events
+            StoppableTask.idle(100);
+
+            Assert.assertEquals(expected, receiver.getReceived());
+            Assert.assertEquals(0, subscription.getDemotionCount());
+        } finally {
+            mainEventLoop.doStop();
+            daemonExecutor.destroy();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.webank.weevent.broker.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.webank.weevent.broker.plugin.IConsumer;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * MainEventLoop Tester, run offline with a stubbed block chain.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 11/04/2019
+ */
+@Slf4j
+public class MainEventLoopTest {
+    private final static String topic = "com.weevent.test";
+    private final static int eventsPerBlock = 10;
+    private final static long startHeight = 10;
+    private final static long newBlocks = 100;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    // loop hold on this block until released
+    private volatile long gateBlock = Long.MAX_VALUE;
+    private final CountDownLatch gateReached = new CountDownLatch(1);
+    private final CountDownLatch gateRelease = new CountDownLatch(1);
+
+    // block height grow in background, every block has some events
+    private final StubBlockChain blockChain = new StubBlockChain(startHeight, (blockNum, groupId) -> {
+        if (blockNum == this.gateBlock) {
+            this.gateReached.countDown();
+            try {
+                this.gateRelease.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return newBlock(blockNum);
+    });
+
+    private ThreadPoolTaskExecutor daemonExecutor;
+    private ThreadPoolTaskExecutor deliveryExecutor;
+    private MainEventLoop mainEventLoop;
+
+    private static List<WeEvent> newBlock(long blockNum) {
+        return StubBlockChain.newBlock(topic, blockNum, eventsPerBlock);
+    }
+
+    @Before
+    public void before() throws Exception {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+
+        this.daemonExecutor = new ThreadPoolTaskExecutor();
+        this.daemonExecutor.setQueueCapacity(0);
+        this.daemonExecutor.setDaemon(true);
+        this.daemonExecutor.initialize();
+
+        this.deliveryExecutor = new ThreadPoolTaskExecutor();
+        this.deliveryExecutor.setCorePoolSize(2);
+        this.deliveryExecutor.setMaxPoolSize(2);
+        this.deliveryExecutor.setDaemon(true);
+        this.deliveryExecutor.initialize();
+
+        this.mainEventLoop = new MainEventLoop(this.daemonExecutor, this.blockChain, WeEvent.DEFAULT_GROUP_ID);
+        this.mainEventLoop.setDeliveryExecutor(this.deliveryExecutor);
+        this.mainEventLoop.doStart();
+    }
+
+    @After
+    public void after() {
+        this.mainEventLoop.doStop();
+        this.deliveryExecutor.destroy();
+        this.daemonExecutor.destroy();
+    }
+
+    /**
+     * slow consumer overflow the bounded queue, it's demoted into history and promoted again without losing events
+     */
+    @Test
+    public void testOverflowReplay() throws Exception {
+        List<String> received = new ArrayList<>();
+        IConsumer.ConsumerListener listener = new IConsumer.ConsumerListener() {
+            @Override
+            public void onEvent(String subscriptionId, WeEvent event) {
+                // slow consumer
+                StoppableTask.idle(2);
+                synchronized (received) {
+                    received.add(event.getEventId());
+                }
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                log.error("notify failed", e);
+            }
+        };
+
+        Subscription subscription = new Subscription(this.blockChain, "", new String[]{topic},
+                WeEvent.DEFAULT_GROUP_ID, WeEvent.OFFSET_LAST, "", listener);
+        subscription.setNotifyQueueBound(20, 0);
+        this.mainEventLoop.addSubscription(subscription);
+
+        List<String> expected = new ArrayList<>();
+        long maxDepth = 0;
+        for (long blockNum = startHeight + 1; blockNum <= startHeight + newBlocks; blockNum++) {
+            for (WeEvent event : newBlock(blockNum)) {
+                expected.add(event.getEventId());
+            }
+            this.blockChain.setBlockHeight(blockNum);
+            StoppableTask.idle(5);
+            maxDepth = Math.max(maxDepth, subscription.getNotifyingEventCount());
+        }
+
+        for (int i = 0; i < 300 && subscription.getNotifiedEventCount() < expected.size(); i++) {
+            StoppableTask.idle(100);
+        }
+
+        // merge history into main loop at next block
+        long lastBlock = startHeight + newBlocks + 1;
+        for (WeEvent event : newBlock(lastBlock)) {
+            expected.add(event.getEventId());
+        }
+        this.blockChain.setBlockHeight(lastBlock);
+        for (int i = 0; i < 300 && (subscription.getNotifiedEventCount() < expected.size() || subscription.isHistory()); i++) {
+            StoppableTask.idle(100);
+        }
+        log.info("max depth: {}, overflow: {}, demotion: {}", maxDepth, subscription.getOverflowCount(), subscription.getDemotionCount());
+
+        Assert.assertTrue(maxDepth <= 20);
+        Assert.assertTrue(subscription.getOverflowCount() > 0);
+        Assert.assertTrue(subscription.getDemotionCount() > 0);
+        // back to main loop
+        Assert.assertFalse(subscription.isHistory());
+        synchronized (received) {
+            Assert.assertEquals(expected, received);
+        }
+    }
+
+    /**
+     * overflow again and again while replaying history, the dropped events are replayed without losing
+     */
+    @Test
+    public void testOverflowInHistory() throws Exception {
+        List<String> received = new ArrayList<>();
+        IConsumer.ConsumerListener listener = new IConsumer.ConsumerListener() {
+            @Override
+            public void onEvent(String subscriptionId, WeEvent event) {
+                // slow consumer
+                StoppableTask.idle(1);
+                synchronized (received) {
+                    received.add(event.getEventId());
+                }
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                log.error("notify failed", e);
+            }
+        };
+
+        // queue is smaller than a block, every history block overflow
+        Subscription subscription = new Subscription(this.blockChain, "", new String[]{topic},
+                WeEvent.DEFAULT_GROUP_ID, WeEvent.OFFSET_FIRST, "", listener);
+        subscription.setNotifyQueueBound(eventsPerBlock / 2, 0);
+        this.mainEventLoop.addSubscription(subscription);
+        Assert.assertTrue(subscription.isHistory());
+
+        List<String> expected = new ArrayList<>();
+        for (long blockNum = 1; blockNum <= startHeight; blockNum++) {
+            for (WeEvent event : newBlock(blockNum)) {
+                expected.add(event.getEventId());
+            }
+        }
+        for (int i = 0; i < 300 && subscription.getNotifiedEventCount() < expected.size(); i++) {
+            StoppableTask.idle(100);
+        }
+        // no more repeated events
+        StoppableTask.idle(200);
+        log.info("overflow: {}, demotion: {}", subscription.getOverflowCount(), subscription.getDemotionCount());
+
+        Assert.assertTrue(subscription.getOverflowCount() >= 2);
+        // never in main loop
+        Assert.assertEquals(0, subscription.getDemotionCount());
+        synchronized (received) {
+            Assert.assertEquals(expected, received);
+        }
+    }
+
+    /**
+     * far behind block height, catch up back to back with blocks dispatched together
+     */
+    @Test
+    public void testCatchUp() throws Exception {
+        List<String> received = new ArrayList<>();
+        IConsumer.ConsumerListener listener = new IConsumer.ConsumerListener() {
+            @Override
+            public void onEvent(String subscriptionId, WeEvent event) {
+                synchronized (received) {
+                    received.add(event.getEventId());
+                }
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                log.error("notify failed", e);
+            }
+        };
+
+        Subscription subscription = new Subscription(this.blockChain, "", new String[]{topic},
+                WeEvent.DEFAULT_GROUP_ID, WeEvent.OFFSET_LAST, "", listener);
+        this.mainEventLoop.setCatchUpBatch(8);
+        this.mainEventLoop.addSubscription(subscription);
+
+        // like a long pause
+        long lag = 500;
+        List<String> expected = new ArrayList<>();
+        for (long blockNum = startHeight + 1; blockNum <= startHeight + lag; blockNum++) {
+            for (WeEvent event : newBlock(blockNum)) {
+                expected.add(event.getEventId());
+            }
+        }
+        // hold on the last block, no wait for block height is expected until then
+        this.gateBlock = startHeight + lag;
+        this.blockChain.setBlockHeight(startHeight + lag);
+        ChainHeadTracker chainHeadTracker = this.mainEventLoop.getChainHeadTracker();
+        chainHeadTracker.onNewBlock(startHeight + lag);
+        long waitCount = chainHeadTracker.getWaitCount();
+
+        Assert.assertTrue(this.gateReached.await(3, TimeUnit.SECONDS));
+        // no idle between blocks
+        Assert.assertEquals(waitCount, chainHeadTracker.getWaitCount());
+        this.gateRelease.countDown();
+
+        MainEventLoop.Stats stats = this.mainEventLoop.getStats();
+        for (int i = 0; i < 300 && (stats.getLastBlock() < startHeight + lag || stats.isCatchingUp()); i++) {
+            StoppableTask.idle(10);
+            stats = this.mainEventLoop.getStats();
+        }
+        log.info("catch up {} blocks, {}", lag, stats);
+
+        Assert.assertEquals(startHeight + lag, stats.getLastBlock());
+        Assert.assertEquals(0, stats.getLag());
+        Assert.assertFalse(stats.isCatchingUp());
+        Assert.assertEquals(1, stats.getCatchUpCount());
+        Assert.assertEquals(lag, stats.getCatchUpBlocks());
+        Assert.assertTrue(stats.getCatchUpRate() > 0);
+
+        for (int i = 0; i < 100 && subscription.getNotifiedEventCount() < expected.size(); i++) {
+            StoppableTask.idle(10);
+        }
+        synchronized (received) {
+            Assert.assertEquals(expected, received);
+        }
+    }
+}
@@ -2,7 +2,9 @@ package com.webank.weevent.broker.task;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.webank.weevent.JUnitTestBase;
 import com.webank.weevent.broker.plugin.IConsumer;
@@ -72,7 +74,7 @@ public class NotifyTaskTest extends JUnitTestBase {
     public void testPush() throws Exception {
         MyListener listener = new MyListener();
         NotifyTask notifyTask = new NotifyTask(this.subscriptionId, 1000, listener);
-        this.threadPoolTaskExecutor.execute(notifyTask);
+        notifyTask.doStart(this.threadPoolTaskExecutor);
 
         List<WeEvent> data = new ArrayList<>();
         data.add(this.newEvent("a"));
@@ -92,7 +94,7 @@ public class NotifyTaskTest extends JUnitTestBase {
     public void testPush2() throws Exception {
         MyListener listener = new MyListener();
         NotifyTask notifyTask = new NotifyTask(this.subscriptionId, 1000, listener);
-        this.threadPoolTaskExecutor.execute(notifyTask);
+        notifyTask.doStart(this.threadPoolTaskExecutor);
 
         List<WeEvent> data = new ArrayList<>();
         data.add(this.newEvent("a"));
@@ -113,7 +115,7 @@ public class NotifyTaskTest extends JUnitTestBase {
     public void testPush3() throws Exception {
         MyListener listener = new MyListener();
         NotifyTask notifyTask = new NotifyTask(this.subscriptionId, 1000, listener);
-        this.threadPoolTaskExecutor.execute(notifyTask);
+        notifyTask.doStart(this.threadPoolTaskExecutor);
 
         List<WeEvent> data1 = new ArrayList<>();
         data1.add(this.newEvent("a"));
@@ -137,7 +139,7 @@ public class NotifyTaskTest extends JUnitTestBase {
     public void testPush4() throws Exception {
         MyListener listener = new MyListener();
         NotifyTask notifyTask = new NotifyTask(this.subscriptionId, 1000, listener);
-        this.threadPoolTaskExecutor.execute(notifyTask);
+        notifyTask.doStart(this.threadPoolTaskExecutor);
 
         List<WeEvent> data1 = new ArrayList<>();
         data1.add(this.newEvent("a"));
@@ -155,4 +157,266 @@ public class NotifyTaskTest extends JUnitTestBase {
         Assert.assertEquals(subscriptionId, listener.subscriptionId);
         Assert.assertEquals(notifyTask.getNotifiedCount(), listener.received);
     }
-} 
+
+    /**
+     * events of one subscription is notified in order
+     */
+    @Test
+    public void testOrder() throws Exception {
+        List<String> received = new ArrayList<>();
+        NotifyTask notifyTask = new NotifyTask(this.subscriptionId, 1000, new IConsumer.ConsumerListener() {
+            @Override
+            public void onEvent(String subscriptionId, WeEvent event) {
+                synchronized (received) {
+                    received.add(event.getEventId());
+                }
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                Assert.fail();
+            }
+        });
+        notifyTask.doStart(this.threadPoolTaskExecutor);
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            List<WeEvent> data = new ArrayList<>();
+            for (int j = 0; j < 100; j++) {
+                String eventId = i + "-" + j;
+                data.add(this.newEvent(eventId));
+                expected.add(eventId);
+            }
+            notifyTask.push(data);
+        }
+
+        for (int i = 0; i < 30 && notifyTask.getNotifiedCount() < expected.size(); i++) {
+            Thread.sleep(100);
+        }
+        synchronized (received) {
+            Assert.assertEquals(expected, received);
+        }
+    }
+
+    /**
+     * a lot of subscriptions share a few threads
+     */
+    @Test
+    public void testManySubscriptions() throws Exception {
+        int threads = 4;
+        int subscriptionCount = 10000;
+        ThreadPoolTaskExecutor deliveryExecutor = new ThreadPoolTaskExecutor();
+        deliveryExecutor.setCorePoolSize(threads);
+        deliveryExecutor.setMaxPoolSize(threads);
+        deliveryExecutor.setQueueCapacity(Integer.MAX_VALUE);
+        deliveryExecutor.initialize();
+
+        AtomicLong received = new AtomicLong(0);
+        IConsumer.ConsumerListener listener = new IConsumer.ConsumerListener() {
+            @Override
+            public void onEvent(String subscriptionId, WeEvent event) {
+                received.incrementAndGet();
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                Assert.fail();
+            }
+        };
+
+        List<NotifyTask> notifyTasks = new ArrayList<>();
+        for (int i = 0; i < subscriptionCount; i++) {
+            NotifyTask notifyTask = new NotifyTask("subscription-" + i, 1000, listener);
+            notifyTask.doStart(deliveryExecutor);
+            notifyTasks.add(notifyTask);
+        }
+
+        long start = System.currentTimeMillis();
+        for (int round = 0; round < 10; round++) {
+            for (NotifyTask notifyTask : notifyTasks) {
+                List<WeEvent> data = new ArrayList<>();
+                data.add(this.newEvent("event-" + round));
+                notifyTask.push(data);
+            }
+        }
+
+        for (int i = 0; i < 100 && received.get() < subscriptionCount * 10; i++) {
+            Thread.sleep(100);
+        }
+        log.info("notify {} events to {} subscriptions in {} ms, threads: {}",
+                received.get(), subscriptionCount, System.currentTimeMillis() - start, deliveryExecutor.getPoolSize());
+
+        Assert.assertEquals(subscriptionCount * 10, received.get());
+        Assert.assertEquals(threads, deliveryExecutor.getPoolSize());
+        deliveryExecutor.destroy();
+    }
+
+    static class MyBatchListener implements IConsumer.ConsumerListener {
+        public final List<List<String>> batches = new ArrayList<>();
+
+        @Override
+        public void onEvent(String subscriptionId, WeEvent event) {
+            this.onEvents(subscriptionId, Collections.singletonList(event));
+        }
+
+        @Override
+        public synchronized void onEvents(String subscriptionId, List<WeEvent> events) {
+            List<String> batch = new ArrayList<>();
+            for (WeEvent event : events) {
+                batch.add(event.getEventId());
+            }
+            this.batches.add(batch);
+        }
+
+        @Override
+        public void onException(Throwable e) {
+            Assert.fail();
+        }
+    }
+
+    /**
+     * events is notified in batch, not larger than batch size and in order
+     */
+    @Test
+    public void testBatch() throws Exception {
+        MyBatchListener listener = new MyBatchListener();
+        NotifyTask notifyTask = new NotifyTask(this.subscriptionId, 1000, listener);
+        notifyTask.setBatch(10, 0);
+
+        // push before start, all the events are in queue
+        List<WeEvent> data = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 95; i++) {
+            data.add(this.newEvent("event-" + i));
+            expected.add("event-" + i);
+        }
+        notifyTask.push(data);
+        notifyTask.doStart(this.threadPoolTaskExecutor);
+
+        for (int i = 0; i < 30 && notifyTask.getNotifiedCount() < expected.size(); i++) {
+            Thread.sleep(100);
+        }
+        synchronized (listener) {
+            List<String> received = new ArrayList<>();
+            for (List<String> batch : listener.batches) {
+                Assert.assertTrue(batch.size() <= 10);
+                received.addAll(batch);
+            }
+            Assert.assertEquals(expected, received);
+            Assert.assertEquals(10, listener.batches.size());
+        }
+    }
+
+    /**
+     * listener without onEvents still receive every event by onEvent
+     */
+    @Test
+    public void testBatchDefault() throws Exception {
+        MyListener listener = new MyListener();
+        NotifyTask notifyTask = new NotifyTask(this.subscriptionId, 1000, listener);
+        notifyTask.setBatch(10, 0);
+        notifyTask.doStart(this.threadPoolTaskExecutor);
+
+        List<WeEvent> data = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            data.add(this.newEvent("event-" + i));
+        }
+        notifyTask.push(data);
+
+        for (int i = 0; i < 30 && notifyTask.getNotifiedCount() < 25; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(25, listener.received);
+        Assert.assertEquals(notifyTask.getNotifiedCount(), listener.received);
+    }
+
+    /**
+     * events pushed one by one is merged into one batch in linger time
+     */
+    @Test
+    public void testBatchLinger() throws Exception {
+        MyBatchListener listener = new MyBatchListener();
+        NotifyTask notifyTask = new NotifyTask(this.subscriptionId, 1000, listener);
+        notifyTask.setBatch(10, 500);
+        notifyTask.doStart(this.threadPoolTaskExecutor);
+
+        for (int i = 0; i < 5; i++) {
+            List<WeEvent> data = new ArrayList<>();
+            data.add(this.newEvent("event-" + i));
+            notifyTask.push(data);
+        }
+
+        for (int i = 0; i < 30 && notifyTask.getNotifiedCount() < 5; i++) {
+            Thread.sleep(100);
+        }
+        synchronized (listener) {
+            Assert.assertEquals(1, listener.batches.size());
+            Assert.assertEquals(5, listener.batches.get(0).size());
+        }
+    }
+
+    /**
+     * backlog is dropped if queue overflow, the oldest one is the replay point
+     */
+    @Test
+    public void testBound() throws Exception {
+        MyListener listener = new MyListener();
+        NotifyTask notifyTask = new NotifyTask(this.subscriptionId, 1000, listener);
+        notifyTask.setBound(10, 0);
+
+        // not started, all the events are in queue
+        List<WeEvent> data = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            data.add(this.newEvent("event-" + i));
+        }
+        Assert.assertTrue(notifyTask.push(data));
+        Assert.assertTrue(notifyTask.isBusy());
+        Assert.assertEquals(8, notifyTask.getEventQueue().size());
+        Assert.assertTrue(notifyTask.getQueuedBytes() > 0);
+
+        data.clear();
+        for (int i = 8; i < 12; i++) {
+            data.add(this.newEvent("event-" + i));
+        }
+        Assert.assertFalse(notifyTask.push(data));
+        Assert.assertEquals(0, notifyTask.getEventQueue().size());
+        Assert.assertEquals(0, notifyTask.getQueuedBytes());
+        Assert.assertEquals(1, notifyTask.getOverflowCount());
+        Assert.assertEquals("event-0", notifyTask.getOverflowEvent().getEventId());
+        Assert.assertFalse(notifyTask.isBusy());
+
+        // bounded in bytes, one event is accepted at least
+        NotifyTask notifyTask2 = new NotifyTask(this.subscriptionId, 1000, listener);
+        notifyTask2.setBound(0, 1);
+        data.clear();
+        data.add(this.newEvent("a"));
+        data.add(this.newEvent("b"));
+        Assert.assertFalse(notifyTask2.push(data));
+        Assert.assertEquals("a", notifyTask2.getOverflowEvent().getEventId());
+    }
+
+    /**
+     * accept until full without dropping the backlog, the first one not accepted is the replay point
+     */
+    @Test
+    public void testPushAvailable() throws Exception {
+        MyListener listener = new MyListener();
+        NotifyTask notifyTask = new NotifyTask(this.subscriptionId, 1000, listener);
+        notifyTask.setBound(10, 0);
+
+        List<WeEvent> data = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            data.add(this.newEvent("event-" + i));
+        }
+        Assert.assertTrue(notifyTask.pushAvailable(data));
+
+        data.clear();
+        for (int i = 8; i < 12; i++) {
+            data.add(this.newEvent("event-" + i));
+        }
+        Assert.assertFalse(notifyTask.pushAvailable(data));
+        Assert.assertEquals(10, notifyTask.getEventQueue().size());
+        Assert.assertEquals(1, notifyTask.getOverflowCount());
+        Assert.assertEquals("event-10", notifyTask.getOverflowEvent().getEventId());
+    }
+}
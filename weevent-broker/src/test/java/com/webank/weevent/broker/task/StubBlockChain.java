@@ -0,0 +1,204 @@
+package com.webank.weevent.broker.task;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongUnaryOperator;
+
+import com.webank.weevent.broker.fisco.util.DataTypeUtils;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Block chain stubbed in memory, used by the offline tests of event loops.
+ * ##### more details #####
+ * Every test set up only what it checks:
+ * blockHeight     settable, loop return null beyond it like the block not exist yet
+ * blocks          events in block, empty by default, see topicBlocks and numberedBlocks
+ * latency         rpc latency of every loop in ms, the later block may be done first if it vary with block number
+ * idleTime        10ms by default
+ * The requests are counted, by block number, by thread and in flight.
+ *
+ * @author matthewliu
+ * @since 2019/11/21
+ */
+public class StubBlockChain implements IBlockChain {
+    /**
+     * events in block, it may block the caller like a stuck rpc.
+     */
+    public interface Blocks {
+        /**
+         * @param blockNum block number, not beyond block height
+         * @param groupId group id
+         * @return events, null if the block is not ready
+         */
+        List<WeEvent> of(long blockNum, String groupId);
+    }
+
+    private final AtomicLong blockHeight;
+    private final Blocks blocks;
+
+    @Setter
+    private volatile int idleTime = 10;
+    @Setter
+    private volatile LongUnaryOperator latency = blockNum -> 0L;
+
+    // block height requests
+    private final AtomicLong blockHeightRequestCount = new AtomicLong(0);
+
+    // block number <-> times fetched
+    private final Map<Long, AtomicInteger> loopCount = new ConcurrentHashMap<>();
+
+    // thread name <-> blocks fetched in it
+    @Getter
+    private final Map<String, AtomicInteger> loopThreads = new ConcurrentHashMap<>();
+
+    // max block number requested
+    private final AtomicLong maxBlock = new AtomicLong(0);
+
+    // block requests in flight, and the max one observed
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final AtomicInteger maxInFlight = new AtomicInteger(0);
+
+    public StubBlockChain(long blockHeight) {
+        this(blockHeight, (blockNum, groupId) -> new ArrayList<>());
+    }
+
+    public StubBlockChain(long blockHeight, Blocks blocks) {
+        this.blockHeight = new AtomicLong(blockHeight);
+        this.blocks = blocks;
+    }
+
+    /**
+     * every block has some events in topic, numbered like in block chain.
+     *
+     * @param topic topic name
+     * @param eventsPerBlock events in every block
+     * @return blocks
+     */
+    public static Blocks topicBlocks(String topic, int eventsPerBlock) {
+        return (blockNum, groupId) -> newBlock(topic, blockNum, eventsPerBlock);
+    }
+
+    public static List<WeEvent> newBlock(String topic, long blockNum, int eventsPerBlock) {
+        List<WeEvent> events = new ArrayList<>();
+        for (int seq = 0; seq < eventsPerBlock; seq++) {
+            WeEvent event = new WeEvent(topic, "hello world".getBytes(StandardCharsets.UTF_8));
+            event.setEventId(DataTypeUtils.encodeEventId(topic, (int) blockNum, seq));
+            events.add(event);
+        }
+        return events;
+    }
+
+    /**
+     * eventId in blocks [from, to], in order.
+     *
+     * @param topic topic name
+     * @param eventsPerBlock events in every block
+     * @param from first block
+     * @param to last block
+     * @return eventId list
+     */
+    public static List<String> eventIds(String topic, int eventsPerBlock, long from, long to) {
+        List<String> eventIds = new ArrayList<>();
+        for (long blockNum = from; blockNum <= to; blockNum++) {
+            for (WeEvent event : newBlock(topic, blockNum, eventsPerBlock)) {
+                eventIds.add(event.getEventId());
+            }
+        }
+        return eventIds;
+    }
+
+    /**
+     * one event per block, topic is the block number, so the order is easy to check.
+     *
+     * @return blocks
+     */
+    public static Blocks numberedBlocks() {
+        return (blockNum, groupId) -> {
+            List<WeEvent> events = new ArrayList<>();
+            events.add(new WeEvent(String.valueOf(blockNum), "hello world".getBytes(StandardCharsets.UTF_8)));
+            return events;
+        };
+    }
+
+    public void setBlockHeight(long blockHeight) {
+        this.blockHeight.set(blockHeight);
+    }
+
+    public long getBlockHeight() {
+        return this.blockHeight.get();
+    }
+
+    public long getBlockHeightRequestCount() {
+        return this.blockHeightRequestCount.get();
+    }
+
+    /**
+     * @param blockNum block number
+     * @return times fetched
+     */
+    public int getLoopCount(long blockNum) {
+        AtomicInteger count = this.loopCount.get(blockNum);
+        return count == null ? 0 : count.get();
+    }
+
+    public int getLoopTotal() {
+        return this.loopCount.values().stream().mapToInt(AtomicInteger::get).sum();
+    }
+
+    public long getMaxBlock() {
+        return this.maxBlock.get();
+    }
+
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    public int getMaxInFlight() {
+        return this.maxInFlight.get();
+    }
+
+    @Override
+    public int getIdleTime() {
+        return this.idleTime;
+    }
+
+    @Override
+    public Long getBlockHeight(String groupId) {
+        this.blockHeightRequestCount.incrementAndGet();
+        return this.blockHeight.get();
+    }
+
+    @Override
+    public boolean hasBlockEventNotify() {
+        return false;
+    }
+
+    @Override
+    public List<WeEvent> loop(Long blockNum, String groupId) {
+        if (blockNum > this.blockHeight.get()) {
+            return null;
+        }
+
+        this.loopCount.computeIfAbsent(blockNum, key -> new AtomicInteger(0)).incrementAndGet();
+        this.loopThreads.computeIfAbsent(Thread.currentThread().getName(), key -> new AtomicInteger(0)).incrementAndGet();
+        this.maxBlock.accumulateAndGet(blockNum, Math::max);
+        this.maxInFlight.accumulateAndGet(this.inFlight.incrementAndGet(), Math::max);
+        try {
+            long ms = this.latency.applyAsLong(blockNum);
+            if (ms > 0) {
+                StoppableTask.idle(ms);
+            }
+            return this.blocks.of(blockNum, groupId);
+        } finally {
+            this.inFlight.decrementAndGet();
+        }
+    }
+}
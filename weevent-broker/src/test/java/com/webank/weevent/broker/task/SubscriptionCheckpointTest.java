@@ -0,0 +1,195 @@
+package com.webank.weevent.broker.task;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.webank.weevent.broker.plugin.IConsumer;
+import com.webank.weevent.sdk.EventId;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+/**
+ * SubscriptionCheckpoint Tester.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 11/12/2019
+ */
+@Slf4j
+public class SubscriptionCheckpointTest {
+    private final static String topicName = "com.weevent.test";
+    private final static String key = SubscriptionCheckpoint.key(WeEvent.DEFAULT_GROUP_ID, "durable");
+
+    @Rule
+    public TestName testName = new TestName();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String path;
+
+    @Before
+    public void before() throws Exception {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+
+        this.path = this.folder.newFolder().getAbsolutePath();
+    }
+
+    // flushed in background
+    private String awaitFlushed(String eventId) {
+        String flushed = null;
+        for (int i = 0; i < 100 && !eventId.equals(flushed); i++) {
+            StoppableTask.idle(10);
+            flushed = new SubscriptionCheckpoint(this.path, 0, 0).get(key);
+        }
+        return flushed;
+    }
+
+    /**
+     * flushed in batch and in background, loaded after restart
+     */
+    @Test
+    public void testFlush() {
+        SubscriptionCheckpoint checkpoint = new SubscriptionCheckpoint(this.path, 2, 0);
+        String eventId1 = EventId.of(topicName, 10L, 1L).toString();
+        String eventId2 = EventId.of(topicName, 11L, 1L).toString();
+        String eventId3 = EventId.of(topicName, 12L, 1L).toString();
+        checkpoint.advance(key, eventId1);
+        checkpoint.advance(key, eventId2);
+        Assert.assertEquals(eventId2, this.awaitFlushed(eventId2));
+        checkpoint.advance(key, eventId3);
+        Assert.assertEquals(eventId3, checkpoint.get(key));
+
+        // restart, the last batch is lost
+        Assert.assertEquals(eventId2, new SubscriptionCheckpoint(this.path, 2, 0).get(key));
+
+        // flushed when released
+        Assert.assertTrue(checkpoint.acquire(key));
+        checkpoint.release(key);
+        Assert.assertEquals(eventId3, new SubscriptionCheckpoint(this.path, 2, 0).get(key));
+    }
+
+    /**
+     * flushed in timer
+     */
+    @Test
+    public void testFlushTimer() throws Exception {
+        SubscriptionCheckpoint checkpoint = new SubscriptionCheckpoint(this.path, 0, 100);
+        String eventId = EventId.of(topicName, 10L, 1L).toString();
+        checkpoint.advance(key, eventId);
+
+        Thread.sleep(500);
+        Assert.assertEquals(eventId, new SubscriptionCheckpoint(this.path, 0, 0).get(key));
+    }
+
+    /**
+     * resume from checkpoint only if it's of the topics
+     */
+    @Test
+    public void testResume() {
+        SubscriptionCheckpoint checkpoint = new SubscriptionCheckpoint("", 0, 0);
+        Assert.assertEquals(WeEvent.OFFSET_LAST, checkpoint.resume(key, new String[]{topicName}, WeEvent.OFFSET_LAST));
+
+        String eventId = EventId.of(topicName, 10L, 1L).toString();
+        checkpoint.advance(key, eventId);
+        Assert.assertEquals(eventId, checkpoint.resume(key, new String[]{topicName}, WeEvent.OFFSET_LAST));
+        Assert.assertEquals(eventId, checkpoint.resume(key, new String[]{"com.weevent.other", topicName}, WeEvent.OFFSET_FIRST));
+        Assert.assertEquals(eventId, checkpoint.resume(key, new String[]{"com/weevent/#"}, WeEvent.OFFSET_FIRST));
+        Assert.assertEquals(WeEvent.OFFSET_FIRST, checkpoint.resume(key, new String[]{"com.weevent.other"}, WeEvent.OFFSET_FIRST));
+    }
+
+    /**
+     * one subscription for a durable name
+     */
+    @Test
+    public void testAcquire() {
+        SubscriptionCheckpoint checkpoint = new SubscriptionCheckpoint("", 0, 0);
+        Assert.assertTrue(checkpoint.acquire(key));
+        Assert.assertFalse(checkpoint.acquire(key));
+        Assert.assertTrue(checkpoint.acquire(SubscriptionCheckpoint.key("2", "durable")));
+
+        checkpoint.release(key);
+        Assert.assertTrue(checkpoint.acquire(key));
+
+        checkpoint.releaseAll();
+        Assert.assertTrue(checkpoint.acquire(key));
+    }
+
+    /**
+     * checkpoint not in use and not advanced in expire time is removed, also from file
+     */
+    @Test
+    public void testExpire() {
+        SubscriptionCheckpoint checkpoint = new SubscriptionCheckpoint(this.path, 0, 0, 100);
+        String activeKey = SubscriptionCheckpoint.key(WeEvent.DEFAULT_GROUP_ID, "active");
+        String eventId = EventId.of(topicName, 10L, 1L).toString();
+        checkpoint.advance(key, eventId);
+        Assert.assertTrue(checkpoint.acquire(activeKey));
+        checkpoint.advance(activeKey, eventId);
+        checkpoint.flush();
+        Assert.assertEquals(2, new SubscriptionCheckpoint(this.path, 0, 0).size());
+
+        StoppableTask.idle(200);
+        checkpoint.flush();
+        Assert.assertNull(checkpoint.get(key));
+        // the one in use is kept
+        Assert.assertEquals(eventId, checkpoint.get(activeKey));
+        SubscriptionCheckpoint restarted = new SubscriptionCheckpoint(this.path, 0, 0);
+        Assert.assertNull(restarted.get(key));
+        Assert.assertEquals(eventId, restarted.get(activeKey));
+
+        // expired after released, memory only too
+        SubscriptionCheckpoint memory = new SubscriptionCheckpoint("", 0, 0, 100);
+        Assert.assertTrue(memory.acquire(activeKey));
+        memory.advance(activeKey, eventId);
+        StoppableTask.idle(200);
+        memory.flush();
+        Assert.assertEquals(1, memory.size());
+        memory.release(activeKey);
+        Assert.assertEquals(0, memory.size());
+    }
+
+    /**
+     * the cursor is advanced by NotifyTask after notify
+     */
+    @Test
+    public void testNotify() {
+        SubscriptionCheckpoint checkpoint = new SubscriptionCheckpoint(this.path, 100, 0);
+        List<WeEvent> notified = new ArrayList<>();
+        NotifyTask notifyTask = new NotifyTask("abc", 1000, new IConsumer.ConsumerListener() {
+            @Override
+            public void onEvent(String subscriptionId, WeEvent event) {
+                notified.add(event);
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                Assert.fail();
+            }
+        });
+        notifyTask.setCheckpoint(checkpoint, key);
+        // notify in caller thread
+        notifyTask.doStart(Runnable::run);
+
+        List<WeEvent> events = new ArrayList<>();
+        for (long seq = 1; seq <= 3; seq++) {
+            WeEvent event = new WeEvent(topicName, "hello world".getBytes(StandardCharsets.UTF_8));
+            event.setEventId(EventId.of(topicName, 10L, seq).toString());
+            events.add(event);
+        }
+        notifyTask.push(events);
+
+        Assert.assertEquals(3, notified.size());
+        Assert.assertEquals(events.get(2).getEventId(), checkpoint.get(key));
+    }
+}
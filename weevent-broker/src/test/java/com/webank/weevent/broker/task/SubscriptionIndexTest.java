@@ -0,0 +1,198 @@
+package com.webank.weevent.broker.task;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.webank.weevent.JUnitTestBase;
+import com.webank.weevent.broker.plugin.IConsumer;
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * SubscriptionIndex Tester.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 10/22/2019
+ */
+@Slf4j
+public class SubscriptionIndexTest extends JUnitTestBase {
+    private final static String tag = "tag_name";
+    private final static byte[] content = "hello world".getBytes(StandardCharsets.UTF_8);
+
+    private final static IBlockChain blockChain = new StubBlockChain(1);
+
+    private final static IConsumer.ConsumerListener listener = new IConsumer.ConsumerListener() {
+        @Override
+        public void onEvent(String subscriptionId, WeEvent event) {
+        }
+
+        @Override
+        public void onException(Throwable e) {
+        }
+    };
+
+    @Before
+    public void before() {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+    }
+
+    private static Subscription newSubscription(String[] topics, String tag) throws BrokerException {
+        return new Subscription(blockChain, "", topics, WeEvent.DEFAULT_GROUP_ID, WeEvent.OFFSET_LAST, tag, listener);
+    }
+
+    private static WeEvent newEvent(String topic, String tag) {
+        Map<String, String> ext = null;
+        if (tag != null) {
+            ext = new HashMap<>();
+            ext.put(WeEvent.WeEvent_TAG, tag);
+        }
+        return new WeEvent(topic, content, ext);
+    }
+
+    /**
+     * the result of index must be the same as Subscription.filter
+     */
+    private static void assertSameAsFilter(SubscriptionIndex index, List<Subscription> subscriptions, List<WeEvent> events) {
+        Map<Subscription, List<WeEvent>> routes = index.route(events);
+        for (Subscription subscription : subscriptions) {
+            List<WeEvent> expected = new ArrayList<>();
+            // index notify event once even if it match more then one topic in subscription
+            for (WeEvent event : Subscription.filter(events, subscription.getTopics(), subscription.getTag())) {
+                if (expected.stream().noneMatch(exist -> exist == event)) {
+                    expected.add(event);
+                }
+            }
+
+            List<WeEvent> actual = routes.getOrDefault(subscription, new ArrayList<>());
+            Assert.assertEquals(subscription.toString(), expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                Assert.assertSame(expected.get(i), actual.get(i));
+            }
+        }
+    }
+
+    /**
+     * topic name, pattern and tag
+     */
+    @Test
+    public void testRoute() throws Exception {
+        String[][] topicList = {
+                {topicName},
+                {"com/weevent/test"},
+                {"com/weevent/test", "#"},
+                {"#"},
+                {"com/#"},
+                {"com/weevent/#"},
+                {"com/weevent/test/#"},
+                {"com/+"},
+                {"com/+/test"},
+                {"+/+/+"},
+                {"/+"},
+                {"+/#"},
+                {"com/#/test"},
+                {"com/weevent/"},
+        };
+
+        List<Subscription> subscriptions = new ArrayList<>();
+        SubscriptionIndex index = new SubscriptionIndex();
+        for (String[] topics : topicList) {
+            for (String subscriptionTag : new String[]{"", tag}) {
+                Subscription subscription = newSubscription(topics, subscriptionTag);
+                subscriptions.add(subscription);
+                index.add(subscription);
+            }
+        }
+        Assert.assertEquals(subscriptions.size(), index.size());
+
+        List<WeEvent> events = new ArrayList<>();
+        String[] eventTopics = {topicName, "com/weevent/test", "com/weevent", "com", "com/weevent/test/a",
+                "/com", "com/weevent/", "a/b/c", "+/#", "com/x/test"};
+        for (String topic : eventTopics) {
+            events.add(newEvent(topic, null));
+            events.add(newEvent(topic, tag));
+            events.add(newEvent(topic, "other"));
+        }
+
+        assertSameAsFilter(index, subscriptions, events);
+    }
+
+    /**
+     * removed subscription is not notified any more
+     */
+    @Test
+    public void testRemove() throws Exception {
+        SubscriptionIndex index = new SubscriptionIndex();
+        Subscription name = newSubscription(new String[]{topicName}, "");
+        Subscription pattern = newSubscription(new String[]{"com/+/test"}, tag);
+        index.add(name);
+        index.add(pattern);
+
+        List<WeEvent> events = new ArrayList<>();
+        events.add(newEvent(topicName, null));
+        events.add(newEvent("com/weevent/test", tag));
+        Assert.assertEquals(2, index.route(events).size());
+
+        index.remove(pattern);
+        Map<Subscription, List<WeEvent>> routes = index.route(events);
+        Assert.assertEquals(1, routes.size());
+        Assert.assertTrue(routes.containsKey(name));
+
+        index.remove(name);
+        Assert.assertTrue(index.isEmpty());
+        Assert.assertTrue(index.route(events).isEmpty());
+    }
+
+    /**
+     * the same as linear Subscription.filter in 10k subscriptions
+     */
+    @Test
+    public void testRouteLarge() throws Exception {
+        final int subscriptionCount = 10000;
+        final int topicCount = 1000;
+
+        List<Subscription> subscriptions = new ArrayList<>();
+        SubscriptionIndex index = new SubscriptionIndex();
+        for (int i = 0; i < subscriptionCount; i++) {
+            String[] topics;
+            switch (i % 4) {
+                case 0:
+                    topics = new String[]{"com/weevent/" + (i % topicCount)};
+                    break;
+                case 1:
+                    topics = new String[]{"com/+/" + (i % topicCount)};
+                    break;
+                case 2:
+                    topics = new String[]{"com/weevent/" + (i % topicCount) + "/#"};
+                    break;
+                default:
+                    topics = new String[]{"com/weevent/" + (i % topicCount), "com/other/" + (i % topicCount)};
+                    break;
+            }
+            Subscription subscription = newSubscription(topics, i % 10 == 0 ? tag : "");
+            subscriptions.add(subscription);
+            index.add(subscription);
+        }
+
+        // a block with 100 events
+        List<WeEvent> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            events.add(newEvent("com/weevent/" + (i * 7 % topicCount), i % 2 == 0 ? tag : null));
+        }
+
+        assertSameAsFilter(index, subscriptions, events);
+
+        // timing is compared with linear filter in weevent-benchmark, see SubscriptionBenchmark
+        Assert.assertFalse(index.route(events).isEmpty());
+    }
+}
@@ -0,0 +1,276 @@
+package com.webank.weevent.broker.task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.webank.weevent.broker.fisco.dto.SubscriptionInfo;
+import com.webank.weevent.broker.plugin.IConsumer;
+import com.webank.weevent.broker.plugin.IEventTopic;
+import com.webank.weevent.protocol.rest.entity.GroupGeneral;
+import com.webank.weevent.protocol.rest.entity.QueryEntity;
+import com.webank.weevent.protocol.rest.entity.TbBlock;
+import com.webank.weevent.protocol.rest.entity.TbNode;
+import com.webank.weevent.protocol.rest.entity.TbTransHash;
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.ErrorCode;
+import com.webank.weevent.sdk.TopicInfo;
+import com.webank.weevent.sdk.TopicPage;
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * SubscriptionManager Tester, run offline with a stubbed block chain.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 11/19/2019
+ */
+@Slf4j
+public class SubscriptionManagerTest {
+    private final static String topic = "com.weevent.test";
+    private final static String groupId = WeEvent.DEFAULT_GROUP_ID;
+    private final static String durableName = "durable";
+
+    @Rule
+    public TestName testName = new TestName();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // no new block, and no block is ready
+    private final IBlockChain blockChain = new StubBlockChain(10, (blockNum, groupId) -> null);
+
+    // only the topic exist
+    private final IEventTopic topicAdmin = new IEventTopic() {
+        @Override
+        public boolean open(String topic, String groupId) {
+            return true;
+        }
+
+        @Override
+        public boolean close(String topic, String groupId) {
+            return true;
+        }
+
+        @Override
+        public WeEvent getEvent(String eventId, String groupId) {
+            return null;
+        }
+
+        @Override
+        public boolean exist(String topicName, String groupId) {
+            return topic.equals(topicName);
+        }
+
+        @Override
+        public TopicPage list(Integer pageIndex, Integer pageSize, String groupId) {
+            return new TopicPage();
+        }
+
+        @Override
+        public TopicInfo state(String topic, String groupId) {
+            return new TopicInfo();
+        }
+
+        @Override
+        public List<String> listGroupId() {
+            return Collections.singletonList(groupId);
+        }
+
+        @Override
+        public GroupGeneral getGroupGeneral(String groupId) {
+            return new GroupGeneral();
+        }
+
+        @Override
+        public List<TbTransHash> queryTransList(QueryEntity queryEntity) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<TbBlock> queryBlockList(QueryEntity queryEntity) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<TbNode> queryNodeList(QueryEntity queryEntity) {
+            return new ArrayList<>();
+        }
+    };
+
+    private final IConsumer.ConsumerListener listener = new IConsumer.ConsumerListener() {
+        @Override
+        public void onEvent(String subscriptionId, WeEvent event) {
+            log.info("on event, subscriptionId: {} event: {}", subscriptionId, event);
+        }
+
+        @Override
+        public void onException(Throwable e) {
+            log.error("on exception", e);
+        }
+    };
+
+    private ThreadPoolTaskExecutor daemonExecutor;
+    private SubscriptionManager subscriptionManager;
+
+    @Before
+    public void before() throws Exception {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+
+        this.daemonExecutor = new ThreadPoolTaskExecutor();
+        this.daemonExecutor.setQueueCapacity(0);
+        this.daemonExecutor.setDaemon(true);
+        this.daemonExecutor.initialize();
+
+        this.subscriptionManager = new SubscriptionManager(this.topicAdmin, this.blockChain,
+                new SubscriptionCheckpoint(this.folder.newFolder().getAbsolutePath(), 1, 0));
+    }
+
+    @After
+    public void after() {
+        this.subscriptionManager.shutdown();
+        this.daemonExecutor.destroy();
+    }
+
+    private void start() throws BrokerException {
+        this.subscriptionManager.start(Collections.singletonList(groupId),
+                groupId -> new MainEventLoop(this.daemonExecutor, this.blockChain, groupId));
+    }
+
+    private static Map<IConsumer.SubscribeExt, String> durableExt() {
+        Map<IConsumer.SubscribeExt, String> ext = new HashMap<>();
+        ext.put(IConsumer.SubscribeExt.DurableName, durableName);
+        return ext;
+    }
+
+    private String subscribe(Map<IConsumer.SubscribeExt, String> ext) throws BrokerException {
+        return this.subscriptionManager.subscribe(new String[]{topic}, groupId, WeEvent.OFFSET_LAST, ext, this.listener);
+    }
+
+    @Test
+    public void testSubscribe() throws Exception {
+        this.start();
+        Assert.assertTrue(this.subscriptionManager.isStarted());
+
+        String subscriptionId = this.subscribe(new HashMap<>());
+        Map<String, Object> subscriptions = this.subscriptionManager.listSubscription(groupId);
+        Assert.assertEquals(1, subscriptions.size());
+        Assert.assertEquals(topic, ((SubscriptionInfo) subscriptions.get(subscriptionId)).getTopicName());
+        Assert.assertEquals(1, this.subscriptionManager.listEventLoopStats().size());
+
+        Assert.assertTrue(this.subscriptionManager.unSubscribe(subscriptionId));
+        Assert.assertTrue(this.subscriptionManager.listSubscription(groupId).isEmpty());
+    }
+
+    @Test
+    public void testAlreadyStarted() throws Exception {
+        this.start();
+        try {
+            this.start();
+            Assert.fail();
+        } catch (BrokerException e) {
+            Assert.assertEquals(ErrorCode.CONSUMER_ALREADY_STARTED.getCode(), e.getCode());
+        }
+    }
+
+    @Test
+    public void testTopicNotExist() throws Exception {
+        this.start();
+        try {
+            this.subscriptionManager.subscribe(new String[]{topic, "com.weevent.not.exist"}, groupId, WeEvent.OFFSET_LAST,
+                    new HashMap<>(), this.listener);
+            Assert.fail();
+        } catch (BrokerException e) {
+            Assert.assertEquals(ErrorCode.TOPIC_NOT_EXIST.getCode(), e.getCode());
+        }
+    }
+
+    @Test
+    public void testUnSubscribeNotExist() throws Exception {
+        this.start();
+        try {
+            this.subscriptionManager.unSubscribe("not exist");
+            Assert.fail();
+        } catch (BrokerException e) {
+            Assert.assertEquals(ErrorCode.SUBSCRIPTIONID_NOT_EXIST.getCode(), e.getCode());
+        }
+    }
+
+    /**
+     * durable name is exclusive, and given back after unsubscribe
+     */
+    @Test
+    public void testDurableName() throws Exception {
+        this.start();
+        String subscriptionId = this.subscribe(durableExt());
+        try {
+            this.subscribe(durableExt());
+            Assert.fail();
+        } catch (BrokerException e) {
+            Assert.assertEquals(ErrorCode.DURABLE_NAME_ALREADY_EXIST.getCode(), e.getCode());
+        }
+
+        this.subscriptionManager.unSubscribe(subscriptionId);
+        Assert.assertFalse(this.subscribe(durableExt()).isEmpty());
+    }
+
+    /**
+     * durable name is given back if subscribe failed after acquired
+     */
+    @Test
+    public void testDurableNameReleasedOnFailure() throws Exception {
+        this.start();
+        this.subscriptionManager.setCreatedBlockLookup((topics, groupId) -> {
+            throw new BrokerException(ErrorCode.UNKNOWN_ERROR);
+        });
+        try {
+            this.subscriptionManager.subscribe(new String[]{topic}, groupId, WeEvent.OFFSET_FIRST, durableExt(), this.listener);
+            Assert.fail();
+        } catch (BrokerException e) {
+            Assert.assertEquals(ErrorCode.UNKNOWN_ERROR.getCode(), e.getCode());
+        }
+
+        Assert.assertFalse(this.subscribe(durableExt()).isEmpty());
+    }
+
+    @Test
+    public void testNotStarted() throws Exception {
+        try {
+            this.subscribe(new HashMap<>());
+            Assert.fail();
+        } catch (BrokerException e) {
+            Assert.assertEquals(ErrorCode.EVENT_GROUP_ID_NOT_FOUND.getCode(), e.getCode());
+        }
+    }
+
+    /**
+     * durable names are given back after shutdown, so subscribe again after restart
+     */
+    @Test
+    public void testShutdown() throws Exception {
+        this.start();
+        this.subscribe(durableExt());
+
+        this.subscriptionManager.shutdown();
+        Assert.assertFalse(this.subscriptionManager.isStarted());
+        Assert.assertTrue(this.subscriptionManager.listEventLoopStats().isEmpty());
+
+        this.start();
+        Assert.assertTrue(this.subscriptionManager.listSubscription(groupId).isEmpty());
+        Assert.assertFalse(this.subscribe(durableExt()).isEmpty());
+    }
+}
@@ -0,0 +1,154 @@
+package com.webank.weevent.broker.task;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.webank.weevent.sdk.WeEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+/**
+ * TopicBlockIndex Tester.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 10/28/2019
+ */
+@Slf4j
+public class TopicBlockIndexTest {
+    private final static String groupId = WeEvent.DEFAULT_GROUP_ID;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String path;
+
+    @Before
+    public void before() throws Exception {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+
+        this.path = this.folder.newFolder().getAbsolutePath();
+    }
+
+    private static List<WeEvent> newBlock(String... topics) {
+        List<WeEvent> events = new ArrayList<>();
+        for (String topic : topics) {
+            events.add(new WeEvent(topic, "hello world".getBytes(StandardCharsets.UTF_8)));
+        }
+        return events;
+    }
+
+    // block 1-100 covered, "com/weevent/a" in 10, 50, "com/weevent/b" in 30
+    private static void recordBlocks(TopicBlockIndex index) {
+        for (long blockNum = 100; blockNum > 0; blockNum--) {
+            if (blockNum == 10 || blockNum == 50) {
+                index.record(blockNum, newBlock("com/weevent/a", "com/weevent/a"));
+            } else if (blockNum == 30) {
+                index.record(blockNum, newBlock("com/weevent/b"));
+            } else {
+                index.record(blockNum, newBlock());
+            }
+        }
+    }
+
+    /**
+     * jump between relevant blocks, and stop at the end of covered range
+     */
+    @Test
+    public void testNextBlock() {
+        TopicBlockIndex index = new TopicBlockIndex("", groupId);
+        Assert.assertEquals(1L, index.nextBlock(new String[]{"com/weevent/a"}, 0L).longValue());
+
+        recordBlocks(index);
+        Assert.assertTrue(index.isCovered(1L));
+        Assert.assertTrue(index.isCovered(100L));
+        Assert.assertFalse(index.isCovered(101L));
+
+        String[] topics = {"com/weevent/a"};
+        Assert.assertEquals(10L, index.nextBlock(topics, 0L).longValue());
+        Assert.assertEquals(50L, index.nextBlock(topics, 10L).longValue());
+        Assert.assertEquals(101L, index.nextBlock(topics, 50L).longValue());
+        // not covered
+        Assert.assertEquals(102L, index.nextBlock(topics, 101L).longValue());
+
+        Assert.assertEquals(30L, index.nextBlock(new String[]{"com/weevent/a", "com/weevent/b"}, 10L).longValue());
+        Assert.assertEquals(10L, index.nextBlock(new String[]{"com/+/a"}, 0L).longValue());
+        Assert.assertEquals(10L, index.nextBlock(new String[]{"com/#"}, 0L).longValue());
+        Assert.assertEquals(101L, index.nextBlock(new String[]{"not_exist"}, 0L).longValue());
+
+        // ranges is merged
+        index.record(102L, newBlock("com/weevent/a"));
+        Assert.assertEquals(101L, index.nextBlock(topics, 50L).longValue());
+        index.record(101L, newBlock());
+        Assert.assertEquals(102L, index.nextBlock(topics, 50L).longValue());
+    }
+
+    /**
+     * rebuild from index log, and the broken tail is dropped
+     */
+    @Test
+    public void testLoad() throws Exception {
+        TopicBlockIndex index = new TopicBlockIndex(this.path, groupId);
+        recordBlocks(index);
+        index.close();
+
+        // broken the last record, like crash while writing
+        File file = new File(this.path, "topic-index-" + groupId + ".log");
+        try (RandomAccessFile broken = new RandomAccessFile(file, "rw")) {
+            broken.setLength(broken.length() - 2);
+        }
+
+        index = new TopicBlockIndex(this.path, groupId);
+        // the last recorded block is 1
+        Assert.assertEquals(1L, index.nextBlock(new String[]{"com/weevent/a"}, 0L).longValue());
+        Assert.assertEquals(10L, index.nextBlock(new String[]{"com/weevent/a"}, 1L).longValue());
+        Assert.assertFalse(index.isCovered(1L));
+        Assert.assertTrue(index.isCovered(2L));
+
+        index.record(1L, newBlock());
+        index.close();
+
+        index = new TopicBlockIndex(this.path, groupId);
+        Assert.assertTrue(index.isCovered(1L));
+        Assert.assertEquals(10L, index.nextBlock(new String[]{"com/weevent/a"}, 0L).longValue());
+        index.close();
+    }
+
+    /**
+     * blocks of topic are kept sorted without duplicate, even if recorded out of order
+     */
+    @Test
+    public void testBlockList() {
+        TopicBlockIndex.BlockList blocks = new TopicBlockIndex.BlockList();
+        Assert.assertNull(blocks.ceiling(0L));
+
+        for (long blockNum = 100; blockNum > 0; blockNum -= 2) {
+            blocks.add(blockNum);
+        }
+        for (long blockNum = 1000; blockNum <= 1100; blockNum++) {
+            blocks.add(blockNum);
+        }
+        blocks.add(50L);
+        Assert.assertEquals(50 + 101, blocks.size());
+
+        Assert.assertEquals(2L, blocks.ceiling(0L).longValue());
+        Assert.assertEquals(52L, blocks.ceiling(51L).longValue());
+        Assert.assertEquals(1000L, blocks.ceiling(101L).longValue());
+        Assert.assertEquals(1100L, blocks.ceiling(1100L).longValue());
+        Assert.assertNull(blocks.ceiling(1101L));
+    }
+}
@@ -75,6 +75,10 @@ public enum ErrorCode {
 
     SUBSCRIPTIONID_ALREADY_EXIST(100507, "subscriptionId is already exist, can not subscribe again"),
 
+    DURABLE_NAME_IS_BLANK(100508, "durable subscription name is blank"),
+
+    DURABLE_NAME_ALREADY_EXIST(100509, "durable subscription name is in use, can not subscribe again"),
+
     MQTT_NO_BROKER_URL(100600, "no mqtt.broker.url configuration, can't support mqtt"),
 
     CGI_SUBSCRIPTION_NO_ZOOKEEPER(100601, "no broker.zookeeper.ip configuration, can't support CGI subscription"),
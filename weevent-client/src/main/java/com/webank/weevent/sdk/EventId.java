@@ -0,0 +1,177 @@
+package com.webank.weevent.sdk;
+
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Event id in block chain, "topicHash-seq-blockNumber", like "317e7c4c-75-32900".
+ * ##### more details #####
+ * It's immutable, parsed once and the accessors cost nothing.
+ * topicHash is the first 8 hex characters of SHA-256(topic name),
+ * it's memoized in a bounded map and the digest is reused in every thread.
+ *
+ * @author matthewliu
+ * @since 2019/11/06
+ */
+public final class EventId {
+    public static final int TOPIC_HASH_LENGTH = 8;
+    public static final char SPLIT_CHAR = '-';
+
+    // max topic names in memoized map
+    private static final int TOPIC_HASH_CACHE_SIZE = 4096;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // topic name <-> topic hash
+    private static final Map<String, String> topicHashCache = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<MessageDigest> digest = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    });
+
+    private final String topicHash;
+    private final long seq;
+    private final long blockNumber;
+
+    // original text
+    private final String text;
+
+    private EventId(String topicHash, long seq, long blockNumber, String text) {
+        this.topicHash = topicHash;
+        this.seq = seq;
+        this.blockNumber = blockNumber;
+        this.text = text;
+    }
+
+    /**
+     * build event id.
+     *
+     * @param topicName topic name
+     * @param blockNumber block number
+     * @param seq sequence of event in topic
+     * @return EventId
+     */
+    public static EventId of(String topicName, long blockNumber, long seq) {
+        String topicHash = topicHash(topicName);
+        return new EventId(topicHash, seq, blockNumber, topicHash + SPLIT_CHAR + seq + SPLIT_CHAR + blockNumber);
+    }
+
+    /**
+     * parse event id.
+     *
+     * @param eventId event id
+     * @return EventId
+     * @throws BrokerException EVENT_ID_IS_ILLEGAL if not in format "topicHash-seq-blockNumber"
+     */
+    public static EventId parse(String eventId) throws BrokerException {
+        if (eventId == null || eventId.length() < TOPIC_HASH_LENGTH + 4 || eventId.charAt(TOPIC_HASH_LENGTH) != SPLIT_CHAR) {
+            throw new BrokerException(ErrorCode.EVENT_ID_IS_ILLEGAL);
+        }
+
+        int split = eventId.indexOf(SPLIT_CHAR, TOPIC_HASH_LENGTH + 1);
+        if (split < 0 || eventId.indexOf(SPLIT_CHAR, split + 1) >= 0) {
+            throw new BrokerException(ErrorCode.EVENT_ID_IS_ILLEGAL);
+        }
+
+        long seq = parseNumber(eventId, TOPIC_HASH_LENGTH + 1, split);
+        long blockNumber = parseNumber(eventId, split + 1, eventId.length());
+        return new EventId(eventId.substring(0, TOPIC_HASH_LENGTH), seq, blockNumber, eventId);
+    }
+
+    /**
+     * first 8 hex characters of SHA-256(topic name).
+     *
+     * @param topicName topic name
+     * @return topic hash
+     */
+    public static String topicHash(String topicName) {
+        String topicHash = topicHashCache.get(topicName);
+        if (topicHash == null) {
+            byte[] hash = digest.get().digest(topicName.getBytes(StandardCharsets.UTF_8));
+            char[] chars = new char[TOPIC_HASH_LENGTH];
+            for (int i = 0; i < TOPIC_HASH_LENGTH / 2; i++) {
+                chars[i * 2] = HEX[(hash[i] >> 4) & 0x0F];
+                chars[i * 2 + 1] = HEX[hash[i] & 0x0F];
+            }
+            topicHash = new String(chars);
+
+            // too many topic, just drop all
+            if (topicHashCache.size() >= TOPIC_HASH_CACHE_SIZE) {
+                topicHashCache.clear();
+            }
+            topicHashCache.put(topicName, topicHash);
+        }
+        return topicHash;
+    }
+
+    public String getTopicHash() {
+        return this.topicHash;
+    }
+
+    public long getSeq() {
+        return this.seq;
+    }
+
+    public long getBlockNumber() {
+        return this.blockNumber;
+    }
+
+    /**
+     * check if event id belong to the topic.
+     *
+     * @param topicName topic name
+     * @return true if yes
+     */
+    public boolean isTopic(String topicName) {
+        return this.topicHash.equals(topicHash(topicName));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof EventId)) {
+            return false;
+        }
+        EventId eventId = (EventId) o;
+        return this.seq == eventId.seq
+                && this.blockNumber == eventId.blockNumber
+                && this.topicHash.equals(eventId.topicHash);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * this.topicHash.hashCode() + Long.hashCode(this.seq)) + Long.hashCode(this.blockNumber);
+    }
+
+    @Override
+    public String toString() {
+        return this.text;
+    }
+
+    // decimal number
+    private static long parseNumber(String value, int from, int to) throws BrokerException {
+        if (from >= to || to - from > 18) {
+            throw new BrokerException(ErrorCode.EVENT_ID_IS_ILLEGAL);
+        }
+
+        long number = 0;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new BrokerException(ErrorCode.EVENT_ID_IS_ILLEGAL);
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+}
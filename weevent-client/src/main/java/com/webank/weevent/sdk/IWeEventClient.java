@@ -121,6 +121,31 @@ public interface IWeEventClient {
      */
     String subscribe(String[] topics, String offset, String subscriptionId, @NonNull EventListener listener) throws BrokerException;
 
+    /**
+     * Durable subscribe events from topic, the broker keep the last notified event of this name.
+     * Subscribe with the same name again will resume from it, the offset only work in the first time.
+     *
+     * @param topic topic name
+     * @param offset from next event after this offset(an event id), WeEvent.OFFSET_FIRST if from head of queue, WeEvent.OFFSET_LAST if from tail of queue
+     * @param durableName durable subscription name
+     * @param listener callback
+     * @return subscription Id
+     * @throws BrokerException invalid input param
+     */
+    String subscribeDurable(String topic, String offset, String durableName, @NonNull EventListener listener) throws BrokerException;
+
+    /**
+     * Durable subscribe events from multiple topic.
+     *
+     * @param topics topic list
+     * @param offset from next event after this offset(an event id), WeEvent.OFFSET_FIRST if from head of queue, WeEvent.OFFSET_LAST if from tail of queue
+     * @param durableName durable subscription name
+     * @param listener callback
+     * @return subscription Id
+     * @throws BrokerException invalid input param
+     */
+    String subscribeDurable(String[] topics, String offset, String durableName, @NonNull EventListener listener) throws BrokerException;
+
     /**
      * Open a topic
      *
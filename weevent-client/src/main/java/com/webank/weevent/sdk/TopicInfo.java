@@ -37,10 +37,15 @@ public class TopicInfo {
     private Long sequenceNumber;
 
     /**
-     * block number.
+     * block number of the last publish, same as lastBlock.
      */
     private Long blockNumber;
 
+    /**
+     * block number where the topic created, null if not supported(FISCO-BCOS 1.x).
+     */
+    private Long createdBlock;
+
     /**
      * last publish time.
      */
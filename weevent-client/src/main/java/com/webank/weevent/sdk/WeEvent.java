@@ -43,6 +43,14 @@ public class WeEvent implements Serializable {
     public static final String WeEvent_FORMAT = "weevent-format";
     public static final String WeEvent_SubscriptionId = "weevent-subscriptionId";
     public static final String WeEvent_TAG = "weevent-tag";
+    public static final String WeEvent_DurableName = "weevent-durableName";
+
+    /**
+     * latency stamps in epoch milliseconds, stamped by broker while publishing and committed into block.
+     * A subscriber can compute it's end to end latency with the local time in ConsumerListener.onEvent.
+     */
+    public static final String WeEvent_PublishTime = "weevent-publishTime";
+    public static final String WeEvent_CommitTime = "weevent-commitTime";
 
     /**
      * Binding topic, like "com.weevent.test".
@@ -169,31 +169,46 @@ public class WeEventClient implements IWeEventClient {
     @Override
     public String subscribe(String topic, String offset, @NonNull EventListener listener) throws BrokerException {
 
-        return dealSubscribe(topic, offset, null, listener);
+        return dealSubscribe(topic, offset, null, null, listener);
     }
 
     @Override
     public String subscribe(String topic, String offset, String subscriptionId,
                             @NonNull EventListener listener) throws BrokerException {
 
-        return dealSubscribe(topic, offset, subscriptionId, listener);
+        return dealSubscribe(topic, offset, subscriptionId, null, listener);
     }
 
     @Override
     public String subscribe(String[] topics, String offset, @NonNull EventListener listener) throws BrokerException {
 
         String topic = StringUtils.join(topics,WeEvent.MULTIPLE_TOPIC_SEPARATOR);
-        return dealSubscribe(topic, offset, "", listener);
+        return dealSubscribe(topic, offset, "", null, listener);
     }
 
     @Override
     public String subscribe(String[] topics, String offset, String subscriptionId,
                             @NonNull EventListener listener) throws BrokerException {
         String topic = StringUtils.join(topics,WeEvent.MULTIPLE_TOPIC_SEPARATOR);
-        return dealSubscribe(topic, offset, subscriptionId, listener);
+        return dealSubscribe(topic, offset, subscriptionId, null, listener);
     }
 
-    private String dealSubscribe(String topic,String offset, String subscriptionId,EventListener listener) throws BrokerException {
+    @Override
+    public String subscribeDurable(String topic, String offset, String durableName,
+                                   @NonNull EventListener listener) throws BrokerException {
+        validateParam(durableName);
+        return dealSubscribe(topic, offset, null, durableName, listener);
+    }
+
+    @Override
+    public String subscribeDurable(String[] topics, String offset, String durableName,
+                                   @NonNull EventListener listener) throws BrokerException {
+        validateParam(durableName);
+        String topic = StringUtils.join(topics,WeEvent.MULTIPLE_TOPIC_SEPARATOR);
+        return dealSubscribe(topic, offset, null, durableName, listener);
+    }
+
+    private String dealSubscribe(String topic, String offset, String subscriptionId, String durableName, EventListener listener) throws BrokerException {
         try {
             validateParam(topic);
             validateParam(offset);
@@ -207,7 +222,12 @@ public class WeEventClient implements IWeEventClient {
             if (!StringUtils.isBlank(subscriptionId)) {
                 ((WeEventTopic) destination).setContinueSubscriptionId(subscriptionId);
             }
-            WeEventTopicSubscriber subscriber = (WeEventTopicSubscriber) session.createSubscriber(destination);
+            WeEventTopicSubscriber subscriber;
+            if (StringUtils.isBlank(durableName)) {
+                subscriber = (WeEventTopicSubscriber) session.createSubscriber(destination);
+            } else {
+                subscriber = (WeEventTopicSubscriber) session.createDurableSubscriber(destination, durableName);
+            }
 
             // create listener
             subscriber.setMessageListener(new MessageListener() {
@@ -86,6 +86,9 @@ public class WeEventStompCommand {
         if (!StringUtils.isBlank(topic.getContinueSubscriptionId())) {
             accessor.setNativeHeader(WeEvent.WeEvent_SubscriptionId, topic.getContinueSubscriptionId());
         }
+        if (!StringUtils.isBlank(topic.getDurableName())) {
+            accessor.setNativeHeader(WeEvent.WeEvent_DurableName, topic.getDurableName());
+        }
         return encodeRaw(accessor);
     }
 
@@ -98,6 +101,9 @@ public class WeEventStompCommand {
             accessor.setNativeHeader("groupId", topic.getGroupId());
         }
         accessor.setNativeHeader(WeEvent.WeEvent_SubscriptionId, continueSubscriptionId);
+        if (!StringUtils.isBlank(topic.getDurableName())) {
+            accessor.setNativeHeader(WeEvent.WeEvent_DurableName, topic.getDurableName());
+        }
         return encodeRaw(accessor);
     }
 
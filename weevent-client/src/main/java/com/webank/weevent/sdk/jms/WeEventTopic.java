@@ -15,6 +15,7 @@ public class WeEventTopic implements Topic {
     private String offset;
     private String groupId;
     private String continueSubscriptionId;
+    private String durableName;
 
     public String getGroupId() {
         return groupId;
@@ -44,6 +45,14 @@ public class WeEventTopic implements Topic {
         this.continueSubscriptionId = continueSubscriptionId;
     }
 
+    public String getDurableName() {
+        return durableName;
+    }
+
+    public void setDurableName(String durableName) {
+        this.durableName = durableName;
+    }
+
     @Override
     public String getTopicName() throws JMSException {
         return this.topicName;
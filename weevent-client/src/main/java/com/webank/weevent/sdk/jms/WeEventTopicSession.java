@@ -78,6 +78,11 @@ public class WeEventTopicSession implements TopicSession {
 
     @Override
     public TopicSubscriber createDurableSubscriber(Topic topic, String s) throws JMSException {
+        if (topic instanceof WeEventTopic) {
+            ((WeEventTopic) topic).setDurableName(s);
+            return this.createSubscriber(topic);
+        }
+
         throw new JMSException(WeEventConnectionFactory.NotSupportTips);
     }
 
@@ -0,0 +1,89 @@
+package com.webank.weevent.client.sdk;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import com.webank.weevent.sdk.BrokerException;
+import com.webank.weevent.sdk.ErrorCode;
+import com.webank.weevent.sdk.EventId;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * EventId Tester.
+ *
+ * @author matthewliu
+ * @version 1.0
+ * @since 11/06/2019
+ */
+@Slf4j
+public class EventIdTest {
+    private final static String topic = "com.weevent.test";
+
+    @Rule
+    public TestName testName = new TestName();
+
+    @Before
+    public void before() {
+        log.info("=============================={}.{}==============================",
+                this.getClass().getSimpleName(),
+                this.testName.getMethodName());
+    }
+
+    /**
+     * the old implement, split and digest in every call
+     */
+    private static String legacyTopicHash(String topicName) throws Exception {
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+        byte[] hash = messageDigest.digest(topicName.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder();
+        for (byte b : hash) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.substring(0, EventId.TOPIC_HASH_LENGTH);
+    }
+
+    @Test
+    public void testOf() throws Exception {
+        EventId eventId = EventId.of(topic, 32900, 75);
+        Assert.assertEquals(legacyTopicHash(topic), eventId.getTopicHash());
+        Assert.assertEquals(legacyTopicHash(topic) + "-75-32900", eventId.toString());
+        Assert.assertEquals(75, eventId.getSeq());
+        Assert.assertEquals(32900, eventId.getBlockNumber());
+        Assert.assertTrue(eventId.isTopic(topic));
+        Assert.assertFalse(eventId.isTopic("com.weevent.other"));
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        EventId eventId = EventId.of(topic, 32900, 75);
+        EventId parsed = EventId.parse(eventId.toString());
+        Assert.assertEquals(eventId, parsed);
+        Assert.assertEquals(eventId.hashCode(), parsed.hashCode());
+        Assert.assertEquals(eventId.toString(), parsed.toString());
+        Assert.assertNotEquals(eventId, EventId.of(topic, 32900, 76));
+        Assert.assertNotEquals(eventId, EventId.of(topic, 32901, 75));
+        Assert.assertNotEquals(eventId, EventId.of("com.weevent.other", 32900, 75));
+    }
+
+    @Test
+    public void testIllegal() {
+        String topicHash = EventId.topicHash(topic);
+        String[] illegals = new String[]{null, "", "a", "317e7c4c", "317e7c4c-1", "317e7c4c1-2-3",
+                topicHash + "-x-1", topicHash + "-1-", topicHash + "--1", topicHash + "-1-2-3",
+                topicHash + "-1-1234567890123456789"};
+        for (String illegal : illegals) {
+            try {
+                EventId.parse(illegal);
+                Assert.fail("illegal eventId: " + illegal);
+            } catch (BrokerException e) {
+                Assert.assertEquals(ErrorCode.EVENT_ID_IS_ILLEGAL.getCode(), e.getCode());
+            }
+        }
+    }
+}